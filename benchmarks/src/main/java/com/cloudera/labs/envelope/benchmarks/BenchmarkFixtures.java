@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.benchmarks;
+
+import com.cloudera.labs.envelope.component.ComponentFactory;
+import com.cloudera.labs.envelope.examples.FIXInput;
+import com.cloudera.labs.envelope.spark.Contexts;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.cloudera.labs.envelope.translate.ProtobufSingleMessage;
+import com.cloudera.labs.envelope.translate.TestingMessageFactory;
+import com.cloudera.labs.envelope.translate.Translator;
+import com.cloudera.labs.envelope.utils.ConfigUtils;
+import com.cloudera.labs.envelope.utils.RowUtils;
+import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.StructType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * The data and component configurations shared by the benchmarks. The records are generated by
+ * the FIX example generator and the Protobuf test messages of envelope-lib, so that results can
+ * be compared across releases.
+ */
+public class BenchmarkFixtures {
+
+  public static final String CONFIG_RESOURCE = "/benchmarks/fix.conf";
+  public static final String AVRO_SCHEMA_RESOURCE = "/benchmarks/fix.avsc";
+  public static final String PROTOBUF_DESCRIPTOR_RESOURCE = "/protobuf/protobuf_single_message.desc";
+
+  public static final String FIX_FIELD_NAME = "fix";
+  public static final String EXECUTION_REPORT_MESSAGE_TYPE = "8";
+
+  public static Config getConfig() {
+    return ConfigUtils.configFromResource(CONFIG_RESOURCE);
+  }
+
+  /**
+   * Generate the FIX messages of the given number of orders, i.e. a new order single message
+   * followed by the execution reports of each order.
+   */
+  public static List<String> generateFIXMessages(long orders) throws Exception {
+    Config config = ConfigFactory.empty()
+        .withValue("tasks", ConfigValueFactory.fromAnyRef(1))
+        .withValue("orders.per.task", ConfigValueFactory.fromAnyRef(orders));
+
+    FIXInput input = new FIXInput();
+    input.configure(config);
+
+    List<String> messages = Lists.newArrayList();
+    try {
+      for (Row row : input.read().collectAsList()) {
+        messages.add(row.<String>getAs(FIX_FIELD_NAME));
+      }
+    }
+    finally {
+      // The benchmarks themselves do not run on Spark
+      Contexts.closeSparkSession();
+    }
+
+    return messages;
+  }
+
+  /**
+   * Translate the FIX messages with the key-value pair translator of the FIX example, and name
+   * the fields after the FIX tags, e.g. 'clordid' for tag 11.
+   */
+  public static List<Row> translateFIXMessages(List<String> messages) throws Exception {
+    Translator translator = createTranslator("kvp");
+    StructType namedSchema = createTranslator("delimited").getProvidingSchema();
+
+    List<Row> rows = Lists.newArrayList();
+    for (String message : messages) {
+      for (Row translated : translator.translate(message(message, translator.getExpectingSchema()))) {
+        rows.add(new RowWithSchema(namedSchema, RowUtils.valuesFor(translated)));
+      }
+    }
+
+    return rows;
+  }
+
+  /**
+   * Keep only the execution reports of the translated FIX messages.
+   */
+  public static List<Row> executionReports(List<Row> rows) {
+    List<Row> executionReports = Lists.newArrayList();
+    for (Row row : rows) {
+      if (EXECUTION_REPORT_MESSAGE_TYPE.equals(row.getAs("msgtype"))) {
+        executionReports.add(row);
+      }
+    }
+
+    return executionReports;
+  }
+
+  public static Config getTranslatorConfig(String name) throws IOException {
+    Config config = getConfig().getConfig("translators." + name);
+
+    switch (name) {
+      case "avro":
+        config = config.withValue("schema.filepath",
+            ConfigValueFactory.fromAnyRef(resourceAsFile(AVRO_SCHEMA_RESOURCE)));
+        break;
+      case "protobuf":
+        config = config.withValue("schema.descriptor.filepath",
+            ConfigValueFactory.fromAnyRef(resourceAsFile(PROTOBUF_DESCRIPTOR_RESOURCE)));
+        break;
+    }
+
+    return config;
+  }
+
+  public static Translator createTranslator(String name) throws IOException {
+    return ComponentFactory.create(Translator.class, getTranslatorConfig(name), true);
+  }
+
+  /**
+   * Create a raw message, as an input would provide to a translator.
+   */
+  public static Row message(Object value, StructType expectingSchema) {
+    DataType valueType = expectingSchema.fields()[expectingSchema.fieldIndex(Translator.VALUE_FIELD_NAME)].dataType();
+
+    return TestingMessageFactory.get(value, valueType);
+  }
+
+  /**
+   * A fully populated message of the Protobuf single message test example.
+   */
+  public static byte[] protobufSingleMessage() {
+    return ProtobufSingleMessage.SingleExample.newBuilder()
+        .setString("single message")
+        .setDouble(1.1D)
+        .setFloat(1.1F)
+        .setInt32(2)
+        .setInt64(2L)
+        .setUint32(3)
+        .setUint64(3L)
+        .setSint32(4)
+        .setSint64(4L)
+        .setFixed32(5)
+        .setFixed64(5L)
+        .setSfixed32(6)
+        .setSfixed64(6L)
+        .setBoolean(true)
+        .setBytes(ByteString.copyFrom("test".getBytes()))
+        .setEnum(ProtobufSingleMessage.SingleExample.EnumExample.TWO)
+        .setNested(ProtobufSingleMessage.SingleExample.NestedExample.newBuilder()
+            .setNested("nested message").build())
+        .putMapInt("one", 1)
+        .addRepeatingMessage(ProtobufSingleMessage.SingleExample.NestedExample.newBuilder()
+            .setNested("nested repeating message"))
+        .addRepeatingInt32(7)
+        .addRepeatingEnum(ProtobufSingleMessage.SingleExample.EnumExample.THREE)
+        .setOneofString("oneof string")
+        .build()
+        .toByteArray();
+  }
+
+  /**
+   * Copy a classpath resource to a local file, for the components that are configured with a
+   * file path.
+   */
+  public static String resourceAsFile(String resource) throws IOException {
+    String suffix = resource.substring(resource.lastIndexOf('.'));
+    File file = File.createTempFile("envelope-benchmarks-", suffix);
+    file.deleteOnExit();
+
+    try (InputStream in = BenchmarkFixtures.class.getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new RuntimeException("Benchmark resource not found: " + resource);
+      }
+      Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    return file.getAbsolutePath();
+  }
+
+}
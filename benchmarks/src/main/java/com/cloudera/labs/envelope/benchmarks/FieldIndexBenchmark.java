@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.benchmarks;
+
+import com.cloudera.labs.envelope.spark.FieldIndexes;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.google.common.collect.Lists;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ways a step can access the values of a row by field name: resolving the
+ * index from the schema (the previous behavior of RowWithSchema), resolving it from the
+ * shared per-schema index map of RowWithSchema, and resolving the indexes once up front.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FieldIndexBenchmark {
+
+  @Param({"5", "50"})
+  public int numFields;
+
+  private StructType schema;
+  private Row row;
+  private String[] accessedFieldNames;
+  private FieldIndexes fieldIndexes;
+
+  @Setup
+  public void setup() {
+    List<StructField> fields = Lists.newArrayList();
+    Object[] values = new Object[numFields];
+    for (int i = 0; i < numFields; i++) {
+      fields.add(DataTypes.createStructField("field" + i, DataTypes.StringType, true));
+      values[i] = "value" + i;
+    }
+    schema = DataTypes.createStructType(fields);
+    row = new RowWithSchema(schema, values);
+
+    // Access the last few fields, as a planner would for its key and value fields
+    List<String> accessed = Lists.newArrayList();
+    for (int i = Math.max(0, numFields - 4); i < numFields; i++) {
+      accessed.add("field" + i);
+    }
+    accessedFieldNames = accessed.toArray(new String[accessed.size()]);
+    fieldIndexes = new FieldIndexes(accessed);
+  }
+
+  @Benchmark
+  public void schemaFieldIndex(Blackhole blackhole) {
+    for (String fieldName : accessedFieldNames) {
+      blackhole.consume(row.get(row.schema().fieldIndex(fieldName)));
+    }
+  }
+
+  @Benchmark
+  public void rowFieldIndex(Blackhole blackhole) {
+    for (String fieldName : accessedFieldNames) {
+      blackhole.consume(row.get(row.fieldIndex(fieldName)));
+    }
+  }
+
+  @Benchmark
+  public void rowGetAsByName(Blackhole blackhole) {
+    for (String fieldName : accessedFieldNames) {
+      blackhole.consume(row.<String>getAs(fieldName));
+    }
+  }
+
+  @Benchmark
+  public void resolvedFieldIndexes(Blackhole blackhole) {
+    for (int fieldIndex : fieldIndexes.forSchema(row.schema())) {
+      blackhole.consume(row.get(fieldIndex));
+    }
+  }
+
+}
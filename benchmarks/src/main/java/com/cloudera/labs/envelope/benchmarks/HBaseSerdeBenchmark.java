@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.benchmarks;
+
+import com.cloudera.labs.envelope.hbase.DefaultHBaseSerde;
+import com.cloudera.labs.envelope.hbase.HBaseSerde;
+import com.cloudera.labs.envelope.utils.RowUtils;
+import com.google.common.collect.Lists;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversions of the default HBase serde between rows and HBase puts, gets and
+ * results, for the execution reports of the generated FIX messages. The serde is compared with
+ * its previous implementation, which dispatched on the column types by name for every row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HBaseSerdeBenchmark {
+
+  @Param({"100"})
+  public long orders;
+
+  @Param({"compiled", "interpreted"})
+  public String implementation;
+
+  private HBaseSerde serde;
+  private List<Row> rows;
+  private List<Row> keys;
+  private List<Result> results;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    serde = implementation.equals("compiled") ?
+        new DefaultHBaseSerde() : new InterpretedHBaseSerde();
+    serde.configure(BenchmarkFixtures.getConfig().getConfig("hbase"));
+
+    List<Row> executionReports = BenchmarkFixtures.executionReports(
+        BenchmarkFixtures.translateFIXMessages(BenchmarkFixtures.generateFIXMessages(orders)));
+
+    StructType schema = executionReports.get(0).schema();
+    StructType rowSchema = DataTypes.createStructType(Lists.newArrayList(
+        schema.apply("symbol"), schema.apply("transacttime"), schema.apply("clordid"),
+        schema.apply("execid"), schema.apply("ordstatus"), schema.apply("leavesqty"),
+        schema.apply("cumqty"), schema.apply("avgpx")));
+    StructType keySchema = DataTypes.createStructType(Lists.newArrayList(
+        schema.apply("symbol"), schema.apply("transacttime")));
+
+    rows = Lists.newArrayList();
+    keys = Lists.newArrayList();
+    results = Lists.newArrayList();
+    for (Row executionReport : executionReports) {
+      Row row = RowUtils.subsetRow(executionReport, rowSchema);
+      rows.add(row);
+      keys.add(RowUtils.subsetRow(executionReport, keySchema));
+
+      // The result that HBase would return for the row
+      Put put = serde.convertToPut(row);
+      List<Cell> cells = Lists.newArrayList();
+      for (List<Cell> familyCells : put.getFamilyCellMap().values()) {
+        cells.addAll(familyCells);
+      }
+      results.add(Result.create(cells));
+    }
+  }
+
+  private int nextIndex() {
+    int index = next;
+    next = (next + 1) % rows.size();
+
+    return index;
+  }
+
+  @Benchmark
+  public Object convertToPut() {
+    return serde.convertToPut(rows.get(nextIndex()));
+  }
+
+  @Benchmark
+  public Object convertToQuery() {
+    return serde.convertToQuery(keys.get(nextIndex()));
+  }
+
+  @Benchmark
+  public Row convertFromResult() {
+    return serde.convertFromResult(results.get(nextIndex()));
+  }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.benchmarks;
+
+import com.cloudera.labs.envelope.component.ComponentFactory;
+import com.cloudera.labs.envelope.plan.RandomPlanner;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.cloudera.labs.envelope.utils.PlannerUtils;
+import com.cloudera.labs.envelope.utils.RowUtils;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the planning of a single key by the history planners. Each key is a generated FIX
+ * order: the history of its first execution reports exists in the output, and its remaining
+ * execution reports arrive.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryPlannerBenchmark {
+
+  @Param({"eventtimehistory", "bitemporal"})
+  public String plannerType;
+
+  @Param({"100"})
+  public long orders;
+
+  private RandomPlanner planner;
+  private List<Row> keys;
+  private List<List<Row>> arriving;
+  private List<List<Row>> existing;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    planner = ComponentFactory.create(RandomPlanner.class,
+        BenchmarkFixtures.getConfig().getConfig("planners." + plannerType), true);
+
+    List<Row> executionReports = BenchmarkFixtures.executionReports(
+        BenchmarkFixtures.translateFIXMessages(BenchmarkFixtures.generateFIXMessages(orders)));
+
+    StructType schema = executionReports.get(0).schema();
+    StructType keySchema = DataTypes.createStructType(Lists.newArrayList(schema.apply("clordid")));
+    StructType arrivingSchema = DataTypes.createStructType(Lists.newArrayList(
+        schema.apply("clordid"), schema.apply("ordstatus"), schema.apply("leavesqty"),
+        schema.apply("cumqty"), schema.apply("transacttime")));
+
+    Map<String, List<Row>> reportsByOrder = Maps.newLinkedHashMap();
+    for (Row executionReport : executionReports) {
+      String clordid = executionReport.getAs("clordid");
+      if (!reportsByOrder.containsKey(clordid)) {
+        reportsByOrder.put(clordid, Lists.<Row>newArrayList());
+      }
+      reportsByOrder.get(clordid).add(RowUtils.subsetRow(executionReport, arrivingSchema));
+    }
+
+    keys = Lists.newArrayList();
+    arriving = Lists.newArrayList();
+    existing = Lists.newArrayList();
+    for (Map.Entry<String, List<Row>> order : reportsByOrder.entrySet()) {
+      List<Row> reports = order.getValue();
+      if (reports.size() < 2) {
+        continue;
+      }
+      Row key = new RowWithSchema(keySchema, order.getKey());
+      List<Row> earlierReports = reports.subList(0, reports.size() / 2);
+      List<Row> laterReports = reports.subList(reports.size() / 2, reports.size());
+
+      List<Row> history = Lists.newArrayList();
+      for (Row planned : planner.planMutationsForKey(key, earlierReports, Collections.<Row>emptyList())) {
+        history.add(PlannerUtils.removeMutationTypeField(planned));
+      }
+
+      keys.add(key);
+      arriving.add(Lists.newArrayList(laterReports));
+      existing.add(history);
+    }
+  }
+
+  @Benchmark
+  public List<Row> planMutationsForKey() {
+    int index = next;
+    next = (next + 1) % keys.size();
+
+    return planner.planMutationsForKey(keys.get(index), arriving.get(index), existing.get(index));
+  }
+
+}
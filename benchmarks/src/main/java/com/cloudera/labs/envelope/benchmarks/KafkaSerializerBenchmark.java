@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.benchmarks;
+
+import com.cloudera.labs.envelope.kafka.serde.AvroSerializer;
+import com.cloudera.labs.envelope.kafka.serde.DelimitedSerializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.spark.sql.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of a single translated FIX message by the Kafka output serializers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KafkaSerializerBenchmark {
+
+  private static final String TOPIC = "fix";
+
+  @Param({"avro", "delimited"})
+  public String serializerType;
+
+  @Param({"100"})
+  public long orders;
+
+  private Serializer<Row> serializer;
+  private List<Row> rows;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    switch (serializerType) {
+      case "avro":
+        serializer = new AvroSerializer();
+        serializer.configure(Collections.singletonMap(AvroSerializer.SCHEMA_PATH_CONFIG_NAME,
+            BenchmarkFixtures.resourceAsFile(BenchmarkFixtures.AVRO_SCHEMA_RESOURCE)), false);
+        break;
+      case "delimited":
+        serializer = new DelimitedSerializer();
+        serializer.configure(
+            Collections.singletonMap(DelimitedSerializer.FIELD_DELIMITER_CONFIG_NAME, ","), false);
+        break;
+      default:
+        throw new RuntimeException("Unknown serializer type: " + serializerType);
+    }
+
+    rows = BenchmarkFixtures.translateFIXMessages(BenchmarkFixtures.generateFIXMessages(orders));
+  }
+
+  @TearDown
+  public void tearDown() {
+    serializer.close();
+  }
+
+  @Benchmark
+  public byte[] serialize() {
+    Row row = rows.get(next);
+    next = (next + 1) % rows.size();
+
+    return serializer.serialize(TOPIC, row);
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.benchmarks;
+
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.cloudera.labs.envelope.utils.RowUtils;
+import com.google.common.collect.Lists;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the row utilities that are called for every record: the conversion of the string
+ * values of a FIX message to the types of the translated schema, the appending of fields, and
+ * the subsetting of a row to a narrower schema.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RowUtilsBenchmark {
+
+  @Param({"100"})
+  public long orders;
+
+  private List<String[]> stringValues;
+  private DataType[] dataTypes;
+  private List<Row> rows;
+  private Row appendRow;
+  private StructType subsetSchema;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    List<String> fixMessages = BenchmarkFixtures.generateFIXMessages(orders);
+    rows = BenchmarkFixtures.translateFIXMessages(fixMessages);
+
+    // The string values of the messages in the order of the translated schema, as the
+    // key-value pair translator would convert them
+    StructType schema = rows.get(0).schema();
+    dataTypes = new DataType[schema.length()];
+    for (int i = 0; i < dataTypes.length; i++) {
+      dataTypes[i] = schema.fields()[i].dataType();
+    }
+    stringValues = Lists.newArrayList();
+    for (Row row : rows) {
+      String[] values = new String[row.length()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = row.isNullAt(i) ? null : row.get(i).toString();
+      }
+      stringValues.add(values);
+    }
+
+    StructType appendSchema = DataTypes.createStructType(Lists.newArrayList(
+        DataTypes.createStructField("_ingest_time", DataTypes.LongType, false),
+        DataTypes.createStructField("_source", DataTypes.StringType, true)));
+    appendRow = new RowWithSchema(appendSchema, System.currentTimeMillis(), "fix");
+
+    subsetSchema = DataTypes.createStructType(Lists.newArrayList(
+        schema.apply("clordid"), schema.apply("ordstatus"), schema.apply("leavesqty"),
+        schema.apply("cumqty"), schema.apply("transacttime")));
+  }
+
+  private int nextIndex() {
+    int index = next;
+    next = (next + 1) % rows.size();
+
+    return index;
+  }
+
+  @Benchmark
+  public void toRowValue(Blackhole blackhole) {
+    String[] values = stringValues.get(nextIndex());
+
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        blackhole.consume(RowUtils.toRowValue(values[i], dataTypes[i]));
+      }
+    }
+  }
+
+  @Benchmark
+  public Row appendField() {
+    return RowUtils.append(rows.get(nextIndex()), "_ingest_time", DataTypes.LongType, false, 0L);
+  }
+
+  @Benchmark
+  public Row appendRow() {
+    return RowUtils.append(rows.get(nextIndex()), appendRow);
+  }
+
+  @Benchmark
+  public Row subsetRow() {
+    return RowUtils.subsetRow(rows.get(nextIndex()), subsetSchema);
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.benchmarks;
+
+import com.cloudera.labs.envelope.translate.TranslateFunction;
+import com.google.common.collect.Lists;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValueFactory;
+import org.apache.spark.sql.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the translate function that wraps the translator of a step, i.e. the translation
+ * of a generated FIX message plus the appending of the raw message fields and the error flag.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TranslateFunctionBenchmark {
+
+  @Param({"false", "true"})
+  public boolean appendRaw;
+
+  @Param({"100"})
+  public long orders;
+
+  private TranslateFunction function;
+  private List<Row> messages;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    Config config = BenchmarkFixtures.getTranslatorConfig("kvp")
+        .withValue(TranslateFunction.APPEND_RAW_ENABLED_CONFIG, ConfigValueFactory.fromAnyRef(appendRaw));
+    function = new TranslateFunction(config);
+
+    messages = Lists.newArrayList();
+    for (String fixMessage : BenchmarkFixtures.generateFIXMessages(orders)) {
+      messages.add(BenchmarkFixtures.message(fixMessage, function.getExpectingSchema()));
+    }
+
+    function.receiveProvidedSchema(messages.get(0).schema());
+  }
+
+  @Benchmark
+  public void call(Blackhole blackhole) throws Exception {
+    Row message = messages.get(next);
+    next = (next + 1) % messages.size();
+
+    Iterator<Row> translated = function.call(message);
+    while (translated.hasNext()) {
+      blackhole.consume(translated.next());
+    }
+  }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.benchmarks;
+
+import com.cloudera.labs.envelope.kafka.serde.AvroSerializer;
+import com.cloudera.labs.envelope.kafka.serde.DelimitedSerializer;
+import com.cloudera.labs.envelope.translate.Translator;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.apache.spark.sql.Row;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the translation of a single message by each of the translators. The key-value pair
+ * messages are the generated FIX messages, and the delimited and Avro messages are the same
+ * records serialized by the Kafka output serializers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TranslatorBenchmark {
+
+  @Param({"kvp", "delimited", "avro", "protobuf"})
+  public String translatorType;
+
+  @Param({"100"})
+  public long orders;
+
+  private Translator translator;
+  private List<Row> messages;
+  private int next;
+
+  @Setup
+  public void setup() throws Exception {
+    translator = BenchmarkFixtures.createTranslator(translatorType);
+
+    List<String> fixMessages = BenchmarkFixtures.generateFIXMessages(orders);
+    List<Object> values = Lists.newArrayList();
+
+    switch (translatorType) {
+      case "kvp":
+        values.addAll(fixMessages);
+        break;
+      case "delimited":
+        DelimitedSerializer delimitedSerializer = new DelimitedSerializer();
+        delimitedSerializer.configure(
+            Collections.singletonMap(DelimitedSerializer.FIELD_DELIMITER_CONFIG_NAME, ","), false);
+        for (Row row : BenchmarkFixtures.translateFIXMessages(fixMessages)) {
+          values.add(new String(delimitedSerializer.serialize(null, row), Charsets.UTF_8));
+        }
+        break;
+      case "avro":
+        AvroSerializer avroSerializer = new AvroSerializer();
+        avroSerializer.configure(Collections.singletonMap(AvroSerializer.SCHEMA_PATH_CONFIG_NAME,
+            BenchmarkFixtures.resourceAsFile(BenchmarkFixtures.AVRO_SCHEMA_RESOURCE)), false);
+        for (Row row : BenchmarkFixtures.translateFIXMessages(fixMessages)) {
+          values.add(avroSerializer.serialize(null, row));
+        }
+        break;
+      case "protobuf":
+        values.add(BenchmarkFixtures.protobufSingleMessage());
+        break;
+      default:
+        throw new RuntimeException("Unknown translator type: " + translatorType);
+    }
+
+    messages = Lists.newArrayList();
+    for (Object value : values) {
+      messages.add(BenchmarkFixtures.message(value, translator.getExpectingSchema()));
+    }
+  }
+
+  @Benchmark
+  public void translate(Blackhole blackhole) throws Exception {
+    Row message = messages.get(next);
+    next = (next + 1) % messages.size();
+
+    for (Row translated : translator.translate(message)) {
+      blackhole.consume(translated);
+    }
+  }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.component;
+
+/**
+ *  This interface should be implemented when a component persists data that it reads or derives,
+ *  such as the results of a translation, so that the data is only computed once.
+ *
+ *  Envelope uses this interface to unpersist the data once the batch that the component ran in,
+ *  and all of the steps that could depend on its data, have finished.
+ *
+ *  This is currently only supported for inputs and derivers of batch steps
+ */
+public interface CanUnpersistData {
+
+  /**
+   * Unpersist any data that the component has persisted
+   */
+  void unpersistData();
+
+}
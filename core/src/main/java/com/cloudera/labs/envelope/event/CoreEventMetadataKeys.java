@@ -41,6 +41,36 @@ public class CoreEventMetadataKeys {
   public static final String DATA_STEP_WRITTEN_TO_OUTPUT_TIME_TAKEN_NS =
       CoreEventTypes.DATA_STEP_WRITTEN_TO_OUTPUT + ".time.taken.ns";
 
+  public static final String STREAMING_STEP_DATA_TRANSLATED_STEP_NAME =
+      CoreEventTypes.STREAMING_STEP_DATA_TRANSLATED + ".step.name";
+
+  public static final String STREAMING_STEP_DATA_TRANSLATED_TRANSLATED_COUNT =
+      CoreEventTypes.STREAMING_STEP_DATA_TRANSLATED + ".translated.count";
+
+  public static final String STREAMING_STEP_DATA_TRANSLATED_ERRORED_COUNT =
+      CoreEventTypes.STREAMING_STEP_DATA_TRANSLATED + ".errored.count";
+
+  public static final String STREAMING_STEP_DATA_TRANSLATED_TIME_TAKEN_NS =
+      CoreEventTypes.STREAMING_STEP_DATA_TRANSLATED + ".time.taken.ns";
+
+  public static final String STREAMING_BATCH_COMPLETED_STEP_NAME =
+      CoreEventTypes.STREAMING_BATCH_COMPLETED + ".step.name";
+
+  public static final String STREAMING_BATCH_COMPLETED_BATCH_TIME =
+      CoreEventTypes.STREAMING_BATCH_COMPLETED + ".batch.time";
+
+  public static final String STREAMING_BATCH_COMPLETED_SCHEDULING_DELAY_NS =
+      CoreEventTypes.STREAMING_BATCH_COMPLETED + ".scheduling.delay.ns";
+
+  public static final String STREAMING_BATCH_COMPLETED_PROCESSING_TIME_NS =
+      CoreEventTypes.STREAMING_BATCH_COMPLETED + ".processing.time.ns";
+
+  public static final String STREAMING_BATCH_COMPLETED_RECORD_COUNT =
+      CoreEventTypes.STREAMING_BATCH_COMPLETED + ".record.count";
+
+  public static final String STREAMING_BATCH_COMPLETED_RECORDS_PER_SECOND =
+      CoreEventTypes.STREAMING_BATCH_COMPLETED + ".records.per.second";
+
   public static final String PIPELINE_EXCEPTION_OCCURRED_EXCEPTION =
       CoreEventTypes.PIPELINE_EXCEPTION_OCCURRED + ".exception";
 
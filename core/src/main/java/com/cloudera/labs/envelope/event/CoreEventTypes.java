@@ -52,6 +52,18 @@ public class CoreEventTypes {
   public static final String DATA_STEP_DATA_GENERATED =
       "envelope.data.step.data.generated";
 
+  // The streaming step has translated the messages of its micro-batch. Note that when handling
+  // this event Spark is forced to translate the micro-batch before the rest of the step runs so
+  // that the translated and errored rows can be counted.
+  public static final String STREAMING_STEP_DATA_TRANSLATED =
+      "envelope.streaming.step.data.translated";
+
+  // The micro-batch of a streaming step has been run through all of the steps of the pipeline.
+  // Note that when handling this event the persisted translation of the micro-batch is counted
+  // to provide the number of records, which runs an additional Spark job for each micro-batch.
+  public static final String STREAMING_BATCH_COMPLETED =
+      "envelope.streaming.batch.completed";
+
   public static Set<String> getAllCoreEventTypes() {
     return Sets.newHashSet(
         PIPELINE_STARTED,
@@ -60,13 +72,17 @@ public class CoreEventTypes {
         STEPS_EXTRACTED,
         EXECUTION_MODE_DETERMINED,
         DATA_STEP_WRITTEN_TO_OUTPUT,
-        DATA_STEP_DATA_GENERATED
+        DATA_STEP_DATA_GENERATED,
+        STREAMING_STEP_DATA_TRANSLATED,
+        STREAMING_BATCH_COMPLETED
     );
   }
 
   public static Set<String> getHighPerformanceImpactCoreEventTypes() {
     return Sets.newHashSet(
-        DATA_STEP_DATA_GENERATED
+        DATA_STEP_DATA_GENERATED,
+        STREAMING_STEP_DATA_TRANSLATED,
+        STREAMING_BATCH_COMPLETED
     );
   }
 
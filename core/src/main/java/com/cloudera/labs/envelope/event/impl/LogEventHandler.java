@@ -55,6 +55,8 @@ public class LogEventHandler implements EventHandler, ProvidesAlias, ProvidesVal
       case CoreEventTypes.EXECUTION_MODE_DETERMINED:
       case CoreEventTypes.DATA_STEP_WRITTEN_TO_OUTPUT:
       case CoreEventTypes.DATA_STEP_DATA_GENERATED:
+      case CoreEventTypes.STREAMING_STEP_DATA_TRANSLATED:
+      case CoreEventTypes.STREAMING_BATCH_COMPLETED:
         logInfo(event, notifier);
         break;
       case CoreEventTypes.PIPELINE_EXCEPTION_OCCURRED:
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.input;
+
+import com.cloudera.labs.envelope.schema.DeclaresProvidingSchema;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+
+/**
+ * Structured stream inputs read in a streaming DataFrame from an external stream source using
+ * Spark Structured Streaming. Each micro-batch of the query is run through the streaming step
+ * and its dependent steps in the same way as a micro-batch of a StreamInput.
+ *
+ * The rows of the streaming DataFrame must already be encoded as messages, i.e. with the raw
+ * message in the 'value' field and any other associated metadata as other fields, and must
+ * match the declared providing schema.
+ *
+ * Structured stream inputs that record their progress also implement CanRecordProgress, which is
+ * called with the rows of each micro-batch once the micro-batch, and all of the steps that depend
+ * on it, have finished, and before the micro-batch is completed by the query.
+ */
+public interface StructuredStreamInput extends Input, DeclaresProvidingSchema {
+
+  /**
+   * Get the streaming DataFrame for the input stream.
+   */
+  Dataset<Row> getStreamingDataFrame() throws Exception;
+
+  /**
+   * Get the interval in milliseconds between the starts of the micro-batches of the query. An
+   * interval of zero starts each micro-batch as soon as the previous micro-batch has finished.
+   */
+  long getTriggerMilliseconds();
+
+}
@@ -60,8 +60,12 @@ public class PartitionerFactory {
     return partitioner;
   }
   
+  /**
+   * Orders rows, such as the keys of arriving records, by the values of their fields in order.
+   * Null values are ordered first.
+   */
   @SuppressWarnings("serial")
-  private static class RowComparator implements Comparator<Row>, Serializable {
+  public static class RowComparator implements Comparator<Row>, Serializable {
     // All primitive value types of Row implement Comparable
     @SuppressWarnings({ "unchecked", "rawtypes" })
     @Override
@@ -70,7 +74,13 @@ public class PartitionerFactory {
         Comparable r1FieldValue = (Comparable)r1.get(i);
         Comparable r2FieldValue = (Comparable)r2.get(i);
         
-        int comparison = r1FieldValue.compareTo(r2FieldValue);
+        int comparison;
+        if (r1FieldValue == null || r2FieldValue == null) {
+          comparison = r1FieldValue == null ? (r2FieldValue == null ? 0 : -1) : 1;
+        }
+        else {
+          comparison = r1FieldValue.compareTo(r2FieldValue);
+        }
         
         if (comparison != 0) {
           return comparison;
@@ -16,10 +16,12 @@
 package com.cloudera.labs.envelope.run;
 
 import com.cloudera.labs.envelope.component.CanReturnErroredData;
+import com.cloudera.labs.envelope.component.CanUnpersistData;
 import com.cloudera.labs.envelope.component.ComponentFactory;
 import com.cloudera.labs.envelope.component.InstantiatedComponent;
 import com.cloudera.labs.envelope.component.InstantiatesComponents;
 import com.cloudera.labs.envelope.input.BatchInput;
+import com.cloudera.labs.envelope.input.CanRecordProgress;
 import com.cloudera.labs.envelope.repetition.Repetition;
 import com.cloudera.labs.envelope.spark.Contexts;
 import com.cloudera.labs.envelope.utils.RowUtils;
@@ -104,6 +106,29 @@ public class BatchStep extends DataStep implements ProvidesValidations, Instanti
     setState(StepState.FINISHED);
   }
 
+  /**
+   * Records the progress of the input of the step, for when all of the steps that could depend on
+   * the data that it read have finished.
+   */
+  public void recordProgress() throws Exception {
+    if (hasInput() && getInput(true) instanceof CanRecordProgress) {
+      ((CanRecordProgress)getInput(true)).recordProgress(getData().javaRDD());
+    }
+  }
+
+  /**
+   * Unpersists the data that the input or deriver of the step persisted, for when all of the
+   * steps that could depend on the data that it read or derived have finished.
+   */
+  public void unpersistComponentData() {
+    if (hasInput() && getInput(true) instanceof CanUnpersistData) {
+      ((CanUnpersistData)getInput(true)).unpersistData();
+    }
+    if (hasDeriver() && getDeriver(true) instanceof CanUnpersistData) {
+      ((CanUnpersistData)getDeriver(true)).unpersistData();
+    }
+  }
+
   private boolean doesRepartition() {
     return config.hasPath(REPARTITION_NUM_PARTITIONS_PROPERTY) ||
            config.hasPath(REPARTITION_COLUMNS_PROPERTY) ||
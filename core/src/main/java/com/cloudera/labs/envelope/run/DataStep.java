@@ -41,14 +41,20 @@ import com.cloudera.labs.envelope.utils.RowUtils;
 import com.cloudera.labs.envelope.utils.SchemaUtils;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
 import com.cloudera.labs.envelope.validate.Validations;
+import com.google.common.base.Supplier;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValueFactory;
 import com.typesafe.config.ConfigValueType;
 import org.apache.spark.Partitioner;
+import org.apache.spark.TaskContext;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.FlatMapFunction;
@@ -60,12 +66,22 @@ import org.apache.spark.sql.Row;
 import org.apache.spark.sql.functions;
 import org.apache.spark.sql.types.StructType;
 import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.util.TaskCompletionListener;
 import scala.Tuple2;
 
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A data step is a step that will contain a DataFrame that other steps can use.
@@ -86,11 +102,27 @@ public abstract class DataStep
   public static final String PRINT_SCHEMA_ENABLED_PROPERTY = "print.schema.enabled";
   public static final String PRINT_DATA_ENABLED_PROPERTY = "print.data.enabled";
   public static final String PRINT_DATA_LIMIT_PROPERTY = "print.data.limit";
+  public static final String PLANNING_MODE_PROPERTY = "planning.mode";
+  public static final String PLANNING_MODE_GROUPED = "grouped";
+  public static final String PLANNING_MODE_SORTED = "sorted";
+  public static final String LOOKUP_BATCH_SIZE_PROPERTY = "lookup.batch.size";
+  public static final int LOOKUP_BATCH_SIZE_DEFAULT = 1000;
+  public static final String LOOKUP_THREADS_PROPERTY = "lookup.threads";
+  public static final int LOOKUP_THREADS_DEFAULT = 1;
+  public static final String LOOKUP_PIPELINING_ENABLED_PROPERTY = "lookup.pipelining.enabled";
+  public static final boolean LOOKUP_PIPELINING_ENABLED_DEFAULT = false;
+  public static final String LOOKUP_CACHE_ENABLED_PROPERTY = "lookup.cache.enabled";
+  public static final String LOOKUP_CACHE_SIZE_PROPERTY = "lookup.cache.size";
+  public static final int LOOKUP_CACHE_SIZE_DEFAULT = 10000;
+  public static final String LOOKUP_CACHE_IDENTITY_FIELD_NAMES_PROPERTY = "lookup.cache.identity.field.names";
 
   private static final String ACCUMULATOR_SECONDS_EXTRACTING_KEYS = "Seconds spent extracting keys";
   private static final String ACCUMULATOR_SECONDS_EXISTING = "Seconds spent getting existing";
   private static final String ACCUMULATOR_SECONDS_PLANNING = "Seconds spent random planning";
   private static final String ACCUMULATOR_SECONDS_APPLYING = "Seconds spent applying random mutations";
+  private static final String ACCUMULATOR_EXISTING_CACHE_HITS = "Existing records cache hits";
+  private static final String ACCUMULATOR_EXISTING_CACHE_MISSES = "Existing records cache misses";
+  private static final String ACCUMULATOR_EXISTING_CACHE_EVICTIONS = "Existing records cache evictions";
 
   public static final String DEFAULT_ERROR_DATAFRAME_SUFFIX = "_errored";
 
@@ -359,6 +391,12 @@ public abstract class DataStep
     requests.add(new AccumulatorRequest(ACCUMULATOR_SECONDS_APPLYING, Double.class));
     requests.add(new AccumulatorRequest(ACCUMULATOR_SECONDS_EXISTING, Double.class));
     requests.add(new AccumulatorRequest(ACCUMULATOR_SECONDS_EXTRACTING_KEYS, Double.class));
+
+    if (usesExistingCache()) {
+      requests.add(new AccumulatorRequest(ACCUMULATOR_EXISTING_CACHE_HITS, Long.class));
+      requests.add(new AccumulatorRequest(ACCUMULATOR_EXISTING_CACHE_MISSES, Long.class));
+      requests.add(new AccumulatorRequest(ACCUMULATOR_EXISTING_CACHE_EVICTIONS, Long.class));
+    }
     
     return requests;
   }
@@ -417,6 +455,16 @@ public abstract class DataStep
         .optionalPath(PRINT_DATA_ENABLED_PROPERTY, ConfigValueType.BOOLEAN)
         .ifPathHasValue(PRINT_DATA_ENABLED_PROPERTY, true,
             Validations.single().optionalPath(PRINT_DATA_LIMIT_PROPERTY, ConfigValueType.NUMBER))
+        .optionalPath(PLANNING_MODE_PROPERTY, ConfigValueType.STRING)
+        .allowedValues(PLANNING_MODE_PROPERTY, PLANNING_MODE_GROUPED, PLANNING_MODE_SORTED)
+        .optionalPath(LOOKUP_BATCH_SIZE_PROPERTY, ConfigValueType.NUMBER)
+        .optionalPath(LOOKUP_THREADS_PROPERTY, ConfigValueType.NUMBER)
+        .optionalPath(LOOKUP_PIPELINING_ENABLED_PROPERTY, ConfigValueType.BOOLEAN)
+        .optionalPath(LOOKUP_CACHE_ENABLED_PROPERTY, ConfigValueType.BOOLEAN)
+        .ifPathHasValue(LOOKUP_CACHE_ENABLED_PROPERTY, true, Validations.single()
+            .optionalPath(LOOKUP_CACHE_SIZE_PROPERTY, ConfigValueType.NUMBER))
+        .ifPathHasValue(LOOKUP_CACHE_ENABLED_PROPERTY, true, Validations.single()
+            .optionalPath(LOOKUP_CACHE_IDENTITY_FIELD_NAMES_PROPERTY, ConfigValueType.LIST))
         .optionalPath(INPUT_TYPE, ConfigValueType.OBJECT)
         .optionalPath(DERIVER_TYPE, ConfigValueType.OBJECT)
         .optionalPath(PLANNER_TYPE, ConfigValueType.OBJECT)
@@ -467,9 +515,15 @@ public abstract class DataStep
       RandomPlanner randomPlanner = (RandomPlanner)planner;
       List<String> keyFieldNames = randomPlanner.getKeyFieldNames();
       Config outputConfig = config.getConfig(OUTPUT_TYPE);
-      JavaRDD<Row> planned = planMutationsByKey(data, keyFieldNames, plannerConfig, outputConfig);
+      JavaRDD<Row> planned;
+      if (getPlanningMode().equals(PLANNING_MODE_SORTED)) {
+        planned = planMutationsBySortedKey(data, keyFieldNames, plannerConfig, outputConfig);
+      }
+      else {
+        planned = planMutationsByKey(data, keyFieldNames, plannerConfig, outputConfig);
+      }
 
-      applyMutations(planned, outputConfig);
+      applyMutations(planned, keyFieldNames, outputConfig);
     }
     else if (planner instanceof BulkPlanner) {
       BulkPlanner bulkPlanner = (BulkPlanner)planner;
@@ -544,7 +598,8 @@ public abstract class DataStep
         keyedArriving.groupByKey(getPartitioner(keyedArriving));
 
     JavaPairRDD<Row, Tuple2<Iterable<Row>, Iterable<Row>>> arrivingAndExistingByKey =
-        arrivingByKey.mapPartitionsToPair(new JoinExistingForKeysFunction(outputConfig, keyFieldNames, accumulators));
+        arrivingByKey.mapPartitionsToPair(new JoinExistingForKeysFunction(outputConfig, keyFieldNames,
+            getLookupBatchSize(), getLookupThreads(), getExistingCache(keyFieldNames), accumulators));
 
     JavaRDD<Row> planned = 
         arrivingAndExistingByKey.flatMap(new PlanForKeyFunction(plannerConfig, accumulators));
@@ -552,6 +607,77 @@ public abstract class DataStep
     return planned;
   }
 
+  // Sort the arriving records by key within each partition, and then walk each partition in key
+  // order, attaching the existing records and planning a bounded chunk of keys at a time
+  private JavaRDD<Row> planMutationsBySortedKey(Dataset<Row> arriving, List<String> keyFieldNames,
+                                                Config plannerConfig, Config outputConfig) {
+    JavaPairRDD<Row, Row> keyedArriving =
+        arriving.javaRDD().keyBy(new ExtractKeyFunction(keyFieldNames, accumulators));
+
+    JavaPairRDD<Row, Row> sortedArriving = keyedArriving.repartitionAndSortWithinPartitions(
+        getPartitioner(keyedArriving), new PartitionerFactory.RowComparator());
+
+    JavaPairRDD<Row, Tuple2<Iterable<Row>, Iterable<Row>>> arrivingAndExistingByKey =
+        sortedArriving.mapPartitionsToPair(new JoinExistingForSortedKeysFunction(outputConfig, keyFieldNames,
+            getLookupBatchSize(), getLookupThreads(), getExistingCache(keyFieldNames), accumulators));
+
+    JavaRDD<Row> planned =
+        arrivingAndExistingByKey.flatMap(new PlanForKeyFunction(plannerConfig, accumulators));
+
+    return planned;
+  }
+
+  private String getPlanningMode() {
+    return ConfigUtils.getOrElse(config, PLANNING_MODE_PROPERTY, PLANNING_MODE_GROUPED);
+  }
+
+  private int getLookupBatchSize() {
+    return ConfigUtils.getOrElse(config, LOOKUP_BATCH_SIZE_PROPERTY, LOOKUP_BATCH_SIZE_DEFAULT);
+  }
+
+  private int getLookupThreads() {
+    boolean pipelined = ConfigUtils.getOrElse(
+        config, LOOKUP_PIPELINING_ENABLED_PROPERTY, LOOKUP_PIPELINING_ENABLED_DEFAULT);
+
+    return pipelined ?
+        ConfigUtils.getOrElse(config, LOOKUP_THREADS_PROPERTY, LOOKUP_THREADS_DEFAULT) : 0;
+  }
+
+  private boolean usesExistingCache() {
+    return ConfigUtils.getOrElse(config, LOOKUP_CACHE_ENABLED_PROPERTY, false);
+  }
+
+  // The cache is named by the step so that it is shared by the micro-batches of the step
+  private ExistingRecordsCache getExistingCache(List<String> keyFieldNames) {
+    if (!usesExistingCache()) {
+      return null;
+    }
+
+    int cacheSize = ConfigUtils.getOrElse(config, LOOKUP_CACHE_SIZE_PROPERTY, LOOKUP_CACHE_SIZE_DEFAULT);
+    List<String> identityFieldNames = ConfigUtils.getOrElse(
+        config, LOOKUP_CACHE_IDENTITY_FIELD_NAMES_PROPERTY, keyFieldNames);
+
+    return new ExistingRecordsCache(getName(), cacheSize, identityFieldNames);
+  }
+
+  // Map the retrieved existing records to the keys they were looked up from
+  private static Map<Row, List<Row>> mapExistingToKeys(
+      Iterable<Row> existingWithoutKeys, ExtractKeyFunction extractKeyFunction) throws Exception {
+    Map<Row, List<Row>> existingForKeys = Maps.newHashMap();
+
+    for (Row existing : existingWithoutKeys) {
+      Row existingKey = extractKeyFunction.call(existing);
+
+      if (!existingForKeys.containsKey(existingKey)) {
+        existingForKeys.put(existingKey, Lists.<Row>newArrayList());
+      }
+
+      existingForKeys.get(existingKey).add(existing);
+    }
+
+    return existingForKeys;
+  }
+
   @SuppressWarnings("serial")
   private static class ExtractKeyFunction implements Function<Row, Row> {
     private StructType schema;
@@ -595,115 +721,361 @@ public abstract class DataStep
     return PartitionerFactory.create(partitionerConfig, keyedArriving);
   }
   
+  // Attaches the existing records from the output to the arriving records of each key. The
+  // existing records are retrieved a chunk of keys at a time, and when lookup threads are used
+  // the next chunks are retrieved in the background while the current chunk is being planned.
   @SuppressWarnings("serial")
-  private static class JoinExistingForKeysFunction
-  implements PairFlatMapFunction<Iterator<Tuple2<Row, Iterable<Row>>>, Row, Tuple2<Iterable<Row>, Iterable<Row>>> {
+  private static abstract class AbstractJoinExistingFunction<T>
+  implements PairFlatMapFunction<Iterator<T>, Row, Tuple2<Iterable<Row>, Iterable<Row>>> {
+    // The lookup threads live as long as the executor, so that the outputs that they create, and
+    // any connections that those outputs keep for each thread, are reused by later tasks
+    private static final ExecutorService LOOKUP_EXECUTOR = new ThreadPoolExecutor(
+        0, Integer.MAX_VALUE, Long.MAX_VALUE, TimeUnit.NANOSECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("envelope-lookup-%d").build());
+
+    // Outputs are not required to be thread-safe, so each lookup thread has its own instances
+    private static final ThreadLocal<Map<Config, RandomOutput>> LOOKUP_THREAD_OUTPUTS =
+        new ThreadLocal<Map<Config, RandomOutput>>() {
+          @Override
+          protected Map<Config, RandomOutput> initialValue() {
+            return Maps.newHashMap();
+          }
+        };
+
     private Config outputConfig;
-    private RandomOutput output;
     private List<String> keyFieldNames;
+    private int lookupThreads;
+    private ExistingRecordsCache existingCache;
     private Accumulators accumulators;
+    protected int lookupBatchSize;
 
-    public JoinExistingForKeysFunction(Config outputConfig, List<String> keyFieldNames, Accumulators accumulators) {
+    public AbstractJoinExistingFunction(Config outputConfig, List<String> keyFieldNames,
+                                        int lookupBatchSize, int lookupThreads,
+                                        ExistingRecordsCache existingCache,
+                                        Accumulators accumulators) {
       this.outputConfig = outputConfig;
       this.keyFieldNames = keyFieldNames;
+      this.lookupBatchSize = lookupBatchSize;
+      this.lookupThreads = lookupThreads;
+      this.existingCache = existingCache;
       this.accumulators = accumulators;
     }
 
     // Add the existing records for the keys to the arriving records
     @Override
-    public Iterator<Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>>
-    call(Iterator<Tuple2<Row, Iterable<Row>>> arrivingForKeysIterator) throws Exception
-    {
+    public Iterator<Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>> call(Iterator<T> arriving) throws Exception {
       // If there are no arriving keys, return an empty list
-      if (!arrivingForKeysIterator.hasNext()) {
+      if (!arriving.hasNext()) {
         return Lists.<Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>>newArrayList().iterator();
       }
-      
-      long startTime = System.nanoTime();
 
-      // If we have not instantiated the output for this partition, instantiate it
-      if (output == null) {
-        output = (RandomOutput)ComponentFactory.create(Output.class, outputConfig, true);
-        if (output instanceof UsesAccumulators) {
-            ((UsesAccumulators)output).receiveAccumulators(accumulators);
-        }
-      }
+      return new JoinExistingForChunksIterator(getArrivingChunks(arriving));
+    }
 
-      // Convert the iterator of keys to a list
-      List<Tuple2<Row, Iterable<Row>>> arrivingForKeys = Lists.newArrayList(arrivingForKeysIterator);
+    // Split the arriving records into chunks of at most the lookup batch size of keys, each with
+    // the arriving records of the key
+    protected abstract Iterator<List<Tuple2<Row, Iterable<Row>>>> getArrivingChunks(Iterator<T> arriving);
 
-      // Extract the keys from the keyed arriving records
-      Set<Row> arrivingKeys = extractKeys(arrivingForKeys);
+    private RandomOutput createOutput() {
+      RandomOutput output = (RandomOutput)ComponentFactory.create(Output.class, outputConfig, true);
+      if (output instanceof UsesAccumulators) {
+        ((UsesAccumulators)output).receiveAccumulators(accumulators);
+      }
 
-      // Get the existing records for those keys from the output
-      Iterable<Row> existingWithoutKeys = output.getExistingForFilters(arrivingKeys);
-      
-      // Map the retrieved existing records to the keys they were looked up from
-      Map<Row, Iterable<Row>> existingForKeys = mapExistingToKeys(existingWithoutKeys);
+      return output;
+    }
 
-      // Attach the existing records by key to the arriving records by key
-      List<Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>> arrivingAndExistingForKeys = 
-          attachExistingToArrivingForKeys(existingForKeys, arrivingForKeys);
-      
-      long endTime = System.nanoTime();
-      accumulators.getDoubleAccumulators().get(ACCUMULATOR_SECONDS_EXISTING).add(
-          (endTime - startTime) / 1000.0 / 1000.0 / 1000.0);
+    private RandomOutput getLookupThreadOutput() {
+      Map<Config, RandomOutput> outputs = LOOKUP_THREAD_OUTPUTS.get();
+      RandomOutput output = outputs.get(outputConfig);
+
+      if (output == null) {
+        output = createOutput();
+        outputs.put(outputConfig, output);
+      }
+      else if (output instanceof UsesAccumulators) {
+        ((UsesAccumulators)output).receiveAccumulators(accumulators);
+      }
 
-      return arrivingAndExistingForKeys.iterator();
+      return output;
     }
 
-    private Set<Row> extractKeys(List<Tuple2<Row, Iterable<Row>>> arrivingForKeys) {
-      Set<Row> arrivingKeys = Sets.newHashSet();
+    private class JoinExistingForChunksIterator
+        extends AbstractIterator<Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>> {
+      private Iterator<List<Tuple2<Row, Iterable<Row>>>> arrivingChunks;
+      private ExtractKeyFunction extractKeyFunction = new ExtractKeyFunction(keyFieldNames, accumulators);
+      private Queue<LookupExistingTask> lookups = Lists.newLinkedList();
+      private Iterator<Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>> joinedChunk =
+          Collections.emptyIterator();
+      private RandomOutput taskOutput;
+
+      // Without lookup threads the existing records are retrieved on the task thread
+      private Supplier<RandomOutput> outputs = new Supplier<RandomOutput>() {
+        @Override
+        public RandomOutput get() {
+          if (lookupThreads > 0) {
+            return getLookupThreadOutput();
+          }
+
+          if (taskOutput == null) {
+            taskOutput = createOutput();
+          }
+
+          return taskOutput;
+        }
+      };
+
+      JoinExistingForChunksIterator(Iterator<List<Tuple2<Row, Iterable<Row>>>> arrivingChunks) {
+        this.arrivingChunks = arrivingChunks;
 
-      for (Tuple2<Row, Iterable<Row>> arrivingForKey : arrivingForKeys) {
-        arrivingKeys.add(arrivingForKey._1());
+        if (lookupThreads > 0) {
+          cancelLookupsOnTaskCompletion();
+        }
       }
 
-      return arrivingKeys;
-    }
+      @Override
+      protected Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>> computeNext() {
+        while (!joinedChunk.hasNext()) {
+          submitLookups(Math.max(lookupThreads, 1));
+
+          if (lookups.isEmpty()) {
+            return endOfData();
+          }
+
+          LookupExistingTask lookup = lookups.remove();
+          List<Row> existingWithoutKeys = lookup.getExisting();
+          accumulators.getDoubleAccumulators().get(ACCUMULATOR_SECONDS_EXISTING).add(
+              lookup.getTimeTakenNs() / 1000.0 / 1000.0 / 1000.0);
+
+          // Start retrieving the existing records for the next chunks before this one is planned
+          submitLookups(lookupThreads);
+
+          Map<Row, List<Row>> existingForKeys;
+          try {
+            existingForKeys = mapExistingToKeys(existingWithoutKeys, extractKeyFunction);
+          }
+          catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+
+          if (existingCache != null) {
+            existingCache.putAll(lookup.getLookupKeys(), existingForKeys);
+            existingForKeys.putAll(lookup.getCachedForKeys());
+          }
+
+          joinedChunk = attachExistingToArrivingForKeys(existingForKeys, lookup.getArrivingForKeys());
+        }
 
-    private Map<Row, Iterable<Row>> mapExistingToKeys(Iterable<Row> existingWithoutKeys) throws Exception {
-      Map<Row, Iterable<Row>> existingForKeys = Maps.newHashMap();
-      ExtractKeyFunction extractKeyFunction = new ExtractKeyFunction(keyFieldNames, accumulators);
+        return joinedChunk.next();
+      }
+
+      private void submitLookups(int maximumLookups) {
+        while (lookups.size() < maximumLookups && arrivingChunks.hasNext()) {
+          List<Tuple2<Row, Iterable<Row>>> arrivingForKeys = arrivingChunks.next();
+
+          Set<Row> lookupKeys = Sets.newHashSet();
+          for (Tuple2<Row, Iterable<Row>> arrivingForKey : arrivingForKeys) {
+            lookupKeys.add(arrivingForKey._1());
+          }
+
+          // Only retrieve the existing records of the keys that are not in the cache
+          Map<Row, List<Row>> cachedForKeys = Collections.emptyMap();
+          if (existingCache != null) {
+            cachedForKeys = existingCache.getAllPresent(lookupKeys);
+            lookupKeys.removeAll(cachedForKeys.keySet());
 
-      for (Row existing : existingWithoutKeys) {
-        Row existingKey = extractKeyFunction.call(existing);
+            accumulators.getLongAccumulators().get(ACCUMULATOR_EXISTING_CACHE_HITS).add(cachedForKeys.size());
+            accumulators.getLongAccumulators().get(ACCUMULATOR_EXISTING_CACHE_MISSES).add(lookupKeys.size());
+          }
 
-        if (!existingForKeys.containsKey(existingKey)) {
-          existingForKeys.put(existingKey, Lists.<Row>newArrayList());
+          LookupExistingTask lookup = new LookupExistingTask(arrivingForKeys, lookupKeys, cachedForKeys, outputs);
+
+          if (lookupThreads > 0) {
+            LOOKUP_EXECUTOR.execute(lookup);
+          }
+          else {
+            lookup.run();
+          }
+
+          lookups.add(lookup);
+        }
+      }
+
+      private Iterator<Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>> attachExistingToArrivingForKeys
+      (Map<Row, List<Row>> existingForKeys, List<Tuple2<Row, Iterable<Row>>> arrivingForKeys)
+      {
+        List<Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>> arrivingAndExistingForKeys = Lists.newArrayList();
+        for (Tuple2<Row, Iterable<Row>> arrivingForKey : arrivingForKeys) {
+          Row key = arrivingForKey._1();
+          Iterable<Row> arriving = arrivingForKey._2();
+
+          Iterable<Row> existing;
+          if (existingForKeys.containsKey(key)) {
+            existing = existingForKeys.get(key);
+          }
+          else {
+            existing = Lists.newArrayList();
+          }
+
+          // Oh my...
+          Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>> arrivingAndExistingForKey = 
+              new Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>(key, 
+                  new Tuple2<Iterable<Row>, Iterable<Row>>(arriving, existing));
+
+          arrivingAndExistingForKeys.add(arrivingAndExistingForKey);
         }
 
-        ((List<Row>)existingForKeys.get(existingKey)).add(existing);
+        return arrivingAndExistingForKeys.iterator();
       }
 
-      return existingForKeys;
+      // Stop the outstanding lookups if the task ends before all of the chunks were joined
+      private void cancelLookupsOnTaskCompletion() {
+        TaskContext taskContext = TaskContext.get();
+        if (taskContext != null) {
+          taskContext.addTaskCompletionListener(new TaskCompletionListener() {
+            @Override
+            public void onTaskCompletion(TaskContext context) {
+              for (LookupExistingTask lookup : lookups) {
+                lookup.cancel(true);
+              }
+            }
+          });
+        }
+      }
     }
+  }
 
-    private List<Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>> attachExistingToArrivingForKeys
-    (Map<Row, Iterable<Row>> existingForKeys, List<Tuple2<Row, Iterable<Row>>> arrivingForKeys)
-    {
-      List<Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>> arrivingAndExistingForKeys = Lists.newArrayList();
-      for (Tuple2<Row, Iterable<Row>> arrivingForKey : arrivingForKeys) {
-        Row key = arrivingForKey._1();
-        Iterable<Row> arriving = arrivingForKey._2();
+  @SuppressWarnings("serial")
+  private static class JoinExistingForKeysFunction extends AbstractJoinExistingFunction<Tuple2<Row, Iterable<Row>>> {
+    public JoinExistingForKeysFunction(Config outputConfig, List<String> keyFieldNames,
+                                       int lookupBatchSize, int lookupThreads,
+                                       ExistingRecordsCache existingCache,
+                                       Accumulators accumulators) {
+      super(outputConfig, keyFieldNames, lookupBatchSize, lookupThreads, existingCache, accumulators);
+    }
+
+    @Override
+    protected Iterator<List<Tuple2<Row, Iterable<Row>>>> getArrivingChunks(
+        Iterator<Tuple2<Row, Iterable<Row>>> arrivingForKeys) {
+      return Iterators.partition(arrivingForKeys, lookupBatchSize);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class JoinExistingForSortedKeysFunction extends AbstractJoinExistingFunction<Tuple2<Row, Row>> {
+    public JoinExistingForSortedKeysFunction(Config outputConfig, List<String> keyFieldNames,
+                                             int lookupBatchSize, int lookupThreads,
+                                             ExistingRecordsCache existingCache,
+                                             Accumulators accumulators) {
+      super(outputConfig, keyFieldNames, lookupBatchSize, lookupThreads, existingCache, accumulators);
+    }
 
-        Iterable<Row> existing;
-        if (existingForKeys.containsKey(key)) {
-          existing = existingForKeys.get(key);
+    @Override
+    protected Iterator<List<Tuple2<Row, Iterable<Row>>>> getArrivingChunks(
+        Iterator<Tuple2<Row, Row>> sortedArrivingIterator) {
+      final PeekingIterator<Tuple2<Row, Row>> sortedArriving =
+          Iterators.peekingIterator(sortedArrivingIterator);
+
+      return new AbstractIterator<List<Tuple2<Row, Iterable<Row>>>>() {
+        @Override
+        protected List<Tuple2<Row, Iterable<Row>>> computeNext() {
+          if (!sortedArriving.hasNext()) {
+            return endOfData();
+          }
+
+          // The arriving records of a key are adjacent because the partition is sorted by key
+          List<Tuple2<Row, Iterable<Row>>> arrivingForKeys = Lists.newArrayList();
+          while (sortedArriving.hasNext() && arrivingForKeys.size() < lookupBatchSize) {
+            Row key = sortedArriving.peek()._1();
+            List<Row> arrivingForKey = Lists.newArrayList();
+
+            while (sortedArriving.hasNext() && sortedArriving.peek()._1().equals(key)) {
+              arrivingForKey.add(sortedArriving.next()._2());
+            }
+
+            arrivingForKeys.add(new Tuple2<Row, Iterable<Row>>(key, arrivingForKey));
+          }
+
+          return arrivingForKeys;
         }
-        else {
-          existing = Lists.newArrayList();
+      };
+    }
+  }
+
+  // Retrieves the existing records for a chunk of keys from the output of the running thread
+  private static class LookupExistingTask extends FutureTask<List<Row>> {
+    private List<Tuple2<Row, Iterable<Row>>> arrivingForKeys;
+    private Set<Row> lookupKeys;
+    private Map<Row, List<Row>> cachedForKeys;
+    private long startTime;
+    private long timeTakenNs;
+
+    LookupExistingTask(List<Tuple2<Row, Iterable<Row>>> arrivingForKeys, final Set<Row> lookupKeys,
+                       Map<Row, List<Row>> cachedForKeys, final Supplier<RandomOutput> outputs) {
+      super(new Callable<List<Row>>() {
+        @Override
+        public List<Row> call() throws Exception {
+          if (lookupKeys.isEmpty()) {
+            return Lists.newArrayList();
+          }
+
+          // Outputs may return lazy iterables, so read them here to keep the retrieval off the
+          // planning thread
+          return Lists.newArrayList(outputs.get().getExistingForFilters(lookupKeys));
         }
+      });
 
-        // Oh my...
-        Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>> arrivingAndExistingForKey = 
-            new Tuple2<Row, Tuple2<Iterable<Row>, Iterable<Row>>>(key, 
-                new Tuple2<Iterable<Row>, Iterable<Row>>(arriving, existing));
+      this.arrivingForKeys = arrivingForKeys;
+      this.lookupKeys = lookupKeys;
+      this.cachedForKeys = cachedForKeys;
+    }
 
-        arrivingAndExistingForKeys.add(arrivingAndExistingForKey);
-      }
+    @Override
+    public void run() {
+      startTime = System.nanoTime();
+      super.run();
+    }
+
+    // Record the time taken before the result is made available to the waiting thread
+    @Override
+    protected void set(List<Row> existing) {
+      timeTakenNs = System.nanoTime() - startTime;
+      super.set(existing);
+    }
+
+    @Override
+    protected void setException(Throwable t) {
+      timeTakenNs = System.nanoTime() - startTime;
+      super.setException(t);
+    }
+
+    List<Tuple2<Row, Iterable<Row>>> getArrivingForKeys() {
+      return arrivingForKeys;
+    }
 
-      return arrivingAndExistingForKeys;
+    Set<Row> getLookupKeys() {
+      return lookupKeys;
+    }
+
+    Map<Row, List<Row>> getCachedForKeys() {
+      return cachedForKeys;
+    }
+
+    long getTimeTakenNs() {
+      return timeTakenNs;
+    }
+
+    List<Row> getExisting() {
+      try {
+        return get();
+      }
+      catch (ExecutionException e) {
+        throw new RuntimeException("Could not retrieve the existing records from the output", e.getCause());
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while retrieving the existing records from the output", e);
+      }
     }
   }
 
@@ -745,18 +1117,28 @@ public abstract class DataStep
     }
   };
 
-  private void applyMutations(JavaRDD<Row> planned, Config outputConfig) {
-    planned.foreachPartition(new ApplyMutationsForPartitionFunction(outputConfig, accumulators));
+  private void applyMutations(JavaRDD<Row> planned, List<String> keyFieldNames, Config outputConfig) {
+    planned.foreachPartition(new ApplyMutationsForPartitionFunction(
+        outputConfig, keyFieldNames, getLookupBatchSize(), getExistingCache(keyFieldNames), accumulators));
   }
 
   @SuppressWarnings("serial")
   private static class ApplyMutationsForPartitionFunction implements VoidFunction<Iterator<Row>> {
     private Config config;
     private RandomOutput output;
+    private List<String> keyFieldNames;
+    private int applyBatchSize;
+    private ExistingRecordsCache existingCache;
     private Accumulators accumulators;
 
-    public ApplyMutationsForPartitionFunction(Config config, Accumulators accumulators) {
+    public ApplyMutationsForPartitionFunction(Config config, List<String> keyFieldNames,
+                                              int applyBatchSize,
+                                              ExistingRecordsCache existingCache,
+                                              Accumulators accumulators) {
       this.config = config;
+      this.keyFieldNames = keyFieldNames;
+      this.applyBatchSize = applyBatchSize;
+      this.existingCache = existingCache;
       this.accumulators = accumulators;
     }
 
@@ -770,15 +1152,61 @@ public abstract class DataStep
           ((UsesAccumulators)output).receiveAccumulators(accumulators);
         }
       }
-      
-      List<Row> planned = Lists.newArrayList(plannedIterator);
 
-      output.applyRandomMutations(planned);
-      
+      // Apply the partition in chunks of the lookup batch size so that the planned mutations of
+      // the whole partition are not held in memory at once
+      Iterator<List<Row>> plannedChunks = Iterators.partition(plannedIterator, applyBatchSize);
+      while (plannedChunks.hasNext()) {
+        List<Row> planned = plannedChunks.next();
+
+        try {
+          output.applyRandomMutations(planned);
+        }
+        catch (Exception e) {
+          // The output may have applied some of the mutations before failing, so the existing
+          // records of the keys are no longer known
+          if (existingCache != null) {
+            existingCache.invalidateAll(groupByKey(planned).keySet());
+          }
+          throw e;
+        }
+
+        // Write the applied mutations through to the cached existing records
+        if (existingCache != null) {
+          updateExistingCache(planned);
+        }
+      }
+
       long endTime = System.nanoTime();
       accumulators.getDoubleAccumulators().get(ACCUMULATOR_SECONDS_APPLYING).add(
           (endTime - startTime) / 1000.0 / 1000.0 / 1000.0);
     }
+
+    private void updateExistingCache(List<Row> planned) throws Exception {
+      for (Map.Entry<Row, List<Row>> plannedForKey : groupByKey(planned).entrySet()) {
+        existingCache.applyMutations(plannedForKey.getKey(), plannedForKey.getValue());
+      }
+
+      accumulators.getLongAccumulators().get(ACCUMULATOR_EXISTING_CACHE_EVICTIONS).add(
+          existingCache.drainEvictions());
+    }
+
+    private Map<Row, List<Row>> groupByKey(List<Row> planned) throws Exception {
+      ExtractKeyFunction extractKeyFunction = new ExtractKeyFunction(keyFieldNames, accumulators);
+
+      Map<Row, List<Row>> plannedForKeys = Maps.newLinkedHashMap();
+      for (Row plan : planned) {
+        Row key = extractKeyFunction.call(plan);
+
+        if (!plannedForKeys.containsKey(key)) {
+          plannedForKeys.put(key, Lists.<Row>newArrayList());
+        }
+
+        plannedForKeys.get(key).add(plan);
+      }
+
+      return plannedForKeys;
+    }
   }
 
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.run;
+
+import com.cloudera.labs.envelope.plan.MutationType;
+import com.cloudera.labs.envelope.spark.RowBuilder;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.cloudera.labs.envelope.utils.PlannerUtils;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.StructType;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An executor-local cache of the existing records of a random output, by the key of the
+ * planner. The cache is kept across micro-batches for the life of the executor, and is
+ * updated with the mutations that are applied to the output, so that the keys that arrive
+ * in consecutive micro-batches do not need to be retrieved from the output each time.
+ *
+ * <p>The cache is only consistent with the output while each key is planned and applied on
+ * the same executor. A key that is written by another executor, or by anything other than
+ * this step, leaves a stale entry in the cache until it is evicted.
+ *
+ * <p>Instances are serialized to the executors as a description of the cache, and the cached
+ * records are held in a static map by the name of the cache.
+ */
+@SuppressWarnings("serial")
+public class ExistingRecordsCache implements Serializable {
+
+  private static final ConcurrentMap<String, Cache<Row, List<Row>>> CACHES = Maps.newConcurrentMap();
+  private static final ConcurrentMap<String, AtomicLong> EVICTIONS = Maps.newConcurrentMap();
+
+  private String name;
+  private long maximumSize;
+  private List<String> identityFieldNames;
+
+  /**
+   * @param name The name of the cache, which is unique within the application.
+   * @param maximumSize The maximum number of keys held in the cache.
+   * @param identityFieldNames The fields that identify an existing record of a key, which are
+   *                           used to match the updates and deletes to the cached records.
+   */
+  public ExistingRecordsCache(String name, long maximumSize, List<String> identityFieldNames) {
+    this.name = name;
+    this.maximumSize = maximumSize;
+    this.identityFieldNames = identityFieldNames;
+  }
+
+  /**
+   * Get the existing records of the keys that are in the cache.
+   */
+  public Map<Row, List<Row>> getAllPresent(Collection<Row> keys) {
+    return getCache().getAllPresent(keys);
+  }
+
+  /**
+   * Add the existing records that were retrieved from the output for the keys. Keys that
+   * have no existing records are cached as having none.
+   */
+  public void putAll(Collection<Row> keys, Map<Row, List<Row>> existingForKeys) {
+    Cache<Row, List<Row>> cache = getCache();
+
+    synchronized (cache) {
+      for (Row key : keys) {
+        List<Row> existing = existingForKeys.get(key);
+        if (existing == null) {
+          existing = Collections.emptyList();
+        }
+
+        cache.put(key, Collections.unmodifiableList(Lists.newArrayList(existing)));
+      }
+    }
+  }
+
+  /**
+   * Update the cached records of the key with the mutations that were applied to the output
+   * for the key, in the order that they were applied. If the key is not in the cache then
+   * nothing is cached, because the other existing records of the key are not known. If a
+   * mutation can not be matched to a single cached record, or a record that it adds can not be
+   * given the schema of the cached records, then the key is removed from the cache.
+   */
+  public void applyMutations(Row key, List<Row> plannedForKey) {
+    Cache<Row, List<Row>> cache = getCache();
+
+    synchronized (cache) {
+      List<Row> cached = cache.getIfPresent(key);
+      if (cached == null) {
+        return;
+      }
+
+      List<Row> updated = Lists.newArrayList(cached);
+      for (Row planned : plannedForKey) {
+        if (!applyMutation(updated, planned)) {
+          cache.invalidate(key);
+          return;
+        }
+      }
+
+      cache.put(key, Collections.unmodifiableList(updated));
+    }
+  }
+
+  /**
+   * Remove the keys from the cache, e.g. when it is not known which of their mutations were
+   * applied to the output.
+   */
+  public void invalidateAll(Collection<Row> keys) {
+    getCache().invalidateAll(keys);
+  }
+
+  /**
+   * Get the number of keys that have been evicted from the cache since the last call.
+   */
+  public long drainEvictions() {
+    getCache();
+
+    return EVICTIONS.get(name).getAndSet(0);
+  }
+
+  /**
+   * Remove all of the cached records of all caches of this executor.
+   */
+  public static void clearAll() {
+    for (Cache<Row, List<Row>> cache : CACHES.values()) {
+      cache.invalidateAll();
+    }
+    for (AtomicLong evictions : EVICTIONS.values()) {
+      evictions.set(0);
+    }
+  }
+
+  // Returns false if the mutation could not be matched to the cached records
+  private boolean applyMutation(List<Row> cached, Row planned) {
+    MutationType mutationType = PlannerUtils.getMutationType(planned);
+    Row mutation = PlannerUtils.removeMutationTypeField(planned);
+
+    if (mutationType == MutationType.NONE) {
+      return true;
+    }
+    if (mutationType == MutationType.OVERWRITE || mutationType == MutationType.INSERT) {
+      Row added = toCachedSchema(cached, mutation);
+      if (added == null) {
+        return false;
+      }
+
+      if (mutationType == MutationType.OVERWRITE) {
+        cached.clear();
+      }
+      cached.add(added);
+      return true;
+    }
+
+    for (String identityFieldName : identityFieldNames) {
+      if (!Arrays.asList(mutation.schema().fieldNames()).contains(identityFieldName)) {
+        return false;
+      }
+    }
+
+    // The identity fields do not identify a single record when more than one of the cached records
+    // match, e.g. the versions of a history planner when the identity is only the key, so the
+    // record that the output applied the mutation to is not known
+    int matchedIndex = -1;
+    ListIterator<Row> cachedIterator = cached.listIterator();
+    while (cachedIterator.hasNext()) {
+      int index = cachedIterator.nextIndex();
+
+      if (hasSameIdentity(cachedIterator.next(), mutation)) {
+        if (matchedIndex != -1) {
+          return false;
+        }
+        matchedIndex = index;
+      }
+    }
+
+    if (matchedIndex != -1) {
+      if (mutationType == MutationType.DELETE) {
+        cached.remove(matchedIndex);
+      }
+      else {
+        cached.set(matchedIndex, merge(cached.get(matchedIndex), mutation));
+      }
+    }
+    else if (mutationType == MutationType.UPSERT) {
+      Row added = toCachedSchema(cached, mutation);
+      if (added == null) {
+        return false;
+      }
+
+      cached.add(added);
+    }
+
+    return true;
+  }
+
+  private boolean hasSameIdentity(Row existing, Row mutation) {
+    for (String identityFieldName : identityFieldNames) {
+      if (!Objects.equal(existing.getAs(identityFieldName), mutation.getAs(identityFieldName))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // Overwrite the values of the existing record with those of the mutation, keeping the schema
+  // of the existing record so that the planner sees the same schema as from the output
+  private Row merge(Row existing, Row mutation) {
+    RowBuilder builder = RowBuilder.from(existing);
+    List<String> existingFieldNames = Arrays.asList(existing.schema().fieldNames());
+
+    for (String fieldName : mutation.schema().fieldNames()) {
+      if (existingFieldNames.contains(fieldName)) {
+        builder.set(fieldName, mutation.getAs(fieldName));
+      }
+    }
+
+    return builder.build();
+  }
+
+  // The records that a mutation adds are cached with the schema of the records from the output,
+  // rather than that of the planner. Returns null when there are no cached records to take the
+  // schema from, or when the mutation does not have all of their fields.
+  private Row toCachedSchema(List<Row> cached, Row mutation) {
+    if (cached.isEmpty()) {
+      return null;
+    }
+
+    StructType schema = cached.get(0).schema();
+    List<String> mutationFieldNames = Arrays.asList(mutation.schema().fieldNames());
+    Object[] values = new Object[schema.length()];
+
+    for (int i = 0; i < values.length; i++) {
+      String fieldName = schema.fieldNames()[i];
+      if (!mutationFieldNames.contains(fieldName)) {
+        return null;
+      }
+
+      values[i] = mutation.getAs(fieldName);
+    }
+
+    return new RowWithSchema(schema, values);
+  }
+
+  private Cache<Row, List<Row>> getCache() {
+    Cache<Row, List<Row>> cache = CACHES.get(name);
+
+    if (cache == null) {
+      final AtomicLong evictions = new AtomicLong();
+      EVICTIONS.putIfAbsent(name, evictions);
+
+      cache = CacheBuilder.newBuilder()
+          .maximumSize(maximumSize)
+          .removalListener(new RemovalListener<Row, List<Row>>() {
+            @Override
+            public void onRemoval(RemovalNotification<Row, List<Row>> notification) {
+              if (notification.wasEvicted()) {
+                EVICTIONS.get(name).incrementAndGet();
+              }
+            }
+          })
+          .build();
+
+      Cache<Row, List<Row>> existingCache = CACHES.putIfAbsent(name, cache);
+      if (existingCache != null) {
+        cache = existingCache;
+      }
+    }
+
+    return cache;
+  }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.run;
+
+import com.cloudera.labs.envelope.utils.JVMUtils;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.FileUtils;
+import org.apache.spark.api.java.function.VoidFunction2;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SQLContext;
+import org.apache.spark.sql.execution.streaming.Sink;
+import org.apache.spark.sql.sources.StreamSinkProvider;
+import org.apache.spark.sql.streaming.OutputMode;
+import org.apache.spark.sql.streaming.ProcessingTime;
+import org.apache.spark.sql.streaming.StreamingQuery;
+import org.apache.spark.sql.streaming.StreamingQueryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.collection.Seq;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Structured Streaming sink that hands each micro-batch of a streaming query to a function on
+ * the driver, so that the micro-batch can be run through the steps of the pipeline. The sink is
+ * created by Spark from its class name, so the function of each query is registered here under
+ * an identifier that is passed to the sink as an option of the query.
+ */
+public class MicroBatchSinkProvider implements StreamSinkProvider {
+
+  private static final Logger LOG = LoggerFactory.getLogger(MicroBatchSinkProvider.class);
+
+  private static final String SINK_ID_OPTION = "envelope.sink.id";
+
+  private static final Map<String, VoidFunction2<Long, Dataset<Row>>> BATCH_FUNCTIONS = Maps.newConcurrentMap();
+
+  /**
+   * Start a streaming query that calls the function for each micro-batch of the streaming
+   * DataFrame. The query is checkpointed to a new temporary location on the driver, so that
+   * where the query starts from is decided by the input rather than by a previous run, and the
+   * location is deleted when the query terminates.
+   */
+  public static StreamingQuery start(String queryName, Dataset<Row> stream, long triggerMilliseconds,
+                                     VoidFunction2<Long, Dataset<Row>> batchFunction) {
+    String sinkId = UUID.randomUUID().toString();
+    BATCH_FUNCTIONS.put(sinkId, batchFunction);
+
+    File checkpointDirectory = new File(System.getProperty("java.io.tmpdir"),
+        "envelope-checkpoints" + File.separator + sinkId);
+    String checkpointLocation = checkpointDirectory.toURI().toString();
+
+    LOG.info("Starting streaming query {} with checkpoint location {}", queryName, checkpointLocation);
+
+    StreamingQuery query = stream.writeStream()
+        .format(MicroBatchSinkProvider.class.getName())
+        .queryName(queryName)
+        .option(SINK_ID_OPTION, sinkId)
+        .option("checkpointLocation", checkpointLocation)
+        .outputMode(OutputMode.Append())
+        .trigger(ProcessingTime.create(triggerMilliseconds, TimeUnit.MILLISECONDS))
+        .start();
+
+    QueryCleanup cleanup = new QueryCleanup(query, sinkId, checkpointDirectory);
+    query.sparkSession().streams().addListener(cleanup);
+    // The listener is not called if the driver exits before the termination event is delivered
+    JVMUtils.closeAtShutdown(cleanup);
+    if (!query.isActive()) {
+      cleanup.close();
+    }
+
+    return query;
+  }
+
+  @Override
+  public Sink createSink(SQLContext sqlContext, scala.collection.immutable.Map<String, String> parameters,
+                         Seq<String> partitionColumns, OutputMode outputMode) {
+    String sinkId = parameters.apply(SINK_ID_OPTION);
+
+    if (!BATCH_FUNCTIONS.containsKey(sinkId)) {
+      throw new RuntimeException("No micro-batch function registered for streaming query sink: " + sinkId);
+    }
+
+    return new MicroBatchSink(BATCH_FUNCTIONS.get(sinkId));
+  }
+
+  /**
+   * Removes the micro-batch function and the checkpoint location of a query once the query has
+   * terminated.
+   */
+  private static class QueryCleanup extends StreamingQueryListener implements Closeable {
+    private StreamingQuery query;
+    private String sinkId;
+    private File checkpointDirectory;
+
+    QueryCleanup(StreamingQuery query, String sinkId, File checkpointDirectory) {
+      this.query = query;
+      this.sinkId = sinkId;
+      this.checkpointDirectory = checkpointDirectory;
+    }
+
+    @Override
+    public void onQueryStarted(StreamingQueryListener.QueryStartedEvent event) {
+      // Nothing to do
+    }
+
+    @Override
+    public void onQueryProgress(StreamingQueryListener.QueryProgressEvent event) {
+      // Nothing to do
+    }
+
+    @Override
+    public void onQueryTerminated(StreamingQueryListener.QueryTerminatedEvent event) {
+      if (event.id().equals(query.id())) {
+        close();
+      }
+    }
+
+    @Override
+    public synchronized void close() {
+      if (BATCH_FUNCTIONS.remove(sinkId) != null) {
+        query.sparkSession().streams().removeListener(this);
+        FileUtils.deleteQuietly(checkpointDirectory);
+        LOG.debug("Deleted checkpoint location {} of terminated streaming query {}",
+            checkpointDirectory, query.name());
+      }
+    }
+  }
+
+  private static class MicroBatchSink implements Sink {
+    private VoidFunction2<Long, Dataset<Row>> batchFunction;
+
+    MicroBatchSink(VoidFunction2<Long, Dataset<Row>> batchFunction) {
+      this.batchFunction = batchFunction;
+    }
+
+    @Override
+    public void addBatch(long batchId, Dataset<Row> data) {
+      try {
+        batchFunction.call(batchId, data);
+      }
+      catch (RuntimeException e) {
+        throw e;
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+}
@@ -52,7 +52,10 @@ import com.typesafe.config.ConfigValue;
 import com.typesafe.config.ConfigValueFactory;
 import com.typesafe.config.ConfigValueType;
 import org.apache.spark.api.java.JavaRDD;
-import org.apache.spark.api.java.function.VoidFunction;
+import org.apache.spark.api.java.function.VoidFunction2;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.streaming.Time;
 import org.apache.spark.streaming.api.java.JavaDStream;
 import org.apache.spark.streaming.api.java.JavaStreamingContext;
 import org.slf4j.Logger;
@@ -66,6 +69,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.cloudera.labs.envelope.security.SecurityUtils.SECURITY_PREFIX;
 
@@ -90,6 +94,9 @@ public class Runner {
 
   private Config baseConfig;
   private ExecutorService threadPool;
+  // The independent steps are read by every micro-batch, so the progress of their inputs is only
+  // recorded once a micro-batch has been run through all of the steps
+  private Set<BatchStep> independentStepsAwaitingProgress = Sets.newHashSet();
   private TokenStoreManager tokenStoreManager;
 
   private static Logger LOG = LoggerFactory.getLogger(Runner.class);
@@ -149,60 +156,120 @@ public class Runner {
   }
 
   /**
-   * Run the Envelope pipeline as a Spark Streaming job.
+   * Run the Envelope pipeline as a Spark Streaming job. Streaming steps with structured stream
+   * inputs are run as Spark Structured Streaming queries, and all other streaming steps are
+   * run from the Spark Streaming context.
    * @param steps The full configuration of the Envelope pipeline
    */
   @SuppressWarnings("unchecked")
   private void runStreaming(final Set<Step> steps) throws Exception {
     final Set<Step> independentNonStreamingSteps = StepUtils.getIndependentNonStreamingSteps(steps);
-    runBatch(independentNonStreamingSteps);
+    runBatch(independentNonStreamingSteps, independentStepsAwaitingProgress);
+
+    boolean hasDStreams = false;
 
     Set<StreamingStep> streamingSteps = StepUtils.getStreamingSteps(steps);
     for (final StreamingStep streamingStep : streamingSteps) {
       LOG.debug("Setting up streaming step: " + streamingStep.getName());
 
-      JavaDStream stream = streamingStep.getStream();
-
-      stream.foreachRDD(new VoidFunction<JavaRDD<?>>() {
-        @Override
-        public void call(JavaRDD<?> raw) throws Exception {
-          // Some independent steps might be repeating steps that have been flagged for reload
-          StepUtils.resetRepeatingSteps(steps);
-          // This will run any batch steps (and dependents) that are not submitted
-          runBatch(independentNonStreamingSteps);
-
-          streamingStep.setData(streamingStep.translate(raw));
-          streamingStep.writeData();
-          streamingStep.setState(StepState.FINISHED);
-
-          Set<Step> batchSteps = StepUtils.mergeLoadedSteps(steps, streamingStep, baseConfig);
-          Set<Step> dependentSteps = StepUtils.getAllDependentSteps(streamingStep, batchSteps);
-          batchSteps.add(streamingStep);
-          batchSteps.addAll(streamingStep.loadNewBatchSteps());
-          batchSteps.addAll(independentNonStreamingSteps);
-          runBatch(batchSteps);
+      if (streamingStep.isStructured()) {
+        streamingStep.startQuery(new VoidFunction2<Long, Dataset<Row>>() {
+          @Override
+          public void call(Long batchId, Dataset<Row> batch) throws Exception {
+            JavaRDD<Row> raw = batch.javaRDD();
 
-          StepUtils.resetSteps(dependentSteps);
-
-          streamingStep.recordProgress(raw);
-        }
-      });
+            // Structured Streaming does not queue micro-batches, so they are not delayed by scheduling
+            runMicroBatch(steps, independentNonStreamingSteps, streamingStep, raw, System.currentTimeMillis());
+            // The progress is recorded before the sink returns so that a failure stops the query
+            streamingStep.recordProgress(raw);
+          }
+        });
+      }
+      else {
+        JavaDStream stream = streamingStep.getStream();
+
+        stream.foreachRDD(new VoidFunction2<JavaRDD<?>, Time>() {
+          @Override
+          public void call(JavaRDD<?> raw, Time batchTime) throws Exception {
+            runMicroBatch(steps, independentNonStreamingSteps, streamingStep, raw, batchTime.milliseconds());
+            streamingStep.recordProgress(raw);
+          }
+        });
+        hasDStreams = true;
+      }
 
       LOG.debug("Finished setting up streaming step: " + streamingStep.getName());
     }
 
-    JavaStreamingContext jsc = Contexts.getJavaStreamingContext();
-    jsc.start();
-    LOG.debug("Streaming context started");
-    jsc.awaitTermination();
-    LOG.debug("Streaming context terminated");
+    if (hasDStreams) {
+      JavaStreamingContext jsc = Contexts.getJavaStreamingContext();
+      jsc.start();
+      LOG.debug("Streaming context started");
+      jsc.awaitTermination();
+      LOG.debug("Streaming context terminated");
+    }
+    else {
+      Contexts.getSparkSession().streams().awaitAnyTermination();
+      LOG.debug("Streaming query terminated");
+    }
   }
 
   /**
-   * Run the steps in dependency order.
+   * Run a micro-batch of a streaming step through the steps of the pipeline. Micro-batches of
+   * different streaming steps are run one at a time.
+   */
+  private synchronized void runMicroBatch(Set<Step> steps, Set<Step> independentNonStreamingSteps,
+                                          StreamingStep streamingStep, JavaRDD<?> raw,
+                                          long batchTime) throws Exception {
+    long startTime = System.nanoTime();
+    long schedulingDelayMs = Math.max(0, System.currentTimeMillis() - batchTime);
+
+    // Some independent steps might be repeating steps that have been flagged for reload
+    StepUtils.resetRepeatingSteps(steps);
+    // This will run any batch steps (and dependents) that are not submitted
+    runBatch(independentNonStreamingSteps, independentStepsAwaitingProgress);
+
+    streamingStep.setData(streamingStep.translate(raw));
+    streamingStep.writeData();
+    streamingStep.setState(StepState.FINISHED);
+
+    Set<Step> batchSteps = StepUtils.mergeLoadedSteps(steps, streamingStep, baseConfig);
+    Set<Step> dependentSteps = StepUtils.getAllDependentSteps(streamingStep, batchSteps);
+    batchSteps.add(streamingStep);
+    batchSteps.addAll(streamingStep.loadNewBatchSteps());
+    batchSteps.addAll(independentNonStreamingSteps);
+    runBatch(batchSteps);
+
+    recordProgress(independentStepsAwaitingProgress);
+    unpersistComponentData(independentStepsAwaitingProgress);
+    independentStepsAwaitingProgress.clear();
+
+    StepUtils.resetSteps(dependentSteps);
+
+    streamingStep.notifyBatchCompleted(batchTime, TimeUnit.MILLISECONDS.toNanos(schedulingDelayMs),
+        System.nanoTime() - startTime);
+    streamingStep.unpersistTranslation();
+  }
+
+  /**
+   * Run the steps in dependency order, and then record the progress of the batch steps that were
+   * submitted.
    * @param steps The steps to run, which may be the full Envelope pipeline, or a subset of it.
    */
   private void runBatch(Set<Step> steps) throws Exception {
+    Set<BatchStep> submittedBatchSteps = Sets.newHashSet();
+    runBatch(steps, submittedBatchSteps);
+    recordProgress(submittedBatchSteps);
+    unpersistComponentData(submittedBatchSteps);
+  }
+
+  /**
+   * Run the steps in dependency order.
+   * @param steps The steps to run, which may be the full Envelope pipeline, or a subset of it.
+   * @param submittedBatchSteps The set that the batch steps are added to when they are submitted,
+   *                            so that the caller can record their progress.
+   */
+  private void runBatch(Set<Step> steps, Set<BatchStep> submittedBatchSteps) throws Exception {
     if (steps.isEmpty()) {
       return;
     }
@@ -245,6 +312,7 @@ public class Runner {
               batchStep.setState(StepState.SUBMITTED);
               Future<Void> offMainThreadStep = runStepOffMainThread(batchStep, dependencies, threadPool);
               offMainThreadSteps.add(offMainThreadStep);
+              submittedBatchSteps.add(batchStep);
             }
           }
 
@@ -334,6 +402,20 @@ public class Runner {
     LOG.debug("Finished batch for steps: {}", StepUtils.stepNamesAsString(linkedSteps));
   }
 
+  // Only record the progress of the batch inputs once all of the steps that could depend on the
+  // data that they read have finished
+  private void recordProgress(Set<BatchStep> batchSteps) throws Exception {
+    for (BatchStep batchStep : batchSteps) {
+      batchStep.recordProgress();
+    }
+  }
+
+  private void unpersistComponentData(Set<BatchStep> batchSteps) {
+    for (BatchStep batchStep : batchSteps) {
+      batchStep.unpersistComponentData();
+    }
+  }
+
   private void initializeThreadPool(Config config) {
     if (config.hasPath(PIPELINE_THREADS_PROPERTY)) {
       threadPool = Executors.newFixedThreadPool(config.getInt(PIPELINE_THREADS_PROPERTY));
@@ -482,6 +564,12 @@ public class Runner {
             .optionalPath(CONFIG_LOADER_PROPERTY, ConfigValueType.OBJECT)
             .optionalPath(PIPELINE_THREADS_PROPERTY, ConfigValueType.NUMBER)
             .optionalPath(Contexts.SPARK_SESSION_ENABLE_HIVE_SUPPORT, ConfigValueType.BOOLEAN)
+            .optionalPath(Contexts.BACKPRESSURE_ENABLED_PROPERTY, ConfigValueType.BOOLEAN)
+            .optionalPath(Contexts.BACKPRESSURE_MAX_RATE_PER_PARTITION_PROPERTY, ConfigValueType.NUMBER)
+            .optionalPath(Contexts.BACKPRESSURE_MIN_RATE_PROPERTY, ConfigValueType.NUMBER)
+            .optionalPath(Contexts.BACKPRESSURE_PID_PROPORTIONAL_PROPERTY, ConfigValueType.NUMBER)
+            .optionalPath(Contexts.BACKPRESSURE_PID_INTEGRAL_PROPERTY, ConfigValueType.NUMBER)
+            .optionalPath(Contexts.BACKPRESSURE_PID_DERIVATIVE_PROPERTY, ConfigValueType.NUMBER)
             .handlesOwnValidationPath(Contexts.SPARK_CONF_PROPERTY_PREFIX)
             .handlesOwnValidationPath(CONFIG_LOADER_PROPERTY)
             .build();
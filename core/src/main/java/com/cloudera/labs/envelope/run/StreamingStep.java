@@ -17,27 +17,42 @@ package com.cloudera.labs.envelope.run;
 
 import com.cloudera.labs.envelope.component.InstantiatedComponent;
 import com.cloudera.labs.envelope.component.InstantiatesComponents;
+import com.cloudera.labs.envelope.event.CoreEventMetadataKeys;
+import com.cloudera.labs.envelope.event.CoreEventTypes;
+import com.cloudera.labs.envelope.event.Event;
+import com.cloudera.labs.envelope.event.EventManager;
+import com.cloudera.labs.envelope.event.EventUtils;
 import com.cloudera.labs.envelope.input.CanRecordProgress;
+import com.cloudera.labs.envelope.input.Input;
 import com.cloudera.labs.envelope.input.StreamInput;
+import com.cloudera.labs.envelope.input.StructuredStreamInput;
+import com.cloudera.labs.envelope.schema.DeclaresProvidingSchema;
 import com.cloudera.labs.envelope.schema.InputTranslatorCompatibilityValidation;
 import com.cloudera.labs.envelope.schema.SchemaNegotiator;
 import com.cloudera.labs.envelope.translate.TranslateFunction;
 import com.cloudera.labs.envelope.translate.TranslationResults;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
 import com.cloudera.labs.envelope.validate.Validations;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValueType;
 import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.VoidFunction2;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.streaming.StreamingQuery;
 import org.apache.spark.streaming.api.java.JavaDStream;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A streaming step is a data step that provides a DataFrame per Spark Streaming micro-batch.
+ * The micro-batches come from either a Spark Streaming DStream or, for structured stream inputs,
+ * a Spark Structured Streaming query.
  */
 public class StreamingStep extends DataStep implements CanRecordProgress, ProvidesValidations, InstantiatesComponents {
 
@@ -46,6 +61,7 @@ public class StreamingStep extends DataStep implements CanRecordProgress, Provid
   public static final String REPARTITION_NUM_PARTITIONS_PROPERTY = "input.repartition.partitions";
 
   private TranslateFunction translateFunction;
+  private TranslationResults translationResults;
 
   public StreamingStep(String name) {
     super(name);
@@ -62,6 +78,25 @@ public class StreamingStep extends DataStep implements CanRecordProgress, Provid
     return stream;
   }
 
+  /**
+   * Whether the micro-batches of the step come from a Spark Structured Streaming query rather
+   * than a DStream.
+   */
+  public boolean isStructured() {
+    return getInput(true) instanceof StructuredStreamInput;
+  }
+
+  /**
+   * Start the Spark Structured Streaming query of the step, which calls the function on the
+   * driver for each micro-batch.
+   */
+  public StreamingQuery startQuery(VoidFunction2<Long, Dataset<Row>> batchFunction) throws Exception {
+    StructuredStreamInput streamInput = (StructuredStreamInput)getInput(true);
+
+    return MicroBatchSinkProvider.start(getName(), streamInput.getStreamingDataFrame(),
+        streamInput.getTriggerMilliseconds(), batchFunction);
+  }
+
   @Override
   public void recordProgress(JavaRDD<?> batch) throws Exception {
     if (getInput(true) instanceof CanRecordProgress) {
@@ -79,18 +114,32 @@ public class StreamingStep extends DataStep implements CanRecordProgress, Provid
 
   @SuppressWarnings({"unchecked","rawtypes"})
   public Dataset<Row> translate(JavaRDD raw) {
-    StreamInput streamInput = (StreamInput)getInput(true);
+    DeclaresProvidingSchema streamInput = (DeclaresProvidingSchema)getInput(true);
     TranslateFunction translateFunction = getTranslateFunction(config, true);
 
-    // Encode the raw messages as rows (i.e. the raw value plus associated metadata fields)
-    JavaRDD<Row> encoded = raw.map(streamInput.getMessageEncoderFunction());
+    // Encode the raw messages as rows (i.e. the raw value plus associated metadata fields).
+    // The rows of structured stream inputs are already encoded by the streaming query.
+    JavaRDD<Row> encoded;
+    if (isStructured()) {
+      encoded = raw;
+    }
+    else {
+      encoded = raw.map(((StreamInput)streamInput).getMessageEncoderFunction());
+    }
+
+    // Release the translation of the previous micro-batch if it was not already released
+    unpersistTranslation();
 
-    // Translate raw message rows to structured rows
-    TranslationResults translationResults = new TranslationResults(
+    // Translate raw message rows to structured rows. The translation is persisted by the results
+    // so that the translated and errored rows are routed from a single pass over the messages.
+    long startTime = System.nanoTime();
+    translationResults = new TranslationResults(
         encoded.flatMap(translateFunction),
         translateFunction.getProvidingSchema(),
         streamInput.getProvidingSchema());
 
+    notifyDataTranslated(translationResults, startTime);
+
     BatchStep errored = createErrorStep(getName() + DEFAULT_ERROR_DATAFRAME_SUFFIX,
         translationResults.getErrored());
     addNewBatchStep(errored);
@@ -103,6 +152,65 @@ public class StreamingStep extends DataStep implements CanRecordProgress, Provid
     return translated;
   }
 
+  /**
+   * Release the persisted translation of the most recent micro-batch. This should be called once
+   * the micro-batch, and any steps that depend on it, have finished.
+   */
+  public void unpersistTranslation() {
+    if (translationResults != null) {
+      translationResults.unpersist();
+      translationResults = null;
+    }
+  }
+
+  /**
+   * Notify the event handlers that the most recent micro-batch has been run through the pipeline.
+   * This must be called before the translation is released.
+   * @param batchTime The time of the micro-batch, in milliseconds since the epoch.
+   * @param schedulingDelayNs The time that the micro-batch waited to be run after its batch time.
+   * @param processingTimeNs The time taken to run the micro-batch through the pipeline.
+   */
+  public void notifyBatchCompleted(long batchTime, long schedulingDelayNs, long processingTimeNs) {
+    if (EventManager.isHandled(CoreEventTypes.STREAMING_BATCH_COMPLETED) && translationResults != null) {
+      long recordCount = translationResults.getTranslatedCount() + translationResults.getErroredCount();
+      double recordsPerSecond = processingTimeNs > 0 ?
+          recordCount / (processingTimeNs / (double)TimeUnit.SECONDS.toNanos(1)) : 0;
+
+      Map<String, Object> metadata = Maps.newHashMap();
+      metadata.put(CoreEventMetadataKeys.STREAMING_BATCH_COMPLETED_STEP_NAME, getName());
+      metadata.put(CoreEventMetadataKeys.STREAMING_BATCH_COMPLETED_BATCH_TIME, batchTime);
+      metadata.put(CoreEventMetadataKeys.STREAMING_BATCH_COMPLETED_SCHEDULING_DELAY_NS, schedulingDelayNs);
+      metadata.put(CoreEventMetadataKeys.STREAMING_BATCH_COMPLETED_PROCESSING_TIME_NS, processingTimeNs);
+      metadata.put(CoreEventMetadataKeys.STREAMING_BATCH_COMPLETED_RECORD_COUNT, recordCount);
+      metadata.put(CoreEventMetadataKeys.STREAMING_BATCH_COMPLETED_RECORDS_PER_SECOND, recordsPerSecond);
+
+      String message = "Streaming step " + getName() + " completed a micro-batch of " + recordCount +
+          " records in " + EventUtils.prettifyNs(processingTimeNs) + " after a scheduling delay of " +
+          EventUtils.prettifyNs(schedulingDelayNs) + String.format(" (%.1f records per second)", recordsPerSecond);
+
+      EventManager.notify(new Event(CoreEventTypes.STREAMING_BATCH_COMPLETED, message, metadata));
+    }
+  }
+
+  private void notifyDataTranslated(TranslationResults translationResults, long startTime) {
+    if (EventManager.isHandled(CoreEventTypes.STREAMING_STEP_DATA_TRANSLATED)) {
+      long translatedCount = translationResults.getTranslatedCount();
+      long erroredCount = translationResults.getErroredCount();
+      long timeTakenNs = System.nanoTime() - startTime;
+
+      Map<String, Object> metadata = Maps.newHashMap();
+      metadata.put(CoreEventMetadataKeys.STREAMING_STEP_DATA_TRANSLATED_STEP_NAME, getName());
+      metadata.put(CoreEventMetadataKeys.STREAMING_STEP_DATA_TRANSLATED_TRANSLATED_COUNT, translatedCount);
+      metadata.put(CoreEventMetadataKeys.STREAMING_STEP_DATA_TRANSLATED_ERRORED_COUNT, erroredCount);
+      metadata.put(CoreEventMetadataKeys.STREAMING_STEP_DATA_TRANSLATED_TIME_TAKEN_NS, timeTakenNs);
+
+      String message = "Streaming step " + getName() + " translated " + translatedCount + " rows with " +
+          erroredCount + " errored rows in " + EventUtils.prettifyNs(timeTakenNs);
+
+      EventManager.notify(new Event(CoreEventTypes.STREAMING_STEP_DATA_TRANSLATED, message, metadata));
+    }
+  }
+
   @Override
   public Step copy() {
     StreamingStep copy = new StreamingStep(name);
@@ -150,7 +258,7 @@ public class StreamingStep extends DataStep implements CanRecordProgress, Provid
   private TranslateFunction getTranslateFunction(Config config, boolean configure) {
     if (configure) {
       if (translateFunction == null) {
-        StreamInput streamInput = (StreamInput)getInput(true);
+        Input streamInput = getInput(true);
         translateFunction = new TranslateFunction(config.getConfig(TRANSLATOR_PROPERTY));
 
         SchemaNegotiator.negotiate(streamInput, translateFunction);
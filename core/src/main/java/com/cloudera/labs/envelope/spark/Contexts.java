@@ -52,6 +52,12 @@ public enum Contexts {
   public static final String NUM_EXECUTOR_CORES_PROPERTY = "executor.cores";
   public static final String EXECUTOR_MEMORY_PROPERTY = "executor.memory";
   public static final String SPARK_CONF_PROPERTY_PREFIX = "spark.conf";
+  public static final String BACKPRESSURE_ENABLED_PROPERTY = "backpressure.enabled";
+  public static final String BACKPRESSURE_MAX_RATE_PER_PARTITION_PROPERTY = "backpressure.max.rate.per.partition";
+  public static final String BACKPRESSURE_MIN_RATE_PROPERTY = "backpressure.min.rate";
+  public static final String BACKPRESSURE_PID_PROPORTIONAL_PROPERTY = "backpressure.pid.proportional";
+  public static final String BACKPRESSURE_PID_INTEGRAL_PROPERTY = "backpressure.pid.integral";
+  public static final String BACKPRESSURE_PID_DERIVATIVE_PROPERTY = "backpressure.pid.derivative";
   public static final String SPARK_SESSION_ENABLE_HIVE_SUPPORT = "hive.enabled";
   public static final String DRIVER_MEMORY_PROPERTY = "driver.memory";
   public static final String SPARK_DRIVER_MEMORY_PROPERTY = "spark.driver.memory";
@@ -157,6 +163,29 @@ public enum Contexts {
     INSTANCE.ss = sparkSessionBuilder.config(sparkConf).getOrCreate();
   }
 
+  private static void setBackpressureConfiguration(Config config, SparkConf sparkConf) {
+    if (config.hasPath(BACKPRESSURE_ENABLED_PROPERTY)) {
+      sparkConf.set("spark.streaming.backpressure.enabled", config.getString(BACKPRESSURE_ENABLED_PROPERTY));
+    }
+    if (config.hasPath(BACKPRESSURE_MAX_RATE_PER_PARTITION_PROPERTY)) {
+      sparkConf.set("spark.streaming.kafka.maxRatePerPartition",
+          config.getString(BACKPRESSURE_MAX_RATE_PER_PARTITION_PROPERTY));
+    }
+    if (config.hasPath(BACKPRESSURE_MIN_RATE_PROPERTY)) {
+      sparkConf.set("spark.streaming.backpressure.pid.minRate", config.getString(BACKPRESSURE_MIN_RATE_PROPERTY));
+    }
+    if (config.hasPath(BACKPRESSURE_PID_PROPORTIONAL_PROPERTY)) {
+      sparkConf.set("spark.streaming.backpressure.pid.proportional",
+          config.getString(BACKPRESSURE_PID_PROPORTIONAL_PROPERTY));
+    }
+    if (config.hasPath(BACKPRESSURE_PID_INTEGRAL_PROPERTY)) {
+      sparkConf.set("spark.streaming.backpressure.pid.integral", config.getString(BACKPRESSURE_PID_INTEGRAL_PROPERTY));
+    }
+    if (config.hasPath(BACKPRESSURE_PID_DERIVATIVE_PROPERTY)) {
+      sparkConf.set("spark.streaming.backpressure.pid.derived", config.getString(BACKPRESSURE_PID_DERIVATIVE_PROPERTY));
+    }
+  }
+
   private static synchronized SparkConf getSparkConfiguration(Config config, ExecutionMode mode) {
     SparkConf sparkConf = new SparkConf();
 
@@ -176,6 +205,11 @@ public enum Contexts {
       // per second. Without this we could end up with arbitrarily large initial micro-batches
       // for existing topics.
       sparkConf.set("spark.streaming.kafka.maxRatePerPartition", "2000");
+      // The back-pressure rate is estimated by a PID controller from the scheduling delay and the
+      // processing time of each micro-batch. Because the Envelope steps of a micro-batch run inside
+      // its output operation the processing time includes the translating, planning and writing
+      // of every step, so slow outputs (e.g. during Kudu compactions) shrink the next micro-batches.
+      setBackpressureConfiguration(config, sparkConf);
       // Override the Spark SQL shuffle partitions with the default number of cores. Otherwise
       // the default is typically 200 partitions, which is very high for micro-batches.
       sparkConf.set("spark.sql.shuffle.partitions", "2");
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.spark;
+
+import org.apache.spark.sql.types.StructType;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Resolves the indexes of a fixed list of field names, such as the fields configured on a
+ * planner or a data quality rule, so that values can be accessed by position rather than
+ * by name for every row. The indexes are only resolved again if the schema changes.
+ */
+@SuppressWarnings("serial")
+public class FieldIndexes implements Serializable {
+
+  private List<String> fieldNames;
+  private transient StructType schema;
+  private transient int[] indexes;
+
+  public FieldIndexes(List<String> fieldNames) {
+    this.fieldNames = fieldNames;
+  }
+
+  public List<String> getFieldNames() {
+    return fieldNames;
+  }
+
+  /**
+   * Get the indexes of the field names, in the order of the field names, for the schema.
+   */
+  public int[] forSchema(StructType schema) {
+    if (indexes == null || (schema != this.schema && !schema.equals(this.schema))) {
+      int[] resolved = new int[fieldNames.size()];
+      for (int i = 0; i < resolved.length; i++) {
+        resolved[i] = schema.fieldIndex(fieldNames.get(i));
+      }
+
+      this.indexes = resolved;
+      this.schema = schema;
+    }
+
+    return indexes;
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.spark;
+
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.StructType;
+
+/**
+ * A builder of rows for a schema that is known up front.
+ *
+ * <p>Chaining calls to RowUtils#append and RowUtils#set creates a new schema, a new values array
+ * and a new row for every field that is added or changed. A row builder instead holds the final
+ * schema and a single values array that fields are set into, either by name or by an index that
+ * the caller has resolved once, and only creates the row when {@link #build()} is called.
+ *
+ * <p>A builder can be reused for many rows of the same schema. Values that are not set again
+ * between calls to {@link #build()} retain their previous value, which allows a builder to act as
+ * a template for the fields that are the same for every row.
+ */
+public class RowBuilder {
+
+  private StructType schema;
+  private Object[] values;
+
+  public RowBuilder(StructType schema) {
+    this.schema = schema;
+    this.values = new Object[schema.length()];
+  }
+
+  /**
+   * Create a builder with the schema and values of an existing row.
+   */
+  public static RowBuilder from(Row row) {
+    return new RowBuilder(row.schema()).setAll(row);
+  }
+
+  public StructType getSchema() {
+    return schema;
+  }
+
+  public int fieldIndex(String fieldName) {
+    return schema.fieldIndex(fieldName);
+  }
+
+  public Object get(int index) {
+    return values[index];
+  }
+
+  public RowBuilder set(int index, Object value) {
+    values[index] = value;
+    return this;
+  }
+
+  public RowBuilder set(String fieldName, Object value) {
+    return set(fieldIndex(fieldName), value);
+  }
+
+  /**
+   * Set the values of the row by position, starting from the first field of the builder.
+   */
+  public RowBuilder setAll(Row row) {
+    return setAll(row, 0);
+  }
+
+  /**
+   * Set the values of the row by position, starting from the given field index of the builder.
+   */
+  public RowBuilder setAll(Row row, int offset) {
+    for (int i = 0; i < row.length(); i++) {
+      values[offset + i] = row.get(i);
+    }
+    return this;
+  }
+
+  /**
+   * Create a row from the current values of the builder. The builder can continue to be used
+   * after this call without modifying the returned row.
+   */
+  public Row build() {
+    return new RowWithSchema(schema, values.clone());
+  }
+
+}
@@ -15,6 +15,8 @@
 
 package com.cloudera.labs.envelope.spark;
 
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.RowFactory;
 import org.apache.spark.sql.types.StructType;
@@ -25,6 +27,7 @@ import java.sql.Date;
 import java.sql.Timestamp;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Allows individual Spark SQL Rows to be created with a schema. This is achieved by
@@ -33,14 +36,43 @@ import java.util.Map;
 @SuppressWarnings("serial")
 public class RowWithSchema implements Row {
 
+  // The field name to index maps are shared by all rows of the same schema instance, and are
+  // released when the schema instance is no longer referenced
+  private static final ConcurrentMap<StructType, Map<String, Integer>> FIELD_INDEXES =
+      new MapMaker().weakKeys().makeMap();
+
   StructType schema;
   Row internalRow;
+  private transient Map<String, Integer> fieldIndexes;
 
   public RowWithSchema(StructType schema, Object... values) {
     this.schema = schema;
     this.internalRow = RowFactory.create(values);
   }
 
+  /**
+   * Get the map of field name to field index for the schema. The map is computed once per
+   * schema instance and then shared by all rows of that schema.
+   */
+  public static Map<String, Integer> getFieldIndexes(StructType schema) {
+    Map<String, Integer> fieldIndexes = FIELD_INDEXES.get(schema);
+
+    if (fieldIndexes == null) {
+      String[] fieldNames = schema.fieldNames();
+      fieldIndexes = Maps.newHashMapWithExpectedSize(fieldNames.length);
+      for (int i = 0; i < fieldNames.length; i++) {
+        fieldIndexes.put(fieldNames[i].intern(), i);
+      }
+
+      Map<String, Integer> existing = FIELD_INDEXES.putIfAbsent(schema, fieldIndexes);
+      if (existing != null) {
+        fieldIndexes = existing;
+      }
+    }
+
+    return fieldIndexes;
+  }
+
   @Override
   public boolean anyNull() {
     return internalRow.anyNull();
@@ -58,7 +90,16 @@ public class RowWithSchema implements Row {
 
   @Override
   public int fieldIndex(String arg0) {
-    return schema.fieldIndex(arg0);
+    if (fieldIndexes == null) {
+      fieldIndexes = getFieldIndexes(schema);
+    }
+
+    Integer index = fieldIndexes.get(arg0);
+    if (index == null) {
+      throw new IllegalArgumentException("Field \"" + arg0 + "\" does not exist.");
+    }
+
+    return index;
   }
 
   @Override
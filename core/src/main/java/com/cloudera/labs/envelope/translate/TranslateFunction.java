@@ -21,8 +21,8 @@ import com.cloudera.labs.envelope.component.InstantiatesComponents;
 import com.cloudera.labs.envelope.schema.DeclaresExpectingSchema;
 import com.cloudera.labs.envelope.schema.DeclaresProvidingSchema;
 import com.cloudera.labs.envelope.schema.UsesProvidedSchema;
+import com.cloudera.labs.envelope.spark.RowBuilder;
 import com.cloudera.labs.envelope.utils.ConfigUtils;
-import com.cloudera.labs.envelope.utils.RowUtils;
 import com.cloudera.labs.envelope.utils.SchemaUtils;
 import com.google.common.collect.Lists;
 import com.typesafe.config.Config;
@@ -52,6 +52,12 @@ public class TranslateFunction implements FlatMapFunction<Row, Row>, Instantiate
   private StructType providedSchema;
 
   private transient Translator translator;
+  private transient Boolean appendRaw;
+  private transient StructType translatedRowSchema;
+  private transient StructType messageRowSchema;
+  private transient RowBuilder translatedRowBuilder;
+  private transient StructType erroredRowSchema;
+  private transient RowBuilder erroredRowBuilder;
 
   private static Logger LOG = LoggerFactory.getLogger(TranslateFunction.class);
 
@@ -68,7 +74,7 @@ public class TranslateFunction implements FlatMapFunction<Row, Row>, Instantiate
       translationResults = getTranslator().translate(message);
     }
     catch (Exception e) {
-      Row error = appendHadErrorFlag(message, true);
+      Row error = appendHadErrorFlag(message);
       return Collections.singleton(error).iterator();
     }
 
@@ -76,12 +82,7 @@ public class TranslateFunction implements FlatMapFunction<Row, Row>, Instantiate
     for (Row translationResult : translationResults) {
       validateTranslatedSchema(translationResult);
 
-      if (doesAppendRaw()) {
-        translationResult = appendRawFields(translationResult, message);
-      }
-      translationResult = appendHadErrorFlag(translationResult, false);
-
-      translated.add(translationResult);
+      translated.add(appendRawFieldsAndHadErrorFlag(translationResult, message));
     }
 
     return translated.iterator();
@@ -161,20 +162,40 @@ public class TranslateFunction implements FlatMapFunction<Row, Row>, Instantiate
   }
 
   private boolean doesAppendRaw() {
-    return ConfigUtils.getOrElse(config, APPEND_RAW_ENABLED_CONFIG, APPEND_RAW_ENABLED_DEFAULT);
+    if (appendRaw == null) {
+      appendRaw = ConfigUtils.getOrElse(config, APPEND_RAW_ENABLED_CONFIG, APPEND_RAW_ENABLED_DEFAULT);
+    }
+
+    return appendRaw;
   }
 
-  private Row appendRawFields(Row translated, Row message) {
-    for (StructField messageField : message.schema().fields()) {
-      translated = RowUtils.append(
-          translated,
-          "_" + messageField.name(),
-          messageField.dataType(),
-          messageField.nullable(),
-          message.getAs(messageField.name()));
+  // The raw fields (if enabled) and the had error flag are set into a row builder for the final
+  // schema, which is only derived again if the schema of the translated rows changes
+  private Row appendRawFieldsAndHadErrorFlag(Row translated, Row message) {
+    if (translatedRowBuilder == null ||
+        !sameSchema(translated.schema(), translatedRowSchema) ||
+        !sameSchema(message.schema(), messageRowSchema))
+    {
+      translatedRowSchema = translated.schema();
+      messageRowSchema = message.schema();
+
+      StructType appendedSchema = translatedRowSchema;
+      if (doesAppendRaw()) {
+        for (StructField messageField : messageRowSchema.fields()) {
+          appendedSchema = appendedSchema.add(
+              "_" + messageField.name(), messageField.dataType(), messageField.nullable());
+        }
+      }
+      translatedRowBuilder = new RowBuilder(appendHadErrorField(appendedSchema));
     }
 
-    return translated;
+    translatedRowBuilder.setAll(translated);
+    if (doesAppendRaw()) {
+      translatedRowBuilder.setAll(message, translated.length());
+    }
+    translatedRowBuilder.set(translatedRowBuilder.getSchema().length() - 1, false);
+
+    return translatedRowBuilder.build();
   }
 
   private boolean hasValueField(Row message) {
@@ -206,8 +227,21 @@ public class TranslateFunction implements FlatMapFunction<Row, Row>, Instantiate
     return DataTypes.createStructType(withFields);
   }
 
-  private Row appendHadErrorFlag(Row row, boolean hadError) {
-    return RowUtils.append(row, HAD_ERROR_FIELD_NAME, DataTypes.BooleanType, false, hadError);
+  private Row appendHadErrorFlag(Row message) {
+    if (erroredRowBuilder == null || !sameSchema(message.schema(), erroredRowSchema)) {
+      erroredRowSchema = message.schema();
+      erroredRowBuilder = new RowBuilder(appendHadErrorField(erroredRowSchema));
+    }
+
+    return erroredRowBuilder.setAll(message).set(message.length(), true).build();
+  }
+
+  private StructType appendHadErrorField(StructType schema) {
+    return schema.add(HAD_ERROR_FIELD_NAME, DataTypes.BooleanType, false);
+  }
+
+  private boolean sameSchema(StructType schema, StructType previousSchema) {
+    return schema == previousSchema || schema.equals(previousSchema);
   }
 
 }
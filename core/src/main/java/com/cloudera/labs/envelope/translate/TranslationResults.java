@@ -21,35 +21,114 @@ import org.apache.spark.api.java.function.Function;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.types.StructType;
+import org.apache.spark.storage.StorageLevel;
 
+import java.util.Map;
+
+/**
+ * The results of a translation, split into the successfully translated rows and the errored rows.
+ *
+ * <p>The translated and errored datasets are both derived from the same translation RDD, so to
+ * avoid translating every message twice the RDD is persisted the first time either dataset is
+ * requested. Callers should call {@link #unpersist()} once the batch or micro-batch has been
+ * fully processed.
+ */
 public class TranslationResults {
 
+  public static final StorageLevel DEFAULT_STORAGE_LEVEL = StorageLevel.MEMORY_AND_DISK();
+
   private JavaRDD<Row> results;
   private StructType errorSchema;
   private StructType translatedSchema;
+  private StorageLevel storageLevel;
+  private boolean persisted = false;
+  private Long translatedCount;
+  private Long erroredCount;
 
   public TranslationResults(JavaRDD<Row> results, StructType translatedSchema, StructType errorSchema) {
+    this(results, translatedSchema, errorSchema, DEFAULT_STORAGE_LEVEL);
+  }
+
+  /**
+   * @param storageLevel The storage level used to persist the translation between the translated
+   *                     and errored datasets. StorageLevel.NONE() disables the persist, in which
+   *                     case each message is translated once per dataset that is evaluated.
+   */
+  public TranslationResults(JavaRDD<Row> results, StructType translatedSchema, StructType errorSchema,
+                            StorageLevel storageLevel) {
     this.results = results;
     this.translatedSchema = translatedSchema;
     this.errorSchema = errorSchema;
+    this.storageLevel = storageLevel;
   }
 
   public Dataset<Row> getTranslated() {
     return Contexts.getSparkSession()
-        .createDataFrame(filterOnHadError(results, false), translatedSchema)
+        .createDataFrame(filterOnHadError(getPersistedResults(), false), translatedSchema)
         .drop(TranslateFunction.HAD_ERROR_FIELD_NAME);
   }
 
   public Dataset<Row> getErrored() {
     return Contexts.getSparkSession()
-        .createDataFrame(filterOnHadError(results, true), errorSchema)
+        .createDataFrame(filterOnHadError(getPersistedResults(), true), errorSchema)
         .drop(TranslateFunction.HAD_ERROR_FIELD_NAME);
   }
 
+  /**
+   * @return The number of rows that were successfully translated. The first call to this method
+   * or to {@link #getErroredCount()} runs a single Spark job that counts both.
+   */
+  public long getTranslatedCount() {
+    countResults();
+    return translatedCount;
+  }
+
+  /**
+   * @return The number of messages that could not be translated.
+   */
+  public long getErroredCount() {
+    countResults();
+    return erroredCount;
+  }
+
+  public synchronized void unpersist() {
+    if (persisted) {
+      results.unpersist(false);
+      persisted = false;
+    }
+  }
+
+  private synchronized JavaRDD<Row> getPersistedResults() {
+    if (!persisted &&
+        storageLevel != StorageLevel.NONE() &&
+        results.getStorageLevel() == StorageLevel.NONE())
+    {
+      results.persist(storageLevel);
+      persisted = true;
+    }
+
+    return results;
+  }
+
+  private synchronized void countResults() {
+    if (translatedCount == null) {
+      Map<Boolean, Long> counts = getPersistedResults().map(new HadErrorFunction()).countByValue();
+
+      translatedCount = counts.containsKey(false) ? counts.get(false) : 0L;
+      erroredCount = counts.containsKey(true) ? counts.get(true) : 0L;
+    }
+  }
+
   private JavaRDD<Row> filterOnHadError(JavaRDD<Row> results, boolean hadError) {
     return results.filter(new FilterOnHadErrorFunction(hadError));
   }
 
+  // The had error flag is always appended as the last field of the translation results, so we
+  // read it by position rather than resolving the field name for every row
+  private static boolean hadError(Row row) {
+    return row.getBoolean(row.length() - 1);
+  }
+
   @SuppressWarnings("serial")
   private static class FilterOnHadErrorFunction implements Function<Row, Boolean> {
     private boolean hadError;
@@ -60,7 +139,15 @@ public class TranslationResults {
 
     @Override
     public Boolean call(Row row) {
-      return this.hadError == row.<Boolean>getAs(TranslateFunction.HAD_ERROR_FIELD_NAME);
+      return this.hadError == hadError(row);
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class HadErrorFunction implements Function<Row, Boolean> {
+    @Override
+    public Boolean call(Row row) {
+      return hadError(row);
     }
   }
 
@@ -17,6 +17,7 @@ package com.cloudera.labs.envelope.utils;
 
 import com.cloudera.labs.envelope.plan.MutationType;
 import com.cloudera.labs.envelope.plan.time.TimeModel;
+import com.cloudera.labs.envelope.spark.RowBuilder;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.types.DataTypes;
 
@@ -31,7 +32,7 @@ public class PlannerUtils {
    */
   public static Row setMutationType(Row row, MutationType mutationType) {
     if (!hasMutationTypeField(row)) {
-      row = appendMutationTypeField(row);
+      return appendMutationTypeField(row, mutationType);
     }
     
     return RowUtils.set(row, MutationType.MUTATION_TYPE_FIELD_NAME, mutationType.toString());
@@ -54,12 +55,7 @@ public class PlannerUtils {
    */
   public static Row appendMutationTypeField(Row row) {
     if (!hasMutationTypeField(row)) {
-      row = RowUtils.append(
-          row,
-          MutationType.MUTATION_TYPE_FIELD_NAME,
-          DataTypes.StringType,
-          false,
-          MutationType.NONE.toString());
+      row = appendMutationTypeField(row, MutationType.NONE);
     }
     
     return row;
@@ -100,11 +96,7 @@ public class PlannerUtils {
     
     Row fromTime = fromTimeModel.getTime(fromRow);
     
-    for (int fieldNum = 0; fieldNum < fromTimeModel.getSchema().size(); fieldNum++) {
-      into = RowUtils.set(into, intoTimeModel.getSchema().fieldNames()[fieldNum], fromTime.get(fieldNum));
-    }
-    
-    return into;
+    return setTime(fromTime, into, intoTimeModel);
   }
   
   /**
@@ -118,11 +110,7 @@ public class PlannerUtils {
     
     Row fromTime = fromTimeModel.getPrecedingTime(fromRow);
     
-    for (int fieldNum = 0; fieldNum < fromTimeModel.getSchema().size(); fieldNum++) {
-      into = RowUtils.set(into, intoTimeModel.getSchema().fieldNames()[fieldNum], fromTime.get(fieldNum));
-    }
-    
-    return into;
+    return setTime(fromTime, into, intoTimeModel);
   }
   
   /**
@@ -153,6 +141,26 @@ public class PlannerUtils {
     return RowUtils.append(row, fieldName, DataTypes.StringType, false, UUID.randomUUID().toString());
   }
 
+  private static Row setTime(Row time, Row into, TimeModel intoTimeModel) {
+    String[] intoFieldNames = intoTimeModel.getSchema().fieldNames();
+    RowBuilder builder = RowBuilder.from(into);
+
+    for (int fieldNum = 0; fieldNum < intoFieldNames.length; fieldNum++) {
+      builder.set(intoFieldNames[fieldNum], time.get(fieldNum));
+    }
+
+    return builder.build();
+  }
+
+  private static Row appendMutationTypeField(Row row, MutationType mutationType) {
+    return RowUtils.append(
+        row,
+        MutationType.MUTATION_TYPE_FIELD_NAME,
+        DataTypes.StringType,
+        false,
+        mutationType.toString());
+  }
+
   private static void assertHasMutationTypeField(Row row) {
     if (!hasMutationTypeField(row)) {
       throw new RuntimeException("No mutation type field found: " + row);
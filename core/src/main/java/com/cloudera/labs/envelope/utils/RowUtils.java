@@ -15,6 +15,7 @@
 
 package com.cloudera.labs.envelope.utils;
 
+import com.cloudera.labs.envelope.spark.RowBuilder;
 import com.cloudera.labs.envelope.spark.RowWithSchema;
 import com.cloudera.labs.envelope.utils.DateTimeUtils.DateTimeParser;
 import com.google.common.collect.Lists;
@@ -36,6 +37,7 @@ import java.math.RoundingMode;
 import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -656,17 +658,7 @@ public class RowUtils {
   }
 
   public static Row set(Row row, String fieldName, Object replacement) {
-    Object[] values = new Object[row.length()];
-
-    for (int i = 0; i < row.schema().fields().length; i++) {
-      if (i == row.fieldIndex(fieldName)) {
-        values[i] = replacement;
-      } else {
-        values[i] = row.get(i);
-      }
-    }
-
-    return new RowWithSchema(row.schema(), values);
+    return RowBuilder.from(row).set(fieldName, replacement).build();
   }
   
   public static Row append(Row row, Object value) {
@@ -685,11 +677,9 @@ public class RowUtils {
   }
 
   public static Row append(Row row, Row append) {
-    for (StructField field : append.schema().fields()) {
-      row = append(row, field.name(), field.dataType(), field.nullable(), append.getAs(field.name()));
-    }
+    StructType appendedSchema = SchemaUtils.appendFields(row.schema(), Arrays.asList(append.schema().fields()));
 
-    return row;
+    return new RowBuilder(appendedSchema).setAll(row).setAll(append, row.length()).build();
   }
 
   public static Row remove(Row row, String fieldName) {
@@ -24,6 +24,7 @@ import com.cloudera.labs.envelope.event.EventManager;
 import com.cloudera.labs.envelope.input.BatchInput;
 import com.cloudera.labs.envelope.input.Input;
 import com.cloudera.labs.envelope.input.StreamInput;
+import com.cloudera.labs.envelope.input.StructuredStreamInput;
 import com.cloudera.labs.envelope.repetition.Repetitions;
 import com.cloudera.labs.envelope.run.*;
 import com.google.common.base.Optional;
@@ -240,7 +241,7 @@ public class StepUtils {
             LOG.debug("Adding batch step: " + stepName);
             step = new BatchStep(stepName);
           }
-          else if (stepInput instanceof StreamInput) {
+          else if (stepInput instanceof StreamInput || stepInput instanceof StructuredStreamInput) {
             LOG.debug("Adding streaming step: " + stepName);
             step = new StreamingStep(stepName);
           }
@@ -16,7 +16,14 @@
 package com.cloudera.labs.envelope.run;
 
 import com.cloudera.labs.envelope.component.ComponentFactory;
+import com.cloudera.labs.envelope.output.RandomOutput;
+import com.cloudera.labs.envelope.plan.MutationType;
+import com.cloudera.labs.envelope.plan.RandomPlanner;
+import com.cloudera.labs.envelope.spark.Accumulators;
 import com.cloudera.labs.envelope.spark.Contexts;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.cloudera.labs.envelope.utils.PlannerUtils;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -25,12 +32,19 @@ import com.typesafe.config.ConfigFactory;
 import org.apache.spark.sql.AnalysisException;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.cloudera.labs.envelope.validate.ValidationAssert.assertValidationFailures;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TestBatchStep {
 
@@ -132,4 +146,220 @@ public class TestBatchStep {
     assertValidationFailures(batchStep, config);
   }
 
+  @Test
+  public void testGroupedRandomPlanning() throws Exception {
+    List<Row> planned = runKeyCountStep(DataStep.PLANNING_MODE_GROUPED);
+
+    assertEquals(5, planned.size());
+    for (Row row : planned) {
+      assertEquals(10L, row.getAs("arriving"));
+    }
+    assertTrue(KeyCountOutput.maxKeysPerLookup.get() <= 2);
+    assertTrue(KeyCountOutput.maxMutationsPerApply.get() <= 2);
+  }
+
+  @Test
+  public void testSortedRandomPlanning() throws Exception {
+    List<Row> planned = runKeyCountStep(DataStep.PLANNING_MODE_SORTED);
+
+    assertEquals(5, planned.size());
+    for (Row row : planned) {
+      assertEquals(10L, row.getAs("arriving"));
+    }
+    assertTrue(KeyCountOutput.maxKeysPerLookup.get() <= 2);
+  }
+
+  @Test
+  public void testMultipleLookupThreads() throws Exception {
+    List<Row> planned = runKeyCountStep(DataStep.PLANNING_MODE_SORTED, true, 3);
+
+    assertEquals(5, planned.size());
+    for (Row row : planned) {
+      assertEquals(10L, row.getAs("arriving"));
+    }
+    assertTrue(KeyCountOutput.maxKeysPerLookup.get() <= 2);
+  }
+
+  @Test
+  public void testLookupThreadsReuseOutputs() throws Exception {
+    KeyCountOutput.lookupThreadInstances.set(0);
+    KeyCountOutput.lookupThreadNames.clear();
+
+    runKeyCountStep(DataStep.PLANNING_MODE_SORTED, true, 3);
+    runKeyCountStep(DataStep.PLANNING_MODE_SORTED, true, 3);
+
+    // Each lookup thread creates the output once and keeps it for the later tasks
+    assertTrue(KeyCountOutput.lookupThreadInstances.get() > 0);
+    assertEquals(KeyCountOutput.lookupThreadNames.size(), KeyCountOutput.lookupThreadInstances.get());
+  }
+
+  @Test
+  public void testUnpipelinedLookups() throws Exception {
+    List<Row> planned = runKeyCountStep(DataStep.PLANNING_MODE_GROUPED, false, 3);
+
+    assertEquals(5, planned.size());
+    for (Row row : planned) {
+      assertEquals(10L, row.getAs("arriving"));
+    }
+    assertTrue(KeyCountOutput.maxKeysPerLookup.get() <= 2);
+  }
+
+  @Test
+  public void testExistingCache() throws Exception {
+    ExistingRecordsCache.clearAll();
+    Map<String, Object> cacheConfig = Maps.newHashMap();
+    cacheConfig.put(DataStep.LOOKUP_CACHE_ENABLED_PROPERTY, true);
+
+    KeyCountOutput.existing.clear();
+
+    runKeyCountStep(DataStep.PLANNING_MODE_GROUPED, cacheConfig);
+    assertTrue(KeyCountOutput.maxKeysPerLookup.get() > 0);
+
+    // The keys had no existing records in the first run, so the schema of the records that
+    // were inserted for them is not known and they are retrieved again
+    runKeyCountStep(DataStep.PLANNING_MODE_GROUPED, cacheConfig);
+    assertTrue(KeyCountOutput.maxKeysPerLookup.get() > 0);
+
+    // The keys of the third run are all cached from the second run
+    List<Row> planned = runKeyCountStep(DataStep.PLANNING_MODE_GROUPED, cacheConfig);
+    assertEquals(5, planned.size());
+    assertEquals(0, KeyCountOutput.maxKeysPerLookup.get());
+  }
+
+  @Test
+  public void testInvalidPlanningMode() {
+    Map<String, Object> configMap = Maps.newHashMap();
+    configMap.put(DataStep.INPUT_TYPE + "." + ComponentFactory.TYPE_CONFIG_NAME, DummyInput.class.getName());
+    configMap.put(DataStep.INPUT_TYPE + "." + "starting.partitions", 5);
+    configMap.put(DataStep.PLANNING_MODE_PROPERTY, "shuffled");
+    Config config = ConfigFactory.parseMap(configMap);
+
+    BatchStep batchStep = new BatchStep("test");
+    assertValidationFailures(batchStep, config);
+  }
+
+  private List<Row> runKeyCountStep(String planningMode) throws Exception {
+    return runKeyCountStep(planningMode, DataStep.LOOKUP_PIPELINING_ENABLED_DEFAULT, DataStep.LOOKUP_THREADS_DEFAULT);
+  }
+
+  private List<Row> runKeyCountStep(String planningMode, boolean pipelined, int lookupThreads) throws Exception {
+    Map<String, Object> lookupConfig = Maps.newHashMap();
+    lookupConfig.put(DataStep.LOOKUP_PIPELINING_ENABLED_PROPERTY, pipelined);
+    lookupConfig.put(DataStep.LOOKUP_THREADS_PROPERTY, lookupThreads);
+
+    return runKeyCountStep(planningMode, lookupConfig);
+  }
+
+  private List<Row> runKeyCountStep(String planningMode, Map<String, Object> lookupConfig) throws Exception {
+    Map<String, Object> configMap = Maps.newHashMap(lookupConfig);
+    configMap.put(DataStep.INPUT_TYPE + "." + ComponentFactory.TYPE_CONFIG_NAME, DummyInput.class.getName());
+    configMap.put(DataStep.INPUT_TYPE + "." + "starting.partitions", 5);
+    configMap.put(DataStep.PLANNER_TYPE + "." + ComponentFactory.TYPE_CONFIG_NAME, KeyCountPlanner.class.getName());
+    configMap.put(DataStep.OUTPUT_TYPE + "." + ComponentFactory.TYPE_CONFIG_NAME, KeyCountOutput.class.getName());
+    configMap.put(DataStep.PLANNING_MODE_PROPERTY, planningMode);
+    configMap.put(DataStep.LOOKUP_BATCH_SIZE_PROPERTY, 2);
+    Config config = ConfigFactory.parseMap(configMap);
+
+    KeyCountOutput.reset();
+
+    BatchStep batchStep = new BatchStep("test");
+    batchStep.configure(config);
+    batchStep.receiveAccumulators(new Accumulators(batchStep.getAccumulatorRequests()));
+    batchStep.submit(Sets.<Step>newHashSet());
+
+    return KeyCountOutput.rows;
+  }
+
+  // Plans one record per key with the number of arriving records for the key
+  public static class KeyCountPlanner implements RandomPlanner {
+    private static final StructType SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+        DataTypes.createStructField("modulo", DataTypes.LongType, true),
+        DataTypes.createStructField("arriving", DataTypes.LongType, true)));
+
+    @Override
+    public List<Row> planMutationsForKey(Row key, List<Row> arrivingForKey, List<Row> existingForKey) {
+      Row planned = new RowWithSchema(SCHEMA, key.get(0), (long)arrivingForKey.size());
+
+      return Lists.newArrayList(PlannerUtils.setMutationType(planned, MutationType.INSERT));
+    }
+
+    @Override
+    public List<String> getKeyFieldNames() {
+      return Lists.newArrayList("modulo");
+    }
+
+    @Override
+    public Set<MutationType> getEmittedMutationTypes() {
+      return Sets.newHashSet(MutationType.INSERT);
+    }
+
+    @Override
+    public void configure(Config config) { }
+  }
+
+  public static class KeyCountOutput implements RandomOutput {
+    public static List<Row> rows = Collections.synchronizedList(Lists.<Row>newArrayList());
+    // The applied records, which unlike the planned rows are kept across runs
+    public static List<Row> existing = Collections.synchronizedList(Lists.<Row>newArrayList());
+    public static AtomicInteger maxKeysPerLookup = new AtomicInteger();
+    public static AtomicInteger maxMutationsPerApply = new AtomicInteger();
+    public static AtomicInteger lookupThreadInstances = new AtomicInteger();
+    public static Set<String> lookupThreadNames = Collections.synchronizedSet(Sets.<String>newHashSet());
+
+    public KeyCountOutput() {
+      String threadName = Thread.currentThread().getName();
+      if (threadName.startsWith("envelope-lookup-")) {
+        lookupThreadInstances.incrementAndGet();
+        lookupThreadNames.add(threadName);
+      }
+    }
+
+    @Override
+    public Set<MutationType> getSupportedRandomMutationTypes() {
+      return Sets.newHashSet(MutationType.INSERT);
+    }
+
+    @Override
+    public void applyRandomMutations(List<Row> planned) {
+      while (planned.size() > maxMutationsPerApply.get()) {
+        maxMutationsPerApply.compareAndSet(maxMutationsPerApply.get(), planned.size());
+      }
+
+      rows.addAll(planned);
+      for (Row plan : planned) {
+        existing.add(PlannerUtils.removeMutationTypeField(plan));
+      }
+    }
+
+    @Override
+    public Iterable<Row> getExistingForFilters(Iterable<Row> filters) {
+      int keys = Iterables.size(filters);
+      while (keys > maxKeysPerLookup.get()) {
+        maxKeysPerLookup.compareAndSet(maxKeysPerLookup.get(), keys);
+      }
+
+      List<Row> existingForFilters = Lists.newArrayList();
+      synchronized (existing) {
+        for (Row filter : filters) {
+          for (Row record : existing) {
+            if (record.getAs("modulo").equals(filter.getAs("modulo"))) {
+              existingForFilters.add(record);
+            }
+          }
+        }
+      }
+
+      return existingForFilters;
+    }
+
+    @Override
+    public void configure(Config config) { }
+
+    public static void reset() {
+      rows.clear();
+      maxKeysPerLookup.set(0);
+      maxMutationsPerApply.set(0);
+    }
+  }
+
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.run;
+
+import com.cloudera.labs.envelope.plan.MutationType;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.cloudera.labs.envelope.utils.PlannerUtils;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestExistingRecordsCache {
+
+  private static final StructType KEY_SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+      DataTypes.createStructField("id", DataTypes.StringType, false)));
+  private static final StructType SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+      DataTypes.createStructField("id", DataTypes.StringType, false),
+      DataTypes.createStructField("from", DataTypes.LongType, false),
+      DataTypes.createStructField("value", DataTypes.StringType, true)));
+
+  // The planner orders the fields differently to the output and adds a field of its own
+  private static final StructType PLAN_SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+      DataTypes.createStructField("value", DataTypes.StringType, true),
+      DataTypes.createStructField("from", DataTypes.LongType, false),
+      DataTypes.createStructField("id", DataTypes.StringType, false),
+      DataTypes.createStructField("planned_only", DataTypes.StringType, true)));
+
+  private ExistingRecordsCache cache;
+  private Row key = new RowWithSchema(KEY_SCHEMA, "a");
+
+  @Before
+  public void before() {
+    ExistingRecordsCache.clearAll();
+    cache = new ExistingRecordsCache("existing", 2, Lists.newArrayList("id", "from"));
+  }
+
+  @Test
+  public void testKeysWithoutExisting() {
+    cache.putAll(Lists.newArrayList(key), Maps.<Row, List<Row>>newHashMap());
+
+    Map<Row, List<Row>> cached = cache.getAllPresent(Lists.newArrayList(key));
+    assertTrue(cached.containsKey(key));
+    assertTrue(cached.get(key).isEmpty());
+  }
+
+  @Test
+  public void testWriteThrough() {
+    putExisting(new RowWithSchema(SCHEMA, "a", 1L, "hello"), new RowWithSchema(SCHEMA, "a", 2L, "world"));
+
+    cache.applyMutations(key, Lists.newArrayList(
+        mutation(MutationType.UPDATE, "a", 1L, "goodbye"),
+        mutation(MutationType.DELETE, "a", 2L, null),
+        mutation(MutationType.INSERT, "a", 3L, "again"),
+        mutation(MutationType.UPSERT, "a", 4L, "new")));
+
+    List<Row> existing = cache.getAllPresent(Lists.newArrayList(key)).get(key);
+    assertEquals(3, existing.size());
+    assertEquals(new RowWithSchema(SCHEMA, "a", 1L, "goodbye"), existing.get(0));
+    assertEquals(new RowWithSchema(SCHEMA, "a", 3L, "again"), existing.get(1));
+    assertEquals(new RowWithSchema(SCHEMA, "a", 4L, "new"), existing.get(2));
+  }
+
+  @Test
+  public void testHistoryVersionsWithKeyIdentity() {
+    cache = new ExistingRecordsCache("existing_by_key", 2, Lists.newArrayList("id"));
+    putExisting(new RowWithSchema(SCHEMA, "a", 1L, "hello"), new RowWithSchema(SCHEMA, "a", 2L, "world"));
+
+    // The update of one version can not be told apart from the update of the other
+    cache.applyMutations(key, Lists.newArrayList(mutation(MutationType.UPDATE, "a", 2L, "goodbye")));
+
+    assertFalse(cache.getAllPresent(Lists.newArrayList(key)).containsKey(key));
+  }
+
+  @Test
+  public void testHistoryVersionsWithVersionIdentity() {
+    putExisting(new RowWithSchema(SCHEMA, "a", 1L, "hello"), new RowWithSchema(SCHEMA, "a", 2L, "world"));
+
+    cache.applyMutations(key, Lists.newArrayList(
+        mutation(MutationType.UPDATE, "a", 2L, "goodbye"),
+        mutation(MutationType.INSERT, "a", 3L, "again")));
+
+    List<Row> existing = cache.getAllPresent(Lists.newArrayList(key)).get(key);
+    assertEquals(3, existing.size());
+    assertEquals(new RowWithSchema(SCHEMA, "a", 1L, "hello"), existing.get(0));
+    assertEquals(new RowWithSchema(SCHEMA, "a", 2L, "goodbye"), existing.get(1));
+    assertEquals(new RowWithSchema(SCHEMA, "a", 3L, "again"), existing.get(2));
+  }
+
+  @Test
+  public void testMutationsForUncachedKey() {
+    cache.applyMutations(key, Lists.newArrayList(mutation(MutationType.INSERT, "a", 1L, "hello")));
+
+    assertFalse(cache.getAllPresent(Lists.newArrayList(key)).containsKey(key));
+  }
+
+  @Test
+  public void testOverwrite() {
+    putExisting(new RowWithSchema(SCHEMA, "a", 1L, "hello"), new RowWithSchema(SCHEMA, "a", 2L, "world"));
+
+    cache.applyMutations(key, Lists.newArrayList(mutation(MutationType.OVERWRITE, "a", 5L, "only")));
+
+    List<Row> existing = cache.getAllPresent(Lists.newArrayList(key)).get(key);
+    assertEquals(1, existing.size());
+    assertEquals(new RowWithSchema(SCHEMA, "a", 5L, "only"), existing.get(0));
+  }
+
+  @Test
+  public void testAddedRecordsHaveCachedSchema() {
+    putExisting(new RowWithSchema(SCHEMA, "a", 1L, "hello"));
+
+    cache.applyMutations(key, Lists.newArrayList(
+        PlannerUtils.setMutationType(new RowWithSchema(PLAN_SCHEMA, "again", 2L, "a", "x"), MutationType.INSERT),
+        PlannerUtils.setMutationType(new RowWithSchema(PLAN_SCHEMA, "new", 3L, "a", "y"), MutationType.UPSERT)));
+
+    List<Row> existing = cache.getAllPresent(Lists.newArrayList(key)).get(key);
+    assertEquals(3, existing.size());
+    assertEquals(new RowWithSchema(SCHEMA, "a", 2L, "again"), existing.get(1));
+    assertEquals(SCHEMA, existing.get(1).schema());
+    assertEquals(new RowWithSchema(SCHEMA, "a", 3L, "new"), existing.get(2));
+    assertEquals(SCHEMA, existing.get(2).schema());
+  }
+
+  @Test
+  public void testInsertWithoutCachedRecords() {
+    cache.putAll(Lists.newArrayList(key), Maps.<Row, List<Row>>newHashMap());
+
+    // The schema of the records from the output is not known
+    cache.applyMutations(key, Lists.newArrayList(mutation(MutationType.INSERT, "a", 1L, "hello")));
+
+    assertFalse(cache.getAllPresent(Lists.newArrayList(key)).containsKey(key));
+  }
+
+  @Test
+  public void testInsertMissingCachedFields() {
+    StructType mutationSchema = DataTypes.createStructType(Lists.newArrayList(
+        DataTypes.createStructField("id", DataTypes.StringType, false),
+        DataTypes.createStructField("from", DataTypes.LongType, false)));
+    putExisting(new RowWithSchema(SCHEMA, "a", 1L, "hello"));
+
+    cache.applyMutations(key, Lists.newArrayList(
+        PlannerUtils.setMutationType(new RowWithSchema(mutationSchema, "a", 2L), MutationType.INSERT)));
+
+    assertFalse(cache.getAllPresent(Lists.newArrayList(key)).containsKey(key));
+  }
+
+  @Test
+  public void testInvalidateAll() {
+    putExisting(new RowWithSchema(SCHEMA, "a", 1L, "hello"));
+
+    cache.invalidateAll(Lists.newArrayList(key));
+
+    assertFalse(cache.getAllPresent(Lists.newArrayList(key)).containsKey(key));
+  }
+
+  @Test
+  public void testEvictions() {
+    List<Row> keys = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      keys.add(new RowWithSchema(KEY_SCHEMA, "key" + i));
+    }
+    cache.putAll(keys, Maps.<Row, List<Row>>newHashMap());
+
+    assertTrue(cache.getAllPresent(keys).size() <= 2);
+    assertEquals(10 - cache.getAllPresent(keys).size(), cache.drainEvictions());
+    assertEquals(0, cache.drainEvictions());
+  }
+
+  private void putExisting(Row... existing) {
+    Map<Row, List<Row>> existingForKeys = Maps.newHashMap();
+    existingForKeys.put(key, Lists.newArrayList(existing));
+
+    cache.putAll(Lists.newArrayList(key), existingForKeys);
+  }
+
+  private Row mutation(MutationType mutationType, String id, long from, String value) {
+    return PlannerUtils.setMutationType(new RowWithSchema(SCHEMA, id, from, value), mutationType);
+  }
+
+}
@@ -15,23 +15,29 @@
 
 package com.cloudera.labs.envelope.run;
 
+import com.cloudera.labs.envelope.component.CanUnpersistData;
 import com.cloudera.labs.envelope.component.ComponentFactory;
 import com.cloudera.labs.envelope.derive.Deriver;
 import com.cloudera.labs.envelope.event.CoreEventTypes;
 import com.cloudera.labs.envelope.event.Event;
 import com.cloudera.labs.envelope.event.EventManager;
 import com.cloudera.labs.envelope.event.TestingEventHandler;
+import com.cloudera.labs.envelope.input.BatchInput;
+import com.cloudera.labs.envelope.input.CanRecordProgress;
 import com.cloudera.labs.envelope.output.BulkOutput;
 import com.cloudera.labs.envelope.output.RandomOutput;
 import com.cloudera.labs.envelope.plan.BulkPlanner;
 import com.cloudera.labs.envelope.plan.MutationType;
 import com.cloudera.labs.envelope.spark.Contexts;
 import com.cloudera.labs.envelope.utils.ConfigUtils;
+import com.cloudera.labs.envelope.utils.StepUtils;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import mockit.Deencapsulation;
+import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.sql.AnalysisException;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
@@ -161,6 +167,101 @@ public class TestRunner {
     public static void reset() { rows.clear(); }
   }
 
+  public static class TestingProgressInput implements BatchInput, CanRecordProgress, CanUnpersistData {
+    // The number of rows that had been written to the output when the progress was recorded
+    public static List<Integer> recordedOutputRowCounts = Lists.newArrayList();
+    // The number of rows that had been written to the output when the data was unpersisted
+    public static List<Integer> unpersistedOutputRowCounts = Lists.newArrayList();
+
+    @Override
+    public Dataset<Row> read() {
+      return Contexts.getSparkSession().sql("SELECT 1 AS value");
+    }
+
+    @Override
+    public void recordProgress(JavaRDD<?> batch) {
+      recordedOutputRowCounts.add(TestingMemoryOutput.getRows().size());
+    }
+
+    @Override
+    public void unpersistData() {
+      unpersistedOutputRowCounts.add(TestingMemoryOutput.getRows().size());
+    }
+
+    @Override
+    public void configure(Config config) { }
+
+    public static void reset() {
+      recordedOutputRowCounts.clear();
+      unpersistedOutputRowCounts.clear();
+    }
+  }
+
+  private static final String PROGRESS_PIPELINE =
+      "steps {\n" +
+      "  incremental {\n" +
+      "    input.type = \"com.cloudera.labs.envelope.run.TestRunner$TestingProgressInput\"\n" +
+      "  }\n" +
+      "  written {\n" +
+      "    dependencies = [%s]\n" +
+      "    deriver {\n" +
+      "      type = \"com.cloudera.labs.envelope.run.TestRunner$TestingSQLDeriver\"\n" +
+      "      query.literal = \"SELECT * FROM incremental\"\n" +
+      "    }\n" +
+      "    planner.type = \"com.cloudera.labs.envelope.run.TestRunner$TestingAppendPlanner\"\n" +
+      "    output.type = \"com.cloudera.labs.envelope.run.TestRunner$TestingMemoryOutput\"\n" +
+      "  }\n" +
+      "  %s\n" +
+      "}";
+
+  @Test
+  public void testBatchProgressRecordedAfterDependentSteps() throws Exception {
+    TestingMemoryOutput.reset();
+    TestingProgressInput.reset();
+    Config config = ConfigFactory.parseString(String.format(PROGRESS_PIPELINE, "incremental", ""));
+
+    new Runner().run(config);
+
+    assertEquals(Lists.newArrayList(1), TestingProgressInput.recordedOutputRowCounts);
+    assertEquals(Lists.newArrayList(1), TestingProgressInput.unpersistedOutputRowCounts);
+  }
+
+  @Test
+  public void testIndependentStepProgressRecordedAfterMicroBatch() throws Exception {
+    TestingMemoryOutput.reset();
+    TestingProgressInput.reset();
+    Config config = ConfigFactory.parseString(String.format(PROGRESS_PIPELINE, "incremental, stream",
+        "stream {\n" +
+        "    input {\n" +
+        "      type = \"com.cloudera.labs.envelope.run.TestStreamingStep$PrepartitionedStreamInput\"\n" +
+        "      translator.type = \"com.cloudera.labs.envelope.translate.DummyTranslator\"\n" +
+        "    }\n" +
+        "  }"));
+
+    Set<Step> steps = StepUtils.extractSteps(config, true, false);
+    Set<Step> independentNonStreamingSteps = StepUtils.getIndependentNonStreamingSteps(steps);
+    StreamingStep streamingStep = StepUtils.getStreamingSteps(steps).iterator().next();
+    JavaRDD<String> raw = new TestStreamingStep.PrepartitionedStreamInput().generateRDD();
+
+    // The micro-batch is run directly because a streaming pipeline does not finish by itself
+    Runner runner = new Runner();
+    Deencapsulation.setField(runner, "baseConfig", config);
+    Deencapsulation.invoke(runner, "initializeThreadPool", config);
+    try {
+      Deencapsulation.invoke(runner, "runMicroBatch",
+          steps, independentNonStreamingSteps, streamingStep, raw, System.currentTimeMillis());
+    }
+    finally {
+      Deencapsulation.invoke(runner, "shutdownThreadPool");
+    }
+
+    // The independent step was run at the start of the micro-batch, but its progress is only
+    // recorded after the steps that depend on the streaming step have written their output
+    assertEquals(1, independentNonStreamingSteps.size());
+    assertEquals(Lists.newArrayList(1), TestingProgressInput.recordedOutputRowCounts);
+    assertEquals(Lists.newArrayList(1), TestingProgressInput.unpersistedOutputRowCounts);
+  }
+
   @Test
   public void testExpectedCoreEvents() throws Exception {
     EventManager.reset();
@@ -106,6 +106,24 @@ public class TestContexts {
     assertEquals(sparkConf.get("spark.sql.catalogImplementation"), "hive");
   }
   
+  @Test
+  public void testBackpressureConfiguration() {
+    Properties props = new Properties();
+    props.setProperty(Contexts.APPLICATION_SECTION_PREFIX + "." +
+        Contexts.BACKPRESSURE_MAX_RATE_PER_PARTITION_PROPERTY, "500");
+    props.setProperty(Contexts.APPLICATION_SECTION_PREFIX + "." +
+        Contexts.BACKPRESSURE_MIN_RATE_PROPERTY, "10");
+    props.setProperty(Contexts.APPLICATION_SECTION_PREFIX + "." +
+        Contexts.BACKPRESSURE_PID_INTEGRAL_PROPERTY, "0.5");
+    Config config = ConfigFactory.parseProperties(props);
+    Contexts.initialize(config, Contexts.ExecutionMode.STREAMING);
+    SparkConf sparkConf = Contexts.getSparkSession().sparkContext().getConf();
+    assertEquals(sparkConf.get("spark.streaming.backpressure.enabled"), "true");
+    assertEquals(sparkConf.get("spark.streaming.kafka.maxRatePerPartition"), "500");
+    assertEquals(sparkConf.get("spark.streaming.backpressure.pid.minRate"), "10");
+    assertEquals(sparkConf.get("spark.streaming.backpressure.pid.integral"), "0.5");
+  }
+
   @Test
   public void testDefaultUnitTestConfiguration() {
     Config config = ConfigFactory.empty();
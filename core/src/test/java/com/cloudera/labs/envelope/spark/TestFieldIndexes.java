@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.spark;
+
+import com.google.common.collect.Lists;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TestFieldIndexes {
+
+  private static final StructField FIELD1 = DataTypes.createStructField("field1", DataTypes.StringType, true);
+  private static final StructField FIELD2 = DataTypes.createStructField("field2", DataTypes.IntegerType, true);
+  private static final StructField FIELD3 = DataTypes.createStructField("field3", DataTypes.BooleanType, true);
+
+  @Test
+  public void testForSchema() {
+    StructType schema = DataTypes.createStructType(Lists.newArrayList(FIELD1, FIELD2, FIELD3));
+    FieldIndexes fieldIndexes = new FieldIndexes(Lists.newArrayList("field3", "field1"));
+
+    int[] indexes = fieldIndexes.forSchema(schema);
+    assertArrayEquals(new int[] {2, 0}, indexes);
+    assertSame(indexes, fieldIndexes.forSchema(schema));
+  }
+
+  @Test
+  public void testForChangedSchema() {
+    StructType schema = DataTypes.createStructType(Lists.newArrayList(FIELD1, FIELD2, FIELD3));
+    StructType changedSchema = DataTypes.createStructType(Lists.newArrayList(FIELD3, FIELD2, FIELD1));
+    FieldIndexes fieldIndexes = new FieldIndexes(Lists.newArrayList("field3", "field1"));
+
+    assertArrayEquals(new int[] {2, 0}, fieldIndexes.forSchema(schema));
+    assertArrayEquals(new int[] {0, 2}, fieldIndexes.forSchema(changedSchema));
+  }
+
+  @Test
+  public void testRowWithSchemaFieldIndex() {
+    StructType schema = DataTypes.createStructType(Lists.newArrayList(FIELD1, FIELD2, FIELD3));
+    Row row = new RowWithSchema(schema, "hello", 1, true);
+
+    assertEquals(1, row.fieldIndex("field2"));
+    assertEquals(true, row.getAs("field3"));
+    assertSame(RowWithSchema.getFieldIndexes(schema), RowWithSchema.getFieldIndexes(schema));
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testRowWithSchemaMissingField() {
+    StructType schema = DataTypes.createStructType(Lists.newArrayList(FIELD1, FIELD2, FIELD3));
+    Row row = new RowWithSchema(schema, "hello", 1, true);
+
+    row.fieldIndex("field4");
+  }
+
+}
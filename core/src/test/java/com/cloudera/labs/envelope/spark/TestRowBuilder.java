@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.spark;
+
+import com.google.common.collect.Lists;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestRowBuilder {
+
+  private static final StructField FIELD1 = DataTypes.createStructField("field1", DataTypes.StringType, true);
+  private static final StructField FIELD2 = DataTypes.createStructField("field2", DataTypes.IntegerType, true);
+  private static final StructField FIELD3 = DataTypes.createStructField("field3", DataTypes.BooleanType, true);
+  private static final StructType SCHEMA = DataTypes.createStructType(Lists.newArrayList(FIELD1, FIELD2, FIELD3));
+
+  @Test
+  public void testSetByNameAndIndex() {
+    Row row = new RowBuilder(SCHEMA).set("field1", "hello").set(2, true).build();
+
+    assertSame(SCHEMA, row.schema());
+    assertEquals("hello", row.getAs("field1"));
+    assertNull(row.getAs("field2"));
+    assertEquals(true, row.getAs("field3"));
+  }
+
+  @Test
+  public void testFrom() {
+    Row row = new RowWithSchema(SCHEMA, "hello", 1, true);
+    Row setRow = RowBuilder.from(row).set("field2", 100).build();
+
+    assertEquals("hello", setRow.getAs("field1"));
+    assertEquals(100, setRow.getAs("field2"));
+    assertEquals(true, setRow.getAs("field3"));
+    assertEquals(1, row.getAs("field2"));
+  }
+
+  @Test
+  public void testSetAllWithOffset() {
+    StructType prefixSchema = DataTypes.createStructType(Lists.newArrayList(FIELD1, FIELD2));
+    Row prefix = new RowWithSchema(prefixSchema, "hello", 1);
+
+    Row row = new RowBuilder(SCHEMA).setAll(prefix).set(prefix.length(), false).build();
+
+    assertEquals("hello", row.getAs("field1"));
+    assertEquals(1, row.getAs("field2"));
+    assertEquals(false, row.getAs("field3"));
+  }
+
+  @Test
+  public void testReuseDoesNotModifyBuiltRows() {
+    RowBuilder builder = new RowBuilder(SCHEMA).set("field3", true);
+
+    Row first = builder.set("field1", "hello").build();
+    Row second = builder.set("field1", "world").build();
+
+    assertEquals("hello", first.getAs("field1"));
+    assertEquals("world", second.getAs("field1"));
+    assertEquals(true, second.getAs("field3"));
+  }
+
+}
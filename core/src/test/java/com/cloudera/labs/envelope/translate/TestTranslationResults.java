@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.translate;
+
+import com.cloudera.labs.envelope.spark.Contexts;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.google.common.collect.Lists;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.storage.StorageLevel;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestTranslationResults {
+
+  private static final StructType SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+      DataTypes.createStructField("value", DataTypes.StringType, true),
+      DataTypes.createStructField(TranslateFunction.HAD_ERROR_FIELD_NAME, DataTypes.BooleanType, false)));
+
+  private JavaRDD<Row> getResults() {
+    List<Row> rows = Lists.<Row>newArrayList(
+        new RowWithSchema(SCHEMA, "a", false),
+        new RowWithSchema(SCHEMA, "b", false),
+        new RowWithSchema(SCHEMA, "c", true));
+
+    return new JavaSparkContext(Contexts.getSparkSession().sparkContext()).parallelize(rows);
+  }
+
+  @Test
+  public void testSplitAndCount() {
+    TranslationResults results = new TranslationResults(getResults(), SCHEMA, SCHEMA);
+
+    assertEquals(2, results.getTranslated().count());
+    assertEquals(1, results.getErrored().count());
+    assertEquals(2, results.getTranslatedCount());
+    assertEquals(1, results.getErroredCount());
+    assertEquals(1, results.getTranslated().schema().size());
+  }
+
+  @Test
+  public void testPersistAndUnpersist() {
+    JavaRDD<Row> rdd = getResults();
+    TranslationResults results = new TranslationResults(rdd, SCHEMA, SCHEMA);
+
+    results.getTranslated();
+    assertEquals(TranslationResults.DEFAULT_STORAGE_LEVEL, rdd.getStorageLevel());
+
+    results.unpersist();
+    assertEquals(StorageLevel.NONE(), rdd.getStorageLevel());
+  }
+
+  @Test
+  public void testPersistDisabled() {
+    JavaRDD<Row> rdd = getResults();
+    TranslationResults results = new TranslationResults(rdd, SCHEMA, SCHEMA, StorageLevel.NONE());
+
+    assertEquals(2, results.getTranslatedCount());
+    assertEquals(StorageLevel.NONE(), rdd.getStorageLevel());
+  }
+
+}
@@ -15,10 +15,9 @@
 
 package com.cloudera.labs.envelope.hbase;
 
-import com.cloudera.labs.envelope.schema.ConfigurationDataTypes;
 import com.cloudera.labs.envelope.spark.RowWithSchema;
-import com.cloudera.labs.envelope.utils.RowUtils;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.typesafe.config.Config;
 import org.apache.hadoop.hbase.Cell;
@@ -42,30 +41,66 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * The default serde maps each column of the rows to one HBase column, or to one component of the
+ * row key. The mapping is compiled when the serde is configured into a codec per column, and
+ * the positions of the mapped columns in the rows of each schema are resolved once for the first
+ * row of the schema, so that the conversions of the rows only loop over the codecs.
+ *
+ * <p>The serde can be shared between threads once it has been configured.
+ */
 public class DefaultHBaseSerde implements HBaseSerde {
 
   private static final Logger LOG = LoggerFactory.getLogger(DefaultHBaseSerde.class);
 
-  private List<String> keyColumns;
-  private Map<String, ColumnDef> columns;
   private StructType schema;
   private byte[] keySeparator;
+  // The codecs of the row key components, in the order of the row key
+  private HBaseColumnCodec[] keyCodecs;
+  // The codecs of the columns that are not part of the row key
+  private HBaseColumnCodec[] valueCodecs;
+
+  private final ConcurrentMap<StructType, RowLayout> layouts = Maps.newConcurrentMap();
+  private volatile RowLayout lastLayout;
 
   public void configure(Config config) {
-    this.keyColumns = HBaseUtils.rowKeyFor(config);
-    this.columns = HBaseUtils.columnsFor(config);
+    List<String> keyColumns = HBaseUtils.rowKeyFor(config);
+    Map<String, ColumnDef> columns = HBaseUtils.columnsFor(config);
     this.schema = HBaseUtils.buildSchema(columns);
     this.keySeparator = HBaseUtils.rowKeySeparatorFor(config);
+
+    keyCodecs = new HBaseColumnCodec[keyColumns.size()];
+    for (int i = 0; i < keyColumns.size(); i++) {
+      ColumnDef def = columns.get(keyColumns.get(i));
+      if (def == null) {
+        throw new IllegalArgumentException("Row key column is not mapped: " + keyColumns.get(i));
+      }
+      keyCodecs[i] = HBaseColumnCodec.forColumn(def, schema.fieldIndex(def.name));
+    }
+
+    List<HBaseColumnCodec> values = Lists.newArrayList();
+    for (ColumnDef def : columns.values()) {
+      if (!def.cf.equals(HBaseColumnCodec.ROWKEY_FAMILY)) {
+        values.add(HBaseColumnCodec.forColumn(def, schema.fieldIndex(def.name)));
+      }
+    }
+    valueCodecs = values.toArray(new HBaseColumnCodec[values.size()]);
+
+    layouts.clear();
+    lastLayout = null;
   }
 
   @Override
   public Query convertToQuery(Row row) {
-    if (filtersEntireRowKey(row)) {
-      return convertToGet(row);
+    RowLayout layout = layoutFor(row);
+
+    if (layout.entireRowKey) {
+      return convertToGet(row, layout);
     }
-    else if (filtersRowKeyPrefix(row)) {
-      return convertToScan(row);
+    else if (layout.rowKeyPrefix) {
+      return convertToScan(row, layout);
     }
     else {
       throw new RuntimeException("Default HBase serde only supports full row key or prefix row key reads.");
@@ -82,23 +117,20 @@ public class DefaultHBaseSerde implements HBaseSerde {
     // Get row key fields
     byte[] rowKey = result.getRow();
     int index = 0;
-    for (int i = 0; i < keyColumns.size(); i++) {
-      ColumnDef def = columns.get(keyColumns.get(i));
-      index += addColumnValue(rowKey, index, rowKey.length, values,
-          def.type, schema.fieldIndex(def.name), keySeparator, i == keyColumns.size() - 1);
-      if (i < keyColumns.size() - 1) {
-        // increment by delimiter length
-        index += keySeparator.length;
-      }
+    for (int i = 0; i < keyCodecs.length; i++) {
+      HBaseColumnCodec codec = keyCodecs[i];
+      int length = keyComponentLength(codec, rowKey, index, i == keyCodecs.length - 1);
+      values[codec.fieldIndex] = codec.decode(rowKey, index, length);
+      // increment by the component and the delimiter lengths
+      index += length + keySeparator.length;
     }
 
     // Get columns
-    for (Cell cell : result.listCells()) {
-      String cellName = Bytes.toString(cell.getQualifierArray(), cell.getQualifierOffset(),
-          cell.getQualifierLength());
-      ColumnDef def = columns.get(cellName);
-      values[schema.fieldIndex(def.name)] = getColumnValue(cell.getValueArray(),
-          cell.getValueOffset(), cell.getValueLength(), def.type);
+    Cell[] cells = result.rawCells();
+    for (int i = 0; i < cells.length; i++) {
+      HBaseColumnCodec codec = valueCodecFor(cells[i]);
+      values[codec.fieldIndex] = codec.decode(cells[i].getValueArray(), cells[i].getValueOffset(),
+          cells[i].getValueLength());
     }
 
     return new RowWithSchema(schema, values);
@@ -116,15 +148,18 @@ public class DefaultHBaseSerde implements HBaseSerde {
 
   @Override
   public Put convertToPut(Row row) {
-    Put put = new Put(buildRowKey(row));
-    for (Map.Entry<String, ColumnDef> column : columns.entrySet()) {
-      if (!column.getValue().cf.equals("rowkey")) {
-        byte[] value = getColumnValueAsBytes(column.getValue().name,
-            column.getValue().type, row);
-        if (value != null) {
-          put.addColumn(Bytes.toBytes(column.getValue().cf),
-              Bytes.toBytes(column.getValue().name), value);
-        }
+    RowLayout layout = layoutFor(row);
+
+    Put put = new Put(buildRowKey(row, layout));
+    for (int i = 0; i < valueCodecs.length; i++) {
+      int ordinal = layout.valueOrdinals[i];
+      if (ordinal == -1) {
+        LOG.error("Column does not exist in row: " + valueCodecs[i].name);
+        throw new IllegalArgumentException("Column does not exist in row: " + valueCodecs[i].name);
+      }
+      if (!row.isNullAt(ordinal)) {
+        put.addColumn(valueCodecs[i].family, valueCodecs[i].qualifier,
+            valueCodecs[i].encode(row.get(ordinal)));
       }
     }
     return put;
@@ -141,12 +176,9 @@ public class DefaultHBaseSerde implements HBaseSerde {
 
   @Override
   public Delete convertToDelete(Row row) {
-    Delete delete = new Delete(buildRowKey(row));
-    for (Map.Entry<String, ColumnDef> column : columns.entrySet()) {
-      if (!column.getValue().cf.equals("rowkey")) {
-        delete.addColumn(Bytes.toBytes(column.getValue().cf),
-            Bytes.toBytes(column.getValue().name));
-      }
+    Delete delete = new Delete(buildRowKey(row, layoutFor(row)));
+    for (HBaseColumnCodec codec : valueCodecs) {
+      delete.addColumn(codec.family, codec.qualifier);
     }
     return delete;
   }
@@ -162,13 +194,13 @@ public class DefaultHBaseSerde implements HBaseSerde {
 
   //// Utility methods
 
-  private Get convertToGet(Row row) {
-    Get get = new Get(buildRowKey(row));
-    for (String family : getColumnFamilies(row)) {
-      get.addFamily(Bytes.toBytes(family));
+  private Get convertToGet(Row row, RowLayout layout) {
+    Get get = new Get(buildRowKey(row, layout));
+    for (byte[] family : layout.families) {
+      get.addFamily(family);
     }
 
-    FilterList filters = getColumnValueFilters(row);
+    FilterList filters = getColumnValueFilters(row, layout);
     if (!filters.getFilters().isEmpty()) {
       get.setFilter(filters);
     }
@@ -176,52 +208,38 @@ public class DefaultHBaseSerde implements HBaseSerde {
     return get;
   }
   
-  private Scan convertToScan(Row row) {
-    byte[] startRow = buildRowKey(row);
+  private Scan convertToScan(Row row, RowLayout layout) {
+    byte[] startRow = buildRowKey(row, layout);
     byte[] stopRow = HBaseUtils.exclusiveStopRow(startRow);
     Scan scan = new Scan(startRow, stopRow);
     
     return scan;
   }
-  
-  private boolean filtersEntireRowKey(Row row) {
-    for (String keyColumn : keyColumns) {
-      if (!Arrays.asList(row.schema().fieldNames()).contains(keyColumn)) {
-        return false;
-      }
-    }
-    
-    return true;
-  }
-  
-  private boolean filtersRowKeyPrefix(Row row) {
-    Set<String> rowColumnNames = Sets.newHashSet(row.schema().fieldNames());
-    Set<String> prefixColumnNames = Sets.newHashSet(keyColumns.subList(0, rowColumnNames.size()));
-    
-    return rowColumnNames.equals(prefixColumnNames);
-  }
-  
-  private byte[] buildRowKey(Row row) {
-    List<byte[]> keyComponents = Lists.newArrayList();
+
+  private byte[] buildRowKey(Row row, RowLayout layout) {
+    int[] keyOrdinals = layout.keyOrdinals;
+    byte[][] keyComponents = new byte[keyOrdinals.length][];
     int totalSize = 0;
-    List<String> rowColumns = Arrays.asList(row.schema().fieldNames());
-    for (String keyColumn : keyColumns) {
-      if (!rowColumns.contains(keyColumn)) {
-        break;
+    for (int i = 0; i < keyOrdinals.length; i++) {
+      if (row.isNullAt(keyOrdinals[i])) {
+        LOG.error("Row key column is null in row: " + keyCodecs[i].name);
+        throw new IllegalArgumentException("Row key column is null in row: " + keyCodecs[i].name);
       }
-      ColumnDef def = columns.get(keyColumn);
-      byte[] asBytes = getColumnValueAsBytes(def.name, def.type, row);
-      keyComponents.add(asBytes);
-      totalSize += asBytes.length;
+      keyComponents[i] = keyCodecs[i].encode(row.get(keyOrdinals[i]));
+      totalSize += keyComponents[i].length;
+    }
+
+    if (keyComponents.length == 1) {
+      return keyComponents[0];
     }
 
-    byte[] fullRow = new byte[totalSize + ((keyComponents.size() - 1) * keySeparator.length)];
+    byte[] fullRow = new byte[totalSize + ((keyComponents.length - 1) * keySeparator.length)];
     int currentOffset = 0;
-    for (int i = 0; i < keyComponents.size(); ++i) {
-      byte[] component = keyComponents.get(i);
+    for (int i = 0; i < keyComponents.length; ++i) {
+      byte[] component = keyComponents[i];
       System.arraycopy(component, 0, fullRow, currentOffset, component.length);
       currentOffset += component.length;
-      if (i < keyComponents.size() - 1) {
+      if (i < keyComponents.length - 1) {
         System.arraycopy(keySeparator, 0, fullRow, currentOffset, keySeparator.length);
         currentOffset += keySeparator.length;
       }
@@ -229,152 +247,142 @@ public class DefaultHBaseSerde implements HBaseSerde {
 
     return fullRow;
   }
-  
-  private Set<String> getColumnFamilies(Row row) {
-    Set<String> families = Sets.newHashSet();
-    
-    for (String fieldName : row.schema().fieldNames()) {
-      ColumnDef def = columns.get(fieldName);
-      if (!def.cf.equals("rowkey")) {
-        families.add(def.cf);
+
+  private FilterList getColumnValueFilters(Row row, RowLayout layout) {
+    FilterList filterList = new FilterList(Operator.MUST_PASS_ALL);
+
+    for (int i = 0; i < valueCodecs.length; i++) {
+      int ordinal = layout.valueOrdinals[i];
+      if (ordinal != -1 && !row.isNullAt(ordinal)) {
+        SingleColumnValueFilter columnValueFilter = new SingleColumnValueFilter(
+            valueCodecs[i].family,
+            valueCodecs[i].qualifier,
+            CompareFilter.CompareOp.EQUAL,
+            valueCodecs[i].encode(row.get(ordinal))
+        );
+        filterList.addFilter(columnValueFilter);
       }
     }
-    
-    return families;
+
+    return filterList;
   }
 
-  private static Object getColumnValue(byte[] source, int offset, int length, String type) {
-    switch (type) {
-      case ConfigurationDataTypes.INT:
-        return Bytes.toInt(source, offset, length);
-      case ConfigurationDataTypes.LONG:
-        return Bytes.toLong(source, offset, length);
-      case ConfigurationDataTypes.BOOLEAN:
-        return Bytes.toBoolean(source);
-      case ConfigurationDataTypes.FLOAT:
-        return Bytes.toFloat(source);
-      case ConfigurationDataTypes.DOUBLE:
-        return Bytes.toDouble(source);
-      case ConfigurationDataTypes.STRING:
-        return Bytes.toString(source, offset, length);
-      default:
-        LOG.error("Unsupported column type: {}", type);
-        throw new IllegalArgumentException("Unsupported column type: " + type);
+  private int keyComponentLength(HBaseColumnCodec codec, byte[] rowKey, int offset, boolean last) {
+    if (codec.fixedLength() != -1) {
+      return codec.fixedLength();
+    }
+
+    // If the last field just grab it all
+    if (last) {
+      return rowKey.length - offset;
     }
-  }
 
-  private static int addColumnValue(byte[] source, int offset, int endIndex,
-                                    Object[] values, String type, int valueIndex, byte[] keySeparator, boolean last) {
-    switch (type) {
-      case ConfigurationDataTypes.INT:
-        values[valueIndex] = Bytes.toInt(source, offset, 4);
-        return 4;
-      case ConfigurationDataTypes.LONG:
-        values[valueIndex] = Bytes.toLong(source, offset, 8);
-        return 8;
-      case ConfigurationDataTypes.BOOLEAN:
-        values[valueIndex] = Bytes.toInt(source, offset, 1);
-        return 1;
-      case ConfigurationDataTypes.FLOAT:
-        values[valueIndex] = Bytes.toFloat(source, offset);
-        return 4;
-      case ConfigurationDataTypes.DOUBLE:
-        values[valueIndex] = Bytes.toDouble(source, offset);
-        return 8;
-      case ConfigurationDataTypes.STRING:
-        if (last) {
-          // if the last field just grab it all
-          values[valueIndex] = Bytes.toString(source, offset, endIndex - offset);
-          return endIndex - offset;
-        } else {
-          int startIndex = offset;
-          while (offset < endIndex) {
-            if (source[offset] != keySeparator[0]) {
-              offset++;
-            } else {
-              // Might be the start of a separator
-              int startOfOffset = offset;
-              int sepOffset = 1;
-              boolean isSep = sepOffset == keySeparator.length;
-              while (sepOffset < keySeparator.length && offset < endIndex &&
-                  source[offset] == keySeparator[sepOffset]) {
-                isSep = sepOffset == keySeparator.length - 1;
-                offset++;
-                sepOffset++;
-              }
-              if (isSep) {
-                // We found a separator, so return the string before that
-                values[valueIndex] = Bytes.toString(source, startIndex, startOfOffset - startIndex);
-                return startOfOffset - startIndex;
-              }
-            }
-          }
-          // We reached the end which is an error except for the last field
-          if (offset == endIndex - 1) {
-            LOG.error("Reached end of array while looking for separator");
-            throw new IllegalArgumentException("Reached end of array while looking for separator");
-          } else {
-            values[valueIndex] = Bytes.toString(source, startIndex, offset - startIndex);
-            return offset - startIndex;
-          }
+    int startIndex = offset;
+    int endIndex = rowKey.length;
+    while (offset < endIndex) {
+      if (rowKey[offset] != keySeparator[0]) {
+        offset++;
+      } else {
+        // Might be the start of a separator
+        int startOfOffset = offset;
+        int sepOffset = 1;
+        boolean isSep = sepOffset == keySeparator.length;
+        while (sepOffset < keySeparator.length && offset < endIndex &&
+            rowKey[offset] == keySeparator[sepOffset]) {
+          isSep = sepOffset == keySeparator.length - 1;
+          offset++;
+          sepOffset++;
+        }
+        if (isSep) {
+          // We found a separator, so the component is the string before that
+          return startOfOffset - startIndex;
         }
-      default:
-        LOG.error("Unsupported column type: {}", type);
-        throw new IllegalArgumentException("Unsupported column type: " + type);
+      }
+    }
+    // We reached the end which is an error except for the last field
+    if (offset == endIndex - 1) {
+      LOG.error("Reached end of array while looking for separator");
+      throw new IllegalArgumentException("Reached end of array while looking for separator");
     }
+
+    return offset - startIndex;
   }
 
-  private static byte[] getColumnValueAsBytes(String name, String type, Row row) {
-    try {
-      Object field = row.getAs(name);
-      if (field == null) {
-        return null;
+  private HBaseColumnCodec valueCodecFor(Cell cell) {
+    for (HBaseColumnCodec codec : valueCodecs) {
+      if (Bytes.equals(codec.qualifier, 0, codec.qualifier.length,
+          cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength())) {
+        return codec;
       }
-      switch (type) {
-        case ConfigurationDataTypes.STRING:
-          return Bytes.toBytes((String) row.getAs(name));
-        case ConfigurationDataTypes.INT:
-          return Bytes.toBytes((int) row.getAs(name));
-        case ConfigurationDataTypes.LONG:
-          return Bytes.toBytes((long) row.getAs(name));
-        case ConfigurationDataTypes.FLOAT:
-          return Bytes.toBytes((float) row.getAs(name));
-        case ConfigurationDataTypes.DOUBLE:
-          return Bytes.toBytes((double) row.getAs(name));
-        case ConfigurationDataTypes.BOOLEAN:
-          return Bytes.toBytes((boolean) row.getAs(name));
-        default:
-          LOG.error("Unsupported column type: {}", type);
-          throw new IllegalArgumentException("Unsupported column type: " + type);
-      }
-    } catch (IllegalArgumentException e) {
-      LOG.error("Column does not exist in row: " + name);
-      throw e;
     }
+
+    String qualifier = Bytes.toString(cell.getQualifierArray(), cell.getQualifierOffset(),
+        cell.getQualifierLength());
+    LOG.error("Column is not mapped: " + qualifier);
+    throw new IllegalArgumentException("Column is not mapped: " + qualifier);
   }
-  
-  private FilterList getColumnValueFilters(Row row) {
-    FilterList filterList = new FilterList(Operator.MUST_PASS_ALL);
-    Set<String> filterColumnNames = Sets.newHashSet(row.schema().fieldNames());
-    
-    for (Map.Entry<String, ColumnDef> column : columns.entrySet()) {
-      if (!column.getValue().cf.equals("rowkey")) {
-        if (filterColumnNames.contains(column.getKey())) {
-          byte[] value = getColumnValueAsBytes(column.getValue().name, column.getValue().type, row);
-          if (value != null) {
-            SingleColumnValueFilter columnValueFilter = new SingleColumnValueFilter(
-                Bytes.toBytes(column.getValue().cf),
-                Bytes.toBytes(column.getValue().name),
-                CompareFilter.CompareOp.EQUAL,
-                value
-            );
-            filterList.addFilter(columnValueFilter);
-          }
+
+  private RowLayout layoutFor(Row row) {
+    StructType rowSchema = row.schema();
+
+    // Rows of the same micro-batch normally share the same schema instance
+    RowLayout layout = lastLayout;
+    if (layout != null && layout.schema == rowSchema) {
+      return layout;
+    }
+
+    layout = layouts.get(rowSchema);
+    if (layout == null) {
+      layout = new RowLayout(rowSchema);
+      layouts.putIfAbsent(rowSchema, layout);
+    }
+    lastLayout = layout;
+
+    return layout;
+  }
+
+  /**
+   * The positions of the mapped columns in the rows of one schema.
+   */
+  private class RowLayout {
+
+    private final StructType schema;
+    // The positions of the row key components that the rows provide, up to the first missing one
+    private final int[] keyOrdinals;
+    // The positions of the other mapped columns, or -1 for those that the rows do not provide
+    private final int[] valueOrdinals;
+    // The families of the other mapped columns that the rows provide
+    private final List<byte[]> families = Lists.newArrayList();
+    private final boolean entireRowKey;
+    private final boolean rowKeyPrefix;
+
+    RowLayout(StructType schema) {
+      this.schema = schema;
+      List<String> fieldNames = Arrays.asList(schema.fieldNames());
+
+      int keyLength = 0;
+      while (keyLength < keyCodecs.length && fieldNames.contains(keyCodecs[keyLength].name)) {
+        keyLength++;
+      }
+      keyOrdinals = new int[keyLength];
+      for (int i = 0; i < keyLength; i++) {
+        keyOrdinals[i] = fieldNames.indexOf(keyCodecs[i].name);
+      }
+
+      Set<String> familyNames = Sets.newHashSet();
+      valueOrdinals = new int[valueCodecs.length];
+      for (int i = 0; i < valueCodecs.length; i++) {
+        valueOrdinals[i] = fieldNames.indexOf(valueCodecs[i].name);
+        if (valueOrdinals[i] != -1 && familyNames.add(Bytes.toString(valueCodecs[i].family))) {
+          families.add(valueCodecs[i].family);
         }
       }
+
+      entireRowKey = keyLength == keyCodecs.length;
+      // The rows only provide the leading columns of the row key
+      rowKeyPrefix = keyLength == fieldNames.size();
     }
-    
-    return filterList;
+
   }
 
 }
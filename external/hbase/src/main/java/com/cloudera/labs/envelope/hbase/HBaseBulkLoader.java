@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.hbase;
+
+import com.google.common.collect.Lists;
+import com.typesafe.config.Config;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat2;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Tuple2;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Loads upserts into an HBase table without going through the write path of the region
+ * servers. The rows are converted to cells with the serde of the output, the cells are
+ * partitioned by the regions of the table and sorted, and each partition is written as HFiles to
+ * a staging directory. The HFiles are then moved into the regions by
+ * {@link LoadIncrementalHFiles}, which splits any of them that no longer fit in one region.
+ */
+class HBaseBulkLoader {
+
+  private static final Logger LOG = LoggerFactory.getLogger(HBaseBulkLoader.class);
+
+  private Config config;
+
+  HBaseBulkLoader(Config config) {
+    this.config = config;
+  }
+
+  void load(Dataset<Row> upserts, Connection connection) throws Exception {
+    TableName tableName = HBaseUtils.tableInfoFor(config);
+    Configuration hbaseConfiguration = HBaseUtils.getHBaseConfiguration(config);
+    Path stagingPath = new Path(HBaseUtils.bulkLoadStagingDirFor(config),
+        tableName.getQualifierAsString() + "-" + UUID.randomUUID());
+    FileSystem fs = stagingPath.getFileSystem(hbaseConfiguration);
+
+    try (Table table = connection.getTable(tableName);
+         RegionLocator regionLocator = connection.getRegionLocator(tableName);
+         Admin admin = connection.getAdmin()) {
+      // Writes the HFiles with the compression, bloom filter, block size and encoding of each
+      // column family of the table
+      Job job = Job.getInstance(hbaseConfiguration);
+      HFileOutputFormat2.configureIncrementalLoadMap(job, table);
+
+      LOG.debug("Writing HFiles for table {} to {}", tableName, stagingPath);
+      upserts.javaRDD()
+          .flatMapToPair(new RowToCellsFunction(config))
+          .repartitionAndSortWithinPartitions(new RegionPartitioner(regionLocator.getStartKeys()))
+          .mapToPair(new CellToKeyValueFunction())
+          .saveAsNewAPIHadoopFile(stagingPath.toString(), ImmutableBytesWritable.class,
+              KeyValue.class, HFileOutputFormat2.class, job.getConfiguration());
+
+      LOG.debug("Loading HFiles from {} into table {}", stagingPath, tableName);
+      new LoadIncrementalHFiles(hbaseConfiguration).doBulkLoad(
+          stagingPath, admin, table, regionLocator);
+    }
+    finally {
+      fs.delete(stagingPath, true);
+    }
+  }
+
+  /**
+   * The coordinates of a cell, in the order that the cells are written to the HFiles.
+   */
+  @SuppressWarnings("serial")
+  static class CellKey implements Comparable<CellKey>, Serializable {
+
+    private byte[] row;
+    private byte[] family;
+    private byte[] qualifier;
+
+    CellKey(byte[] row, byte[] family, byte[] qualifier) {
+      this.row = row;
+      this.family = family;
+      this.qualifier = qualifier;
+    }
+
+    @Override
+    public int compareTo(CellKey other) {
+      int comparison = Bytes.compareTo(row, other.row);
+      if (comparison == 0) {
+        comparison = Bytes.compareTo(family, other.family);
+      }
+      if (comparison == 0) {
+        comparison = Bytes.compareTo(qualifier, other.qualifier);
+      }
+
+      return comparison;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof CellKey && compareTo((CellKey)other) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(new int[] {
+          Bytes.hashCode(row), Bytes.hashCode(family), Bytes.hashCode(qualifier)});
+    }
+
+  }
+
+  /**
+   * Partitions the cells by the region of the table that their row belongs to.
+   */
+  @SuppressWarnings("serial")
+  static class RegionPartitioner extends Partitioner {
+
+    private byte[][] startKeys;
+
+    RegionPartitioner(byte[][] startKeys) {
+      this.startKeys = startKeys;
+    }
+
+    @Override
+    public int numPartitions() {
+      return startKeys.length;
+    }
+
+    @Override
+    public int getPartition(Object key) {
+      int index = Arrays.binarySearch(startKeys, ((CellKey)key).row, Bytes.BYTES_COMPARATOR);
+
+      // The first region starts with the empty row key, so every row is after one of the starts
+      return index >= 0 ? index : -(index + 1) - 1;
+    }
+
+  }
+
+  @SuppressWarnings("serial")
+  private static class RowToCellsFunction implements PairFlatMapFunction<Row, CellKey, byte[]> {
+
+    private Config config;
+    private transient HBaseSerde serde;
+
+    RowToCellsFunction(Config config) {
+      this.config = config;
+    }
+
+    @Override
+    public Iterator<Tuple2<CellKey, byte[]>> call(Row row) throws Exception {
+      if (serde == null) {
+        serde = HBaseUtils.getSerde(config);
+      }
+
+      Put put = serde.convertToPut(row);
+      List<Tuple2<CellKey, byte[]>> cells = Lists.newArrayList();
+      for (Map.Entry<byte[], List<Cell>> familyCells : put.getFamilyCellMap().entrySet()) {
+        for (Cell cell : familyCells.getValue()) {
+          CellKey key = new CellKey(
+              put.getRow(), familyCells.getKey(), CellUtil.cloneQualifier(cell));
+          cells.add(new Tuple2<>(key, CellUtil.cloneValue(cell)));
+        }
+      }
+
+      return cells.iterator();
+    }
+
+  }
+
+  @SuppressWarnings("serial")
+  private static class CellToKeyValueFunction
+      implements PairFunction<Tuple2<CellKey, byte[]>, ImmutableBytesWritable, KeyValue> {
+
+    @Override
+    public Tuple2<ImmutableBytesWritable, KeyValue> call(Tuple2<CellKey, byte[]> cell) {
+      CellKey key = cell._1();
+
+      // The HFile writer gives the cells the time that it was opened as their timestamp
+      return new Tuple2<>(new ImmutableBytesWritable(key.row),
+          new KeyValue(key.row, key.family, key.qualifier, HConstants.LATEST_TIMESTAMP, cell._2()));
+    }
+
+  }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.hbase;
+
+import com.cloudera.labs.envelope.schema.ConfigurationDataTypes;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Encodes and decodes the values of one mapped column of the default HBase serde. The codec is
+ * chosen from the column type once when the serde is configured, and it holds the family and
+ * qualifier of the column as bytes, so that converting rows to and from HBase does not dispatch
+ * on the type name or convert the column names for every cell.
+ */
+abstract class HBaseColumnCodec {
+
+  static final String ROWKEY_FAMILY = "rowkey";
+
+  final String name;
+  final byte[] family;
+  final byte[] qualifier;
+  final boolean rowKey;
+  // The position of the column in the schema of the rows that the serde provides
+  final int fieldIndex;
+
+  HBaseColumnCodec(HBaseSerde.ColumnDef def, int fieldIndex) {
+    this.name = def.name;
+    this.family = Bytes.toBytes(def.cf);
+    this.qualifier = Bytes.toBytes(def.name);
+    this.rowKey = def.cf.equals(ROWKEY_FAMILY);
+    this.fieldIndex = fieldIndex;
+  }
+
+  static HBaseColumnCodec forColumn(HBaseSerde.ColumnDef def, int fieldIndex) {
+    switch (def.type) {
+      case ConfigurationDataTypes.INT:
+        return new IntCodec(def, fieldIndex);
+      case ConfigurationDataTypes.LONG:
+        return new LongCodec(def, fieldIndex);
+      case ConfigurationDataTypes.BOOLEAN:
+        return new BooleanCodec(def, fieldIndex);
+      case ConfigurationDataTypes.FLOAT:
+        return new FloatCodec(def, fieldIndex);
+      case ConfigurationDataTypes.DOUBLE:
+        return new DoubleCodec(def, fieldIndex);
+      case ConfigurationDataTypes.STRING:
+        return new StringCodec(def, fieldIndex);
+      default:
+        throw new IllegalArgumentException("Unsupported column type: " + def.type);
+    }
+  }
+
+  /**
+   * @return the encoded length of every value of the column, or -1 if the length varies.
+   */
+  abstract int fixedLength();
+
+  abstract byte[] encode(Object value);
+
+  abstract Object decode(byte[] source, int offset, int length);
+
+  private static class IntCodec extends HBaseColumnCodec {
+    IntCodec(HBaseSerde.ColumnDef def, int fieldIndex) {
+      super(def, fieldIndex);
+    }
+
+    @Override
+    int fixedLength() {
+      return Bytes.SIZEOF_INT;
+    }
+
+    @Override
+    byte[] encode(Object value) {
+      return Bytes.toBytes((Integer)value);
+    }
+
+    @Override
+    Object decode(byte[] source, int offset, int length) {
+      return Bytes.toInt(source, offset, length);
+    }
+  }
+
+  private static class LongCodec extends HBaseColumnCodec {
+    LongCodec(HBaseSerde.ColumnDef def, int fieldIndex) {
+      super(def, fieldIndex);
+    }
+
+    @Override
+    int fixedLength() {
+      return Bytes.SIZEOF_LONG;
+    }
+
+    @Override
+    byte[] encode(Object value) {
+      return Bytes.toBytes((Long)value);
+    }
+
+    @Override
+    Object decode(byte[] source, int offset, int length) {
+      return Bytes.toLong(source, offset, length);
+    }
+  }
+
+  private static class BooleanCodec extends HBaseColumnCodec {
+    BooleanCodec(HBaseSerde.ColumnDef def, int fieldIndex) {
+      super(def, fieldIndex);
+    }
+
+    @Override
+    int fixedLength() {
+      return Bytes.SIZEOF_BOOLEAN;
+    }
+
+    @Override
+    byte[] encode(Object value) {
+      return Bytes.toBytes((Boolean)value);
+    }
+
+    @Override
+    Object decode(byte[] source, int offset, int length) {
+      return source[offset] != (byte)0;
+    }
+  }
+
+  private static class FloatCodec extends HBaseColumnCodec {
+    FloatCodec(HBaseSerde.ColumnDef def, int fieldIndex) {
+      super(def, fieldIndex);
+    }
+
+    @Override
+    int fixedLength() {
+      return Bytes.SIZEOF_FLOAT;
+    }
+
+    @Override
+    byte[] encode(Object value) {
+      return Bytes.toBytes((Float)value);
+    }
+
+    @Override
+    Object decode(byte[] source, int offset, int length) {
+      return Bytes.toFloat(source, offset);
+    }
+  }
+
+  private static class DoubleCodec extends HBaseColumnCodec {
+    DoubleCodec(HBaseSerde.ColumnDef def, int fieldIndex) {
+      super(def, fieldIndex);
+    }
+
+    @Override
+    int fixedLength() {
+      return Bytes.SIZEOF_DOUBLE;
+    }
+
+    @Override
+    byte[] encode(Object value) {
+      return Bytes.toBytes((Double)value);
+    }
+
+    @Override
+    Object decode(byte[] source, int offset, int length) {
+      return Bytes.toDouble(source, offset);
+    }
+  }
+
+  private static class StringCodec extends HBaseColumnCodec {
+    StringCodec(HBaseSerde.ColumnDef def, int fieldIndex) {
+      super(def, fieldIndex);
+    }
+
+    @Override
+    int fixedLength() {
+      return -1;
+    }
+
+    @Override
+    byte[] encode(Object value) {
+      return Bytes.toBytes((String)value);
+    }
+
+    @Override
+    Object decode(byte[] source, int offset, int length) {
+      return Bytes.toString(source, offset, length);
+    }
+  }
+
+}
@@ -19,21 +19,29 @@ import com.cloudera.labs.envelope.component.ProvidesAlias;
 import com.cloudera.labs.envelope.output.BulkOutput;
 import com.cloudera.labs.envelope.output.RandomOutput;
 import com.cloudera.labs.envelope.plan.MutationType;
+import com.cloudera.labs.envelope.utils.JVMUtils;
 import com.cloudera.labs.envelope.utils.PlannerUtils;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
 import com.cloudera.labs.envelope.validate.Validations;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.typesafe.config.Config;
+import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.BufferedMutator;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Query;
+import org.apache.hadoop.hbase.client.RegionLocator;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.spark.api.java.function.ForeachPartitionFunction;
 import org.apache.spark.api.java.function.Function;
 import org.apache.spark.sql.Dataset;
@@ -45,7 +53,14 @@ import scala.Tuple2;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * HBase output implementing the RandomOutput and BulkOutput APIs.
@@ -110,6 +125,12 @@ public class HBaseOutput implements RandomOutput, BulkOutput, ProvidesAlias, Pro
   private static HBaseSerde serde;
   private TableName tableName;
   private int batchSize;
+  private int lookupParallelism;
+  private boolean bulkLoad;
+  private BufferedMutator mutator;
+
+  private static final ExecutorService LOOKUP_EXECUTOR = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("envelope-hbase-lookup-%d").build());
 
   // API methods
 
@@ -118,85 +139,190 @@ public class HBaseOutput implements RandomOutput, BulkOutput, ProvidesAlias, Pro
     this.config = config;
     this.tableName = HBaseUtils.tableInfoFor(config);
     this.batchSize = HBaseUtils.batchSizeFor(config);
+    this.lookupParallelism = HBaseUtils.lookupParallelismFor(config);
+    this.bulkLoad = HBaseUtils.bulkLoadEnabledFor(config);
   }
 
   @Override
   public Iterable<Row> getExistingForFilters(Iterable<Row> filters) throws Exception {
     LOG.debug("Fetching filter rows from table: {}", tableName.toString());
     List<Row> filterResults = Lists.newArrayList();
-    try (Table table = getConnection(config).getTable(tableName)) {
-      List<Get> gets = Lists.newArrayList();
-      List<Scan> scans = Lists.newArrayList();
-
-      for (Row filter : filters) {
-        // Construct row key from key columns
-        Query query = getSerde(config).convertToQuery(filter);
-        LOG.debug("Adding filter: {}", query);
-        
-        if (query instanceof Get) {
-          gets.add((Get)query);
-        }
-        else if (query instanceof Scan) {
-          scans.add((Scan)query);
-        }
-        else {
-          throw new RuntimeException("Unsupported HBase query class: " + query.getClass().getName());
-        }
+    List<Get> gets = Lists.newArrayList();
+    List<Scan> scans = Lists.newArrayList();
+
+    for (Row filter : filters) {
+      // Construct row key from key columns
+      Query query = getSerde(config).convertToQuery(filter);
+      LOG.debug("Adding filter: {}", query);
+
+      if (query instanceof Get) {
+        gets.add((Get)query);
       }
-      
-      List<Result> results = Lists.newArrayList();
-      if (gets.size() > 0) {
-        results.addAll(Lists.newArrayList(table.get(gets)));
+      else if (query instanceof Scan) {
+        scans.add((Scan)query);
       }
-      if (scans.size() > 0) {
-        Scan mergedScan = HBaseUtils.mergeRangeScans(scans);
-        results.addAll(Lists.newArrayList(table.getScanner(mergedScan)));
+      else {
+        throw new RuntimeException("Unsupported HBase query class: " + query.getClass().getName());
       }
-      
-      filterResults.addAll(getSerde(config).convertFromResults(results));
     }
 
+    List<Result> results = Lists.newArrayList();
+    if (gets.size() > 0) {
+      results.addAll(get(gets));
+    }
+    if (scans.size() > 0) {
+      results.addAll(scan(scans));
+    }
+
+    filterResults.addAll(getSerde(config).convertFromResults(results));
+
     return filterResults;
   }
 
-  @Override
-  public void applyRandomMutations(List<Row> plannedRows) throws Exception {
-    LOG.debug("Applying planned rows to table: {}", tableName.toString());
-    try (Table table = getConnection(config).getTable(tableName)) {
-      List<Mutation> actions = Lists.newArrayList();
+  // The gets are grouped by the region server that hosts their rows, and split into batches of at
+  // most the batch size, so that the batches can be sent to the region servers in parallel
+  private List<Result> get(List<Get> gets) throws Exception {
+    List<List<Get>> batches = Lists.newArrayList();
+    try (RegionLocator regionLocator = getConnection(config).getRegionLocator(tableName)) {
+      Map<ServerName, List<Get>> serverGets = Maps.newHashMap();
+      for (Get get : gets) {
+        ServerName serverName = regionLocator.getRegionLocation(get.getRow()).getServerName();
+        if (!serverGets.containsKey(serverName)) {
+          serverGets.put(serverName, Lists.<Get>newArrayList());
+        }
+        serverGets.get(serverName).add(get);
+      }
+      for (List<Get> getsForServer : serverGets.values()) {
+        batches.addAll(Lists.partition(getsForServer, batchSize));
+      }
+    }
 
-      LOG.debug("Extracting mutations from {} rows", plannedRows.size());
+    List<Callable<List<Result>>> lookups = Lists.newArrayList();
+    for (final List<Get> batch : batches) {
+      lookups.add(new Callable<List<Result>>() {
+        @Override
+        public List<Result> call() throws Exception {
+          return getBatch(batch);
+        }
+      });
+    }
 
-      for (Row row : plannedRows) {
-        MutationType mutationType = PlannerUtils.getMutationType(row);
-        row = PlannerUtils.removeMutationTypeField(row);
-        switch (mutationType) {
-          case UPSERT:
-            actions.add(getSerde(config).convertToPut(row));
-            break;
-          case DELETE:
-            actions.add(getSerde(config).convertToDelete(row));
-            break;
-          default:
-            throw new RuntimeException("Unsupported HBase mutation type: " +
-                PlannerUtils.getMutationType(row));
+    return lookup(lookups);
+  }
+
+  // The prefix scans are grouped by the region that their ranges start in, so that each region
+  // is scanned once for only the ranges that were requested from it, and the regions can be
+  // scanned in parallel
+  private List<Result> scan(List<Scan> scans) throws Exception {
+    List<Scan> regionScans;
+    try (RegionLocator regionLocator = getConnection(config).getRegionLocator(tableName)) {
+      regionScans = HBaseUtils.mergeRangeScansByRegion(scans, regionLocator);
+    }
+
+    List<Callable<List<Result>>> lookups = Lists.newArrayList();
+    for (final Scan regionScan : regionScans) {
+      lookups.add(new Callable<List<Result>>() {
+        @Override
+        public List<Result> call() throws Exception {
+          try (Table table = getConnection(config).getTable(tableName);
+               ResultScanner scanner = table.getScanner(regionScan)) {
+            return Lists.newArrayList(scanner);
+          }
+        }
+      });
+    }
+
+    return lookup(lookups);
+  }
+
+  // Runs the lookups, with at most the lookup parallelism of them at a time
+  private List<Result> lookup(List<Callable<List<Result>>> lookups) throws Exception {
+    List<Result> results = Lists.newArrayList();
+    if (lookups.size() == 1) {
+      results.addAll(lookups.get(0).call());
+    }
+    else {
+      CompletionService<List<Result>> completionService =
+          new ExecutorCompletionService<>(LOOKUP_EXECUTOR);
+      int submitted = 0;
+      int completed = 0;
+
+      while (completed < lookups.size()) {
+        while (submitted < lookups.size() && submitted - completed < lookupParallelism) {
+          completionService.submit(lookups.get(submitted++));
         }
 
-        if (actions.size() >= batchSize) {
-          // TODO: Should probably check the results
-          LOG.debug("Applying {} rows in batch", actions.size());
-          Object[] results = new Object[actions.size()];
-          table.batch(actions, results);
-          actions.clear();
+        try {
+          results.addAll(completionService.take().get());
+        }
+        catch (ExecutionException e) {
+          throw new RuntimeException("HBase output could not get existing records", e.getCause());
         }
+        completed++;
       }
-      if (actions.size() > 0) {
-        LOG.debug("Applying {} rows in final batch", actions.size());
-        Object[] results = new Object[actions.size()];
-        table.batch(actions, results);
-        LOG.debug("Batch complete");
+    }
+
+    return results;
+  }
+
+  // Tables are not thread-safe, so each batch of gets uses its own
+  private List<Result> getBatch(List<Get> gets) throws IOException {
+    try (Table table = getConnection(config).getTable(tableName)) {
+      return Lists.newArrayList(table.get(gets));
+    }
+  }
+
+  @Override
+  public synchronized void applyRandomMutations(List<Row> plannedRows) throws Exception {
+    LOG.debug("Applying planned rows to table: {}", tableName.toString());
+    BufferedMutator mutator = getMutator();
+
+    LOG.debug("Extracting mutations from {} rows", plannedRows.size());
+
+    for (Row row : plannedRows) {
+      MutationType mutationType = PlannerUtils.getMutationType(row);
+      row = PlannerUtils.removeMutationTypeField(row);
+      switch (mutationType) {
+        case UPSERT:
+          mutator.mutate(getSerde(config).convertToPut(row));
+          break;
+        case DELETE:
+          mutator.mutate(getSerde(config).convertToDelete(row));
+          break;
+        default:
+          throw new RuntimeException("Unsupported HBase mutation type: " +
+              PlannerUtils.getMutationType(row));
       }
     }
+
+    // The mutator sends its buffer whenever it reaches the write buffer size, and then the rest
+    // is sent here so that all of the mutations have been applied when this method returns. Any
+    // mutations that failed are reported by the exception listener.
+    mutator.flush();
+    LOG.debug("Applied {} rows", plannedRows.size());
+  }
+
+  private BufferedMutator getMutator() throws IOException {
+    if (mutator == null) {
+      mutator = getConnection(config).getBufferedMutator(
+          HBaseUtils.bufferedMutatorParamsFor(config, new FailOnMutationErrorListener()));
+      // The mutator is kept for the life of the output, so it is closed before the connection
+      JVMUtils.closeAtShutdown(mutator);
+    }
+
+    return mutator;
+  }
+
+  private static class FailOnMutationErrorListener implements BufferedMutator.ExceptionListener {
+    @Override
+    public void onException(RetriesExhaustedWithDetailsException e, BufferedMutator mutator)
+        throws RetriesExhaustedWithDetailsException {
+      for (int i = 0; i < e.getNumExceptions(); i++) {
+        LOG.error("Could not apply HBase mutation for row {} on server {}: {}",
+            Bytes.toStringBinary(e.getRow(i).getRow()), e.getHostnamePort(i), e.getCause(i).getMessage());
+      }
+      throw e;
+    }
   }
 
   @Override
@@ -212,6 +338,18 @@ public class HBaseOutput implements RandomOutput, BulkOutput, ProvidesAlias, Pro
   @Override
   public void applyBulkMutations(List<Tuple2<MutationType, Dataset<Row>>> planned) {
     for (Tuple2<MutationType, Dataset<Row>> mutationDataset : planned) {
+      if (bulkLoad && mutationDataset._1() == MutationType.UPSERT) {
+        // Write the upserts as HFiles and load them into the table, instead of sending them
+        // through the write path of the region servers
+        try {
+          new HBaseBulkLoader(config).load(mutationDataset._2(), getConnection(config));
+        }
+        catch (Exception e) {
+          throw new RuntimeException("HBase output could not bulk load upserts", e);
+        }
+        continue;
+      }
+
       BulkHBaseMutatorFunction mutatorFunction;
       switch (mutationDataset._1()) {
         case UPSERT:
@@ -27,11 +27,15 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.RegionLocator;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.MultiRowRangeFilter;
 import org.apache.hadoop.hbase.filter.MultiRowRangeFilter.RowRange;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.spark.sql.types.DataTypes;
 import org.apache.spark.sql.types.StructField;
 import org.apache.spark.sql.types.StructType;
@@ -55,8 +59,13 @@ public class HBaseUtils {
   public static final String SERDE_PROPERTY = "mapping.serde";
   public static final String HBASE_PASSTHRU_PREFIX = "hbase.conf";
   public static final String HBASE_BATCH_SIZE = "batch.size";
+  public static final String HBASE_WRITE_BUFFER_SIZE = "write.buffer.size";
+  public static final String HBASE_LOOKUP_PARALLELISM = "lookup.parallelism";
+  public static final String HBASE_BULK_LOAD_ENABLED = "bulk.load.enabled";
+  public static final String HBASE_BULK_LOAD_STAGING_DIR = "bulk.load.staging.dir";
 
   public static final int DEFAULT_HBASE_BATCH_SIZE = 1000;
+  public static final int DEFAULT_HBASE_LOOKUP_PARALLELISM = 4;
   public static final String DEFAULT_SERDE_PROPERTY = "default";
   public static final String DEFAULT_KEY_SEPARATOR = ":";
 
@@ -117,6 +126,32 @@ public class HBaseUtils {
     }
   }
 
+  public static int lookupParallelismFor(Config config) {
+    if (config.hasPath(HBASE_LOOKUP_PARALLELISM)) {
+      return config.getInt(HBASE_LOOKUP_PARALLELISM);
+    } else {
+      return DEFAULT_HBASE_LOOKUP_PARALLELISM;
+    }
+  }
+
+  public static boolean bulkLoadEnabledFor(Config config) {
+    return config.hasPath(HBASE_BULK_LOAD_ENABLED) && config.getBoolean(HBASE_BULK_LOAD_ENABLED);
+  }
+
+  public static String bulkLoadStagingDirFor(Config config) {
+    return config.getString(HBASE_BULK_LOAD_STAGING_DIR);
+  }
+
+  public static BufferedMutatorParams bufferedMutatorParamsFor(Config config,
+                                                               BufferedMutator.ExceptionListener listener) {
+    BufferedMutatorParams params = new BufferedMutatorParams(tableInfoFor(config)).listener(listener);
+    if (config.hasPath(HBASE_WRITE_BUFFER_SIZE)) {
+      params.writeBufferSize(config.getBytes(HBASE_WRITE_BUFFER_SIZE));
+    }
+
+    return params;
+  }
+
   public static TableName tableInfoFor(Config config) {
     String name = config.getString(TABLE_NAME_PROPERTY);
 
@@ -191,15 +226,30 @@ public class HBaseUtils {
   
   public static Scan mergeRangeScans(List<Scan> rangeScans) {
     List<RowRange> ranges = Lists.newArrayList();
+    byte[] mergedStartRow = null;
+    byte[] mergedStopRow = null;
     
     for (Scan rangeScan : rangeScans) {
       byte[] startRow = rangeScan.getStartRow();
       byte[] stopRow = rangeScan.getStopRow();
       
       ranges.add(new RowRange(startRow, true, stopRow, false));
+
+      // Bound the scan by the ranges, where an empty stop row is the end of the table
+      if (mergedStartRow == null || Bytes.compareTo(startRow, mergedStartRow) < 0) {
+        mergedStartRow = startRow;
+      }
+      if (mergedStopRow == null || (mergedStopRow.length > 0 &&
+          (stopRow.length == 0 || Bytes.compareTo(stopRow, mergedStopRow) > 0))) {
+        mergedStopRow = stopRow;
+      }
     }
     
     Scan mergedScan = new Scan();
+    if (mergedStartRow != null) {
+      mergedScan.setStartRow(mergedStartRow);
+      mergedScan.setStopRow(mergedStopRow);
+    }
     try {
       mergedScan.setFilter(new MultiRowRangeFilter(ranges));
     } catch (IOException e) {
@@ -208,6 +258,30 @@ public class HBaseUtils {
     
     return mergedScan;
   }
+
+  /**
+   * Merges the range scans into one scan for each region that the ranges start in, so that the
+   * regions can be scanned separately and each only reads the requested ranges.
+   */
+  public static List<Scan> mergeRangeScansByRegion(List<Scan> rangeScans,
+                                                   RegionLocator regionLocator) throws IOException {
+    Map<byte[], List<Scan>> regionRangeScans = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    for (Scan rangeScan : rangeScans) {
+      byte[] regionStartKey = regionLocator.getRegionLocation(rangeScan.getStartRow())
+          .getRegionInfo().getStartKey();
+      if (!regionRangeScans.containsKey(regionStartKey)) {
+        regionRangeScans.put(regionStartKey, Lists.<Scan>newArrayList());
+      }
+      regionRangeScans.get(regionStartKey).add(rangeScan);
+    }
+
+    List<Scan> mergedScans = Lists.newArrayList();
+    for (List<Scan> scansForRegion : regionRangeScans.values()) {
+      mergedScans.add(mergeRangeScans(scansForRegion));
+    }
+
+    return mergedScans;
+  }
   
   public static byte[] exclusiveStopRow(byte[] startRow) {
     byte[] stopRow = startRow.clone();
@@ -233,6 +307,11 @@ public class HBaseUtils {
         .mandatoryPath(COLUMNS_PROPERTY, ConfigValueType.OBJECT)
         .optionalPath(ZK_QUORUM_PROPERTY, ConfigValueType.STRING)
         .optionalPath(HBASE_BATCH_SIZE, ConfigValueType.NUMBER)
+        .optionalPath(HBASE_WRITE_BUFFER_SIZE)
+        .optionalPath(HBASE_LOOKUP_PARALLELISM, ConfigValueType.NUMBER)
+        .optionalPath(HBASE_BULK_LOAD_ENABLED, ConfigValueType.BOOLEAN)
+        .ifPathHasValue(HBASE_BULK_LOAD_ENABLED, true,
+            Validations.single().mandatoryPath(HBASE_BULK_LOAD_STAGING_DIR, ConfigValueType.STRING))
         .optionalPath(SERDE_PROPERTY, ConfigValueType.STRING)
         .optionalPath(KEY_SEPARATOR, ConfigValueType.STRING)
         .handlesOwnValidationPath(COLUMNS_PROPERTY)
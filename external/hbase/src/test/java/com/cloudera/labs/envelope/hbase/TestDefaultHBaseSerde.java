@@ -19,6 +19,7 @@ import com.cloudera.labs.envelope.spark.RowWithSchema;
 import com.cloudera.labs.envelope.utils.ConfigUtils;
 import com.google.common.collect.Lists;
 import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.KeyValue;
@@ -161,6 +162,39 @@ public class TestDefaultHBaseSerde {
     assertEquals("Cumqty should be 5", 5, row.<Integer>getAs("cumqty").intValue());
   }
 
+  @Test
+  public void testConvertFromResultFixedLengthTypes() {
+    Config typesConfig = ConfigFactory.parseString(
+        "mapping.rowkey.columns = [active, id]\n" +
+        "mapping.columns {\n" +
+        "  active { cf = rowkey, col = active, type = boolean }\n" +
+        "  id { cf = rowkey, col = id, type = int }\n" +
+        "  flag { cf = cf1, col = flag, type = boolean }\n" +
+        "  ratio { cf = cf1, col = ratio, type = float }\n" +
+        "  price { cf = cf1, col = price, type = double }\n" +
+        "}");
+    DefaultHBaseSerde typesSerde = new DefaultHBaseSerde();
+    typesSerde.configure(typesConfig);
+
+    byte[] rowKey = Bytes.add(Bytes.toBytes(true), Bytes.toBytes(":"), Bytes.toBytes(42));
+    byte[] cf = Bytes.toBytes("cf1");
+    List<Cell> cells = Lists.newArrayList(
+        (Cell)new KeyValue(rowKey, cf, Bytes.toBytes("flag"), 1000L, Bytes.toBytes(false)),
+        new KeyValue(rowKey, cf, Bytes.toBytes("ratio"), 1000L, Bytes.toBytes(0.5f)),
+        new KeyValue(rowKey, cf, Bytes.toBytes("price"), 1000L, Bytes.toBytes(101.25d))
+    );
+    Row row = typesSerde.convertFromResult(Result.create(cells));
+
+    assertEquals("Active should be true", true, row.<Boolean>getAs("active"));
+    assertEquals("Id should be 42", 42, row.<Integer>getAs("id").intValue());
+    assertEquals("Flag should be false", false, row.<Boolean>getAs("flag"));
+    assertEquals("Ratio should be 0.5", 0.5f, row.<Float>getAs("ratio"), 0.0f);
+    assertEquals("Price should be 101.25", 101.25d, row.<Double>getAs("price"), 0.0d);
+
+    Put put = typesSerde.convertToPut(row);
+    assertArrayEquals("Row key should round trip", rowKey, put.getRow());
+  }
+
   @Test
   public void testConvertFromResults() {
     byte[] rowKey = Bytes.add(Bytes.toBytes("GOOG:"), Bytes.toBytes(1000L));
@@ -31,9 +31,11 @@ import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.regionserver.NoSuchColumnFamilyException;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
@@ -54,6 +56,8 @@ import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestHBaseOutput {
 
@@ -87,6 +91,12 @@ public class TestHBaseOutput {
       }
   );
 
+  private StructType prefixFilterSchema = new StructType(
+      new StructField[]{
+          new StructField("symbol", DataTypes.StringType, false, Metadata.empty())
+      }
+  );
+
   private void addEntriesToHBase() throws IOException {
     long beginTime = 1_000_000_000;
     Table table = connection.getTable(TableName.valueOf(TABLE));
@@ -281,6 +291,89 @@ public class TestHBaseOutput {
     scanAndCountTable(table, 0);
   }
 
+  @Test
+  public void testGetExistingForPrefixFiltersAcrossRegions() throws Exception {
+    utility.deleteTable(TABLE);
+    utility.createTable(TableName.valueOf(TABLE), new byte[][]{CF1},
+        new byte[][]{Bytes.toBytes("B"), Bytes.toBytes("H"), Bytes.toBytes("N")});
+    addEntriesToHBase();
+
+    Config config = ConfigUtils.configFromResource("/hbase/hbase-output-test.conf").getConfig("output");
+    config = config.withValue("zookeeper",
+        ConfigValueFactory.fromAnyRef("localhost:" + utility.getZkCluster().getClientPort()));
+
+    HBaseOutput output = new HBaseOutput();
+    output.configure(config);
+
+    // AAPL, GOOG and MSFT are each in a different region
+    List<Row> filters = Lists.<Row>newArrayList(
+        new RowWithSchema(prefixFilterSchema, "AAPL"),
+        new RowWithSchema(prefixFilterSchema, "GOOG"),
+        new RowWithSchema(prefixFilterSchema, "MSFT"));
+    Iterable<Row> existing = output.getExistingForFilters(filters);
+
+    assertEquals(13 + 12 + 13, Iterables.size(existing));
+    for (Row row : existing) {
+      assertTrue(Lists.newArrayList("AAPL", "GOOG", "MSFT").contains(row.<String>getAs("symbol")));
+    }
+  }
+
+  @Test
+  public void testGetExistingForFiltersAcrossRegions() throws Exception {
+    utility.deleteTable(TABLE);
+    utility.createTable(TableName.valueOf(TABLE), new byte[][]{CF1},
+        new byte[][]{Bytes.toBytes("B"), Bytes.toBytes("H"), Bytes.toBytes("N")});
+    addEntriesToHBase();
+
+    Config config = ConfigUtils.configFromResource("/hbase/hbase-output-test.conf").getConfig("output");
+    config = config.withValue("zookeeper",
+        ConfigValueFactory.fromAnyRef("localhost:" + utility.getZkCluster().getClientPort()));
+    // The gets of the region server are split into batches that are run in parallel
+    config = config.withValue(HBaseUtils.HBASE_BATCH_SIZE, ConfigValueFactory.fromAnyRef(2));
+    config = config.withValue(HBaseUtils.HBASE_LOOKUP_PARALLELISM, ConfigValueFactory.fromAnyRef(3));
+
+    HBaseOutput output = new HBaseOutput();
+    output.configure(config);
+
+    // The first row of each symbol, which are spread across all four regions
+    List<Row> filters = Lists.newArrayList();
+    for (int i = 0; i < SYMBOLS.length; i++) {
+      filters.add(new RowWithSchema(filterSchema, SYMBOLS[i], 1_000_000_000L + i));
+    }
+    Iterable<Row> existing = output.getExistingForFilters(filters);
+
+    assertEquals(SYMBOLS.length, Iterables.size(existing));
+    for (Row row : existing) {
+      int i = (int)(row.<Long>getAs("transacttime") - 1_000_000_000L);
+      assertEquals(SYMBOLS[i], row.getAs("symbol"));
+      assertEquals(Integer.toString(i), row.getAs("clordid"));
+      assertEquals(i, (int)row.<Integer>getAs("orderqty"));
+    }
+  }
+
+  @Test
+  public void testApplyFailedMutations() throws Exception {
+    // The column family of the mapping does not exist in the table
+    utility.deleteTable(TABLE);
+    utility.createTable(TABLE, new byte[][]{"cf2".getBytes()});
+
+    Config config = ConfigUtils.configFromResource("/hbase/hbase-output-test.conf").getConfig("output");
+    config = config.withValue("zookeeper",
+        ConfigValueFactory.fromAnyRef("localhost:" + utility.getZkCluster().getClientPort()));
+
+    HBaseOutput output = new HBaseOutput();
+    output.configure(config);
+
+    try {
+      output.applyRandomMutations(createPlannedMutations());
+      fail("Expected the failed mutations to be reported by the mutator");
+    }
+    catch (RetriesExhaustedWithDetailsException e) {
+      assertTrue(e.getNumExceptions() > 0);
+      assertTrue(e.getCause(0) instanceof NoSuchColumnFamilyException);
+    }
+  }
+
   @Test
   public void testApplyBulkMutations() throws Exception {
     Table table = connection.getTable(TableName.valueOf(TABLE));
@@ -317,6 +410,34 @@ public class TestHBaseOutput {
     scanAndCountTable(table, 0);
   }
 
+  @Test
+  public void testApplyBulkMutationsWithBulkLoad() throws Exception {
+    Table table = connection.getTable(TableName.valueOf(TABLE));
+
+    Config config = ConfigUtils.configFromResource("/hbase/hbase-output-test.conf").getConfig("output");
+    config = config.withValue("zookeeper",
+        ConfigValueFactory.fromAnyRef("localhost:" + utility.getZkCluster().getClientPort()));
+    config = config.withValue(HBaseUtils.HBASE_BULK_LOAD_ENABLED, ConfigValueFactory.fromAnyRef(true));
+    config = config.withValue(HBaseUtils.HBASE_BULK_LOAD_STAGING_DIR,
+        ConfigValueFactory.fromAnyRef(utility.getDataTestDirOnTestFS("bulkload").toString()));
+
+    HBaseOutput output = new HBaseOutput();
+    output.configure(config);
+
+    List<Tuple2<MutationType, Dataset<Row>>> upserts = Lists.newArrayList();
+    upserts.add(new Tuple2<>(MutationType.UPSERT, createBulkMutations(INPUT_ROWS)));
+    List<Tuple2<MutationType, Dataset<Row>>> deletes = Lists.newArrayList();
+    deletes.add(new Tuple2<>(MutationType.DELETE, createBulkMutations(INPUT_ROWS)));
+
+    // The upserts are loaded as HFiles
+    output.applyBulkMutations(upserts);
+    scanAndCountTable(table, INPUT_ROWS * 4);
+
+    // The deletes still go through the mutator
+    output.applyBulkMutations(deletes);
+    scanAndCountTable(table, 0);
+  }
+
   private List<Result> scanAndReturnTable(Table table) throws IOException {
     List<Result> results = Lists.newArrayList();
     Scan scan = new Scan();
@@ -221,6 +221,24 @@ public class TestHBaseUtils {
     assertTrue(ranges.get(1).getStopRow().equals(stopRow2));
   }
   
+  @Test
+  public void testMergePrefixScansBounds() {
+    List<Scan> scans = Lists.newArrayList(
+        new Scan(Bytes.toBytes("world"), Bytes.toBytes("worle")),
+        new Scan(Bytes.toBytes("hello"), Bytes.toBytes("hellp")));
+
+    Scan merged = HBaseUtils.mergeRangeScans(scans);
+
+    assertArrayEquals(Bytes.toBytes("hello"), merged.getStartRow());
+    assertArrayEquals(Bytes.toBytes("worle"), merged.getStopRow());
+
+    scans.add(new Scan(Bytes.toBytes("abc"), HConstants.EMPTY_END_ROW));
+    merged = HBaseUtils.mergeRangeScans(scans);
+
+    assertArrayEquals(Bytes.toBytes("abc"), merged.getStartRow());
+    assertArrayEquals(HConstants.EMPTY_END_ROW, merged.getStopRow());
+  }
+  
   @Test
   public void testExclusiveStopRowForLowestStartRow() {
     byte[] startRow = {0, 0, 0};
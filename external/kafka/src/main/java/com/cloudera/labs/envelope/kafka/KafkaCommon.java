@@ -15,8 +15,13 @@
 
 package com.cloudera.labs.envelope.kafka;
 
+import com.cloudera.labs.envelope.translate.Translator;
+import com.google.common.collect.Lists;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigValue;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,6 +32,7 @@ public class KafkaCommon {
   private static final Logger LOG = LoggerFactory.getLogger(KafkaCommon.class.getName());
 
   public static final String PARAMETER_CONFIG_PREFIX = "parameter.";
+  public static final String KEY_FIELD_NAME = "key";
 
   /**
    * Add custom parameters to the configuration key-value map
@@ -48,4 +54,20 @@ public class KafkaCommon {
     }
   }
 
+  /**
+   * The schema of the rows that the Kafka inputs provide to their translators
+   * @param keyDataType the data type of the message key, either string or binary
+   * @param valueDataType the data type of the message value, either string or binary
+   */
+  public static StructType getMessageSchema(DataType keyDataType, DataType valueDataType) {
+    return DataTypes.createStructType(Lists.newArrayList(
+        DataTypes.createStructField(KEY_FIELD_NAME, keyDataType, true),
+        DataTypes.createStructField(Translator.VALUE_FIELD_NAME, valueDataType, false),
+        DataTypes.createStructField("timestamp", DataTypes.LongType, true),
+        DataTypes.createStructField("topic", DataTypes.StringType, true),
+        DataTypes.createStructField("partition", DataTypes.IntegerType, true),
+        DataTypes.createStructField("offset", DataTypes.LongType, true)
+    ));
+  }
+
 }
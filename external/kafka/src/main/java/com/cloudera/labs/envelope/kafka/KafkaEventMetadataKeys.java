@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+public class KafkaEventMetadataKeys {
+
+  public static final String KAFKA_INPUT_PARTITION_READ_TOPIC =
+      KafkaEventTypes.KAFKA_INPUT_PARTITION_READ + ".topic";
+
+  public static final String KAFKA_INPUT_PARTITION_READ_PARTITION =
+      KafkaEventTypes.KAFKA_INPUT_PARTITION_READ + ".partition";
+
+  public static final String KAFKA_INPUT_PARTITION_READ_RECORD_COUNT =
+      KafkaEventTypes.KAFKA_INPUT_PARTITION_READ + ".record.count";
+
+  public static final String KAFKA_INPUT_PARTITION_READ_END_OFFSET =
+      KafkaEventTypes.KAFKA_INPUT_PARTITION_READ + ".end.offset";
+
+  public static final String KAFKA_INPUT_PARTITION_READ_LOG_END_OFFSET =
+      KafkaEventTypes.KAFKA_INPUT_PARTITION_READ + ".log.end.offset";
+
+  public static final String KAFKA_INPUT_PARTITION_READ_LAG =
+      KafkaEventTypes.KAFKA_INPUT_PARTITION_READ + ".lag";
+
+}
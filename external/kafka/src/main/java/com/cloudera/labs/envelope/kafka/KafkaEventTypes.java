@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+public class KafkaEventTypes {
+
+  // The Kafka input has read the messages of a micro-batch from a topic partition. Note that when
+  // handling this event the Kafka input looks up the log end offset of every topic partition of
+  // each micro-batch so that the consumer lag can be provided.
+  public static final String KAFKA_INPUT_PARTITION_READ =
+      "envelope.kafka.input.partition.read";
+
+}
@@ -15,22 +15,25 @@
 
 package com.cloudera.labs.envelope.kafka;
 
-import com.cloudera.labs.envelope.component.ComponentFactory;
 import com.cloudera.labs.envelope.component.InstantiatedComponent;
 import com.cloudera.labs.envelope.component.InstantiatesComponents;
 import com.cloudera.labs.envelope.component.ProvidesAlias;
+import com.cloudera.labs.envelope.event.Event;
+import com.cloudera.labs.envelope.event.EventManager;
 import com.cloudera.labs.envelope.input.CanRecordProgress;
 import com.cloudera.labs.envelope.input.StreamInput;
 import com.cloudera.labs.envelope.output.Output;
 import com.cloudera.labs.envelope.output.RandomOutput;
-import com.cloudera.labs.envelope.plan.MutationType;
 import com.cloudera.labs.envelope.schema.DeclaresProvidingSchema;
 import com.cloudera.labs.envelope.schema.UsesExpectedSchema;
+import com.cloudera.labs.envelope.spark.AccumulatorRequest;
+import com.cloudera.labs.envelope.spark.Accumulators;
 import com.cloudera.labs.envelope.spark.Contexts;
 import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.cloudera.labs.envelope.spark.UsesAccumulators;
 import com.cloudera.labs.envelope.translate.Translator;
 import com.cloudera.labs.envelope.utils.ConfigUtils;
-import com.cloudera.labs.envelope.utils.PlannerUtils;
+import com.cloudera.labs.envelope.utils.JVMUtils;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
 import com.cloudera.labs.envelope.validate.Validations;
 import com.google.common.annotations.VisibleForTesting;
@@ -40,7 +43,10 @@ import com.google.common.collect.Sets;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigValueType;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.function.Function;
 import org.apache.spark.sql.Row;
@@ -49,22 +55,23 @@ import org.apache.spark.sql.types.DataTypes;
 import org.apache.spark.sql.types.StructType;
 import org.apache.spark.streaming.Duration;
 import org.apache.spark.streaming.api.java.JavaDStream;
+import org.apache.spark.streaming.api.java.JavaInputDStream;
 import org.apache.spark.streaming.api.java.JavaStreamingContext;
 import org.apache.spark.streaming.kafka010.CanCommitOffsets;
 import org.apache.spark.streaming.kafka010.ConsumerStrategies;
 import org.apache.spark.streaming.kafka010.HasOffsetRanges;
 import org.apache.spark.streaming.kafka010.KafkaUtils;
-import org.apache.spark.streaming.kafka010.LocationStrategies;
 import org.apache.spark.streaming.kafka010.OffsetRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 public class KafkaInput implements StreamInput, CanRecordProgress, ProvidesAlias,
-    ProvidesValidations, InstantiatesComponents, UsesExpectedSchema {
+    ProvidesValidations, InstantiatesComponents, UsesExpectedSchema, UsesAccumulators {
 
   public static final String BROKERS_CONFIG = "brokers";
   public static final String TOPICS_CONFIG = "topics";
@@ -73,17 +80,39 @@ public class KafkaInput implements StreamInput, CanRecordProgress, ProvidesAlias
   public static final String WINDOW_SLIDE_MILLISECONDS_CONFIG = "window.slide.milliseconds";
   public static final String OFFSETS_MANAGE_CONFIG = "offsets.manage";
   public static final String OFFSETS_OUTPUT_CONFIG = "offsets.output";
+  public static final String OFFSETS_VERIFICATION_INTERVAL_CONFIG = "offsets.verification.interval";
   public static final String GROUP_ID_CONFIG = "group.id";
-
-  private static final String KEY_FIELD_NAME = "key";
+  public static final String SPLIT_MAX_RECORDS_CONFIG = "split.max.records";
+  public static final String LOCATION_STRATEGY_CONFIG = "location.strategy";
+  public static final String LOCATION_HOSTS_CONFIG = "location.hosts";
+  public static final String LOCATION_STRATEGY_CONSISTENT = "consistent";
+  public static final String LOCATION_STRATEGY_BROKERS = "brokers";
+  public static final String LOCATION_STRATEGY_FIXED = "fixed";
+  public static final String LOCATION_HOST_TOPIC_CONFIG = "topic";
+  public static final String LOCATION_HOST_PARTITION_CONFIG = "partition";
+  public static final String LOCATION_HOST_HOST_CONFIG = "host";
+
+  private static final String KEY_FIELD_NAME = KafkaCommon.KEY_FIELD_NAME;
+
+  @VisibleForTesting
+  static final String ACCUMULATOR_NUMBER_OF_RECORDS_READ = "Number of records read from Kafka";
+  @VisibleForTesting
+  static final String ACCUMULATOR_NUMBER_OF_RECORDS_READ_LARGEST_PARTITION =
+      "Number of records read from the largest Kafka partition of each micro-batch";
+
+  private static final Logger LOG = LoggerFactory.getLogger(KafkaInput.class);
 
   @VisibleForTesting Set<String> topics;
   @VisibleForTesting RandomOutput offsetsOutput;
+  private KafkaOffsetStore offsetStore;
   @VisibleForTesting String groupID;
   private Config config;
   private StructType expectedSchema;
   private Map<String, Object> kafkaParams;
   private JavaDStream<?> dStream;
+  private JavaInputDStream<ConsumerRecord<Object, Object>> directStream;
+  private Accumulators accumulators;
+  private KafkaConsumer<byte[], byte[]> lagConsumer;
 
   @Override
   public void configure(Config config) {
@@ -132,6 +161,28 @@ public class KafkaInput implements StreamInput, CanRecordProgress, ProvidesAlias
     }
   }
 
+  // The offsets are committed by the direct stream, which is not the stream of the input when
+  // its micro-batches are split
+  private JavaDStream<?> getDirectStream() throws Exception {
+    JavaDStream<?> stream = getDStream();
+
+    return directStream != null ? directStream : stream;
+  }
+
+  private Map<TopicPartition, String> getLocationHosts() {
+    Map<TopicPartition, String> locationHosts = Maps.newHashMap();
+
+    if (config.hasPath(LOCATION_HOSTS_CONFIG)) {
+      for (Config locationHost : config.getConfigList(LOCATION_HOSTS_CONFIG)) {
+        TopicPartition topicPartition = new TopicPartition(
+            locationHost.getString(LOCATION_HOST_TOPIC_CONFIG), locationHost.getInt(LOCATION_HOST_PARTITION_CONFIG));
+        locationHosts.put(topicPartition, locationHost.getString(LOCATION_HOST_HOST_CONFIG));
+      }
+    }
+
+    return locationHosts;
+  }
+
   @Override
   public JavaDStream<?> getDStream() throws Exception {
     if (dStream == null) {
@@ -141,13 +192,25 @@ public class KafkaInput implements StreamInput, CanRecordProgress, ProvidesAlias
         lastOffsets = getLastOffsets();
       }
 
+      String locationStrategy = ConfigUtils.getOrElse(config, LOCATION_STRATEGY_CONFIG, LOCATION_STRATEGY_CONSISTENT);
+      Map<TopicPartition, String> locationHosts = getLocationHosts();
+
       if (lastOffsets != null) {
-        dStream = KafkaUtils.createDirectStream(jssc, LocationStrategies.PreferConsistent(),
+        directStream = KafkaUtils.createDirectStream(jssc,
+            SplitOffsetRangesFunction.createLocationStrategy(locationStrategy, locationHosts),
             ConsumerStrategies.Subscribe(topics, kafkaParams, lastOffsets));
       } else {
-        dStream = KafkaUtils.createDirectStream(jssc, LocationStrategies.PreferConsistent(),
+        directStream = KafkaUtils.createDirectStream(jssc,
+            SplitOffsetRangesFunction.createLocationStrategy(locationStrategy, locationHosts),
             ConsumerStrategies.Subscribe(topics, kafkaParams));
       }
+      dStream = directStream;
+
+      if (config.hasPath(SPLIT_MAX_RECORDS_CONFIG)) {
+        long maxRecords = config.getLong(SPLIT_MAX_RECORDS_CONFIG);
+        dStream = directStream.transform(
+            new SplitOffsetRangesFunction(kafkaParams, maxRecords, locationStrategy, locationHosts));
+      }
 
       if (ConfigUtils.getOrElse(config, WINDOW_ENABLED_CONFIG, false)) {
         int windowDuration = config.getInt(WINDOW_MILLISECONDS_CONFIG);
@@ -208,14 +271,7 @@ public class KafkaInput implements StreamInput, CanRecordProgress, ProvidesAlias
 
     @Override
     public StructType getProvidingSchema() {
-      return DataTypes.createStructType(Lists.newArrayList(
-          DataTypes.createStructField(KEY_FIELD_NAME, keyDataType, true),
-          DataTypes.createStructField(Translator.VALUE_FIELD_NAME, valueDataType, false),
-          DataTypes.createStructField("timestamp", DataTypes.LongType, true),
-          DataTypes.createStructField("topic", DataTypes.StringType, true),
-          DataTypes.createStructField("partition", DataTypes.IntegerType, true),
-          DataTypes.createStructField("offset", DataTypes.LongType, true)
-      ));
+      return KafkaCommon.getMessageSchema(keyDataType, valueDataType);
     }
   }
 
@@ -240,101 +296,150 @@ public class KafkaInput implements StreamInput, CanRecordProgress, ProvidesAlias
 
   @Override
   public void recordProgress(JavaRDD<?> batch) throws Exception {
-    if (doesRecordProgress(config) && (batch.rdd() instanceof HasOffsetRanges)) {
-      OffsetRange[] offsetRanges = ((HasOffsetRanges)batch.rdd()).offsetRanges();
+    if (!(batch.rdd() instanceof HasOffsetRanges)) {
+      return;
+    }
+
+    // The micro-batch has more than one offset range per topic partition when it has been split
+    OffsetRange[] offsetRanges =
+        SplitOffsetRangesFunction.mergeOffsetRanges(((HasOffsetRanges)batch.rdd()).offsetRanges());
 
+    reportPartitionsRead(offsetRanges);
+
+    if (doesRecordProgress(config)) {
       if (usingKafkaManagedOffsets(config)) {
-         ((CanCommitOffsets) getDStream().dstream()).commitAsync(offsetRanges);
+         ((CanCommitOffsets) getDirectStream().dstream()).commitAsync(offsetRanges);
       }
       else {
-        // Plan the offset ranges as an upsert
-        List<Row> planned = Lists.newArrayList();
-        StructType schema = DataTypes.createStructType(Lists.newArrayList(
-            DataTypes.createStructField("group_id", DataTypes.StringType, false),
-            DataTypes.createStructField("topic", DataTypes.StringType, false),
-            DataTypes.createStructField("partition", DataTypes.IntegerType, false),
-            DataTypes.createStructField("offset", DataTypes.LongType, false)));
+        Map<TopicPartition, Long> offsets = Maps.newHashMap();
         for (OffsetRange offsetRange : offsetRanges) {
-          Row offsetRow = new RowWithSchema(schema, groupID, offsetRange.topic(), offsetRange.partition(),
-              offsetRange.untilOffset());
-          Row plan = PlannerUtils.setMutationType(offsetRow, MutationType.UPSERT);
-          planned.add(plan);
+          offsets.put(new TopicPartition(offsetRange.topic(), offsetRange.partition()), offsetRange.untilOffset());
         }
-      
-      // Upsert the offset ranges at the output
-      RandomOutput output = getOffsetsOutput(config, true);
-      output.applyRandomMutations(planned);
-      
-        // Retrieve back the offset ranges and assert that they were stored correctly
-        Map<TopicPartition, Long> storedOffsets = getLastOffsets();
-        for (OffsetRange offsetRange : offsetRanges) {
-          TopicPartition tp = new TopicPartition(offsetRange.topic(), offsetRange.partition());
-          // Depending on RandomOutput key configuration, this TopicPartition may not even exist.
-          // As an example, if key.field.names only contains (group_id, topic) but not the partition.
-          if (!storedOffsets.containsKey(tp)) {
-            throw new RuntimeException(String.format("Kafka input failed to assert that offset ranges " +
-                "were stored correctly!. For group ID '%s', topic '%s' and partition '%d' was not found'",
-                groupID, offsetRange.topic(), offsetRange.partition()));
-          }
-
-          if (!storedOffsets.get(tp).equals(offsetRange.untilOffset())) {
-            String exceptionMessage = String.format(
-                "Kafka input failed to assert that offset ranges were stored correctly! " +
-                "For group ID '%s', topic '%s', partition '%d' expected offset '%d' but found offset '%d'",
-                groupID, offsetRange.topic(), tp.partition(), offsetRange.untilOffset(), storedOffsets.get(tp));
-            throw new RuntimeException(exceptionMessage);
-          }
+
+        getOffsetStore().storeOffsets(offsets);
+      }
+    }
+  }
+
+  @Override
+  public Set<AccumulatorRequest> getAccumulatorRequests() {
+    return Sets.newHashSet(new AccumulatorRequest(ACCUMULATOR_NUMBER_OF_RECORDS_READ, Long.class),
+                           new AccumulatorRequest(ACCUMULATOR_NUMBER_OF_RECORDS_READ_LARGEST_PARTITION, Long.class));
+  }
+
+  @Override
+  public void receiveAccumulators(Accumulators accumulators) {
+    this.accumulators = accumulators;
+  }
+
+  // The offset ranges are known by the driver, so the instrumentation of each micro-batch does
+  // not require a Spark job. The log end offsets are only looked up when the event is handled.
+  @VisibleForTesting
+  void reportPartitionsRead(OffsetRange[] offsetRanges) {
+    long recordCount = 0;
+    long largestPartitionRecordCount = 0;
+    for (OffsetRange offsetRange : offsetRanges) {
+      recordCount += offsetRange.count();
+      largestPartitionRecordCount = Math.max(largestPartitionRecordCount, offsetRange.count());
+    }
+
+    if (accumulators != null) {
+      accumulators.getLongAccumulators().get(ACCUMULATOR_NUMBER_OF_RECORDS_READ).add(recordCount);
+      accumulators.getLongAccumulators().get(ACCUMULATOR_NUMBER_OF_RECORDS_READ_LARGEST_PARTITION)
+          .add(largestPartitionRecordCount);
+    }
+
+    if (EventManager.isHandled(KafkaEventTypes.KAFKA_INPUT_PARTITION_READ)) {
+      Map<TopicPartition, Long> logEndOffsets = getLogEndOffsets(offsetRanges);
+
+      for (OffsetRange offsetRange : offsetRanges) {
+        TopicPartition topicPartition = offsetRange.topicPartition();
+
+        Map<String, Object> metadata = Maps.newHashMap();
+        metadata.put(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_TOPIC, offsetRange.topic());
+        metadata.put(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_PARTITION, offsetRange.partition());
+        metadata.put(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_RECORD_COUNT, offsetRange.count());
+        metadata.put(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_END_OFFSET, offsetRange.untilOffset());
+
+        String message = "Kafka input read " + offsetRange.count() + " records from " + topicPartition +
+            " up to offset " + offsetRange.untilOffset();
+
+        if (logEndOffsets.containsKey(topicPartition)) {
+          long logEndOffset = logEndOffsets.get(topicPartition);
+          long lag = Math.max(0, logEndOffset - offsetRange.untilOffset());
+          metadata.put(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_LOG_END_OFFSET, logEndOffset);
+          metadata.put(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_LAG, lag);
+          message += " with a lag of " + lag + " records";
         }
+
+        EventManager.notify(new Event(KafkaEventTypes.KAFKA_INPUT_PARTITION_READ, message, metadata));
       }
     }
   }
+
+  private Map<TopicPartition, Long> getLogEndOffsets(OffsetRange[] offsetRanges) {
+    Map<TopicPartition, Long> logEndOffsets = Maps.newHashMap();
+
+    try {
+      Set<TopicPartition> topicPartitions = Sets.newHashSet();
+      for (OffsetRange offsetRange : offsetRanges) {
+        topicPartitions.add(offsetRange.topicPartition());
+      }
+
+      KafkaConsumer<byte[], byte[]> consumer = getLagConsumer();
+      consumer.assign(topicPartitions);
+      consumer.seekToEnd(topicPartitions);
+      for (TopicPartition topicPartition : topicPartitions) {
+        logEndOffsets.put(topicPartition, consumer.position(topicPartition));
+      }
+    }
+    catch (KafkaException e) {
+      LOG.warn("Could not look up the log end offsets of the Kafka input, so its lag will not be reported", e);
+    }
+
+    return logEndOffsets;
+  }
+
+  // The consumer is only assigned partitions to look up their log end offsets, so it is created
+  // without the group ID of the stream. It lives as long as the driver, so it is closed when the
+  // JVM shuts down.
+  private KafkaConsumer<byte[], byte[]> getLagConsumer() {
+    if (lagConsumer == null) {
+      Map<String, Object> consumerParams = Maps.newHashMap(kafkaParams);
+      consumerParams.remove("group.id");
+      consumerParams.remove("key.deserializer");
+      consumerParams.remove("value.deserializer");
+      lagConsumer = new KafkaConsumer<>(consumerParams, new ByteArrayDeserializer(), new ByteArrayDeserializer());
+      JVMUtils.closeAtShutdown(lagConsumer);
+    }
+
+    return lagConsumer;
+  }
+
+  private KafkaOffsetStore getOffsetStore() {
+    if (offsetStore == null) {
+      int verificationInterval = ConfigUtils.getOrElse(config, OFFSETS_VERIFICATION_INTERVAL_CONFIG, 0);
+      offsetStore = new KafkaOffsetStore(getOffsetsOutput(config, true), groupID, verificationInterval);
+    }
+
+    return offsetStore;
+  }
   
   private RandomOutput getOffsetsOutput(Config config, boolean configure) {
     if (configure) {
       if (offsetsOutput == null) {
-        Config outputConfig = config.getConfig(OFFSETS_OUTPUT_CONFIG);
-        Output output = ComponentFactory.create(Output.class, outputConfig, true);
-
-        if (!(output instanceof RandomOutput) ||
-            !((RandomOutput) output).getSupportedRandomMutationTypes().contains(MutationType.UPSERT)) {
-          throw new RuntimeException("Output used for Kafka offsets must support random upsert mutations");
-        }
-
-        offsetsOutput = (RandomOutput)output;
+        offsetsOutput = KafkaOffsetStore.createOutput(config.getConfig(OFFSETS_OUTPUT_CONFIG), true);
       }
 
       return offsetsOutput;
     }
     else {
-      Config outputConfig = config.getConfig(OFFSETS_OUTPUT_CONFIG);
-      return (RandomOutput)ComponentFactory.create(Output.class, outputConfig, false);
+      return KafkaOffsetStore.createOutput(config.getConfig(OFFSETS_OUTPUT_CONFIG), false);
     }
   }
 
   private Map<TopicPartition, Long> getLastOffsets() throws Exception {
-    Map<TopicPartition, Long> offsetRanges = Maps.newHashMap();
-    // Create filter for groupid/topic
-    for (String topic : topics) {
-      StructType filterSchema = DataTypes.createStructType(Lists.newArrayList(
-          DataTypes.createStructField("group_id", DataTypes.StringType, false),
-          DataTypes.createStructField("topic", DataTypes.StringType, false)));
-      Row groupIDTopicFilter = new RowWithSchema(filterSchema, groupID, topic);
-      Iterable<Row> filters = Collections.singleton(groupIDTopicFilter);
-
-      // Get results
-      RandomOutput output = getOffsetsOutput(config, true);
-      Iterable<Row> results = output.getExistingForFilters(filters);
-
-      // Transform results into map
-      for (Row result : results) {
-        Integer partition = result.getInt(result.fieldIndex("partition"));
-        Long offset = result.getLong(result.fieldIndex("offset"));
-        TopicPartition topicPartition = new TopicPartition(topic, partition);
-        offsetRanges.put(topicPartition, offset);
-      }
-    }
-    
-    return offsetRanges;
+    return getOffsetStore().getLastOffsets(topics);
   }
 
   @Override
@@ -346,10 +451,17 @@ public class KafkaInput implements StreamInput, CanRecordProgress, ProvidesAlias
         .optionalPath(WINDOW_ENABLED_CONFIG, ConfigValueType.BOOLEAN)
         .ifPathHasValue(WINDOW_ENABLED_CONFIG, true,
             Validations.single().mandatoryPath(WINDOW_MILLISECONDS_CONFIG, ConfigValueType.NUMBER))
+        .optionalPath(SPLIT_MAX_RECORDS_CONFIG, ConfigValueType.NUMBER)
+        .optionalPath(LOCATION_STRATEGY_CONFIG, ConfigValueType.STRING)
+        .allowedValues(LOCATION_STRATEGY_CONFIG,
+            LOCATION_STRATEGY_CONSISTENT, LOCATION_STRATEGY_BROKERS, LOCATION_STRATEGY_FIXED)
+        .ifPathHasValue(LOCATION_STRATEGY_CONFIG, LOCATION_STRATEGY_FIXED,
+            Validations.single().mandatoryPath(LOCATION_HOSTS_CONFIG, ConfigValueType.LIST))
         .optionalPath(OFFSETS_MANAGE_CONFIG, ConfigValueType.BOOLEAN)
         .ifPathHasValue(OFFSETS_MANAGE_CONFIG, true,
             Validations.single().optionalPath(OFFSETS_OUTPUT_CONFIG, ConfigValueType.OBJECT))
         .handlesOwnValidationPath("translator")
+        .optionalPath(OFFSETS_VERIFICATION_INTERVAL_CONFIG, ConfigValueType.NUMBER)
         .handlesOwnValidationPath(OFFSETS_OUTPUT_CONFIG)
         .handlesOwnValidationPath(KafkaCommon.PARAMETER_CONFIG_PREFIX)
         .build();
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.cloudera.labs.envelope.component.ComponentFactory;
+import com.cloudera.labs.envelope.output.Output;
+import com.cloudera.labs.envelope.output.RandomOutput;
+import com.cloudera.labs.envelope.plan.MutationType;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.cloudera.labs.envelope.utils.PlannerUtils;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.typesafe.config.Config;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores the offsets that a consumer group has processed for each Kafka topic partition in an
+ * output that supports random upserts, for the Kafka inputs that manage their offsets outside
+ * of Kafka. The store keeps the offsets that it last stored or retrieved in memory, so that
+ * only the partitions that have progressed are written, and they are all written in a single
+ * call to the output. The offsets are not read back after they are written unless a verification
+ * interval is given, because a failed write is reported by the output itself.
+ */
+class KafkaOffsetStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(KafkaOffsetStore.class);
+
+  private static final StructType OFFSET_SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+      DataTypes.createStructField("group_id", DataTypes.StringType, false),
+      DataTypes.createStructField("topic", DataTypes.StringType, false),
+      DataTypes.createStructField("partition", DataTypes.IntegerType, false),
+      DataTypes.createStructField("offset", DataTypes.LongType, false)));
+
+  private static final StructType FILTER_SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+      DataTypes.createStructField("group_id", DataTypes.StringType, false),
+      DataTypes.createStructField("topic", DataTypes.StringType, false)));
+
+  private RandomOutput output;
+  private String groupID;
+  private int verificationInterval;
+  private long storeCount = 0;
+  private Map<TopicPartition, Long> committedOffsets = Maps.newHashMap();
+
+  /**
+   * @param output The output that the offsets are stored in.
+   * @param groupID The consumer group of the offsets.
+   * @param verificationInterval The offsets are read back and verified once every this many
+   *                             stores. Zero disables the verification.
+   */
+  KafkaOffsetStore(RandomOutput output, String groupID, int verificationInterval) {
+    this.output = output;
+    this.groupID = groupID;
+    this.verificationInterval = verificationInterval;
+  }
+
+  static RandomOutput createOutput(Config outputConfig, boolean configure) {
+    Output output = ComponentFactory.create(Output.class, outputConfig, configure);
+
+    if (configure && (!(output instanceof RandomOutput) ||
+        !((RandomOutput) output).getSupportedRandomMutationTypes().contains(MutationType.UPSERT))) {
+      throw new RuntimeException("Output used for Kafka offsets must support random upsert mutations");
+    }
+
+    return (RandomOutput)output;
+  }
+
+  /**
+   * Upsert the offsets of the partitions that have progressed since they were last stored.
+   */
+  void storeOffsets(Map<TopicPartition, Long> offsets) throws Exception {
+    // Plan the progressed offsets as an upsert
+    Map<TopicPartition, Long> progressedOffsets = Maps.newHashMap();
+    List<Row> planned = Lists.newArrayList();
+    for (Map.Entry<TopicPartition, Long> offset : offsets.entrySet()) {
+      if (offset.getValue().equals(committedOffsets.get(offset.getKey()))) {
+        continue;
+      }
+
+      Row offsetRow = new RowWithSchema(OFFSET_SCHEMA, groupID, offset.getKey().topic(),
+          offset.getKey().partition(), offset.getValue());
+      Row plan = PlannerUtils.setMutationType(offsetRow, MutationType.UPSERT);
+      planned.add(plan);
+      progressedOffsets.put(offset.getKey(), offset.getValue());
+    }
+
+    if (!planned.isEmpty()) {
+      // Upsert the offsets at the output. The output throws an exception if the write fails, in
+      // which case the committed offsets are left as they were.
+      output.applyRandomMutations(planned);
+      committedOffsets.putAll(progressedOffsets);
+      LOG.debug("Stored {} Kafka offsets for group ID '{}'", planned.size(), groupID);
+    }
+
+    storeCount++;
+    if (verificationInterval > 0 && storeCount % verificationInterval == 0) {
+      verifyOffsets(offsets);
+    }
+  }
+
+  /**
+   * Retrieve the stored offsets of the topics for the consumer group.
+   */
+  Map<TopicPartition, Long> getLastOffsets(Set<String> topics) throws Exception {
+    Map<TopicPartition, Long> offsets = Maps.newHashMap();
+
+    // Create a filter for each groupid/topic, and retrieve them all at once
+    List<Row> filters = Lists.newArrayList();
+    for (String topic : topics) {
+      filters.add(new RowWithSchema(FILTER_SCHEMA, groupID, topic));
+    }
+
+    // Get results
+    Iterable<Row> results = output.getExistingForFilters(filters);
+
+    // Transform results into map
+    for (Row result : results) {
+      String topic = result.getString(result.fieldIndex("topic"));
+      Integer partition = result.getInt(result.fieldIndex("partition"));
+      Long offset = result.getLong(result.fieldIndex("offset"));
+      TopicPartition topicPartition = new TopicPartition(topic, partition);
+      offsets.put(topicPartition, offset);
+    }
+
+    committedOffsets.putAll(offsets);
+
+    return offsets;
+  }
+
+  /**
+   * Retrieve back the offsets and assert that they were stored correctly.
+   */
+  private void verifyOffsets(Map<TopicPartition, Long> offsets) throws Exception {
+    Set<String> topics = Sets.newHashSet();
+    for (TopicPartition tp : offsets.keySet()) {
+      topics.add(tp.topic());
+    }
+    Map<TopicPartition, Long> storedOffsets = getLastOffsets(topics);
+    for (Map.Entry<TopicPartition, Long> offset : offsets.entrySet()) {
+      TopicPartition tp = offset.getKey();
+      // Depending on RandomOutput key configuration, this TopicPartition may not even exist.
+      // As an example, if key.field.names only contains (group_id, topic) but not the partition.
+      if (!storedOffsets.containsKey(tp)) {
+        throw new RuntimeException(String.format("Kafka input failed to assert that offset ranges " +
+            "were stored correctly!. For group ID '%s', topic '%s' and partition '%d' was not found'",
+            groupID, tp.topic(), tp.partition()));
+      }
+
+      if (!storedOffsets.get(tp).equals(offset.getValue())) {
+        String exceptionMessage = String.format(
+            "Kafka input failed to assert that offset ranges were stored correctly! " +
+            "For group ID '%s', topic '%s', partition '%d' expected offset '%d' but found offset '%d'",
+            groupID, tp.topic(), tp.partition(), offset.getValue(), storedOffsets.get(tp));
+        throw new RuntimeException(exceptionMessage);
+      }
+    }
+  }
+
+}
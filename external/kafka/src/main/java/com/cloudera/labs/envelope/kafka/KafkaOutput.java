@@ -15,21 +15,22 @@
 
 package com.cloudera.labs.envelope.kafka;
 
-import com.cloudera.labs.envelope.kafka.serde.AvroSerializer;
-import com.cloudera.labs.envelope.kafka.serde.DelimitedSerializer;
 import com.cloudera.labs.envelope.component.ProvidesAlias;
+import com.cloudera.labs.envelope.kafka.KafkaProducerPool.PooledProducer;
+import com.cloudera.labs.envelope.kafka.KafkaSendTracker.PartitionStatistics;
 import com.cloudera.labs.envelope.output.BulkOutput;
 import com.cloudera.labs.envelope.plan.MutationType;
+import com.cloudera.labs.envelope.spark.AccumulatorRequest;
+import com.cloudera.labs.envelope.spark.Accumulators;
+import com.cloudera.labs.envelope.spark.UsesAccumulators;
+import com.cloudera.labs.envelope.utils.ConfigUtils;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
 import com.cloudera.labs.envelope.validate.Validations;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.typesafe.config.Config;
-import com.typesafe.config.ConfigValue;
 import com.typesafe.config.ConfigValueType;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.common.serialization.Serializer;
 import org.apache.spark.api.java.function.VoidFunction;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
@@ -42,7 +43,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-public class KafkaOutput implements BulkOutput, ProvidesAlias, ProvidesValidations {
+public class KafkaOutput implements BulkOutput, UsesAccumulators, ProvidesAlias, ProvidesValidations {
 
   public static final String BROKERS_CONFIG_NAME = "brokers";
   public static final String TOPIC_CONFIG_NAME = "topic";
@@ -50,10 +51,24 @@ public class KafkaOutput implements BulkOutput, ProvidesAlias, ProvidesValidatio
   public static final String SERIALIZER_TYPE_CONFIG_NAME = SERIALIZER_CONFIG_PREFIX + "type";
   public static final String DELIMITED_SERIALIZER = "delimited";
   public static final String AVRO_SERIALIZER = "avro";
+  public static final String SEND_MODE_CONFIG_NAME = "send.mode";
+  public static final String FLUSH_SEND_MODE = "flush";
+  public static final String ASYNC_SEND_MODE = "async";
+  public static final String MAX_INFLIGHT_RECORDS_CONFIG_NAME = "max.inflight.records";
+  public static final String MAX_INFLIGHT_BYTES_CONFIG_NAME = "max.inflight.bytes";
+
+  public static final int DEFAULT_MAX_INFLIGHT_RECORDS = 10000;
+  public static final long DEFAULT_MAX_INFLIGHT_BYTES = 32 * 1024 * 1024;
+
+  private static final String ACCUMULATOR_NUMBER_OF_RECORDS_SENT = "Number of records sent to Kafka";
+  private static final String ACCUMULATOR_NUMBER_OF_BYTES_SENT = "Number of bytes sent to Kafka";
+  private static final String ACCUMULATOR_SECONDS_SENDING = "Seconds sending to Kafka";
+  private static final String ACCUMULATOR_SECONDS_SEND_LATENCY = "Seconds of Kafka send latency";
 
   private static Logger LOG = LoggerFactory.getLogger(KafkaOutput.class);
 
   private Config config;
+  private Accumulators accumulators;
 
   @Override
   public void configure(Config config) {
@@ -67,7 +82,7 @@ public class KafkaOutput implements BulkOutput, ProvidesAlias, ProvidesValidatio
       Dataset<Row> mutationDF = mutation._2();
 
       if (mutationType.equals(MutationType.INSERT)) {
-        mutationDF.javaRDD().foreachPartition(new SendRowToKafkaFunction(config));
+        mutationDF.javaRDD().foreachPartition(new SendRowToKafkaFunction(config, accumulators));
       }
     }
   }
@@ -89,88 +104,117 @@ public class KafkaOutput implements BulkOutput, ProvidesAlias, ProvidesValidatio
         .mandatoryPath(TOPIC_CONFIG_NAME, ConfigValueType.STRING)
         .mandatoryPath(SERIALIZER_TYPE_CONFIG_NAME, ConfigValueType.STRING)
         .allowedValues(SERIALIZER_TYPE_CONFIG_NAME, DELIMITED_SERIALIZER, AVRO_SERIALIZER)
+        .optionalPath(SEND_MODE_CONFIG_NAME, ConfigValueType.STRING)
+        .allowedValues(SEND_MODE_CONFIG_NAME, FLUSH_SEND_MODE, ASYNC_SEND_MODE)
+        .optionalPath(MAX_INFLIGHT_RECORDS_CONFIG_NAME, ConfigValueType.NUMBER)
+        .optionalPath(MAX_INFLIGHT_BYTES_CONFIG_NAME, ConfigValueType.NUMBER)
         .handlesOwnValidationPath(SERIALIZER_CONFIG_PREFIX)
         .handlesOwnValidationPath(KafkaCommon.PARAMETER_CONFIG_PREFIX)
         .build();
   }
 
+  @Override
+  public Set<AccumulatorRequest> getAccumulatorRequests() {
+    return Sets.newHashSet(new AccumulatorRequest(ACCUMULATOR_NUMBER_OF_RECORDS_SENT, Long.class),
+                           new AccumulatorRequest(ACCUMULATOR_NUMBER_OF_BYTES_SENT, Long.class),
+                           new AccumulatorRequest(ACCUMULATOR_SECONDS_SENDING, Double.class),
+                           new AccumulatorRequest(ACCUMULATOR_SECONDS_SEND_LATENCY, Double.class));
+  }
+
+  @Override
+  public void receiveAccumulators(Accumulators accumulators) {
+    this.accumulators = accumulators;
+  }
+
   @SuppressWarnings("serial")
   private static class SendRowToKafkaFunction implements VoidFunction<Iterator<Row>> {
-    private KafkaProducer<Row, Row> producer;
     private String topic;
-    private String brokers;
-    private String serializerType;
     private Config config;
+    private Accumulators accumulators;
 
-    public SendRowToKafkaFunction(Config config) {
-      this.brokers = config.getString(BROKERS_CONFIG_NAME);
+    public SendRowToKafkaFunction(Config config, Accumulators accumulators) {
       this.topic = config.getString(TOPIC_CONFIG_NAME);
-      this.serializerType = config.getString(SERIALIZER_TYPE_CONFIG_NAME);
       this.config = config;
-    }
-
-    private void initialize() {
-      Serializer<Row> keySerializer, valueSerializer;
-      switch (serializerType) {
-        case DELIMITED_SERIALIZER:
-          keySerializer = new DelimitedSerializer();
-          valueSerializer = new DelimitedSerializer();
-          break;
-        case AVRO_SERIALIZER:
-          keySerializer = new AvroSerializer();
-          valueSerializer = new AvroSerializer();
-          break;
-        default:
-          throw new RuntimeException("Kafka output does not support serializer type: " + serializerType);
-      }
-      
-      Map<String, ?> serializerConfiguration = getSerializerConfiguration();
-      keySerializer.configure(serializerConfiguration, true);
-      valueSerializer.configure(serializerConfiguration, false);
-      
-      Map<String, Object> producerProps = Maps.newHashMap();
-      producerProps.put("bootstrap.servers", brokers);
-
-      KafkaCommon.addCustomParams(producerProps, config);
-      
-      producer = new KafkaProducer<>(producerProps, keySerializer, valueSerializer);
-
-      LOG.info("Producer initialized");
+      this.accumulators = accumulators;
     }
 
     @Override
     public void call(Iterator<Row> mutations) throws Exception {
-      initialize();
+      long startTime = System.nanoTime();
+
+      // In async mode the task fails as soon as a send has failed, and the records waiting to be
+      // acknowledged are bounded. In flush mode any failure is raised once the task has flushed.
+      boolean async = ConfigUtils.getOrElse(config, SEND_MODE_CONFIG_NAME, FLUSH_SEND_MODE).equals(ASYNC_SEND_MODE);
+      KafkaSendTracker tracker;
+      if (async) {
+        tracker = new KafkaSendTracker(
+            ConfigUtils.getOrElse(config, MAX_INFLIGHT_RECORDS_CONFIG_NAME, DEFAULT_MAX_INFLIGHT_RECORDS),
+            config.hasPath(MAX_INFLIGHT_BYTES_CONFIG_NAME) ?
+                config.getLong(MAX_INFLIGHT_BYTES_CONFIG_NAME) : DEFAULT_MAX_INFLIGHT_BYTES);
+      }
+      else {
+        tracker = new KafkaSendTracker(Integer.MAX_VALUE, Long.MAX_VALUE);
+      }
 
-      while (mutations.hasNext()) {
-        Row mutation = mutations.next();
+      PooledProducer pooledProducer = KafkaProducerPool.getProducer(config);
+      KafkaProducer<byte[], byte[]> producer = pooledProducer.getProducer();
 
-        producer.send(new ProducerRecord<Row, Row>(topic, mutation));
-      }
-      LOG.info("Finished sending messages");
+      try {
+        while (mutations.hasNext()) {
+          Row mutation = mutations.next();
 
-      // This will block until all mutations have been acked by Kafka
-      producer.flush();
-      LOG.info("Producer flushed");
+          byte[] value = pooledProducer.serializeValue(topic, mutation);
+          int bytes = value != null ? value.length : 0;
 
-      producer.close();
-      LOG.info("Producer closed");
-    }
-    
-    private Map<String, ?> getSerializerConfiguration() {
-      Map<String, Object> configs = Maps.newHashMap();
-      
-      for (Map.Entry<String, ConfigValue> entry : config.entrySet()) {
-        String propertyName = entry.getKey();
-        if (propertyName.startsWith(SERIALIZER_CONFIG_PREFIX)) {
-          String paramName = propertyName.substring(SERIALIZER_CONFIG_PREFIX.length());
-          String paramValue = config.getString(propertyName);
-
-          configs.put(paramName, paramValue);
+          tracker.acquire(bytes);
+          producer.send(new ProducerRecord<byte[], byte[]>(topic, value), tracker.callbackFor(bytes));
+        }
+        LOG.info("Finished sending messages");
+
+        // This will block until all mutations have been acked by Kafka. The producer is kept
+        // open for the next tasks of the output.
+        producer.flush();
+        tracker.awaitCompletion();
+        LOG.info("Producer flushed");
+      }
+      catch (Exception e) {
+        if (KafkaProducerPool.isProducerFailure(e)) {
+          KafkaProducerPool.invalidate(config, pooledProducer);
         }
+        throw e;
+      }
+      finally {
+        KafkaProducerPool.release(pooledProducer);
+      }
+
+      long endTime = System.nanoTime();
+      recordStatistics(tracker.getPartitionStatistics(), endTime - startTime);
+    }
+
+    private void recordStatistics(Map<Integer, PartitionStatistics> partitionStatistics, long taskTimeNs) {
+      long records = 0, bytes = 0, latencyNs = 0;
+      double taskSeconds = taskTimeNs / 1000.0 / 1000.0 / 1000.0;
+
+      for (Map.Entry<Integer, PartitionStatistics> entry : partitionStatistics.entrySet()) {
+        PartitionStatistics statistics = entry.getValue();
+        records += statistics.getRecords();
+        bytes += statistics.getBytes();
+        latencyNs += statistics.getTotalLatencyNs();
+
+        LOG.info("Sent {} records ({} bytes) to partition {} of topic {} at {} records/sec, " +
+                 "with mean send latency {} ms and max send latency {} ms",
+            statistics.getRecords(), statistics.getBytes(), entry.getKey(), topic,
+            String.format("%.1f", statistics.getRecords() / taskSeconds),
+            String.format("%.3f", statistics.getTotalLatencyNs() / 1000.0 / 1000.0 / statistics.getRecords()),
+            String.format("%.3f", statistics.getMaxLatencyNs() / 1000.0 / 1000.0));
+      }
+
+      if (accumulators != null) {
+        accumulators.getLongAccumulators().get(ACCUMULATOR_NUMBER_OF_RECORDS_SENT).add(records);
+        accumulators.getLongAccumulators().get(ACCUMULATOR_NUMBER_OF_BYTES_SENT).add(bytes);
+        accumulators.getDoubleAccumulators().get(ACCUMULATOR_SECONDS_SENDING).add(taskSeconds);
+        accumulators.getDoubleAccumulators().get(ACCUMULATOR_SECONDS_SEND_LATENCY).add(latencyNs / 1000.0 / 1000.0 / 1000.0);
       }
-      
-      return configs;
     }
   }
 
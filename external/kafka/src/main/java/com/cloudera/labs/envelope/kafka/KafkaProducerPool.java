@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.cloudera.labs.envelope.kafka.serde.AvroSerializer;
+import com.cloudera.labs.envelope.kafka.serde.DelimitedSerializer;
+import com.google.common.collect.Maps;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigRenderOptions;
+import com.typesafe.config.ConfigValue;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.spark.sql.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+import static com.cloudera.labs.envelope.kafka.KafkaOutput.AVRO_SERIALIZER;
+import static com.cloudera.labs.envelope.kafka.KafkaOutput.BROKERS_CONFIG_NAME;
+import static com.cloudera.labs.envelope.kafka.KafkaOutput.DELIMITED_SERIALIZER;
+import static com.cloudera.labs.envelope.kafka.KafkaOutput.SERIALIZER_CONFIG_PREFIX;
+import static com.cloudera.labs.envelope.kafka.KafkaOutput.SERIALIZER_TYPE_CONFIG_NAME;
+
+/**
+ * An executor-wide pool of Kafka producers, with one producer for each Kafka output
+ * configuration. Kafka producers are thread-safe, so the tasks of the executor share the
+ * producer of their output across micro-batches instead of each creating and closing their own.
+ * The producers are closed when the JVM shuts down.
+ *
+ * Each task holds the producer from {@link #getProducer(Config)} until it calls
+ * {@link #release(PooledProducer)}, so that a producer that has failed is only closed once none
+ * of the tasks that share it are still sending through it.
+ *
+ * The pooled producers send bytes, and the rows are serialized by the caller with the value
+ * serializer of the pooled producer so that the size of each record is known before it is sent.
+ */
+class KafkaProducerPool {
+
+  private static final Logger LOG = LoggerFactory.getLogger(KafkaProducerPool.class);
+
+  private static final Map<String, PooledProducer> PRODUCERS = Maps.newHashMap();
+  private static boolean shutdownHookAdded = false;
+
+  static synchronized PooledProducer getProducer(Config config) {
+    String key = poolKey(config);
+
+    PooledProducer producer = PRODUCERS.get(key);
+    if (producer == null) {
+      producer = createProducer(config);
+      PRODUCERS.put(key, producer);
+
+      if (!shutdownHookAdded) {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+          @Override
+          public void run() {
+            closeAll();
+          }
+        });
+        shutdownHookAdded = true;
+      }
+    }
+
+    producer.users++;
+
+    return producer;
+  }
+
+  /**
+   * Release the producer once the task has finished sending through it. A producer that has
+   * been invalidated is closed when the last of its tasks has released it.
+   */
+  static synchronized void release(PooledProducer producer) {
+    producer.users--;
+
+    if (producer.invalidated && producer.users == 0) {
+      producer.close();
+      LOG.info("Producer closed");
+    }
+  }
+
+  /**
+   * Remove the producer of the configuration after it has failed, so that the next task of the
+   * output creates a new producer. Nothing is done if the producer has already been replaced by
+   * another task.
+   */
+  static synchronized void invalidate(Config config, PooledProducer producer) {
+    String key = poolKey(config);
+
+    if (PRODUCERS.get(key) == producer) {
+      PRODUCERS.remove(key);
+      producer.invalidated = true;
+      LOG.info("Producer invalidated");
+
+      if (producer.users == 0) {
+        producer.close();
+        LOG.info("Producer closed");
+      }
+    }
+  }
+
+  /**
+   * Whether the error is a failure of the producer itself, rather than of the records that were
+   * sent through it, such as a serialization error or a record that is too large. Only failed
+   * producers are invalidated, so that one bad record does not fail the other tasks that are
+   * sending through the same producer.
+   */
+  static boolean isProducerFailure(Throwable error) {
+    while (error != null) {
+      // The producer has been closed, or its credentials are not authorized by the cluster
+      if (error instanceof IllegalStateException || error instanceof AuthorizationException) {
+        return true;
+      }
+      error = error.getCause();
+    }
+
+    return false;
+  }
+
+  static synchronized void closeAll() {
+    for (PooledProducer producer : PRODUCERS.values()) {
+      producer.close();
+    }
+    PRODUCERS.clear();
+
+    LOG.info("All producers closed");
+  }
+
+  private static String poolKey(Config config) {
+    return config.root().render(ConfigRenderOptions.concise());
+  }
+
+  private static PooledProducer createProducer(Config config) {
+    String serializerType = config.getString(SERIALIZER_TYPE_CONFIG_NAME);
+
+    Serializer<Row> valueSerializer;
+    switch (serializerType) {
+      case DELIMITED_SERIALIZER:
+        valueSerializer = new DelimitedSerializer();
+        break;
+      case AVRO_SERIALIZER:
+        valueSerializer = new AvroSerializer();
+        break;
+      default:
+        throw new RuntimeException("Kafka output does not support serializer type: " + serializerType);
+    }
+    valueSerializer.configure(getSerializerConfiguration(config), false);
+
+    Map<String, Object> producerProps = Maps.newHashMap();
+    producerProps.put("bootstrap.servers", config.getString(BROKERS_CONFIG_NAME));
+
+    KafkaCommon.addCustomParams(producerProps, config);
+
+    KafkaProducer<byte[], byte[]> producer =
+        new KafkaProducer<>(producerProps, new ByteArraySerializer(), new ByteArraySerializer());
+
+    LOG.info("Producer initialized");
+
+    return new PooledProducer(producer, valueSerializer);
+  }
+
+  private static Map<String, ?> getSerializerConfiguration(Config config) {
+    Map<String, Object> configs = Maps.newHashMap();
+
+    for (Map.Entry<String, ConfigValue> entry : config.entrySet()) {
+      String propertyName = entry.getKey();
+      if (propertyName.startsWith(SERIALIZER_CONFIG_PREFIX)) {
+        String paramName = propertyName.substring(SERIALIZER_CONFIG_PREFIX.length());
+        String paramValue = config.getString(propertyName);
+
+        configs.put(paramName, paramValue);
+      }
+    }
+
+    return configs;
+  }
+
+  static class PooledProducer {
+    private KafkaProducer<byte[], byte[]> producer;
+    private Serializer<Row> valueSerializer;
+    private int users = 0;
+    private boolean invalidated = false;
+    private boolean closed = false;
+
+    private PooledProducer(KafkaProducer<byte[], byte[]> producer, Serializer<Row> valueSerializer) {
+      this.producer = producer;
+      this.valueSerializer = valueSerializer;
+    }
+
+    KafkaProducer<byte[], byte[]> getProducer() {
+      return producer;
+    }
+
+    byte[] serializeValue(String topic, Row row) {
+      return valueSerializer.serialize(topic, row);
+    }
+
+    boolean isClosed() {
+      return closed;
+    }
+
+    void close() {
+      if (!closed) {
+        producer.close();
+        valueSerializer.close();
+        closed = true;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.google.common.collect.Maps;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Tracks the records that a task has sent to Kafka but that have not yet been acknowledged.
+ * The tracker bounds the number of records and bytes in flight, latches the first failure
+ * reported by the producer so that it can be raised on the task thread, and accumulates
+ * per-partition statistics of the acknowledged records.
+ */
+class KafkaSendTracker {
+
+  private final int maxInFlightRecords;
+  private final long maxInFlightBytes;
+
+  private int inFlightRecords = 0;
+  private long inFlightBytes = 0;
+  private Exception error;
+
+  private final SortedMap<Integer, PartitionStatistics> partitionStatistics = Maps.newTreeMap();
+
+  KafkaSendTracker(int maxInFlightRecords, long maxInFlightBytes) {
+    this.maxInFlightRecords = maxInFlightRecords;
+    this.maxInFlightBytes = maxInFlightBytes;
+  }
+
+  /**
+   * Reserve room in the window for a record of the given size, blocking while the window is
+   * full. A single record larger than the byte limit is let through when nothing else is in
+   * flight. Throws the first send failure, if there has been one.
+   */
+  synchronized void acquire(int bytes) throws Exception {
+    while (error == null && inFlightRecords > 0 &&
+           (inFlightRecords >= maxInFlightRecords || inFlightBytes + bytes > maxInFlightBytes)) {
+      wait();
+    }
+
+    throwIfFailed();
+
+    inFlightRecords++;
+    inFlightBytes += bytes;
+  }
+
+  /**
+   * Create the producer callback for a record of the given size that is about to be sent.
+   */
+  Callback callbackFor(final int bytes) {
+    final long sendTimeNs = System.nanoTime();
+
+    return new Callback() {
+      @Override
+      public void onCompletion(RecordMetadata metadata, Exception exception) {
+        completed(metadata != null ? metadata.partition() : -1, bytes,
+            System.nanoTime() - sendTimeNs, exception);
+      }
+    };
+  }
+
+  synchronized void completed(int partition, int bytes, long latencyNs, Exception exception) {
+    inFlightRecords--;
+    inFlightBytes -= bytes;
+
+    if (exception != null) {
+      if (error == null) {
+        error = exception;
+      }
+    }
+    else {
+      PartitionStatistics statistics = partitionStatistics.get(partition);
+      if (statistics == null) {
+        statistics = new PartitionStatistics();
+        partitionStatistics.put(partition, statistics);
+      }
+      statistics.add(bytes, latencyNs);
+    }
+
+    notifyAll();
+  }
+
+  /**
+   * Block until all of the records sent so far have been acknowledged or have failed, and then
+   * throw the first send failure, if there has been one.
+   */
+  synchronized void awaitCompletion() throws Exception {
+    while (inFlightRecords > 0) {
+      wait();
+    }
+
+    throwIfFailed();
+  }
+
+  synchronized void throwIfFailed() throws Exception {
+    if (error != null) {
+      throw new RuntimeException("Kafka output could not send record", error);
+    }
+  }
+
+  synchronized int getInFlightRecords() {
+    return inFlightRecords;
+  }
+
+  synchronized long getInFlightBytes() {
+    return inFlightBytes;
+  }
+
+  synchronized Map<Integer, PartitionStatistics> getPartitionStatistics() {
+    return Maps.newTreeMap(partitionStatistics);
+  }
+
+  static class PartitionStatistics {
+    private long records = 0;
+    private long bytes = 0;
+    private long totalLatencyNs = 0;
+    private long maxLatencyNs = 0;
+
+    private void add(int bytes, long latencyNs) {
+      this.records++;
+      this.bytes += bytes;
+      this.totalLatencyNs += latencyNs;
+      this.maxLatencyNs = Math.max(maxLatencyNs, latencyNs);
+    }
+
+    long getRecords() {
+      return records;
+    }
+
+    long getBytes() {
+      return bytes;
+    }
+
+    long getTotalLatencyNs() {
+      return totalLatencyNs;
+    }
+
+    long getMaxLatencyNs() {
+      return maxLatencyNs;
+    }
+  }
+
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.cloudera.labs.envelope.component.InstantiatedComponent;
+import com.cloudera.labs.envelope.component.InstantiatesComponents;
+import com.cloudera.labs.envelope.component.ProvidesAlias;
+import com.cloudera.labs.envelope.input.CanRecordProgress;
+import com.cloudera.labs.envelope.input.StructuredStreamInput;
+import com.cloudera.labs.envelope.output.RandomOutput;
+import com.cloudera.labs.envelope.schema.UsesExpectedSchema;
+import com.cloudera.labs.envelope.spark.Contexts;
+import com.cloudera.labs.envelope.translate.Translator;
+import com.cloudera.labs.envelope.utils.ConfigUtils;
+import com.cloudera.labs.envelope.validate.ProvidesValidations;
+import com.cloudera.labs.envelope.validate.Validations;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigValueType;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.streaming.DataStreamReader;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.Tuple2;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static com.cloudera.labs.envelope.kafka.KafkaInput.BROKERS_CONFIG;
+import static com.cloudera.labs.envelope.kafka.KafkaInput.GROUP_ID_CONFIG;
+import static com.cloudera.labs.envelope.kafka.KafkaInput.OFFSETS_MANAGE_CONFIG;
+import static com.cloudera.labs.envelope.kafka.KafkaInput.OFFSETS_OUTPUT_CONFIG;
+import static com.cloudera.labs.envelope.kafka.KafkaInput.OFFSETS_VERIFICATION_INTERVAL_CONFIG;
+import static com.cloudera.labs.envelope.kafka.KafkaInput.TOPICS_CONFIG;
+
+/**
+ * A Kafka input that reads the topics with the Kafka source of Spark Structured Streaming, as an
+ * alternative to the DStream of the Kafka input. The messages are decoded and their metadata is
+ * extracted in the streaming query, and the offsets are managed in the same way as by the Kafka
+ * input.
+ */
+public class KafkaStructuredInput implements StructuredStreamInput, CanRecordProgress, ProvidesAlias,
+    ProvidesValidations, InstantiatesComponents, UsesExpectedSchema {
+
+  public static final String MAX_OFFSETS_PER_TRIGGER_CONFIG = "max.offsets.per.trigger";
+  public static final String STARTING_OFFSETS_CONFIG = "starting.offsets";
+  public static final String TRIGGER_MILLISECONDS_CONFIG = "trigger.milliseconds";
+  public static final String EARLIEST_STARTING_OFFSETS = "earliest";
+  public static final String LATEST_STARTING_OFFSETS = "latest";
+
+  // The Kafka source of Spark does not allow these consumer parameters to be set
+  private static final Set<String> UNSUPPORTED_PARAMETERS = Sets.newHashSet("group.id", "auto.offset.reset",
+      "key.deserializer", "value.deserializer", "enable.auto.commit", "interceptor.classes");
+
+  private static final Logger LOG = LoggerFactory.getLogger(KafkaStructuredInput.class);
+
+  private static final ObjectMapper JSON = new ObjectMapper();
+
+  @VisibleForTesting Set<String> topics;
+  @VisibleForTesting String groupID;
+  private Config config;
+  private StructType expectedSchema;
+  private RandomOutput offsetsOutput;
+  private KafkaOffsetStore offsetStore;
+  private KafkaConsumer<byte[], byte[]> consumer;
+
+  @Override
+  public void configure(Config config) {
+    this.config = config;
+
+    groupID = ConfigUtils.getOrElse(config, GROUP_ID_CONFIG, UUID.randomUUID().toString());
+    topics = Sets.newHashSet(config.getStringList(TOPICS_CONFIG));
+  }
+
+  @Override
+  public void receiveExpectedSchema(StructType expectedSchema) {
+    this.expectedSchema = expectedSchema;
+
+    for (String fieldName : Lists.newArrayList(KafkaCommon.KEY_FIELD_NAME, Translator.VALUE_FIELD_NAME)) {
+      DataType fieldDataType = getExpectedFieldDataType(fieldName);
+
+      if (!fieldDataType.equals(DataTypes.StringType) && !fieldDataType.equals(DataTypes.BinaryType)) {
+        throw new RuntimeException("Translator expects '" + fieldName + "' field to be of type '" + fieldDataType +
+            "' but Kafka input only supports providing '" + fieldName + "' field as either string or binary.");
+      }
+    }
+  }
+
+  @Override
+  public Dataset<Row> getStreamingDataFrame() throws Exception {
+    DataStreamReader reader = Contexts.getSparkSession().readStream()
+        .format("kafka")
+        .option("kafka.bootstrap.servers", config.getString(BROKERS_CONFIG))
+        .option("subscribe", Joiner.on(",").join(topics))
+        .option("startingOffsets", getStartingOffsets());
+
+    if (config.hasPath(MAX_OFFSETS_PER_TRIGGER_CONFIG)) {
+      reader = reader.option("maxOffsetsPerTrigger", config.getLong(MAX_OFFSETS_PER_TRIGGER_CONFIG));
+    }
+
+    Map<String, Object> kafkaParams = Maps.newHashMap();
+    KafkaCommon.addCustomParams(kafkaParams, config);
+    for (Map.Entry<String, Object> param : kafkaParams.entrySet()) {
+      if (UNSUPPORTED_PARAMETERS.contains(param.getKey())) {
+        LOG.warn("Kafka structured input ignoring parameter that is not supported by Spark: {}", param.getKey());
+      }
+      else {
+        reader = reader.option("kafka." + param.getKey(), param.getValue().toString());
+      }
+    }
+
+    // Encode the messages in the query so that the translator receives the same fields as from
+    // the Kafka input. Spark provides the key and value as binary and the timestamp as a timestamp.
+    return reader.load().selectExpr(
+        fieldExpression(KafkaCommon.KEY_FIELD_NAME),
+        fieldExpression(Translator.VALUE_FIELD_NAME),
+        "CAST(CAST(timestamp AS DOUBLE) * 1000 AS BIGINT) AS timestamp",
+        "topic",
+        "partition",
+        "offset");
+  }
+
+  @Override
+  public long getTriggerMilliseconds() {
+    return ConfigUtils.getOrElse(config, TRIGGER_MILLISECONDS_CONFIG, 0);
+  }
+
+  @Override
+  public StructType getProvidingSchema() {
+    return KafkaCommon.getMessageSchema(
+        getExpectedFieldDataType(KafkaCommon.KEY_FIELD_NAME),
+        getExpectedFieldDataType(Translator.VALUE_FIELD_NAME));
+  }
+
+  /**
+   * Record the offsets that the next micro-batch starts from, which are one after the highest
+   * offset of each topic partition of the micro-batch. The offsets are recorded before the
+   * micro-batch is completed by the query, so that a failure to record them fails the query.
+   */
+  @Override
+  public void recordProgress(JavaRDD<?> batch) throws Exception {
+    if (!doesRecordProgress(config)) {
+      return;
+    }
+
+    Map<TopicPartition, Long> offsets = getNextOffsets(batch);
+    if (offsets.isEmpty()) {
+      return;
+    }
+
+    if (usingKafkaManagedOffsets(config)) {
+      Map<TopicPartition, OffsetAndMetadata> commits = Maps.newHashMap();
+      for (Map.Entry<TopicPartition, Long> offset : offsets.entrySet()) {
+        commits.put(offset.getKey(), new OffsetAndMetadata(offset.getValue()));
+      }
+
+      synchronized (this) {
+        getConsumer().commitSync(commits);
+      }
+    }
+    else {
+      getOffsetStore().storeOffsets(offsets);
+    }
+  }
+
+  @Override
+  public String getAlias() {
+    return "kafka-structured";
+  }
+
+  /**
+   * The starting offsets option of the Kafka source, which is either the offsets last recorded
+   * for the group, or the earliest or latest offsets when no offsets have been recorded. The
+   * Kafka source requires specific offsets to be given for every partition of the topics, so the
+   * partitions without recorded offsets start from the earliest or latest offsets.
+   */
+  @VisibleForTesting
+  String getStartingOffsets() throws Exception {
+    String startingOffsets = ConfigUtils.getOrElse(config, STARTING_OFFSETS_CONFIG, LATEST_STARTING_OFFSETS);
+
+    if (!doesRecordProgress(config)) {
+      return startingOffsets;
+    }
+
+    Map<TopicPartition, Long> lastOffsets = getLastOffsets();
+    if (lastOffsets.isEmpty()) {
+      return startingOffsets;
+    }
+
+    long defaultOffset = startingOffsets.equals(EARLIEST_STARTING_OFFSETS) ? -2 : -1;
+    Map<String, Map<String, Long>> offsetsJson = Maps.newHashMap();
+    for (TopicPartition topicPartition : getPartitions()) {
+      Map<String, Long> topicOffsets = offsetsJson.get(topicPartition.topic());
+      if (topicOffsets == null) {
+        topicOffsets = Maps.newHashMap();
+        offsetsJson.put(topicPartition.topic(), topicOffsets);
+      }
+
+      Long offset = lastOffsets.get(topicPartition);
+      topicOffsets.put(String.valueOf(topicPartition.partition()), offset != null ? offset : defaultOffset);
+    }
+
+    return JSON.writeValueAsString(offsetsJson);
+  }
+
+  @VisibleForTesting
+  @SuppressWarnings("unchecked")
+  Map<TopicPartition, Long> getNextOffsets(JavaRDD<?> batch) {
+    Map<Tuple2<String, Integer>, Long> maxOffsets = ((JavaRDD<Row>)batch)
+        .mapToPair(new ExtractOffsetFunction())
+        .reduceByKey(new MaxOffsetFunction())
+        .collectAsMap();
+
+    Map<TopicPartition, Long> offsets = Maps.newHashMap();
+    for (Map.Entry<Tuple2<String, Integer>, Long> maxOffset : maxOffsets.entrySet()) {
+      offsets.put(new TopicPartition(maxOffset.getKey()._1(), maxOffset.getKey()._2()), maxOffset.getValue() + 1);
+    }
+
+    return offsets;
+  }
+
+  private synchronized Map<TopicPartition, Long> getLastOffsets() throws Exception {
+    if (usingKafkaManagedOffsets(config)) {
+      Map<TopicPartition, Long> offsets = Maps.newHashMap();
+      for (TopicPartition topicPartition : getPartitions()) {
+        OffsetAndMetadata committed = getConsumer().committed(topicPartition);
+        if (committed != null) {
+          offsets.put(topicPartition, committed.offset());
+        }
+      }
+
+      return offsets;
+    }
+    else {
+      return getOffsetStore().getLastOffsets(topics);
+    }
+  }
+
+  private synchronized Set<TopicPartition> getPartitions() {
+    Set<TopicPartition> partitions = Sets.newHashSet();
+    for (String topic : topics) {
+      for (PartitionInfo partitionInfo : getConsumer().partitionsFor(topic)) {
+        partitions.add(new TopicPartition(topic, partitionInfo.partition()));
+      }
+    }
+
+    return partitions;
+  }
+
+  private KafkaConsumer<byte[], byte[]> getConsumer() {
+    if (consumer == null) {
+      Map<String, Object> kafkaParams = Maps.newHashMap();
+      kafkaParams.put("bootstrap.servers", config.getString(BROKERS_CONFIG));
+      kafkaParams.put("group.id", groupID);
+      kafkaParams.put("enable.auto.commit", "false");
+      KafkaCommon.addCustomParams(kafkaParams, config);
+
+      consumer = new KafkaConsumer<>(kafkaParams, new ByteArrayDeserializer(), new ByteArrayDeserializer());
+    }
+
+    return consumer;
+  }
+
+  @SuppressWarnings("serial")
+  private static class ExtractOffsetFunction implements PairFunction<Row, Tuple2<String, Integer>, Long> {
+    @Override
+    public Tuple2<Tuple2<String, Integer>, Long> call(Row message) {
+      Tuple2<String, Integer> topicPartition = new Tuple2<>(
+          message.<String>getAs("topic"), message.<Integer>getAs("partition"));
+
+      return new Tuple2<>(topicPartition, message.<Long>getAs("offset"));
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class MaxOffsetFunction implements Function2<Long, Long, Long> {
+    @Override
+    public Long call(Long first, Long second) {
+      return Math.max(first, second);
+    }
+  }
+
+  private String fieldExpression(String fieldName) {
+    if (getExpectedFieldDataType(fieldName).equals(DataTypes.StringType)) {
+      return "CAST(" + fieldName + " AS STRING) AS " + fieldName;
+    }
+    else {
+      return fieldName;
+    }
+  }
+
+  private DataType getExpectedFieldDataType(String fieldName) {
+    if (expectedSchema != null && Lists.newArrayList(expectedSchema.fieldNames()).contains(fieldName)) {
+      return expectedSchema.fields()[expectedSchema.fieldIndex(fieldName)].dataType();
+    }
+    else {
+      // If the translator doesn't expect the field then provide it as binary
+      return DataTypes.BinaryType;
+    }
+  }
+
+  private boolean doesRecordProgress(Config config) {
+    boolean managed = ConfigUtils.getOrElse(config, OFFSETS_MANAGE_CONFIG, true);
+    if (managed && !config.hasPath(GROUP_ID_CONFIG)) {
+      throw new RuntimeException("Kafka input can not manage offsets without a provided group ID");
+    }
+
+    return managed;
+  }
+
+  private boolean usingKafkaManagedOffsets(Config config) {
+    return doesRecordProgress(config) && !config.hasPath(OFFSETS_OUTPUT_CONFIG);
+  }
+
+  private KafkaOffsetStore getOffsetStore() {
+    if (offsetStore == null) {
+      int verificationInterval = ConfigUtils.getOrElse(config, OFFSETS_VERIFICATION_INTERVAL_CONFIG, 0);
+      offsetStore = new KafkaOffsetStore(getOffsetsOutput(config, true), groupID, verificationInterval);
+    }
+
+    return offsetStore;
+  }
+
+  private RandomOutput getOffsetsOutput(Config config, boolean configure) {
+    if (configure) {
+      if (offsetsOutput == null) {
+        offsetsOutput = KafkaOffsetStore.createOutput(config.getConfig(OFFSETS_OUTPUT_CONFIG), true);
+      }
+
+      return offsetsOutput;
+    }
+    else {
+      return KafkaOffsetStore.createOutput(config.getConfig(OFFSETS_OUTPUT_CONFIG), false);
+    }
+  }
+
+  @Override
+  public Validations getValidations() {
+    return Validations.builder()
+        .mandatoryPath(BROKERS_CONFIG, ConfigValueType.STRING)
+        .mandatoryPath(TOPICS_CONFIG, ConfigValueType.LIST)
+        .optionalPath(GROUP_ID_CONFIG, ConfigValueType.STRING)
+        .optionalPath(MAX_OFFSETS_PER_TRIGGER_CONFIG, ConfigValueType.NUMBER)
+        .optionalPath(STARTING_OFFSETS_CONFIG, ConfigValueType.STRING)
+        .allowedValues(STARTING_OFFSETS_CONFIG, EARLIEST_STARTING_OFFSETS, LATEST_STARTING_OFFSETS)
+        .optionalPath(TRIGGER_MILLISECONDS_CONFIG, ConfigValueType.NUMBER)
+        .optionalPath(OFFSETS_MANAGE_CONFIG, ConfigValueType.BOOLEAN)
+        .ifPathHasValue(OFFSETS_MANAGE_CONFIG, true,
+            Validations.single().optionalPath(OFFSETS_OUTPUT_CONFIG, ConfigValueType.OBJECT))
+        .handlesOwnValidationPath("translator")
+        .optionalPath(OFFSETS_VERIFICATION_INTERVAL_CONFIG, ConfigValueType.NUMBER)
+        .handlesOwnValidationPath(OFFSETS_OUTPUT_CONFIG)
+        .handlesOwnValidationPath(KafkaCommon.PARAMETER_CONFIG_PREFIX)
+        .build();
+  }
+
+  @Override
+  public Set<InstantiatedComponent> getComponents(Config config, boolean configure) {
+    Set<InstantiatedComponent> components = Sets.newHashSet();
+
+    if (doesRecordProgress(config) && !usingKafkaManagedOffsets(config)) {
+      RandomOutput offsetsOutput = getOffsetsOutput(config, configure);
+      components.add(new InstantiatedComponent(
+          offsetsOutput, config.getConfig(OFFSETS_OUTPUT_CONFIG), "Offsets Output"));
+    }
+
+    return components;
+  }
+
+}
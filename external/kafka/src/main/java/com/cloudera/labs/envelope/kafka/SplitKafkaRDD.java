@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.spark.SparkContext;
+import org.apache.spark.rdd.RDD;
+import org.apache.spark.rdd.UnionRDD;
+import org.apache.spark.streaming.kafka010.HasOffsetRanges;
+import org.apache.spark.streaming.kafka010.OffsetRange;
+import scala.collection.JavaConversions;
+import scala.reflect.ClassTag$;
+
+import java.util.List;
+
+/**
+ * The union of the Kafka RDDs that read the sub-ranges of a split micro-batch, which still
+ * provides the offset ranges of the micro-batch so that its progress can be recorded.
+ */
+@SuppressWarnings("serial")
+class SplitKafkaRDD extends UnionRDD<ConsumerRecord<Object, Object>> implements HasOffsetRanges {
+
+  private OffsetRange[] offsetRanges;
+
+  SplitKafkaRDD(SparkContext sc, List<RDD<ConsumerRecord<Object, Object>>> splitRDDs,
+                OffsetRange[] offsetRanges) {
+    super(sc, JavaConversions.asScalaBuffer(splitRDDs),
+        ClassTag$.MODULE$.<ConsumerRecord<Object, Object>>apply(ConsumerRecord.class));
+    this.offsetRanges = offsetRanges;
+  }
+
+  @Override
+  public OffsetRange[] offsetRanges() {
+    return offsetRanges;
+  }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.cloudera.labs.envelope.utils.JVMUtils;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.rdd.RDD;
+import org.apache.spark.streaming.kafka010.HasOffsetRanges;
+import org.apache.spark.streaming.kafka010.KafkaUtils;
+import org.apache.spark.streaming.kafka010.LocationStrategies;
+import org.apache.spark.streaming.kafka010.LocationStrategy;
+import org.apache.spark.streaming.kafka010.OffsetRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces each micro-batch of a Kafka direct stream with one that reads the same offsets, but
+ * where the offset range of each topic partition is split into sub-ranges of at most a maximum
+ * number of records. Each sub-range is read by its own Spark task, so the parallelism of the
+ * micro-batch is not limited by the number of topic partitions and no shuffle is needed. The
+ * micro-batch of the direct stream is not computed, so the messages are only read once.
+ */
+class SplitOffsetRangesFunction
+    implements Function<JavaRDD<ConsumerRecord<Object, Object>>, JavaRDD<ConsumerRecord<Object, Object>>> {
+
+  private HashMap<String, Object> kafkaParams;
+  private long maxRecords;
+  private String locationStrategy;
+  private HashMap<TopicPartition, String> locationHosts;
+  private transient KafkaConsumer<byte[], byte[]> leaderConsumer;
+
+  static final String SPLIT_GROUP_ID_SUFFIX = "-split-";
+
+  private static final Logger LOG = LoggerFactory.getLogger(SplitOffsetRangesFunction.class);
+
+  SplitOffsetRangesFunction(Map<String, Object> kafkaParams, long maxRecords,
+                            String locationStrategy, Map<TopicPartition, String> locationHosts) {
+    this.kafkaParams = Maps.newHashMap(kafkaParams);
+    this.maxRecords = maxRecords;
+    this.locationStrategy = locationStrategy;
+    this.locationHosts = Maps.newHashMap(locationHosts);
+  }
+
+  @Override
+  public JavaRDD<ConsumerRecord<Object, Object>> call(JavaRDD<ConsumerRecord<Object, Object>> batch) {
+    OffsetRange[] offsetRanges = ((HasOffsetRanges)batch.rdd()).offsetRanges();
+    OffsetRange[] splitOffsetRanges = splitOffsetRanges(offsetRanges, maxRecords);
+
+    if (splitOffsetRanges.length == offsetRanges.length) {
+      return batch;
+    }
+
+    LocationStrategy splitLocationStrategy;
+    if (locationStrategy.equals(KafkaInput.LOCATION_STRATEGY_BROKERS)) {
+      // Spark only supports preferring the brokers in the direct stream itself, so the leaders of
+      // the partitions are looked up here and the sub-ranges prefer their hosts instead
+      splitLocationStrategy = LocationStrategies.PreferFixed(getLeaderHosts(splitOffsetRanges));
+    }
+    else {
+      splitLocationStrategy = createLocationStrategy(locationStrategy, locationHosts);
+    }
+
+    // The executors cache one consumer for each group, topic and partition, and consumers are not
+    // thread-safe, so the sub-ranges of a partition are each read with a different group ID
+    JavaSparkContext jsc = JavaSparkContext.fromSparkContext(batch.context());
+    List<RDD<ConsumerRecord<Object, Object>>> splitRDDs = Lists.newArrayList();
+    List<OffsetRange[]> splitsByIndex = groupBySplitIndex(splitOffsetRanges);
+    for (int splitIndex = 0; splitIndex < splitsByIndex.size(); splitIndex++) {
+      Map<String, Object> splitKafkaParams = Maps.newHashMap(kafkaParams);
+      splitKafkaParams.put("group.id", kafkaParams.get("group.id") + SPLIT_GROUP_ID_SUFFIX + splitIndex);
+
+      JavaRDD<ConsumerRecord<Object, Object>> splitRDD = KafkaUtils.createRDD(
+          jsc, splitKafkaParams, splitsByIndex.get(splitIndex), splitLocationStrategy);
+      splitRDDs.add(splitRDD.rdd());
+    }
+
+    return new SplitKafkaRDD(batch.context(), splitRDDs, splitOffsetRanges).toJavaRDD();
+  }
+
+  private Map<TopicPartition, String> getLeaderHosts(OffsetRange[] offsetRanges) {
+    Map<TopicPartition, String> leaderHosts = Maps.newHashMap();
+
+    Set<String> topics = Sets.newHashSet();
+    for (OffsetRange offsetRange : offsetRanges) {
+      topics.add(offsetRange.topic());
+    }
+
+    // Partitions without a known leader use the consistent strategy
+    try {
+      for (String topic : topics) {
+        for (PartitionInfo partitionInfo : getLeaderConsumer().partitionsFor(topic)) {
+          if (partitionInfo.leader() != null) {
+            leaderHosts.put(new TopicPartition(partitionInfo.topic(), partitionInfo.partition()),
+                partitionInfo.leader().host());
+          }
+        }
+      }
+    }
+    catch (KafkaException e) {
+      LOG.warn("Could not look up the leaders of the Kafka partitions, so the split micro-batch " +
+          "will not prefer the brokers", e);
+    }
+
+    return leaderHosts;
+  }
+
+  // The function is called on the driver, where the consumer lives as long as the stream
+  private KafkaConsumer<byte[], byte[]> getLeaderConsumer() {
+    if (leaderConsumer == null) {
+      Map<String, Object> consumerParams = Maps.newHashMap(kafkaParams);
+      consumerParams.remove("group.id");
+      consumerParams.remove("key.deserializer");
+      consumerParams.remove("value.deserializer");
+      leaderConsumer = new KafkaConsumer<>(consumerParams, new ByteArrayDeserializer(), new ByteArrayDeserializer());
+      JVMUtils.closeAtShutdown(leaderConsumer);
+    }
+
+    return leaderConsumer;
+  }
+
+  static LocationStrategy createLocationStrategy(String strategy, Map<TopicPartition, String> hosts) {
+    switch (strategy) {
+      case KafkaInput.LOCATION_STRATEGY_CONSISTENT:
+        return LocationStrategies.PreferConsistent();
+      case KafkaInput.LOCATION_STRATEGY_BROKERS:
+        return LocationStrategies.PreferBrokers();
+      case KafkaInput.LOCATION_STRATEGY_FIXED:
+        return LocationStrategies.PreferFixed(hosts);
+      default:
+        throw new RuntimeException("Unsupported Kafka location strategy: " + strategy);
+    }
+  }
+
+  /**
+   * Split the offset ranges into sub-ranges of at most the maximum number of records. The records
+   * of a range are spread evenly across its sub-ranges.
+   */
+  static OffsetRange[] splitOffsetRanges(OffsetRange[] offsetRanges, long maxRecords) {
+    List<OffsetRange> splitOffsetRanges = Lists.newArrayList();
+
+    for (OffsetRange offsetRange : offsetRanges) {
+      long count = offsetRange.count();
+      long splits = Math.max(1, (count + maxRecords - 1) / maxRecords);
+
+      for (long split = 0; split < splits; split++) {
+        long fromOffset = offsetRange.fromOffset() + (count * split) / splits;
+        long untilOffset = offsetRange.fromOffset() + (count * (split + 1)) / splits;
+        splitOffsetRanges.add(OffsetRange.create(
+            offsetRange.topic(), offsetRange.partition(), fromOffset, untilOffset));
+      }
+    }
+
+    return splitOffsetRanges.toArray(new OffsetRange[splitOffsetRanges.size()]);
+  }
+
+  /**
+   * Group the sub-ranges by their position within the offset range that they were split from, so
+   * that each group has at most one sub-range of each topic partition.
+   */
+  static List<OffsetRange[]> groupBySplitIndex(OffsetRange[] splitOffsetRanges) {
+    List<List<OffsetRange>> splitsByIndex = Lists.newArrayList();
+    Map<TopicPartition, Integer> splitIndexes = Maps.newHashMap();
+
+    for (OffsetRange splitOffsetRange : splitOffsetRanges) {
+      TopicPartition topicPartition = splitOffsetRange.topicPartition();
+      int splitIndex = splitIndexes.containsKey(topicPartition) ? splitIndexes.get(topicPartition) + 1 : 0;
+      splitIndexes.put(topicPartition, splitIndex);
+
+      if (splitIndex == splitsByIndex.size()) {
+        splitsByIndex.add(Lists.<OffsetRange>newArrayList());
+      }
+      splitsByIndex.get(splitIndex).add(splitOffsetRange);
+    }
+
+    List<OffsetRange[]> groupedSplits = Lists.newArrayList();
+    for (List<OffsetRange> splits : splitsByIndex) {
+      groupedSplits.add(splits.toArray(new OffsetRange[splits.size()]));
+    }
+
+    return groupedSplits;
+  }
+
+  /**
+   * Merge the sub-ranges of each topic partition back into a single offset range.
+   */
+  static OffsetRange[] mergeOffsetRanges(OffsetRange[] offsetRanges) {
+    Map<TopicPartition, OffsetRange> mergedOffsetRanges = new LinkedHashMap<>();
+
+    for (OffsetRange offsetRange : offsetRanges) {
+      TopicPartition topicPartition = offsetRange.topicPartition();
+      OffsetRange merged = mergedOffsetRanges.get(topicPartition);
+
+      if (merged == null) {
+        mergedOffsetRanges.put(topicPartition, offsetRange);
+      }
+      else {
+        mergedOffsetRanges.put(topicPartition, OffsetRange.create(
+            offsetRange.topic(), offsetRange.partition(),
+            Math.min(merged.fromOffset(), offsetRange.fromOffset()),
+            Math.max(merged.untilOffset(), offsetRange.untilOffset())));
+      }
+    }
+
+    return mergedOffsetRanges.values().toArray(new OffsetRange[mergedOffsetRanges.size()]);
+  }
+
+}
@@ -15,16 +15,8 @@
 
 package com.cloudera.labs.envelope.kafka.serde;
 
-import com.cloudera.labs.envelope.utils.RowUtils;
-import com.google.common.collect.Sets;
 import org.apache.avro.Schema;
-import org.apache.avro.Schema.Field;
-import org.apache.avro.Schema.Type;
-import org.apache.avro.generic.GenericData;
-import org.apache.avro.generic.GenericDatumWriter;
-import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.BinaryEncoder;
-import org.apache.avro.io.DatumWriter;
 import org.apache.avro.io.EncoderFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
@@ -37,10 +29,7 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 public class AvroSerializer implements Serializer<Row> {
 
@@ -48,21 +37,24 @@ public class AvroSerializer implements Serializer<Row> {
   
   private static Logger LOG = LoggerFactory.getLogger(AvroSerializer.class);
   
-  private Schema schema;
-  private DatumWriter<GenericRecord> datumWriter;
-  private Set<Type> supportedTypes = Sets.newHashSet(
-      Type.STRING, Type.BOOLEAN, Type.BYTES, Type.DOUBLE, Type.FLOAT, Type.INT, Type.LONG
-  );
+  private RowDatumWriter datumWriter;
+
+  // The serializer can be shared by the tasks of a pooled producer, so each thread reuses its
+  // own output buffer and encoder across rows
+  private final ThreadLocal<ReusableOutput> reusableOutput = new ThreadLocal<ReusableOutput>() {
+    @Override
+    protected ReusableOutput initialValue() {
+      return new ReusableOutput();
+    }
+  };
   
   @Override
   public void configure(Map<String, ?> configs, boolean isKey) {
     String schemaLocation = configs.get(SCHEMA_PATH_CONFIG_NAME).toString();
     
     Schema schema = parseAvroSchemaFile(schemaLocation);
-    validateSchemaIsSupported(schema);
     
-    this.schema = schema;
-    this.datumWriter = new GenericDatumWriter<>(schema);
+    this.datumWriter = new RowDatumWriter(schema);
     
     LOG.info("Kafka output Avro serializer configured");
   }
@@ -73,19 +65,17 @@ public class AvroSerializer implements Serializer<Row> {
       return null;
     }
     
-    GenericRecord record = recordForRow(data, schema);
-    
-    ByteArrayOutputStream out = new ByteArrayOutputStream();
-    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+    ReusableOutput output = reusableOutput.get();
+    output.buffer.reset();
+    output.encoder = EncoderFactory.get().binaryEncoder(output.buffer, output.encoder);
     try {
-      datumWriter.write(record, encoder);
-      encoder.flush();
-      out.close();
+      datumWriter.write(data, output.encoder);
+      output.encoder.flush();
     } catch (IOException e) {
       throw new RuntimeException("Avro serializer for Kafka output could not serialize row", e);
     }
     
-    return out.toByteArray();
+    return output.buffer.toByteArray();
   }
 
   @Override
@@ -113,49 +103,11 @@ public class AvroSerializer implements Serializer<Row> {
     
     return schema;
   }
-  
-  private GenericRecord recordForRow(Row row, Schema schema) {
-    GenericRecord record = new GenericData.Record(schema);
-
-    Object[] values = RowUtils.valuesFor(row);
-    for (int valueNum = 0; valueNum < values.length; valueNum++) {
-      Object value = values[valueNum];
-
-      if (value instanceof byte[]) {
-        // Spark SQL uses byte[] for binary, but Avro uses ByteBuffer
-        record.put(valueNum, ByteBuffer.wrap((byte[])value));
-      }
-      else {
-        record.put(valueNum, value);
-      }
-    }
-    
-    return record;
-  }
-  
-  private void validateSchemaIsSupported(Schema schema) {
-    for (Field field : schema.getFields()) {
-      Type type = field.schema().getType();
-
-      if (type.equals(Type.UNION)) {
-        List<Schema> types = field.schema().getTypes();
 
-        if (types.size() != 2) {
-          throw new RuntimeException("Union type in Avro serializer schema must only contain two types");
-        }
-
-        if (types.get(0).getType().equals(Type.NULL)) {
-          type = types.get(1).getType();
-        }
-        else {
-          type = types.get(0).getType();
-        }
-      }
-
-      if (!supportedTypes.contains(type)) {
-        throw new RuntimeException("Avro serializer for Kafka output does not support Avro schema type: " + type);
-      }
-    }
+  private static class ReusableOutput {
+    // Grows to the size of the largest serialized row and is then reused for later rows
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+    private BinaryEncoder encoder;
   }
 
 }
@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka.serde;
+
+import org.apache.avro.Schema;
+import org.apache.avro.Schema.Field;
+import org.apache.avro.Schema.Type;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.util.DateTimeUtils;
+import scala.collection.JavaConversions;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An Avro datum writer that writes a Spark SQL row straight to an encoder, without first
+ * copying it into a generic record. The writer for each field of the schema is resolved once,
+ * when the schema is set, and the fields of the row are read by their ordinal, so the row must
+ * have the same field order as the Avro record schema.
+ *
+ * Nested records, arrays, maps and enums are supported, as are the decimal, date,
+ * timestamp-millis and timestamp-micros logical types. Unions must be of null and one other type.
+ */
+class RowDatumWriter implements DatumWriter<Row> {
+
+  private ValueWriter writer;
+
+  RowDatumWriter(Schema schema) {
+    setSchema(schema);
+  }
+
+  @Override
+  public void setSchema(Schema schema) {
+    if (schema.getType() != Type.RECORD) {
+      throw new RuntimeException("Avro serializer for Kafka output requires a record schema");
+    }
+
+    this.writer = writerFor(schema);
+  }
+
+  @Override
+  public void write(Row row, Encoder out) throws IOException {
+    writer.write(row, out);
+  }
+
+  private interface ValueWriter {
+    void write(Object value, Encoder out) throws IOException;
+  }
+
+  private static ValueWriter writerFor(final Schema schema) {
+    String logicalType = schema.getProp("logicalType");
+
+    if ("decimal".equals(logicalType) && (schema.getType() == Type.BYTES || schema.getType() == Type.FIXED)) {
+      return decimalWriterFor(schema);
+    }
+    if ("date".equals(logicalType) && schema.getType() == Type.INT) {
+      return new ValueWriter() {
+        @Override
+        public void write(Object value, Encoder out) throws IOException {
+          if (value instanceof Date) {
+            out.writeInt(DateTimeUtils.fromJavaDate((Date)value));
+          }
+          else {
+            out.writeInt(((Number)value).intValue());
+          }
+        }
+      };
+    }
+    if (("timestamp-millis".equals(logicalType) || "timestamp-micros".equals(logicalType)) &&
+        schema.getType() == Type.LONG) {
+      final boolean micros = "timestamp-micros".equals(logicalType);
+      return new ValueWriter() {
+        @Override
+        public void write(Object value, Encoder out) throws IOException {
+          if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp)value;
+            out.writeLong(micros ? DateTimeUtils.fromJavaTimestamp(timestamp) : timestamp.getTime());
+          }
+          else {
+            out.writeLong(((Number)value).longValue());
+          }
+        }
+      };
+    }
+
+    switch (schema.getType()) {
+      case RECORD:
+        return recordWriterFor(schema);
+      case UNION:
+        return unionWriterFor(schema);
+      case ARRAY:
+        final ValueWriter elementWriter = writerFor(schema.getElementType());
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            Collection<?> elements = asCollection(value);
+            out.writeArrayStart();
+            out.setItemCount(elements.size());
+            for (Object element : elements) {
+              out.startItem();
+              elementWriter.write(element, out);
+            }
+            out.writeArrayEnd();
+          }
+        };
+      case MAP:
+        final ValueWriter mapValueWriter = writerFor(schema.getValueType());
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            Map<?, ?> map = asMap(value);
+            out.writeMapStart();
+            out.setItemCount(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+              out.startItem();
+              out.writeString(entry.getKey().toString());
+              mapValueWriter.write(entry.getValue(), out);
+            }
+            out.writeMapEnd();
+          }
+        };
+      case ENUM:
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            out.writeEnum(schema.getEnumOrdinal(value.toString()));
+          }
+        };
+      case FIXED:
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            out.writeFixed((byte[])value);
+          }
+        };
+      case STRING:
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            out.writeString(value.toString());
+          }
+        };
+      case BYTES:
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            if (value instanceof ByteBuffer) {
+              out.writeBytes((ByteBuffer)value);
+            }
+            else {
+              out.writeBytes((byte[])value);
+            }
+          }
+        };
+      case INT:
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            out.writeInt(((Number)value).intValue());
+          }
+        };
+      case LONG:
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            out.writeLong(((Number)value).longValue());
+          }
+        };
+      case FLOAT:
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            out.writeFloat(((Number)value).floatValue());
+          }
+        };
+      case DOUBLE:
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            out.writeDouble(((Number)value).doubleValue());
+          }
+        };
+      case BOOLEAN:
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            out.writeBoolean((Boolean)value);
+          }
+        };
+      case NULL:
+        return new ValueWriter() {
+          @Override
+          public void write(Object value, Encoder out) throws IOException {
+            out.writeNull();
+          }
+        };
+      default:
+        throw new RuntimeException("Avro serializer for Kafka output does not support Avro schema type: " + schema.getType());
+    }
+  }
+
+  private static ValueWriter recordWriterFor(final Schema schema) {
+    List<Field> fields = schema.getFields();
+    final ValueWriter[] fieldWriters = new ValueWriter[fields.size()];
+    final boolean[] nullables = new boolean[fields.size()];
+    for (int i = 0; i < fieldWriters.length; i++) {
+      fieldWriters[i] = writerFor(fields.get(i).schema());
+      nullables[i] = fieldWriters[i] instanceof NullableWriter || fields.get(i).schema().getType() == Type.NULL;
+    }
+
+    return new ValueWriter() {
+      @Override
+      public void write(Object value, Encoder out) throws IOException {
+        Row row = (Row)value;
+
+        if (row.length() != fieldWriters.length) {
+          throw new RuntimeException("Avro serializer for Kafka output can not serialize row with " +
+              row.length() + " fields to Avro record " + schema.getFullName() + " with " +
+              fieldWriters.length + " fields");
+        }
+
+        for (int i = 0; i < fieldWriters.length; i++) {
+          Object fieldValue = row.get(i);
+          if (fieldValue == null && !nullables[i]) {
+            throw new RuntimeException("Avro serializer for Kafka output can not serialize null value to " +
+                "non-nullable field " + schema.getFields().get(i).name());
+          }
+          fieldWriters[i].write(fieldValue, out);
+        }
+      }
+    };
+  }
+
+  private static ValueWriter unionWriterFor(Schema schema) {
+    List<Schema> types = schema.getTypes();
+
+    if (types.size() != 2 ||
+        (types.get(0).getType() != Type.NULL && types.get(1).getType() != Type.NULL)) {
+      throw new RuntimeException("Union type in Avro serializer schema must only contain null and one other type");
+    }
+
+    int nullIndex = types.get(0).getType() == Type.NULL ? 0 : 1;
+    int valueIndex = 1 - nullIndex;
+
+    return new NullableWriter(nullIndex, valueIndex, writerFor(types.get(valueIndex)));
+  }
+
+  private static ValueWriter decimalWriterFor(final Schema schema) {
+    final int scale = schema.getJsonProp("scale") != null ? schema.getJsonProp("scale").getIntValue() : 0;
+    final int fixedSize = schema.getType() == Type.FIXED ? schema.getFixedSize() : -1;
+
+    return new ValueWriter() {
+      @Override
+      public void write(Object value, Encoder out) throws IOException {
+        byte[] unscaled = ((BigDecimal)value).setScale(scale).unscaledValue().toByteArray();
+
+        if (fixedSize < 0) {
+          out.writeBytes(unscaled);
+        }
+        else {
+          if (unscaled.length > fixedSize) {
+            throw new RuntimeException("Avro serializer for Kafka output can not fit decimal " + value +
+                " in fixed of size " + fixedSize);
+          }
+
+          // Sign-extend the two's complement value to the size of the fixed
+          byte[] fixed = new byte[fixedSize];
+          byte padding = (byte)(unscaled[0] < 0 ? 0xFF : 0x00);
+          int offset = fixedSize - unscaled.length;
+          for (int i = 0; i < offset; i++) {
+            fixed[i] = padding;
+          }
+          System.arraycopy(unscaled, 0, fixed, offset, unscaled.length);
+          out.writeFixed(fixed);
+        }
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Collection<?> asCollection(Object value) {
+    if (value instanceof scala.collection.Seq) {
+      return JavaConversions.seqAsJavaList((scala.collection.Seq<Object>)value);
+    }
+    return (Collection<?>)value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<?, ?> asMap(Object value) {
+    if (value instanceof scala.collection.Map) {
+      return JavaConversions.mapAsJavaMap((scala.collection.Map<Object, Object>)value);
+    }
+    return (Map<?, ?>)value;
+  }
+
+  private static class NullableWriter implements ValueWriter {
+    private int nullIndex;
+    private int valueIndex;
+    private ValueWriter valueWriter;
+
+    NullableWriter(int nullIndex, int valueIndex, ValueWriter valueWriter) {
+      this.nullIndex = nullIndex;
+      this.valueIndex = valueIndex;
+      this.valueWriter = valueWriter;
+    }
+
+    @Override
+    public void write(Object value, Encoder out) throws IOException {
+      if (value == null) {
+        out.writeIndex(nullIndex);
+        out.writeNull();
+      }
+      else {
+        out.writeIndex(valueIndex);
+        valueWriter.write(value, out);
+      }
+    }
+  }
+
+}
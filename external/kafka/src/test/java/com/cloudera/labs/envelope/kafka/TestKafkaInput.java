@@ -16,7 +16,13 @@
 package com.cloudera.labs.envelope.kafka;
 
 import com.cloudera.labs.envelope.component.ComponentFactory;
+import com.cloudera.labs.envelope.event.Event;
+import com.cloudera.labs.envelope.event.EventHandler;
+import com.cloudera.labs.envelope.event.EventManager;
+import com.cloudera.labs.envelope.event.TestingEventHandler;
+import com.cloudera.labs.envelope.spark.Accumulators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.typesafe.config.Config;
 import mockit.Expectations;
 import mockit.Mock;
@@ -25,6 +31,9 @@ import mockit.Mocked;
 import mockit.Tested;
 import mockit.Verifications;
 import mockit.integration.junit4.JMockit;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.sql.Row;
 import org.apache.spark.streaming.api.java.JavaDStream;
@@ -34,10 +43,13 @@ import org.apache.spark.streaming.kafka010.OffsetRange;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import static com.cloudera.labs.envelope.validate.ValidationAssert.assertValidationFailures;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(JMockit.class)
@@ -179,4 +191,94 @@ public class TestKafkaInput {
     assertEquals(((DummyKafkaOffsetStore)kafkaInput.offsetsOutput).store.size(), 5);
   }
 
+  @Test
+  public void testReportPartitionsRead(@Mocked final KafkaConsumer<byte[], byte[]> consumer) {
+    new Expectations() {
+      {
+        config.getStringList(KafkaInput.TOPICS_CONFIG);
+        returns(Lists.newArrayList("foo"));
+        config.hasPath(KafkaInput.GROUP_ID_CONFIG);
+        returns(true);
+        config.getAnyRef(KafkaInput.GROUP_ID_CONFIG);
+        returns("groupId1");
+        consumer.position(new TopicPartition("foo", 0));
+        returns(150L);
+        consumer.position(new TopicPartition("foo", 1));
+        returns(1000L);
+      }
+    };
+
+    TestingEventHandler handler = new TestingEventHandler();
+    handler.setHandledEventTypes(Sets.newHashSet(KafkaEventTypes.KAFKA_INPUT_PARTITION_READ));
+    EventManager.register(Collections.<EventHandler>singleton(handler));
+
+    KafkaInput kafkaInput = new KafkaInput();
+    kafkaInput.configure(config);
+    Accumulators accumulators = new Accumulators(kafkaInput.getAccumulatorRequests());
+    kafkaInput.receiveAccumulators(accumulators);
+
+    try {
+      kafkaInput.reportPartitionsRead(new OffsetRange[] {
+          OffsetRange.create("foo", 0, 0, 100),
+          OffsetRange.create("foo", 1, 700, 1000)});
+    }
+    finally {
+      EventManager.reset();
+    }
+
+    assertEquals(400L, accumulators.getLongAccumulators()
+        .get(KafkaInput.ACCUMULATOR_NUMBER_OF_RECORDS_READ).value().longValue());
+    assertEquals(300L, accumulators.getLongAccumulators()
+        .get(KafkaInput.ACCUMULATOR_NUMBER_OF_RECORDS_READ_LARGEST_PARTITION).value().longValue());
+
+    List<Event> events = handler.getHandledEvents();
+    assertEquals(2, events.size());
+    for (Event event : events) {
+      assertEquals(KafkaEventTypes.KAFKA_INPUT_PARTITION_READ, event.getEventType());
+      assertEquals("foo", event.getMetadataItem(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_TOPIC));
+      int partition = event.<Integer>getMetadataItem(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_PARTITION);
+      long recordCount = event.<Long>getMetadataItem(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_RECORD_COUNT);
+      long endOffset = event.<Long>getMetadataItem(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_END_OFFSET);
+      long logEndOffset = event.<Long>getMetadataItem(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_LOG_END_OFFSET);
+      long lag = event.<Long>getMetadataItem(KafkaEventMetadataKeys.KAFKA_INPUT_PARTITION_READ_LAG);
+      if (partition == 0) {
+        assertEquals(100L, recordCount);
+        assertEquals(100L, endOffset);
+        assertEquals(150L, logEndOffset);
+        assertEquals(50L, lag);
+      }
+      else {
+        assertEquals(300L, recordCount);
+        assertEquals(1000L, endOffset);
+        assertEquals(1000L, logEndOffset);
+        assertEquals(0L, lag);
+      }
+    }
+
+    final List<Map<String, Object>> consumerParams = Lists.newArrayList();
+    new Verifications() {
+      {
+        new KafkaConsumer<byte[], byte[]>(withCapture(consumerParams), withInstanceOf(ByteArrayDeserializer.class),
+            withInstanceOf(ByteArrayDeserializer.class));
+        times = 1;
+      }
+    };
+    assertEquals(1, consumerParams.size());
+    assertFalse(consumerParams.get(0).containsKey("group.id"));
+  }
+
+  @Test
+  public void testReportPartitionsReadWithoutHandler(@Mocked final KafkaConsumer<byte[], byte[]> consumer) {
+    KafkaInput kafkaInput = new KafkaInput();
+    kafkaInput.configure(config);
+    kafkaInput.reportPartitionsRead(new OffsetRange[] {OffsetRange.create("foo", 0, 0, 100)});
+
+    new Verifications() {
+      {
+        new KafkaConsumer<byte[], byte[]>((Map<String, Object>) any, (ByteArrayDeserializer) any, (ByteArrayDeserializer) any);
+        times = 0;
+      }
+    };
+  }
+
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestKafkaOffsetStore {
+
+  @Test
+  public void testStoreAndGetLastOffsets() throws Exception {
+    DummyKafkaOffsetStore output = new DummyKafkaOffsetStore();
+    KafkaOffsetStore offsetStore = new KafkaOffsetStore(output, "group", 0);
+
+    Map<TopicPartition, Long> offsets = Maps.newHashMap();
+    offsets.put(new TopicPartition("foo", 0), 100L);
+    offsets.put(new TopicPartition("foo", 1), 200L);
+    offsets.put(new TopicPartition("bar", 0), 300L);
+    offsetStore.storeOffsets(offsets);
+
+    assertEquals(3, output.store.size());
+
+    KafkaOffsetStore newOffsetStore = new KafkaOffsetStore(output, "group", 0);
+    Map<TopicPartition, Long> lastOffsets = newOffsetStore.getLastOffsets(Sets.newHashSet("foo", "bar"));
+    assertEquals(offsets, lastOffsets);
+  }
+
+  @Test
+  public void testOnlyProgressedOffsetsStored() throws Exception {
+    DummyKafkaOffsetStore output = new DummyKafkaOffsetStore();
+    KafkaOffsetStore offsetStore = new KafkaOffsetStore(output, "group", 0);
+
+    Map<TopicPartition, Long> offsets = Maps.newHashMap();
+    offsets.put(new TopicPartition("foo", 0), 100L);
+    offsets.put(new TopicPartition("foo", 1), 200L);
+    offsetStore.storeOffsets(offsets);
+
+    // Remove a stored offset so that we can see whether it is written again
+    output.store.remove("groupfoo1");
+
+    offsets.put(new TopicPartition("foo", 0), 150L);
+    offsetStore.storeOffsets(offsets);
+
+    assertEquals(150L, output.store.get("groupfoo0").get(3));
+    assertFalse(output.store.containsKey("groupfoo1"));
+  }
+
+  @Test (expected = RuntimeException.class)
+  public void testVerificationFails() throws Exception {
+    DummyKafkaOffsetStore output = new DummyKafkaOffsetStore();
+    KafkaOffsetStore offsetStore = new KafkaOffsetStore(output, "group", 2);
+
+    Map<TopicPartition, Long> offsets = Maps.newHashMap();
+    offsets.put(new TopicPartition("foo", 0), 100L);
+    offsets.put(new TopicPartition("foo", 1), 200L);
+    offsetStore.storeOffsets(offsets);
+
+    // The second store is verified, and finds that an offset is missing
+    output.store.remove("groupfoo1");
+    offsetStore.storeOffsets(offsets);
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.cloudera.labs.envelope.kafka.KafkaProducerPool.PooledProducer;
+import com.google.common.collect.Maps;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestKafkaProducerPool {
+
+  @After
+  public void closeProducers() {
+    KafkaProducerPool.closeAll();
+  }
+
+  @Test
+  public void testSameConfigSharesProducer() {
+    PooledProducer first = KafkaProducerPool.getProducer(outputConfig("topic1"));
+    PooledProducer second = KafkaProducerPool.getProducer(outputConfig("topic1"));
+
+    assertSame(first, second);
+  }
+
+  @Test
+  public void testDifferentConfigsDoNotShareProducer() {
+    PooledProducer first = KafkaProducerPool.getProducer(outputConfig("topic1"));
+    PooledProducer second = KafkaProducerPool.getProducer(outputConfig("topic2"));
+
+    assertNotSame(first, second);
+  }
+
+  @Test
+  public void testInvalidatedProducerIsReplaced() {
+    Config config = outputConfig("topic1");
+    PooledProducer first = KafkaProducerPool.getProducer(config);
+    KafkaProducerPool.invalidate(config, first);
+    PooledProducer second = KafkaProducerPool.getProducer(config);
+
+    assertNotSame(first, second);
+
+    // Invalidating a producer that has already been replaced leaves the replacement in the pool
+    KafkaProducerPool.invalidate(config, first);
+    assertSame(second, KafkaProducerPool.getProducer(config));
+  }
+
+  @Test
+  public void testRecordFailureKeepsSharedProducer() {
+    Config config = outputConfig("topic1");
+    PooledProducer failingTask = KafkaProducerPool.getProducer(config);
+    PooledProducer otherTask = KafkaProducerPool.getProducer(config);
+
+    // The record of the failing task could not be serialized, or was too large to send
+    assertFalse(KafkaProducerPool.isProducerFailure(new SerializationException("Bad record")));
+    assertFalse(KafkaProducerPool.isProducerFailure(new RuntimeException(
+        "Kafka output could not send record", new RecordTooLargeException("Record too large"))));
+    KafkaProducerPool.release(failingTask);
+
+    // The other task is still sending through the pooled producer
+    assertFalse(otherTask.isClosed());
+    assertSame(otherTask, KafkaProducerPool.getProducer(config));
+  }
+
+  @Test
+  public void testFailedProducerClosedAfterLastRelease() {
+    Config config = outputConfig("topic1");
+    PooledProducer failingTask = KafkaProducerPool.getProducer(config);
+    PooledProducer otherTask = KafkaProducerPool.getProducer(config);
+
+    assertTrue(KafkaProducerPool.isProducerFailure(
+        new IllegalStateException("Cannot send after the producer is closed.")));
+    KafkaProducerPool.invalidate(config, failingTask);
+    KafkaProducerPool.release(failingTask);
+
+    // The next task gets a new producer, but the failed producer is kept open for the other task
+    assertNotSame(failingTask, KafkaProducerPool.getProducer(config));
+    assertFalse(otherTask.isClosed());
+
+    KafkaProducerPool.release(otherTask);
+    assertTrue(otherTask.isClosed());
+  }
+
+  private Config outputConfig(String topic) {
+    Map<String, Object> configMap = Maps.newHashMap();
+    configMap.put(KafkaOutput.BROKERS_CONFIG_NAME, "localhost:9092");
+    configMap.put(KafkaOutput.TOPIC_CONFIG_NAME, topic);
+    configMap.put(KafkaOutput.SERIALIZER_TYPE_CONFIG_NAME, KafkaOutput.DELIMITED_SERIALIZER);
+    configMap.put("serializer.field.delimiter", ",");
+    return ConfigFactory.parseMap(configMap);
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.cloudera.labs.envelope.kafka.KafkaSendTracker.PartitionStatistics;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestKafkaSendTracker {
+
+  @Test
+  public void testPartitionStatistics() throws Exception {
+    KafkaSendTracker tracker = new KafkaSendTracker(10, 1000);
+
+    tracker.acquire(10);
+    tracker.acquire(20);
+    tracker.acquire(30);
+    assertEquals(3, tracker.getInFlightRecords());
+    assertEquals(60, tracker.getInFlightBytes());
+
+    tracker.completed(0, 10, 1000, null);
+    tracker.completed(0, 20, 3000, null);
+    tracker.completed(1, 30, 2000, null);
+    tracker.awaitCompletion();
+
+    Map<Integer, PartitionStatistics> statistics = tracker.getPartitionStatistics();
+    assertEquals(2, statistics.size());
+    assertEquals(2, statistics.get(0).getRecords());
+    assertEquals(30, statistics.get(0).getBytes());
+    assertEquals(4000, statistics.get(0).getTotalLatencyNs());
+    assertEquals(3000, statistics.get(0).getMaxLatencyNs());
+    assertEquals(1, statistics.get(1).getRecords());
+    assertEquals(0, tracker.getInFlightRecords());
+    assertEquals(0, tracker.getInFlightBytes());
+  }
+
+  @Test
+  public void testFirstFailureIsRaised() throws Exception {
+    KafkaSendTracker tracker = new KafkaSendTracker(10, 1000);
+    Exception first = new Exception("first");
+
+    tracker.acquire(10);
+    tracker.acquire(10);
+    tracker.completed(0, 10, 1000, first);
+    tracker.completed(0, 10, 1000, new Exception("second"));
+
+    try {
+      tracker.acquire(10);
+      fail();
+    }
+    catch (RuntimeException e) {
+      assertEquals(first, e.getCause());
+    }
+
+    try {
+      tracker.awaitCompletion();
+      fail();
+    }
+    catch (RuntimeException e) {
+      assertEquals(first, e.getCause());
+    }
+  }
+
+  @Test
+  public void testWindowBlocksWhenFull() throws Exception {
+    final KafkaSendTracker tracker = new KafkaSendTracker(2, 1000);
+    final AtomicBoolean acquired = new AtomicBoolean(false);
+
+    tracker.acquire(10);
+    tracker.acquire(10);
+
+    Thread sender = new Thread() {
+      @Override
+      public void run() {
+        try {
+          tracker.acquire(10);
+          acquired.set(true);
+        }
+        catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    sender.start();
+
+    TimeUnit.MILLISECONDS.sleep(200);
+    assertFalse(acquired.get());
+
+    tracker.completed(0, 10, 1000, null);
+    sender.join(10000);
+    assertTrue(acquired.get());
+  }
+
+  @Test
+  public void testWindowBlocksOnBytes() throws Exception {
+    KafkaSendTracker tracker = new KafkaSendTracker(10, 100);
+
+    // A record larger than the window is let through when nothing else is in flight
+    tracker.acquire(150);
+    assertEquals(1, tracker.getInFlightRecords());
+
+    tracker.completed(0, 150, 1000, null);
+    tracker.acquire(60);
+    tracker.acquire(40);
+    assertEquals(100, tracker.getInFlightBytes());
+  }
+
+}
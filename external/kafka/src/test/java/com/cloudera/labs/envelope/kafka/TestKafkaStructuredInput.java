@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.cloudera.labs.envelope.spark.Contexts;
+import com.cloudera.labs.envelope.translate.Translator;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.cloudera.labs.envelope.validate.ValidationAssert.assertNoValidationFailures;
+import static org.junit.Assert.assertEquals;
+
+public class TestKafkaStructuredInput {
+
+  @Test
+  public void testValidConfiguration() {
+    assertNoValidationFailures(new KafkaStructuredInput(), inputConfig());
+  }
+
+  @Test
+  public void testUnmanagedStartingOffsets() throws Exception {
+    Map<String, Object> configMap = Maps.newHashMap();
+    configMap.put(KafkaStructuredInput.STARTING_OFFSETS_CONFIG, KafkaStructuredInput.EARLIEST_STARTING_OFFSETS);
+    KafkaStructuredInput input = new KafkaStructuredInput();
+    input.configure(ConfigFactory.parseMap(configMap).withFallback(inputConfig()));
+
+    assertEquals("earliest", input.getStartingOffsets());
+  }
+
+  @Test
+  public void testNextOffsets() throws Exception {
+    KafkaStructuredInput input = new KafkaStructuredInput();
+    input.configure(inputConfig());
+
+    StructType schema = DataTypes.createStructType(Lists.newArrayList(
+        DataTypes.createStructField("topic", DataTypes.StringType, false),
+        DataTypes.createStructField("partition", DataTypes.IntegerType, false),
+        DataTypes.createStructField("offset", DataTypes.LongType, false)));
+    List<Row> messages = Lists.<Row>newArrayList(
+        RowFactory.create("foo", 0, 99L),
+        RowFactory.create("foo", 0, 98L),
+        RowFactory.create("foo", 1, 1999L),
+        RowFactory.create("bar", 0, 4L));
+    JavaRDD<Row> batch = Contexts.getSparkSession().createDataFrame(messages, schema).javaRDD();
+
+    Map<TopicPartition, Long> offsets = input.getNextOffsets(batch);
+
+    assertEquals(3, offsets.size());
+    assertEquals(100L, (long)offsets.get(new TopicPartition("foo", 0)));
+    assertEquals(2000L, (long)offsets.get(new TopicPartition("foo", 1)));
+    assertEquals(5L, (long)offsets.get(new TopicPartition("bar", 0)));
+  }
+
+  @Test
+  public void testProvidingSchema() {
+    KafkaStructuredInput input = new KafkaStructuredInput();
+    input.configure(inputConfig());
+    input.receiveExpectedSchema(DataTypes.createStructType(Lists.newArrayList(
+        DataTypes.createStructField(Translator.VALUE_FIELD_NAME, DataTypes.StringType, true))));
+
+    StructType schema = input.getProvidingSchema();
+    assertEquals(DataTypes.BinaryType, schema.apply(KafkaCommon.KEY_FIELD_NAME).dataType());
+    assertEquals(DataTypes.StringType, schema.apply(Translator.VALUE_FIELD_NAME).dataType());
+    assertEquals(DataTypes.LongType, schema.apply("offset").dataType());
+  }
+
+  private Config inputConfig() {
+    Map<String, Object> configMap = Maps.newHashMap();
+    configMap.put(KafkaInput.BROKERS_CONFIG, "localhost:9092");
+    configMap.put(KafkaInput.TOPICS_CONFIG, Lists.newArrayList("foo", "bar"));
+    configMap.put(KafkaInput.OFFSETS_MANAGE_CONFIG, false);
+    return ConfigFactory.parseMap(configMap);
+  }
+
+}
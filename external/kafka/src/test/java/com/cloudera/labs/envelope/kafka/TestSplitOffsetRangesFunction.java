@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.cloudera.labs.envelope.spark.Contexts;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.streaming.kafka010.HasOffsetRanges;
+import org.apache.spark.streaming.kafka010.KafkaRDD;
+import org.apache.spark.streaming.kafka010.KafkaUtils;
+import org.apache.spark.streaming.kafka010.LocationStrategies;
+import org.apache.spark.streaming.kafka010.LocationStrategy;
+import org.apache.spark.streaming.kafka010.OffsetRange;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JMockit.class)
+public class TestSplitOffsetRangesFunction {
+
+  @Test
+  public void testSplitOffsetRanges() {
+    OffsetRange[] offsetRanges = new OffsetRange[] {
+        OffsetRange.create("foo", 0, 100, 1100),
+        OffsetRange.create("foo", 1, 50, 60),
+        OffsetRange.create("bar", 0, 10, 10)};
+
+    OffsetRange[] split = SplitOffsetRangesFunction.splitOffsetRanges(offsetRanges, 300);
+
+    assertArrayEquals(new OffsetRange[] {
+        OffsetRange.create("foo", 0, 100, 350),
+        OffsetRange.create("foo", 0, 350, 600),
+        OffsetRange.create("foo", 0, 600, 850),
+        OffsetRange.create("foo", 0, 850, 1100),
+        OffsetRange.create("foo", 1, 50, 60),
+        OffsetRange.create("bar", 0, 10, 10)}, split);
+  }
+
+  @Test
+  public void testMergeOffsetRanges() {
+    OffsetRange[] offsetRanges = new OffsetRange[] {
+        OffsetRange.create("foo", 0, 100, 1100),
+        OffsetRange.create("foo", 1, 50, 60),
+        OffsetRange.create("bar", 0, 10, 10)};
+
+    OffsetRange[] merged = SplitOffsetRangesFunction.mergeOffsetRanges(
+        SplitOffsetRangesFunction.splitOffsetRanges(offsetRanges, 7));
+
+    assertEquals(3, merged.length);
+    assertArrayEquals(offsetRanges, merged);
+  }
+
+  @Test
+  public void testGroupBySplitIndex() {
+    OffsetRange[] split = new OffsetRange[] {
+        OffsetRange.create("foo", 0, 100, 350),
+        OffsetRange.create("foo", 0, 350, 600),
+        OffsetRange.create("foo", 0, 600, 850),
+        OffsetRange.create("foo", 1, 50, 60),
+        OffsetRange.create("bar", 0, 10, 20),
+        OffsetRange.create("bar", 0, 20, 30)};
+
+    List<OffsetRange[]> grouped = SplitOffsetRangesFunction.groupBySplitIndex(split);
+
+    assertEquals(3, grouped.size());
+    assertArrayEquals(new OffsetRange[] {
+        OffsetRange.create("foo", 0, 100, 350),
+        OffsetRange.create("foo", 1, 50, 60),
+        OffsetRange.create("bar", 0, 10, 20)}, grouped.get(0));
+    assertArrayEquals(new OffsetRange[] {
+        OffsetRange.create("foo", 0, 350, 600),
+        OffsetRange.create("bar", 0, 20, 30)}, grouped.get(1));
+    assertArrayEquals(new OffsetRange[] {
+        OffsetRange.create("foo", 0, 600, 850)}, grouped.get(2));
+  }
+
+  @Test
+  public void testSplitWithBrokersLocationStrategy(
+      @Mocked final JavaRDD<ConsumerRecord<Object, Object>> batch, @Mocked final KafkaRDD<Object, Object> kafkaRDD,
+      @Mocked JavaSparkContext jsc, @Mocked KafkaUtils kafkaUtils, @Mocked SplitKafkaRDD splitKafkaRDD,
+      @Mocked final KafkaConsumer<byte[], byte[]> consumer) throws Exception {
+    final Node leader = new Node(1, "broker1", 9092);
+    new Expectations() {
+      {
+        batch.rdd();
+        returns(kafkaRDD);
+        kafkaRDD.offsetRanges();
+        returns(new OffsetRange[] {OffsetRange.create("foo", 0, 0, 1000)});
+        consumer.partitionsFor("foo");
+        returns(Lists.newArrayList(
+            new PartitionInfo("foo", 0, leader, new Node[] {leader}, new Node[] {leader}),
+            new PartitionInfo("foo", 1, null, new Node[] {}, new Node[] {})));
+      }
+    };
+
+    SplitOffsetRangesFunction function = new SplitOffsetRangesFunction(getKafkaParams("localhost:9092"), 300,
+        KafkaInput.LOCATION_STRATEGY_BROKERS, Maps.<TopicPartition, String>newHashMap());
+    function.call(batch);
+
+    Map<TopicPartition, String> leaderHosts = Maps.newHashMap();
+    leaderHosts.put(new TopicPartition("foo", 0), "broker1");
+    assertEquals(LocationStrategies.PreferFixed(leaderHosts), getSplitLocationStrategy());
+  }
+
+  @Test
+  public void testSplitWithConsistentLocationStrategy(
+      @Mocked final JavaRDD<ConsumerRecord<Object, Object>> batch, @Mocked final KafkaRDD<Object, Object> kafkaRDD,
+      @Mocked JavaSparkContext jsc, @Mocked KafkaUtils kafkaUtils, @Mocked SplitKafkaRDD splitKafkaRDD)
+      throws Exception {
+    new Expectations() {
+      {
+        batch.rdd();
+        returns(kafkaRDD);
+        kafkaRDD.offsetRanges();
+        returns(new OffsetRange[] {OffsetRange.create("foo", 0, 0, 1000)});
+      }
+    };
+
+    SplitOffsetRangesFunction function = new SplitOffsetRangesFunction(getKafkaParams("localhost:9092"), 300,
+        KafkaInput.LOCATION_STRATEGY_CONSISTENT, Maps.<TopicPartition, String>newHashMap());
+    function.call(batch);
+
+    assertEquals(LocationStrategies.PreferConsistent(), getSplitLocationStrategy());
+  }
+
+  @Test
+  public void testReadSplitPartitionConcurrently() throws Exception {
+    TestingKafkaCluster cluster = new TestingKafkaCluster();
+    Contexts.closeSparkSession();
+
+    try {
+      cluster.start();
+      cluster.produce("foo", 1000);
+
+      Config config = ConfigFactory.parseString("application.spark.conf.spark.master = \"local[4]\"");
+      Contexts.initialize(config, Contexts.ExecutionMode.UNIT_TEST);
+      JavaSparkContext jsc = JavaSparkContext.fromSparkContext(Contexts.getSparkSession().sparkContext());
+
+      Map<String, Object> kafkaParams = getKafkaParams(cluster.getBrokers());
+      OffsetRange[] offsetRanges = new OffsetRange[] {OffsetRange.create("foo", 0, 0, 1000)};
+      JavaRDD<ConsumerRecord<Object, Object>> batch =
+          KafkaUtils.createRDD(jsc, kafkaParams, offsetRanges, LocationStrategies.PreferConsistent());
+
+      // The sub-ranges of the single partition are read at the same time by the executor cores
+      JavaRDD<ConsumerRecord<Object, Object>> split = new SplitOffsetRangesFunction(
+          kafkaParams, 50, KafkaInput.LOCATION_STRATEGY_CONSISTENT,
+          Maps.<TopicPartition, String>newHashMap()).call(batch);
+
+      assertEquals(20, split.getNumPartitions());
+      assertTrue(split.rdd() instanceof HasOffsetRanges);
+      assertArrayEquals(offsetRanges,
+          SplitOffsetRangesFunction.mergeOffsetRanges(((HasOffsetRanges)split.rdd()).offsetRanges()));
+
+      List<Long> offsets = split.map(new RecordOffsetFunction()).collect();
+      assertEquals(1000, offsets.size());
+      assertEquals(1000, Sets.newHashSet(offsets).size());
+    }
+    finally {
+      Contexts.closeSparkSession();
+      cluster.stop();
+    }
+  }
+
+  private LocationStrategy getSplitLocationStrategy() {
+    final List<Map<String, Object>> splitKafkaParams = Lists.newArrayList();
+    final List<LocationStrategy> locationStrategies = Lists.newArrayList();
+    new Verifications() {
+      {
+        KafkaUtils.createRDD((JavaSparkContext) any, withCapture(splitKafkaParams), (OffsetRange[]) any,
+            withCapture(locationStrategies));
+        times = 4;
+      }
+    };
+
+    // Each sub-range of the partition is read with its own group ID
+    Set<Object> groupIDs = Sets.newHashSet();
+    for (Map<String, Object> params : splitKafkaParams) {
+      groupIDs.add(params.get("group.id"));
+    }
+    assertEquals(Sets.<Object>newHashSet("group-split-0", "group-split-1", "group-split-2", "group-split-3"),
+        groupIDs);
+    assertEquals(1, Sets.newHashSet(locationStrategies).size());
+
+    return locationStrategies.get(0);
+  }
+
+  private static Map<String, Object> getKafkaParams(String brokers) {
+    Map<String, Object> kafkaParams = Maps.newHashMap();
+    kafkaParams.put("bootstrap.servers", brokers);
+    kafkaParams.put("group.id", "group");
+    kafkaParams.put("key.deserializer", ByteArrayDeserializer.class);
+    kafkaParams.put("value.deserializer", ByteArrayDeserializer.class);
+    kafkaParams.put("auto.offset.reset", "earliest");
+
+    return kafkaParams;
+  }
+
+  @SuppressWarnings("serial")
+  private static class RecordOffsetFunction implements Function<ConsumerRecord<Object, Object>, Long> {
+    @Override
+    public Long call(ConsumerRecord<Object, Object> record) {
+      return record.offset();
+    }
+  }
+
+}
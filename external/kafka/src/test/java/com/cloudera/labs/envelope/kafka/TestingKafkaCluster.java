@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+
+package com.cloudera.labs.envelope.kafka;
+
+import com.google.common.io.Files;
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServerStartable;
+import org.apache.commons.io.FileUtils;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Properties;
+
+/**
+ * A single Kafka broker and ZooKeeper server that run in the test JVM.
+ */
+class TestingKafkaCluster {
+
+  private File dataDir;
+  private NIOServerCnxnFactory zookeeperFactory;
+  private KafkaServerStartable broker;
+  private int brokerPort;
+
+  void start() throws Exception {
+    dataDir = Files.createTempDir();
+
+    ZooKeeperServer zookeeper = new ZooKeeperServer(
+        new File(dataDir, "zookeeper"), new File(dataDir, "zookeeper"), 2000);
+    zookeeperFactory = new NIOServerCnxnFactory();
+    zookeeperFactory.configure(new InetSocketAddress("localhost", 0), 16);
+    zookeeperFactory.startup(zookeeper);
+
+    try (ServerSocket socket = new ServerSocket(0)) {
+      brokerPort = socket.getLocalPort();
+    }
+
+    Properties brokerProps = new Properties();
+    brokerProps.put("broker.id", "0");
+    brokerProps.put("zookeeper.connect", "localhost:" + zookeeperFactory.getLocalPort());
+    brokerProps.put("listeners", "PLAINTEXT://localhost:" + brokerPort);
+    brokerProps.put("log.dirs", new File(dataDir, "kafka").getAbsolutePath());
+    brokerProps.put("num.partitions", "1");
+    brokerProps.put("offsets.topic.replication.factor", "1");
+    brokerProps.put("auto.create.topics.enable", "true");
+    broker = new KafkaServerStartable(new KafkaConfig(brokerProps));
+    broker.startup();
+  }
+
+  String getBrokers() {
+    return "localhost:" + brokerPort;
+  }
+
+  void produce(String topic, int numRecords) throws Exception {
+    Properties producerProps = new Properties();
+    producerProps.put("bootstrap.servers", getBrokers());
+    producerProps.put("acks", "all");
+
+    try (KafkaProducer<byte[], byte[]> producer =
+             new KafkaProducer<>(producerProps, new ByteArraySerializer(), new ByteArraySerializer())) {
+      for (int i = 0; i < numRecords; i++) {
+        producer.send(new ProducerRecord<byte[], byte[]>(topic, Integer.toString(i).getBytes())).get();
+      }
+    }
+  }
+
+  void stop() {
+    if (broker != null) {
+      broker.shutdown();
+      broker.awaitShutdown();
+    }
+    if (zookeeperFactory != null) {
+      zookeeperFactory.shutdown();
+    }
+    FileUtils.deleteQuietly(dataDir);
+  }
+
+}
@@ -16,6 +16,7 @@
 package com.cloudera.labs.envelope.kafka.serde;
 
 import com.cloudera.labs.envelope.spark.Contexts;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericDatumReader;
@@ -24,15 +25,22 @@ import org.apache.avro.io.Decoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.kafka.common.serialization.Serializer;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 public class TestAvroSerializer {
 
@@ -73,5 +81,70 @@ public class TestAvroSerializer {
       assertNull(deserialized.get("field" + i));
     }
   }
-  
+
+  @Test
+  public void testNestedAndLogicalTypesSerialization() throws IOException {
+    Map<String, String> map = Maps.newHashMap();
+    map.put("key", "value");
+    Timestamp timestamp = new Timestamp(1500000000123L);
+    Row row = RowFactory.create(
+        RowFactory.create("hello", null),
+        Lists.newArrayList(1L, 2L, 3L),
+        map,
+        new BigDecimal("123.45"),
+        new Date(timestamp.getTime()),
+        timestamp,
+        "SELL",
+        null);
+
+    Serializer<Row> serializer = configuredSerializer("/kafka/serde/avro-serialization-nested-test.avsc");
+
+    // Serialize twice to check that the reused buffer does not leak between rows
+    serializer.serialize("test", row);
+    GenericRecord deserialized = deserialize(serializer.serialize("test", row),
+        "/kafka/serde/avro-serialization-nested-test.avsc");
+    serializer.close();
+
+    GenericRecord nested = (GenericRecord)deserialized.get("field1");
+    assertEquals("hello", nested.get("nested1").toString());
+    assertNull(nested.get("nested2"));
+    assertEquals(Lists.newArrayList(1L, 2L, 3L), Lists.newArrayList((List<?>)deserialized.get("field2")));
+    assertEquals("value", ((Map<?, ?>)deserialized.get("field3")).values().iterator().next().toString());
+    ByteBuffer decimal = (ByteBuffer)deserialized.get("field4");
+    byte[] unscaled = new byte[decimal.remaining()];
+    decimal.get(unscaled);
+    assertEquals(new BigDecimal("123.45"), new BigDecimal(new BigInteger(unscaled), 2));
+    assertEquals(1500000000123L, deserialized.get("field6"));
+    assertEquals("SELL", deserialized.get("field7").toString());
+    assertNull(deserialized.get("field8"));
+  }
+
+  @Test
+  public void testUnsupportedUnion() {
+    try {
+      configuredSerializer("/kafka/serde/avro-serialization-union-test.avsc");
+      fail();
+    }
+    catch (RuntimeException e) {
+      // Expected
+    }
+  }
+
+  private Serializer<Row> configuredSerializer(String schemaResource) {
+    Map<String, String> configs = Maps.newHashMap();
+    configs.put(AvroSerializer.SCHEMA_PATH_CONFIG_NAME, getClass().getResource(schemaResource).getFile());
+    Serializer<Row> serializer = new AvroSerializer();
+    serializer.configure(configs, false);
+
+    return serializer;
+  }
+
+  private GenericRecord deserialize(byte[] serialized, String schemaResource) throws IOException {
+    Schema schema = new Schema.Parser().parse(new File(getClass().getResource(schemaResource).getFile()));
+    GenericDatumReader<GenericRecord> reader = new GenericDatumReader<GenericRecord>(schema);
+    Decoder decoder = DecoderFactory.get().binaryDecoder(serialized, null);
+
+    return reader.read(null, decoder);
+  }
+
 }
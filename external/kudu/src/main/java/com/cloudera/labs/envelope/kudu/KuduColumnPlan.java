@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kudu;
+
+import com.cloudera.labs.envelope.plan.MutationType;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The mappings between the columns of a Kudu table and the fields of Spark rows, which are
+ * resolved once for each table and row schema so that rows can be encoded to and decoded from
+ * Kudu by ordinal. Plans hold only the name and schema of their table so that the cache entry is
+ * released once the table itself is no longer referenced.
+ */
+class KuduColumnPlan {
+
+  private static final Map<KuduTable, KuduColumnPlan> PLANS = new WeakHashMap<>();
+
+  private String tableName;
+  private Schema tableSchema;
+  private Map<List<String>, Decoder> decoders = Maps.newHashMap();
+  private Map<StructType, Encoder> encoders = Maps.newHashMap();
+  private Map<StructType, Encoder> ignoreMissingColumnsEncoders = Maps.newHashMap();
+
+  private KuduColumnPlan(KuduTable table) {
+    this.tableName = table.getName();
+    this.tableSchema = table.getSchema();
+  }
+
+  static synchronized KuduColumnPlan forTable(KuduTable table) {
+    KuduColumnPlan plan = PLANS.get(table);
+
+    if (plan == null) {
+      plan = new KuduColumnPlan(table);
+      PLANS.put(table, plan);
+    }
+
+    return plan;
+  }
+
+  /**
+   * Get the decoder for the results of a scanner with the given projection. Decoders are cached
+   * by the projected column names because each scanner has its own instance of the projection.
+   */
+  synchronized Decoder getDecoder(Schema projection) {
+    List<String> columnNames = Lists.newArrayList();
+    for (ColumnSchema columnSchema : projection.getColumns()) {
+      columnNames.add(columnSchema.getName());
+    }
+
+    Decoder decoder = decoders.get(columnNames);
+    if (decoder == null) {
+      decoder = new Decoder(projection);
+      decoders.put(columnNames, decoder);
+    }
+
+    return decoder;
+  }
+
+  /**
+   * Get the encoder for planned rows of the given schema, which must include the mutation type
+   * field.
+   */
+  synchronized Encoder getEncoder(StructType planSchema, boolean ignoreMissingColumns) {
+    Map<StructType, Encoder> encodersForSchemas = ignoreMissingColumns ? ignoreMissingColumnsEncoders : encoders;
+
+    Encoder encoder = encodersForSchemas.get(planSchema);
+    if (encoder == null) {
+      encoder = new Encoder(tableName, tableSchema, planSchema, ignoreMissingColumns);
+      encodersForSchemas.put(planSchema, encoder);
+    }
+
+    return encoder;
+  }
+
+  static class Decoder {
+    private StructType schema;
+    private Type[] types;
+
+    private Decoder(Schema projection) {
+      List<ColumnSchema> columns = projection.getColumns();
+
+      schema = schemaFor(projection);
+      types = new Type[columns.size()];
+      for (int i = 0; i < types.length; i++) {
+        types[i] = columns.get(i).getType();
+      }
+    }
+
+    Row decode(RowResult result) {
+      Object[] values = new Object[types.length];
+
+      for (int i = 0; i < types.length; i++) {
+        if (result.isNull(i)) {
+          continue;
+        }
+
+        switch (types[i]) {
+          case DOUBLE:
+            values[i] = result.getDouble(i);
+            break;
+          case FLOAT:
+            values[i] = result.getFloat(i);
+            break;
+          case INT8:
+            values[i] = result.getByte(i);
+            break;
+          case INT16:
+            values[i] = result.getShort(i);
+            break;
+          case INT32:
+            values[i] = result.getInt(i);
+            break;
+          case INT64:
+            values[i] = result.getLong(i);
+            break;
+          case STRING:
+            values[i] = result.getString(i);
+            break;
+          case BOOL:
+            values[i] = result.getBoolean(i);
+            break;
+          case BINARY:
+            values[i] = result.getBinaryCopy(i);
+            break;
+          case UNIXTIME_MICROS:
+            values[i] = result.getTimestamp(i);
+            break;
+          case DECIMAL:
+            values[i] = result.getDecimal(i);
+            break;
+          default:
+            throw new RuntimeException("Unsupported Kudu column type: " + types[i]);
+        }
+      }
+
+      return new RowWithSchema(schema, values);
+    }
+  }
+
+  static class Encoder {
+    private String tableName;
+    private int mutationTypeIndex;
+    private int[] fieldIndexes;
+    private int[] columnIndexes;
+    private Type[] types;
+
+    private Encoder(String tableName, Schema kuduSchema, StructType planSchema, boolean ignoreMissingColumns) {
+      List<Integer> fieldIndexList = Lists.newArrayList();
+      List<Integer> columnIndexList = Lists.newArrayList();
+      List<Type> typeList = Lists.newArrayList();
+
+      this.tableName = tableName;
+      mutationTypeIndex = -1;
+
+      StructField[] fields = planSchema.fields();
+      for (int fieldIndex = 0; fieldIndex < fields.length; fieldIndex++) {
+        String fieldName = fields[fieldIndex].name();
+
+        if (fieldName.equals(MutationType.MUTATION_TYPE_FIELD_NAME)) {
+          mutationTypeIndex = fieldIndex;
+          continue;
+        }
+
+        int columnIndex;
+        try {
+          columnIndex = kuduSchema.getColumnIndex(fieldName);
+        }
+        catch (IllegalArgumentException e) {
+          if (ignoreMissingColumns) {
+            continue;
+          }
+          throw e;
+        }
+
+        fieldIndexList.add(fieldIndex);
+        columnIndexList.add(columnIndex);
+        typeList.add(kuduSchema.getColumnByIndex(columnIndex).getType());
+      }
+
+      if (mutationTypeIndex == -1) {
+        throw new RuntimeException("No mutation type field found in planned row schema: " + planSchema);
+      }
+
+      fieldIndexes = new int[fieldIndexList.size()];
+      columnIndexes = new int[fieldIndexList.size()];
+      types = typeList.toArray(new Type[typeList.size()]);
+      for (int i = 0; i < fieldIndexes.length; i++) {
+        fieldIndexes[i] = fieldIndexList.get(i);
+        columnIndexes[i] = columnIndexList.get(i);
+      }
+    }
+
+    MutationType getMutationType(Row plan) {
+      return MutationType.valueOf(plan.getString(mutationTypeIndex));
+    }
+
+    void encode(Row plan, PartialRow kuduRow) {
+      for (int i = 0; i < fieldIndexes.length; i++) {
+        int fieldIndex = fieldIndexes[i];
+        int columnIndex = columnIndexes[i];
+
+        if (plan.isNullAt(fieldIndex)) {
+          continue;
+        }
+
+        try {
+          switch (types[i]) {
+            case DOUBLE:
+              kuduRow.addDouble(columnIndex, plan.getDouble(fieldIndex));
+              break;
+            case FLOAT:
+              kuduRow.addFloat(columnIndex, plan.getFloat(fieldIndex));
+              break;
+            case INT8:
+              kuduRow.addByte(columnIndex, plan.getByte(fieldIndex));
+              break;
+            case INT16:
+              kuduRow.addShort(columnIndex, plan.getShort(fieldIndex));
+              break;
+            case INT32:
+              kuduRow.addInt(columnIndex, plan.getInt(fieldIndex));
+              break;
+            case INT64:
+              kuduRow.addLong(columnIndex, plan.getLong(fieldIndex));
+              break;
+            case STRING:
+              kuduRow.addString(columnIndex, plan.getString(fieldIndex));
+              break;
+            case BOOL:
+              kuduRow.addBoolean(columnIndex, plan.getBoolean(fieldIndex));
+              break;
+            case BINARY:
+              kuduRow.addBinary(columnIndex, plan.<byte[]>getAs(fieldIndex));
+              break;
+            case UNIXTIME_MICROS:
+              kuduRow.addTimestamp(columnIndex, plan.getTimestamp(fieldIndex));
+              break;
+            case DECIMAL:
+              kuduRow.addDecimal(columnIndex, plan.getDecimal(fieldIndex));
+              break;
+            default:
+              throw new RuntimeException("Unsupported Kudu column type: " + types[i]);
+          }
+        }
+        catch (ClassCastException e) {
+          throw new RuntimeException(String.format(
+              "Unexpected type found in planned row. For table '%s', field '%s', expected Kudu " +
+                  "type '%s' but found Java type '%s'. Row schema: '%s', values: %s",
+              tableName, plan.schema().fields()[fieldIndex].name(), types[i],
+              plan.get(fieldIndex).getClass().getSimpleName(), plan.schema(), plan), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Set a column of the Kudu row to the value of a Spark row field of the corresponding type.
+   */
+  static void addValue(PartialRow kuduRow, int columnIndex, Object value) {
+    Type type = kuduRow.getSchema().getColumnByIndex(columnIndex).getType();
+
+    switch (type) {
+      case DOUBLE:
+        kuduRow.addDouble(columnIndex, (Double)value);
+        break;
+      case FLOAT:
+        kuduRow.addFloat(columnIndex, (Float)value);
+        break;
+      case INT8:
+        kuduRow.addByte(columnIndex, (Byte)value);
+        break;
+      case INT16:
+        kuduRow.addShort(columnIndex, (Short)value);
+        break;
+      case INT32:
+        kuduRow.addInt(columnIndex, (Integer)value);
+        break;
+      case INT64:
+        kuduRow.addLong(columnIndex, (Long)value);
+        break;
+      case STRING:
+        kuduRow.addString(columnIndex, (String)value);
+        break;
+      case BOOL:
+        kuduRow.addBoolean(columnIndex, (Boolean)value);
+        break;
+      case BINARY:
+        kuduRow.addBinary(columnIndex, (byte[])value);
+        break;
+      case UNIXTIME_MICROS:
+        kuduRow.addTimestamp(columnIndex, (Timestamp)value);
+        break;
+      case DECIMAL:
+        kuduRow.addDecimal(columnIndex, (BigDecimal)value);
+        break;
+      default:
+        throw new RuntimeException("Unsupported Kudu column type: " + type);
+    }
+  }
+
+  static StructType schemaFor(Schema kuduSchema) {
+    List<StructField> fields = Lists.newArrayList();
+
+    for (ColumnSchema columnSchema : kuduSchema.getColumns()) {
+      DataType fieldType;
+
+      switch (columnSchema.getType()) {
+        case DOUBLE:
+          fieldType = DataTypes.DoubleType;
+          break;
+        case FLOAT:
+          fieldType = DataTypes.FloatType;
+          break;
+        case INT8:
+          fieldType = DataTypes.ByteType;
+          break;
+        case INT16:
+          fieldType = DataTypes.ShortType;
+          break;
+        case INT32:
+          fieldType = DataTypes.IntegerType;
+          break;
+        case INT64:
+          fieldType = DataTypes.LongType;
+          break;
+        case STRING:
+          fieldType = DataTypes.StringType;
+          break;
+        case BOOL:
+          fieldType = DataTypes.BooleanType;
+          break;
+        case BINARY:
+          fieldType = DataTypes.BinaryType;
+          break;
+        case UNIXTIME_MICROS:
+          fieldType = DataTypes.TimestampType;
+          break;
+        case DECIMAL:
+          int precision = columnSchema.getTypeAttributes().getPrecision();
+          int scale = columnSchema.getTypeAttributes().getScale();
+          fieldType = DataTypes.createDecimalType(precision, scale);
+          break;
+        default:
+          throw new RuntimeException("Unsupported Kudu column type: " + columnSchema.getType());
+      }
+
+      fields.add(DataTypes.createStructField(columnSchema.getName(), fieldType, true));
+    }
+
+    return DataTypes.createStructType(fields);
+  }
+
+}
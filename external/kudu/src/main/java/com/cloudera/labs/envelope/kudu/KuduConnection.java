@@ -20,6 +20,8 @@ import static com.cloudera.labs.envelope.kudu.KuduOutput.CONNECTION_CONFIG_NAME;
 import com.google.common.collect.Maps;
 import com.typesafe.config.Config;
 import java.util.Map;
+import org.apache.kudu.client.AsyncKuduClient;
+import org.apache.kudu.client.AsyncKuduSession;
 import org.apache.kudu.client.KuduClient;
 import org.apache.kudu.client.KuduException;
 import org.apache.kudu.client.KuduSession;
@@ -28,20 +30,35 @@ import org.apache.kudu.client.SessionConfiguration;
 
 class KuduConnection {
 
+  private AsyncKuduClient asyncClient;
   private KuduClient client;
   private KuduSession session;
+  private AsyncKuduSession asyncSession;
   private Map<String, KuduTable> tables = Maps.newHashMap();
   private long lastUsed;
 
   KuduConnection(Config config, byte[] token) {
-    client = new KuduClient.KuduClientBuilder(config.getString(CONNECTION_CONFIG_NAME)).build();
+    asyncClient = new AsyncKuduClient.AsyncKuduClientBuilder(config.getString(CONNECTION_CONFIG_NAME)).build();
+    client = asyncClient.syncClient();
     if (token != null) {
       client.importAuthenticationCredentials(token);
     }
-    session = client.newSession();
-    session.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
-    session.setMutationBufferSpace(10000);
-    session.setIgnoreAllDuplicateRows(KuduUtils.doesInsertIgnoreDuplicates(config));
+
+    if (KuduUtils.getWriteMode(config).equals(KuduUtils.WRITE_MODE_MANUAL)) {
+      // The operations are flushed by the output, which only waits on the flushed batches when
+      // the maximum number of batches is already in flight
+      asyncSession = asyncClient.newSession();
+      asyncSession.setFlushMode(SessionConfiguration.FlushMode.MANUAL_FLUSH);
+      asyncSession.setMutationBufferSpace(KuduUtils.getMutationBufferSpace(config));
+      asyncSession.setIgnoreAllDuplicateRows(KuduUtils.doesInsertIgnoreDuplicates(config));
+    }
+    else {
+      session = client.newSession();
+      session.setFlushMode(SessionConfiguration.FlushMode.AUTO_FLUSH_BACKGROUND);
+      session.setMutationBufferSpace(KuduUtils.getMutationBufferSpace(config));
+      session.setFlushInterval(KuduUtils.getFlushIntervalMs(config));
+      session.setIgnoreAllDuplicateRows(KuduUtils.doesInsertIgnoreDuplicates(config));
+    }
   }
 
   KuduClient getClient() {
@@ -52,6 +69,10 @@ class KuduConnection {
     return session;
   }
 
+  AsyncKuduSession getAsyncSession() {
+    return asyncSession;
+  }
+
   KuduTable getTable(String tableName) throws KuduException {
     if (tables.containsKey(tableName)) {
       return tables.get(tableName);
@@ -64,7 +85,9 @@ class KuduConnection {
   }
 
   void close() throws KuduException {
-    session.close();
+    if (session != null) {
+      session.close();
+    }
     client.close();
   }
 
@@ -27,48 +27,70 @@ import com.cloudera.labs.envelope.security.UsesDelegationTokens;
 import com.cloudera.labs.envelope.spark.AccumulatorRequest;
 import com.cloudera.labs.envelope.spark.Accumulators;
 import com.cloudera.labs.envelope.spark.Contexts;
-import com.cloudera.labs.envelope.spark.RowWithSchema;
 import com.cloudera.labs.envelope.spark.UsesAccumulators;
 import com.cloudera.labs.envelope.utils.ConfigUtils;
-import com.cloudera.labs.envelope.utils.PlannerUtils;
 import com.cloudera.labs.envelope.utils.RowUtils;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
 import com.cloudera.labs.envelope.validate.Validations;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.stumbleupon.async.Deferred;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigValueType;
 import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.AsyncKuduSession;
+import org.apache.kudu.client.KuduClient;
 import org.apache.kudu.client.KuduException;
+import org.apache.kudu.client.KuduPartitioner;
 import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduScanToken;
+import org.apache.kudu.client.KuduScanToken.KuduScanTokenBuilder;
 import org.apache.kudu.client.KuduScanner;
-import org.apache.kudu.client.KuduScanner.KuduScannerBuilder;
 import org.apache.kudu.client.KuduSession;
 import org.apache.kudu.client.KuduTable;
 import org.apache.kudu.client.Operation;
+import org.apache.kudu.client.OperationResponse;
 import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.PartitionSchema;
+import org.apache.kudu.client.PleaseThrottleException;
 import org.apache.kudu.client.RowError;
+import org.apache.kudu.client.RowErrorsAndOverflowStatus;
 import org.apache.kudu.client.RowResult;
 import org.apache.kudu.spark.kudu.KuduContext;
 import org.apache.kudu.spark.kudu.KuduWriteOptions;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
-import org.apache.spark.sql.types.DataType;
-import org.apache.spark.sql.types.DataTypes;
-import org.apache.spark.sql.types.StructField;
 import org.apache.spark.sql.types.StructType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scala.Tuple2;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.cloudera.labs.envelope.kudu.KuduUtils.FLUSH_INTERVAL_MS_CONFIG_NAME;
 import static com.cloudera.labs.envelope.kudu.KuduUtils.IGNORE_MISSING_COLUMNS_CONFIG_NAME;
 import static com.cloudera.labs.envelope.kudu.KuduUtils.INSERT_IGNORE_CONFIG_NAME;
 import static com.cloudera.labs.envelope.kudu.KuduUtils.IS_SECURE_CONFIG_NAME;
+import static com.cloudera.labs.envelope.kudu.KuduUtils.LOOKUP_COLUMNS_CONFIG_NAME;
+import static com.cloudera.labs.envelope.kudu.KuduUtils.LOOKUP_PARALLELISM_CONFIG_NAME;
+import static com.cloudera.labs.envelope.kudu.KuduUtils.MAX_INFLIGHT_BATCHES_CONFIG_NAME;
+import static com.cloudera.labs.envelope.kudu.KuduUtils.MUTATION_BUFFER_SPACE_CONFIG_NAME;
+import static com.cloudera.labs.envelope.kudu.KuduUtils.WRITE_MODE_BACKGROUND;
+import static com.cloudera.labs.envelope.kudu.KuduUtils.WRITE_MODE_CONFIG_NAME;
+import static com.cloudera.labs.envelope.kudu.KuduUtils.WRITE_MODE_MANUAL;
 
 import static com.cloudera.labs.envelope.security.SecurityConfig.KERBEROS_PREFIX;
 
@@ -81,11 +103,13 @@ public class KuduOutput implements RandomOutput, BulkOutput, UsesAccumulators, P
   private static final String ACCUMULATOR_NUMBER_OF_SCANNERS = "Number of Kudu scanners";
   private static final String ACCUMULATOR_NUMBER_OF_FILTERS_SCANNED = "Number of filters scanned in Kudu";
   private static final String ACCUMULATOR_SECONDS_SCANNING = "Seconds spent scanning Kudu";
+  private static final String ACCUMULATOR_NUMBER_OF_ROW_ERRORS = "Number of Kudu row errors";
 
   private Config config;
   private Accumulators accumulators;
 
-  private Map<String, StructType> tableSchemas;
+  private static final ExecutorService SCANNER_EXECUTOR = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("envelope-kudu-scanner-%d").build());
 
   private static Logger LOG = LoggerFactory.getLogger(KuduOutput.class);
 
@@ -106,28 +130,117 @@ public class KuduOutput implements RandomOutput, BulkOutput, UsesAccumulators, P
   @Override
   public void applyRandomMutations(List<Row> planned) throws Exception {
     KuduConnection connection = getConnection();
-    KuduSession session = connection.getSession();
     KuduTable table = connection.getTable(config.getString(TABLE_CONFIG_NAME));
 
     List<Operation> operations = extractOperations(planned, table);
 
+    if (KuduUtils.getWriteMode(config).equals(KuduUtils.WRITE_MODE_MANUAL)) {
+      applyWithManualFlush(operations, connection.getAsyncSession());
+    }
+    else {
+      applyWithBackgroundFlush(operations, connection.getSession());
+    }
+  }
+
+  private void applyWithBackgroundFlush(List<Operation> operations, KuduSession session) throws Exception {
     for (Operation operation : operations) {
       session.apply(operation);
     }
 
-    // Wait until all operations have completed before checking for errors.
-    while (session.hasPendingOperations()) {
-      Thread.sleep(1);
+    // Block until all operations have completed before checking for errors
+    session.flush();
+
+    RowErrorsAndOverflowStatus pendingErrors = session.getPendingErrors();
+    failOnRowErrors(Arrays.asList(pendingErrors.getRowErrors()), pendingErrors.isOverflowed());
+  }
+
+  void applyWithManualFlush(List<Operation> operations, AsyncKuduSession session) throws Exception {
+    int mutationBufferSpace = KuduUtils.getMutationBufferSpace(config);
+    int maxInflightBatches = KuduUtils.getMaxInflightBatches(config);
+
+    Queue<Deferred<List<OperationResponse>>> inflightBatches = Lists.newLinkedList();
+    List<RowError> rowErrors = Lists.newArrayList();
+
+    int buffered = 0;
+    for (Operation operation : operations) {
+      applyWhenBuffered(operation, session);
+      buffered++;
+
+      // Flush when the buffer is full, while the next batch is buffered
+      if (buffered == mutationBufferSpace) {
+        while (inflightBatches.size() >= maxInflightBatches) {
+          rowErrors.addAll(waitForBatch(inflightBatches.remove()));
+        }
+        inflightBatches.add(session.flush());
+        buffered = 0;
+      }
     }
 
-    // Fail fast on any error applying mutations
-    if (session.countPendingErrors() > 0) {
-      RowError firstError = session.getPendingErrors().getRowErrors()[0];
-      String errorMessage = String.format("Kudu output error '%s' during operation '%s' at tablet server '%s'",
-          firstError.getErrorStatus(), firstError.getOperation(), firstError.getTsUUID());
+    if (buffered > 0) {
+      inflightBatches.add(session.flush());
+    }
 
-      throw new RuntimeException(errorMessage);
+    while (!inflightBatches.isEmpty()) {
+      rowErrors.addAll(waitForBatch(inflightBatches.remove()));
     }
+
+    failOnRowErrors(rowErrors, false);
+  }
+
+  // The session has two mutation buffers, so while both of them are being flushed the operation
+  // can not be buffered until the flush of one of them has completed
+  private void applyWhenBuffered(Operation operation, AsyncKuduSession session) throws Exception {
+    while (true) {
+      try {
+        session.apply(operation);
+        return;
+      }
+      catch (PleaseThrottleException e) {
+        e.getDeferred().join();
+      }
+    }
+  }
+
+  private List<RowError> waitForBatch(Deferred<List<OperationResponse>> batch) throws Exception {
+    List<RowError> rowErrors = Lists.newArrayList();
+
+    for (OperationResponse response : batch.join()) {
+      if (response.hasRowError()) {
+        rowErrors.add(response.getRowError());
+      }
+    }
+
+    return rowErrors;
+  }
+
+  // Fail fast on any error applying mutations, with the number of errors of each tablet server
+  private void failOnRowErrors(List<RowError> rowErrors, boolean overflowed) {
+    if (rowErrors.isEmpty()) {
+      return;
+    }
+
+    Map<String, Integer> rowErrorsByTabletServer = Maps.newTreeMap();
+    for (RowError rowError : rowErrors) {
+      String tabletServer = rowError.getTsUUID();
+      Integer count = rowErrorsByTabletServer.get(tabletServer);
+      rowErrorsByTabletServer.put(tabletServer, count == null ? 1 : count + 1);
+    }
+
+    for (Map.Entry<String, Integer> tabletServerErrors : rowErrorsByTabletServer.entrySet()) {
+      LOG.error("Kudu output received {} row errors from tablet server '{}'",
+          tabletServerErrors.getValue(), tabletServerErrors.getKey());
+    }
+
+    if (hasAccumulators()) {
+      accumulators.getLongAccumulators().get(ACCUMULATOR_NUMBER_OF_ROW_ERRORS).add(rowErrors.size());
+    }
+
+    RowError firstError = rowErrors.get(0);
+    String errorMessage = String.format("Kudu output error '%s' during operation '%s' at tablet server '%s'. " +
+        "Row errors by tablet server%s: %s", firstError.getErrorStatus(), firstError.getOperation(),
+        firstError.getTsUUID(), overflowed ? " (not all errors were retained)" : "", rowErrorsByTabletServer);
+
+    throw new RuntimeException(errorMessage);
   }
 
   @Override
@@ -148,15 +261,39 @@ public class KuduOutput implements RandomOutput, BulkOutput, UsesAccumulators, P
       return existingForFilters;
     }
 
-    KuduTable table = getConnection().getTable(config.getString(TABLE_CONFIG_NAME));
-    KuduScanner scanner = scannerForFilters(filters, table);
+    final KuduTable table = getConnection().getTable(config.getString(TABLE_CONFIG_NAME));
+    final List<String> filterFieldNames = Arrays.asList(filters.iterator().next().schema().fieldNames());
+    List<Tuple2<KuduScanner, Set<List<Object>>>> scanners = scannersForFilters(filters, table);
 
     long startTime = System.nanoTime();
-    while (scanner.hasMoreRows()) {
-      for (RowResult rowResult : scanner.nextRows()) {
-        Row existing = resultAsRow(rowResult, table);
+    if (scanners.size() == 1) {
+      existingForFilters.addAll(scan(scanners.get(0)._1(), scanners.get(0)._2(), filterFieldNames, table));
+    }
+    else {
+      // Scan the tablets in parallel, with at most the lookup parallelism of scanners at a time
+      CompletionService<List<Row>> scans = new ExecutorCompletionService<>(SCANNER_EXECUTOR);
+      int parallelism = KuduUtils.getLookupParallelism(config);
+      int submitted = 0;
+      int completed = 0;
+
+      while (completed < scanners.size()) {
+        while (submitted < scanners.size() && submitted - completed < parallelism) {
+          final Tuple2<KuduScanner, Set<List<Object>>> scanner = scanners.get(submitted++);
+          scans.submit(new Callable<List<Row>>() {
+            @Override
+            public List<Row> call() throws Exception {
+              return scan(scanner._1(), scanner._2(), filterFieldNames, table);
+            }
+          });
+        }
 
-        existingForFilters.add(existing);
+        try {
+          existingForFilters.addAll(scans.take().get());
+        }
+        catch (ExecutionException e) {
+          throw new RuntimeException("Kudu output could not scan for existing records", e.getCause());
+        }
+        completed++;
       }
     }
     long endTime = System.nanoTime();
@@ -167,115 +304,37 @@ public class KuduOutput implements RandomOutput, BulkOutput, UsesAccumulators, P
     return existingForFilters;
   }
 
+  // Only the records of the tuples of the scanner are kept, because the predicates of the scanner
+  // can match other combinations of the values of the tuples
+  private List<Row> scan(KuduScanner scanner, Set<List<Object>> tuples, List<String> fieldNames,
+                         KuduTable table) throws KuduException {
+    List<Row> scanned = Lists.newArrayList();
+    KuduColumnPlan.Decoder decoder = KuduColumnPlan.forTable(table).getDecoder(scanner.getProjectionSchema());
 
-  private Row resultAsRow(RowResult result, KuduTable table) throws KuduException {
-    List<Object> values = Lists.newArrayList();
-
-    for (ColumnSchema columnSchema : table.getSchema().getColumns()) {
-      String columnName = columnSchema.getName();
+    try {
+      while (scanner.hasMoreRows()) {
+        for (RowResult rowResult : scanner.nextRows()) {
+          Row existing = decoder.decode(rowResult);
 
-      if (result.isNull(columnName)) {
-        values.add(null);
-        continue;
-      }
-
-      switch (columnSchema.getType()) {
-        case DOUBLE:
-          values.add(result.getDouble(columnName));
-          break;
-        case FLOAT:
-          values.add(result.getFloat(columnName));
-          break;
-        case INT8:
-          values.add(result.getByte(columnName));
-          break;
-        case INT16:
-          values.add(result.getShort(columnName));
-          break;
-        case INT32:
-          values.add(result.getInt(columnName));
-          break;
-        case INT64:
-          values.add(result.getLong(columnName));
-          break;
-        case STRING:
-          values.add(result.getString(columnName));
-          break;
-        case BOOL:
-          values.add(result.getBoolean(columnName));
-          break;
-        case BINARY:
-          values.add(result.getBinaryCopy(columnName));
-          break;
-        case UNIXTIME_MICROS:
-          values.add(result.getTimestamp(columnName));
-          break;
-        case DECIMAL:
-          values.add(result.getDecimal(columnName));
-          break;
-        default:
-          throw new RuntimeException("Unsupported Kudu column type: " + columnSchema.getType());
+          if (tuples.contains(KuduTabletFilters.tupleOf(existing, fieldNames))) {
+            scanned.add(existing);
+          }
+        }
       }
     }
-
-    Row row = new RowWithSchema(getTableSchema(table), values.toArray());
-
-    return row;
-  }
-
-  private StructType schemaFor(KuduTable table) {
-    List<StructField> fields = Lists.newArrayList();
-
-    for (ColumnSchema columnSchema : table.getSchema().getColumns()) {
-      DataType fieldType;
-
-      switch (columnSchema.getType()) {
-        case DOUBLE:
-          fieldType = DataTypes.DoubleType;
-          break;
-        case FLOAT:
-          fieldType = DataTypes.FloatType;
-          break;
-        case INT8:
-          fieldType = DataTypes.ByteType;
-          break;
-        case INT16:
-          fieldType = DataTypes.ShortType;
-          break;
-        case INT32:
-          fieldType = DataTypes.IntegerType;
-          break;
-        case INT64:
-          fieldType = DataTypes.LongType;
-          break;
-        case STRING:
-          fieldType = DataTypes.StringType;
-          break;
-        case BOOL:
-          fieldType = DataTypes.BooleanType;
-          break;
-        case BINARY:
-          fieldType = DataTypes.BinaryType;
-          break;
-        case UNIXTIME_MICROS:
-          fieldType = DataTypes.TimestampType;
-          break;
-        case DECIMAL:
-          int precision = columnSchema.getTypeAttributes().getPrecision();
-          int scale = columnSchema.getTypeAttributes().getScale();
-          fieldType = DataTypes.createDecimalType(precision, scale);
-          break;
-        default:
-          throw new RuntimeException("Unsupported Kudu column type: " + columnSchema.getType());
-      }
-
-      fields.add(DataTypes.createStructField(columnSchema.getName(), fieldType, true));
+    finally {
+      scanner.close();
     }
 
-    return DataTypes.createStructType(fields);
+    return scanned;
   }
 
-  private KuduScanner scannerForFilters(Iterable<Row> filters, KuduTable table) throws KuduException {
+  // Scan for the exact key tuples of the filters, rather than for the cross product of the
+  // values of each key column. The tuples are grouped by the tablet that holds them, and each
+  // group is scanned with the predicates of its tuples, which Kudu prunes to the tablet of the
+  // group. Each scanner is returned with the tuples that its records are matched to.
+  private List<Tuple2<KuduScanner, Set<List<Object>>>> scannersForFilters(
+      Iterable<Row> filters, KuduTable table) throws Exception {
     List<Row> filtersList = Lists.newArrayList(filters);
 
     if (filtersList.size() == 0) {
@@ -285,38 +344,135 @@ public class KuduOutput implements RandomOutput, BulkOutput, UsesAccumulators, P
     if (filtersList.get(0).schema() == null) {
       throw new RuntimeException("Kudu existing filter did not contain a schema.");
     }
-    
+
+    List<String> filterFieldNames = Arrays.asList(filtersList.get(0).schema().fieldNames());
+    KuduTabletFilters tabletFilters =
+        KuduTabletFilters.group(filtersList, tabletLocatorFor(table, filterFieldNames));
+
+    KuduClient client = getConnection().getClient();
+    List<String> projectedColumnNames = getProjectedColumnNames(table, filterFieldNames);
+    List<Tuple2<KuduScanner, Set<List<Object>>>> scanners = Lists.newArrayList();
+
+    for (Set<List<Object>> tuples : tabletFilters.getTuplesForTablets()) {
+      KuduScanTokenBuilder builder = client.newScanTokenBuilder(table);
+
+      if (projectedColumnNames != null) {
+        builder = builder.setProjectedColumnNames(projectedColumnNames);
+      }
+
+      for (KuduPredicate predicate : tabletFilters.predicatesFor(tuples, table.getSchema())) {
+        builder = builder.addPredicate(predicate);
+      }
+
+      for (KuduScanToken token : builder.build()) {
+        scanners.add(new Tuple2<>(token.intoScanner(client), tuples));
+      }
+    }
+
     if (hasAccumulators()) {
-      accumulators.getLongAccumulators().get(ACCUMULATOR_NUMBER_OF_SCANNERS).add(1);
+      accumulators.getLongAccumulators().get(ACCUMULATOR_NUMBER_OF_SCANNERS).add(scanners.size());
       accumulators.getLongAccumulators().get(ACCUMULATOR_NUMBER_OF_FILTERS_SCANNED).add(filtersList.size());
     }
-    
-    KuduScannerBuilder builder = getConnection().getClient().newScannerBuilder(table);
 
-    for (String fieldName : filtersList.get(0).schema().fieldNames()) {
-      ColumnSchema columnSchema = table.getSchema().getColumn(fieldName);
+    return scanners;
+  }
+
+  // The tablets of the tuples can only be located when the filters contain all of the partition
+  // columns of the table
+  private KuduTabletFilters.TabletLocator tabletLocatorFor(KuduTable table, List<String> filterFieldNames)
+      throws KuduException {
+    final Schema schema = table.getSchema();
+    PartitionSchema partitionSchema = table.getPartitionSchema();
+
+    Set<Integer> partitionColumnIds = Sets.newHashSet(partitionSchema.getRangeSchema().getColumnIds());
+    for (PartitionSchema.HashBucketSchema hashBucketSchema : partitionSchema.getHashBucketSchemas()) {
+      partitionColumnIds.addAll(hashBucketSchema.getColumnIds());
+    }
+
+    final List<Integer> partitionFieldIndexes = Lists.newArrayList();
+    final List<Integer> partitionColumnIndexes = Lists.newArrayList();
+    for (int partitionColumnId : partitionColumnIds) {
+      int columnIndex = schema.getColumnIndex(partitionColumnId);
+      int fieldIndex = filterFieldNames.indexOf(schema.getColumnByIndex(columnIndex).getName());
 
-      List<Object> columnValues = Lists.newArrayList();
-      for (Row filter : filtersList) {
-        Object columnValue = filter.getAs(fieldName);
-        columnValues.add(columnValue);
+      if (fieldIndex == -1) {
+        return null;
       }
 
-      KuduPredicate predicate = KuduPredicate.newInListPredicate(columnSchema, columnValues);
+      partitionFieldIndexes.add(fieldIndex);
+      partitionColumnIndexes.add(columnIndex);
+    }
+
+    final KuduPartitioner partitioner = new KuduPartitioner.KuduPartitionerBuilder(table).build();
+
+    return new KuduTabletFilters.TabletLocator() {
+      @Override
+      public int tabletFor(List<Object> tuple) {
+        PartialRow partitionRow = schema.newPartialRow();
 
-      builder = builder.addPredicate(predicate);
+        for (int i = 0; i < partitionFieldIndexes.size(); i++) {
+          Object value = tuple.get(partitionFieldIndexes.get(i));
+
+          // A key column can not be null
+          if (value == null) {
+            return KuduTabletFilters.NO_TABLET;
+          }
+
+          KuduColumnPlan.addValue(partitionRow, partitionColumnIndexes.get(i), value);
+        }
+
+        try {
+          return partitioner.partitionRow(partitionRow);
+        }
+        catch (KuduException e) {
+          // The tuple is not covered by the range partitions of the table
+          return KuduTabletFilters.NO_TABLET;
+        }
+      }
+    };
+  }
+
+  // The projected columns always include the key columns of the filters, which are needed to
+  // map the existing records back to their keys
+  private List<String> getProjectedColumnNames(KuduTable table, List<String> filterFieldNames) {
+    if (!config.hasPath(LOOKUP_COLUMNS_CONFIG_NAME)) {
+      return null;
     }
 
-    KuduScanner scanner = builder.build();
+    Set<String> lookupColumnNames = Sets.newHashSet(config.getStringList(LOOKUP_COLUMNS_CONFIG_NAME));
+    lookupColumnNames.addAll(filterFieldNames);
+
+    // Keep the projected columns in the order of the table
+    List<String> projectedColumnNames = Lists.newArrayList();
+    for (ColumnSchema columnSchema : table.getSchema().getColumns()) {
+      if (lookupColumnNames.contains(columnSchema.getName())) {
+        projectedColumnNames.add(columnSchema.getName());
+      }
+    }
 
-    return scanner;
+    return projectedColumnNames;
   }
 
   private List<Operation> extractOperations(List<Row> planned, KuduTable table) throws Exception {
     List<Operation> operations = Lists.newArrayList();
+    KuduColumnPlan columnPlan = KuduColumnPlan.forTable(table);
+    boolean ignoreMissingColumns = KuduUtils.ignoreMissingColumns(config);
+
+    // Planned rows of a partition usually share the same schema instance
+    StructType encoderSchema = null;
+    KuduColumnPlan.Encoder encoder = null;
 
     for (Row plan : planned) {
-      MutationType mutationType = PlannerUtils.getMutationType(plan);
+      if (plan.schema() == null) {
+        throw new RuntimeException("Plan sent to Kudu output does not contain a schema");
+      }
+
+      if (plan.schema() != encoderSchema) {
+        encoderSchema = plan.schema();
+        encoder = columnPlan.getEncoder(encoderSchema, ignoreMissingColumns);
+      }
+
+      MutationType mutationType = encoder.getMutationType(plan);
 
       Operation operation = null;
 
@@ -337,83 +493,7 @@ public class KuduOutput implements RandomOutput, BulkOutput, UsesAccumulators, P
           throw new RuntimeException("Unsupported Kudu mutation type: " + mutationType.toString());
       }
 
-      PartialRow kuduRow = operation.getRow();
-
-      if (plan.schema() == null) {
-        throw new RuntimeException("Plan sent to Kudu output does not contain a schema");
-      }
-      
-      plan = PlannerUtils.removeMutationTypeField(plan);
-
-      List<String> kuduFieldNames = null;
-
-      for (StructField field : plan.schema().fields()) {
-        String fieldName = field.name();
-
-        if (KuduUtils.ignoreMissingColumns(config)) {
-          if (kuduFieldNames == null) {
-            kuduFieldNames = Lists.newArrayList();
-            for (ColumnSchema columnSchema : table.getSchema().getColumns()) {
-              kuduFieldNames.add(columnSchema.getName());
-            }
-          }
-          if (!kuduFieldNames.contains(fieldName)) {
-            continue;
-          }
-        }
-
-        ColumnSchema columnSchema = table.getSchema().getColumn(fieldName);
-
-        if (!plan.isNullAt(plan.fieldIndex(fieldName))) {
-          int fieldIndex = plan.fieldIndex(fieldName);
-          try {
-            switch (columnSchema.getType()) {
-              case DOUBLE:
-                kuduRow.addDouble(fieldName, plan.getDouble(fieldIndex));
-                break;
-              case FLOAT:
-                kuduRow.addFloat(fieldName, plan.getFloat(fieldIndex));
-                break;
-              case INT8:
-                kuduRow.addByte(fieldName, plan.getByte(fieldIndex));
-                break;
-              case INT16:
-                kuduRow.addShort(fieldName, plan.getShort(fieldIndex));
-                break;
-              case INT32:
-                kuduRow.addInt(fieldName, plan.getInt(fieldIndex));
-                break;
-              case INT64:
-                kuduRow.addLong(fieldName, plan.getLong(fieldIndex));
-                break;
-              case STRING:
-                kuduRow.addString(fieldName, plan.getString(fieldIndex));
-                break;
-              case BOOL:
-                kuduRow.addBoolean(fieldName, plan.getBoolean(fieldIndex));
-                break;
-              case BINARY:
-                kuduRow.addBinary(fieldName, plan.<byte[]>getAs(fieldIndex));
-                break;
-              case UNIXTIME_MICROS:
-                kuduRow.addTimestamp(fieldName, plan.getTimestamp(fieldIndex));
-                break;
-              case DECIMAL:
-                kuduRow.addDecimal(fieldName, plan.getDecimal(fieldIndex));
-                break;
-              default:
-                throw new RuntimeException("Unsupported Kudu column type: " + columnSchema.getType());
-            }
-          }
-          catch (ClassCastException e) {
-            throw new RuntimeException(String.format(
-                "Unexpected type found in planned row. For table '%s', field '%s', expected Kudu " +
-                    "type '%s' but found Java type '%s'. Row schema: '%s', values: %s",
-                table.getName(), fieldName, columnSchema.getType(),
-                plan.get(fieldIndex).getClass().getSimpleName(), plan.schema(), plan), e);
-          }
-        }
-      }
+      encoder.encode(plan, operation.getRow());
 
       operations.add(operation);
     }
@@ -421,21 +501,6 @@ public class KuduOutput implements RandomOutput, BulkOutput, UsesAccumulators, P
     return operations;
   }
 
-  private synchronized StructType getTableSchema(KuduTable table) throws KuduException {
-    if (tableSchemas == null) {
-      tableSchemas = Maps.newHashMap();
-    }
-
-    if (tableSchemas.containsKey(table.getName())) {
-      return tableSchemas.get(table.getName());
-    }
-    else {
-      StructType tableSchema = schemaFor(table);
-      tableSchemas.put(table.getName(), tableSchema);
-      return tableSchema;
-    }
-  }
-
   @Override
   public void applyBulkMutations(List<Tuple2<MutationType, Dataset<Row>>> planned) {
     KuduContext kc = new KuduContext(
@@ -506,7 +571,8 @@ public class KuduOutput implements RandomOutput, BulkOutput, UsesAccumulators, P
     
     return Sets.newHashSet(new AccumulatorRequest(ACCUMULATOR_NUMBER_OF_SCANNERS, Long.class),
                            new AccumulatorRequest(ACCUMULATOR_NUMBER_OF_FILTERS_SCANNED, Long.class),
-                           new AccumulatorRequest(ACCUMULATOR_SECONDS_SCANNING, Double.class));
+                           new AccumulatorRequest(ACCUMULATOR_SECONDS_SCANNING, Double.class),
+                           new AccumulatorRequest(ACCUMULATOR_NUMBER_OF_ROW_ERRORS, Long.class));
   }
 
   @Override
@@ -528,6 +594,13 @@ public class KuduOutput implements RandomOutput, BulkOutput, UsesAccumulators, P
         .mandatoryPath(TABLE_CONFIG_NAME, ConfigValueType.STRING)
         .optionalPath(INSERT_IGNORE_CONFIG_NAME, ConfigValueType.BOOLEAN)
         .optionalPath(IGNORE_MISSING_COLUMNS_CONFIG_NAME, ConfigValueType.BOOLEAN)
+        .optionalPath(WRITE_MODE_CONFIG_NAME, ConfigValueType.STRING)
+        .allowedValues(WRITE_MODE_CONFIG_NAME, WRITE_MODE_BACKGROUND, WRITE_MODE_MANUAL)
+        .optionalPath(MUTATION_BUFFER_SPACE_CONFIG_NAME, ConfigValueType.NUMBER)
+        .optionalPath(FLUSH_INTERVAL_MS_CONFIG_NAME, ConfigValueType.NUMBER)
+        .optionalPath(MAX_INFLIGHT_BATCHES_CONFIG_NAME, ConfigValueType.NUMBER)
+        .optionalPath(LOOKUP_COLUMNS_CONFIG_NAME, ConfigValueType.LIST)
+        .optionalPath(LOOKUP_PARALLELISM_CONFIG_NAME, ConfigValueType.NUMBER)
         .optionalPath(IS_SECURE_CONFIG_NAME, ConfigValueType.BOOLEAN)
         .ifPathExists(KERBEROS_PREFIX, KerberosParameterValidations.getValidations())
         .addAll(SecurityUtils.getValidations())
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kudu;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduPredicate.ComparisonOp;
+import org.apache.spark.sql.Row;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+/**
+ * The exact key tuples of the filters of a lookup of existing records, grouped by the tablet
+ * that holds the records of each tuple, so that each tablet is scanned once for all of its
+ * tuples.
+ */
+class KuduTabletFilters {
+
+  /**
+   * The tablet of tuples that can not be located, because the filters do not contain all of the
+   * partition columns of the table. These are scanned together, and Kudu prunes the tablets that
+   * can not hold any of them.
+   */
+  static final int UNKNOWN_TABLET = -1;
+
+  /**
+   * The tablet of tuples that no tablet of the table can hold, which are not scanned.
+   */
+  static final int NO_TABLET = -2;
+
+  interface TabletLocator {
+    /**
+     * @return The index of the tablet that holds the records of the key tuple, or NO_TABLET.
+     */
+    int tabletFor(List<Object> tuple) throws Exception;
+  }
+
+  private List<String> fieldNames;
+  private Map<Integer, Set<List<Object>>> tuplesForTablets = Maps.newLinkedHashMap();
+
+  private KuduTabletFilters(List<String> fieldNames) {
+    this.fieldNames = fieldNames;
+  }
+
+  /**
+   * @param locator The locator of the tablet of each tuple, or null if the tablets can not be
+   *                located from the fields of the filters.
+   */
+  static KuduTabletFilters group(List<Row> filters, TabletLocator locator) throws Exception {
+    List<String> fieldNames = Arrays.asList(filters.get(0).schema().fieldNames());
+    KuduTabletFilters tabletFilters = new KuduTabletFilters(fieldNames);
+
+    for (Row filter : filters) {
+      List<Object> tuple = tupleOf(filter, fieldNames);
+      int tablet = locator != null ? locator.tabletFor(tuple) : UNKNOWN_TABLET;
+
+      if (tablet == NO_TABLET) {
+        continue;
+      }
+
+      if (!tabletFilters.tuplesForTablets.containsKey(tablet)) {
+        tabletFilters.tuplesForTablets.put(tablet, Sets.<List<Object>>newHashSet());
+      }
+      tabletFilters.tuplesForTablets.get(tablet).add(tuple);
+    }
+
+    return tabletFilters;
+  }
+
+  static List<Object> tupleOf(Row row, List<String> fieldNames) {
+    List<Object> tuple = Lists.newArrayListWithCapacity(fieldNames.size());
+    for (String fieldName : fieldNames) {
+      tuple.add(row.getAs(fieldName));
+    }
+
+    return tuple;
+  }
+
+  List<String> getFieldNames() {
+    return fieldNames;
+  }
+
+  /**
+   * @return The key tuples of each tablet.
+   */
+  Collection<Set<List<Object>>> getTuplesForTablets() {
+    return tuplesForTablets.values();
+  }
+
+  /**
+   * The predicates that scan for the key tuples of a tablet. The values of the fields that are
+   * the same for every tuple become equality predicates, and the values of the other fields
+   * become range predicates when they are contiguous integers, or in-list predicates otherwise.
+   * Kudu uses these as the primary key bounds of the scan when the fields are the leading
+   * columns of the primary key. The predicates can match the cross product of the values of the
+   * fields, so the scanned records must still be matched to the tuples.
+   */
+  List<KuduPredicate> predicatesFor(Set<List<Object>> tuples, Schema schema) {
+    List<KuduPredicate> predicates = Lists.newArrayList();
+
+    for (int i = 0; i < fieldNames.size(); i++) {
+      Set<Object> values = Sets.newLinkedHashSet();
+      for (List<Object> tuple : tuples) {
+        values.add(tuple.get(i));
+      }
+
+      ColumnSchema columnSchema = schema.getColumn(fieldNames.get(i));
+      predicates.addAll(predicatesForValues(columnSchema, Lists.newArrayList(values)));
+    }
+
+    return predicates;
+  }
+
+  // Use a range predicate instead of an in-list predicate for contiguous integer values
+  private static List<KuduPredicate> predicatesForValues(ColumnSchema columnSchema, List<Object> values) {
+    switch (columnSchema.getType()) {
+      case INT8:
+      case INT16:
+      case INT32:
+      case INT64:
+        SortedSet<Long> longValues = Sets.newTreeSet();
+        for (Object value : values) {
+          if (value == null) {
+            return Lists.newArrayList(KuduPredicate.newInListPredicate(columnSchema, values));
+          }
+          longValues.add(((Number)value).longValue());
+        }
+
+        long lower = longValues.first();
+        long upper = longValues.last();
+        if (longValues.size() > 1 && upper - lower + 1 == longValues.size()) {
+          return Lists.newArrayList(
+              KuduPredicate.newComparisonPredicate(columnSchema, ComparisonOp.GREATER_EQUAL, lower),
+              KuduPredicate.newComparisonPredicate(columnSchema, ComparisonOp.LESS_EQUAL, upper));
+        }
+        // Otherwise the values are not contiguous, so fall through to an in-list predicate
+      default:
+        // An in-list predicate of a single value is an equality predicate
+        return Lists.newArrayList(KuduPredicate.newInListPredicate(columnSchema, values));
+    }
+  }
+
+}
@@ -25,6 +25,19 @@ class KuduUtils {
   public static final String IGNORE_MISSING_COLUMNS_CONFIG_NAME = "ignore.missing.columns";
   public static final String IS_SECURE_CONFIG_NAME = "secure";
   public static final String CREDENTIAL_ALIAS_PREFIX = "envelope.kudu.";
+  public static final String WRITE_MODE_CONFIG_NAME = "write.mode";
+  public static final String WRITE_MODE_BACKGROUND = "background";
+  public static final String WRITE_MODE_MANUAL = "manual";
+  public static final String MUTATION_BUFFER_SPACE_CONFIG_NAME = "mutation.buffer.space";
+  public static final int MUTATION_BUFFER_SPACE_DEFAULT = 10000;
+  public static final String FLUSH_INTERVAL_MS_CONFIG_NAME = "flush.interval.ms";
+  public static final int FLUSH_INTERVAL_MS_DEFAULT = 1000;
+  public static final String MAX_INFLIGHT_BATCHES_CONFIG_NAME = "max.inflight.batches";
+  public static final int MAX_INFLIGHT_BATCHES_DEFAULT = 1;
+  static final int SESSION_MUTATION_BUFFERS = 2;
+  public static final String LOOKUP_COLUMNS_CONFIG_NAME = "lookup.columns";
+  public static final String LOOKUP_PARALLELISM_CONFIG_NAME = "lookup.parallelism";
+  public static final int LOOKUP_PARALLELISM_DEFAULT = 4;
 
   /**
    * Returns whether Kudu is secured by Kerberos
@@ -53,6 +66,47 @@ class KuduUtils {
     return ConfigUtils.getOrElse(config, IGNORE_MISSING_COLUMNS_CONFIG_NAME, false);
   }
 
+  /**
+   * Returns whether mutations are flushed by the Kudu client in the background, or by Envelope
+   * each time the mutation buffer is full
+   */
+  static String getWriteMode(Config config) {
+    return ConfigUtils.getOrElse(config, WRITE_MODE_CONFIG_NAME, WRITE_MODE_BACKGROUND);
+  }
+
+  /**
+   * Returns the maximum number of operations that are buffered before they are flushed to Kudu
+   */
+  static int getMutationBufferSpace(Config config) {
+    return ConfigUtils.getOrElse(config, MUTATION_BUFFER_SPACE_CONFIG_NAME, MUTATION_BUFFER_SPACE_DEFAULT);
+  }
+
+  /**
+   * Returns the maximum time in milliseconds that operations are buffered in the background
+   * write mode before they are flushed to Kudu
+   */
+  static int getFlushIntervalMs(Config config) {
+    return ConfigUtils.getOrElse(config, FLUSH_INTERVAL_MS_CONFIG_NAME, FLUSH_INTERVAL_MS_DEFAULT);
+  }
+
+  /**
+   * Returns the maximum number of flushed batches of operations that can be waiting on Kudu in
+   * the manual write mode, which is at most the number of mutation buffers of a Kudu session
+   */
+  static int getMaxInflightBatches(Config config) {
+    int maxInflightBatches =
+        ConfigUtils.getOrElse(config, MAX_INFLIGHT_BATCHES_CONFIG_NAME, MAX_INFLIGHT_BATCHES_DEFAULT);
+
+    return Math.max(1, Math.min(maxInflightBatches, SESSION_MUTATION_BUFFERS));
+  }
+
+  /**
+   * Returns the maximum number of tablet scanners that retrieve existing records in parallel
+   */
+  static int getLookupParallelism(Config config) {
+    return ConfigUtils.getOrElse(config, LOOKUP_PARALLELISM_CONFIG_NAME, LOOKUP_PARALLELISM_DEFAULT);
+  }
+
   /**
    * Builds a unique alias for the supplied Kudu masters. The same Kudu masters will produce the
    * same alias.
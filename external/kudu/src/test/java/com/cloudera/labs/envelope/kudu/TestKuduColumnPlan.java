@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kudu;
+
+import com.cloudera.labs.envelope.plan.MutationType;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.google.common.collect.Lists;
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.integration.junit4.JMockit;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.ColumnTypeAttributes;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduTable;
+import org.apache.kudu.client.PartialRow;
+import org.apache.kudu.client.RowResult;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(JMockit.class)
+public class TestKuduColumnPlan {
+
+  private static final Schema SCHEMA = new Schema(Lists.newArrayList(
+      new ColumnSchema.ColumnSchemaBuilder("id", Type.INT32).key(true).build(),
+      nullableColumn("double", Type.DOUBLE),
+      nullableColumn("float", Type.FLOAT),
+      nullableColumn("byte", Type.INT8),
+      nullableColumn("short", Type.INT16),
+      nullableColumn("long", Type.INT64),
+      nullableColumn("string", Type.STRING),
+      nullableColumn("boolean", Type.BOOL),
+      nullableColumn("binary", Type.BINARY),
+      nullableColumn("timestamp", Type.UNIXTIME_MICROS),
+      new ColumnSchema.ColumnSchemaBuilder("decimal", Type.DECIMAL).nullable(true)
+          .typeAttributes(new ColumnTypeAttributes.ColumnTypeAttributesBuilder().precision(10).scale(2).build())
+          .build()));
+
+  // The fields are in a different order than the columns of the table
+  private static final StructType PLAN_SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+      DataTypes.createStructField(MutationType.MUTATION_TYPE_FIELD_NAME, DataTypes.StringType, false),
+      DataTypes.createStructField("decimal", DataTypes.createDecimalType(10, 2), true),
+      DataTypes.createStructField("timestamp", DataTypes.TimestampType, true),
+      DataTypes.createStructField("binary", DataTypes.BinaryType, true),
+      DataTypes.createStructField("boolean", DataTypes.BooleanType, true),
+      DataTypes.createStructField("string", DataTypes.StringType, true),
+      DataTypes.createStructField("long", DataTypes.LongType, true),
+      DataTypes.createStructField("short", DataTypes.ShortType, true),
+      DataTypes.createStructField("byte", DataTypes.ByteType, true),
+      DataTypes.createStructField("float", DataTypes.FloatType, true),
+      DataTypes.createStructField("double", DataTypes.DoubleType, true),
+      DataTypes.createStructField("id", DataTypes.IntegerType, false)));
+
+  @Mocked KuduTable table;
+  @Mocked RowResult rowResult;
+
+  private PartialRow kuduRow;
+
+  @Before
+  public void before() {
+    kuduRow = SCHEMA.newPartialRow();
+
+    new Expectations() {{
+      table.getSchema(); result = SCHEMA; minTimes = 0;
+      table.getName(); result = "test"; minTimes = 0;
+    }};
+  }
+
+  @Test
+  public void testRoundTrip() {
+    Timestamp timestamp = new Timestamp(1500000000123L);
+    Row plan = new RowWithSchema(PLAN_SCHEMA, MutationType.UPSERT.toString(), new BigDecimal("12345678.90"),
+        timestamp, new byte[] {1, 2, 3}, true, "hello", 10000000000L, (short)1000, (byte)100, 1.5f, 2.5d, 1);
+
+    KuduColumnPlan.Encoder encoder = KuduColumnPlan.forTable(table).getEncoder(PLAN_SCHEMA, false);
+    assertEquals(MutationType.UPSERT, encoder.getMutationType(plan));
+    encoder.encode(plan, kuduRow);
+
+    Row decoded = decode();
+    assertEquals(1, decoded.getInt(0));
+    assertEquals(2.5d, decoded.getDouble(1), 0);
+    assertEquals(1.5f, decoded.getFloat(2), 0);
+    assertEquals((byte)100, decoded.getByte(3));
+    assertEquals((short)1000, decoded.getShort(4));
+    assertEquals(10000000000L, decoded.getLong(5));
+    assertEquals("hello", decoded.getString(6));
+    assertTrue(decoded.getBoolean(7));
+    assertArrayEquals(new byte[] {1, 2, 3}, (byte[])decoded.get(8));
+    assertEquals(timestamp, decoded.getTimestamp(9));
+    assertEquals(new BigDecimal("12345678.90"), decoded.getDecimal(10));
+  }
+
+  @Test
+  public void testRoundTripNulls() {
+    Row plan = new RowWithSchema(PLAN_SCHEMA, MutationType.INSERT.toString(),
+        null, null, null, null, null, null, null, null, null, null, 1);
+
+    KuduColumnPlan.forTable(table).getEncoder(PLAN_SCHEMA, false).encode(plan, kuduRow);
+
+    Row decoded = decode();
+    assertEquals(1, decoded.getInt(0));
+    for (int i = 1; i < decoded.length(); i++) {
+      assertNull(decoded.get(i));
+    }
+  }
+
+  @Test
+  public void testDecodedSchema() {
+    StructType schema = KuduColumnPlan.schemaFor(SCHEMA);
+
+    assertEquals(SCHEMA.getColumnCount(), schema.fields().length);
+    assertEquals(DataTypes.IntegerType, schema.fields()[0].dataType());
+    assertEquals(DataTypes.TimestampType, schema.fields()[9].dataType());
+    assertEquals(DataTypes.createDecimalType(10, 2), schema.fields()[10].dataType());
+  }
+
+  @Test
+  public void testMissingColumn() {
+    StructType planSchema = PLAN_SCHEMA.add("missing", DataTypes.StringType);
+
+    try {
+      KuduColumnPlan.forTable(table).getEncoder(planSchema, false);
+      fail("Expected the missing column to be rejected");
+    }
+    catch (IllegalArgumentException e) {
+      // Expected
+    }
+
+    Row plan = new RowWithSchema(planSchema, MutationType.INSERT.toString(),
+        null, null, null, null, null, null, null, null, null, null, 1, "ignored");
+    KuduColumnPlan.forTable(table).getEncoder(planSchema, true).encode(plan, kuduRow);
+    assertEquals(1, decode().getInt(0));
+  }
+
+  @Test
+  public void testUnexpectedType() {
+    Row plan = new RowWithSchema(PLAN_SCHEMA, MutationType.INSERT.toString(),
+        null, null, null, null, null, null, null, null, null, null, "1");
+
+    try {
+      KuduColumnPlan.forTable(table).getEncoder(PLAN_SCHEMA, false).encode(plan, kuduRow);
+      fail("Expected the unexpected type to be rejected");
+    }
+    catch (RuntimeException e) {
+      assertTrue(e.getMessage().contains("field 'id'"));
+    }
+  }
+
+  private static ColumnSchema nullableColumn(String name, Type type) {
+    return new ColumnSchema.ColumnSchemaBuilder(name, type).nullable(true).build();
+  }
+
+  // The row result returns the values that were encoded into the partial row, where the columns
+  // that were not set are null
+  private Row decode() {
+    new Expectations() {{
+      rowResult.isNull(anyInt); result = new Delegate<Boolean>() {
+        @SuppressWarnings("unused")
+        boolean isNull(int i) {
+          return !kuduRow.isSet(i) || kuduRow.isNull(i);
+        }
+      };
+      rowResult.getDouble(anyInt); result = new Delegate<Double>() {
+        @SuppressWarnings("unused")
+        double getDouble(int i) { return kuduRow.getDouble(i); }
+      }; minTimes = 0;
+      rowResult.getFloat(anyInt); result = new Delegate<Float>() {
+        @SuppressWarnings("unused")
+        float getFloat(int i) { return kuduRow.getFloat(i); }
+      }; minTimes = 0;
+      rowResult.getByte(anyInt); result = new Delegate<Byte>() {
+        @SuppressWarnings("unused")
+        byte getByte(int i) { return kuduRow.getByte(i); }
+      }; minTimes = 0;
+      rowResult.getShort(anyInt); result = new Delegate<Short>() {
+        @SuppressWarnings("unused")
+        short getShort(int i) { return kuduRow.getShort(i); }
+      }; minTimes = 0;
+      rowResult.getInt(anyInt); result = new Delegate<Integer>() {
+        @SuppressWarnings("unused")
+        int getInt(int i) { return kuduRow.getInt(i); }
+      }; minTimes = 0;
+      rowResult.getLong(anyInt); result = new Delegate<Long>() {
+        @SuppressWarnings("unused")
+        long getLong(int i) { return kuduRow.getLong(i); }
+      }; minTimes = 0;
+      rowResult.getString(anyInt); result = new Delegate<String>() {
+        @SuppressWarnings("unused")
+        String getString(int i) { return kuduRow.getString(i); }
+      }; minTimes = 0;
+      rowResult.getBoolean(anyInt); result = new Delegate<Boolean>() {
+        @SuppressWarnings("unused")
+        boolean getBoolean(int i) { return kuduRow.getBoolean(i); }
+      }; minTimes = 0;
+      rowResult.getBinaryCopy(anyInt); result = new Delegate<byte[]>() {
+        @SuppressWarnings("unused")
+        byte[] getBinaryCopy(int i) { return kuduRow.getBinaryCopy(i); }
+      }; minTimes = 0;
+      rowResult.getTimestamp(anyInt); result = new Delegate<Timestamp>() {
+        @SuppressWarnings("unused")
+        Timestamp getTimestamp(int i) { return kuduRow.getTimestamp(i); }
+      }; minTimes = 0;
+      rowResult.getDecimal(anyInt); result = new Delegate<BigDecimal>() {
+        @SuppressWarnings("unused")
+        BigDecimal getDecimal(int i) { return kuduRow.getDecimal(i); }
+      }; minTimes = 0;
+    }};
+
+    return KuduColumnPlan.forTable(table).getDecoder(SCHEMA).decode(rowResult);
+  }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kudu;
+
+import com.google.common.collect.Lists;
+import com.stumbleupon.async.Deferred;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.Verifications;
+import mockit.integration.junit4.JMockit;
+import org.apache.kudu.client.AsyncKuduSession;
+import org.apache.kudu.client.Operation;
+import org.apache.kudu.client.OperationResponse;
+import org.apache.kudu.client.PleaseThrottleException;
+import org.apache.kudu.client.RowError;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JMockit.class)
+public class TestKuduOutput {
+
+  @Test
+  public void testManualFlushPipelined(@Mocked final AsyncKuduSession session,
+                                       @Mocked final Operation operation) throws Exception {
+    new Expectations() {{
+      session.flush(); result = flushed();
+    }};
+
+    KuduOutput output = manualOutput(2, 2);
+    output.applyWithManualFlush(
+        Lists.newArrayList(operation, operation, operation, operation, operation), session);
+
+    new Verifications() {{
+      session.apply(operation); times = 5;
+      session.flush(); times = 3;
+    }};
+  }
+
+  @Test
+  public void testManualFlushWaitsWhenThrottled(@Mocked final AsyncKuduSession session,
+                                                @Mocked final Operation operation,
+                                                @Mocked final PleaseThrottleException throttle)
+      throws Exception {
+    new Expectations() {{
+      session.apply(operation); result = throttle; result = null;
+      throttle.getDeferred(); result = Deferred.fromResult(null);
+      session.flush(); result = flushed();
+    }};
+
+    KuduOutput output = manualOutput(1, 2);
+    output.applyWithManualFlush(Lists.newArrayList(operation, operation), session);
+
+    new Verifications() {{
+      throttle.getDeferred(); times = 1;
+      session.apply(operation); times = 3;
+      session.flush(); times = 2;
+    }};
+  }
+
+  @Test (expected = RuntimeException.class)
+  public void testManualFlushRowErrors(@Mocked final AsyncKuduSession session,
+                                       @Mocked final Operation operation,
+                                       @Mocked final OperationResponse response,
+                                       @Mocked final RowError rowError) throws Exception {
+    new Expectations() {{
+      response.hasRowError(); result = true;
+      response.getRowError(); result = rowError;
+      rowError.getTsUUID(); result = "tserver";
+      session.flush(); result = Deferred.<List<OperationResponse>>fromResult(Lists.newArrayList(response));
+    }};
+
+    manualOutput(2, 2).applyWithManualFlush(Lists.newArrayList(operation, operation, operation), session);
+  }
+
+  @Test
+  public void testMaxInflightBatchesLimitedToSessionBuffers() {
+    assertEquals(1, KuduUtils.getMaxInflightBatches(ConfigFactory.empty()));
+    assertEquals(2, KuduUtils.getMaxInflightBatches(
+        ConfigFactory.parseString(KuduUtils.MAX_INFLIGHT_BATCHES_CONFIG_NAME + " = 5")));
+  }
+
+  private KuduOutput manualOutput(int mutationBufferSpace, int maxInflightBatches) {
+    Config config = ConfigFactory.parseString(
+        KuduUtils.WRITE_MODE_CONFIG_NAME + " = " + KuduUtils.WRITE_MODE_MANUAL + "\n" +
+        KuduUtils.MUTATION_BUFFER_SPACE_CONFIG_NAME + " = " + mutationBufferSpace + "\n" +
+        KuduUtils.MAX_INFLIGHT_BATCHES_CONFIG_NAME + " = " + maxInflightBatches);
+
+    KuduOutput output = new KuduOutput();
+    output.configure(config);
+
+    return output;
+  }
+
+  private static Deferred<List<OperationResponse>> flushed() {
+    return Deferred.<List<OperationResponse>>fromResult(Lists.<OperationResponse>newArrayList());
+  }
+
+}
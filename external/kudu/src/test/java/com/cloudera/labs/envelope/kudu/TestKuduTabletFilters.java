@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.kudu;
+
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.kudu.ColumnSchema;
+import org.apache.kudu.Schema;
+import org.apache.kudu.Type;
+import org.apache.kudu.client.KuduPredicate;
+import org.apache.kudu.client.KuduPredicate.ComparisonOp;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestKuduTabletFilters {
+
+  private static final ColumnSchema REGION_COLUMN =
+      new ColumnSchema.ColumnSchemaBuilder("region", Type.STRING).key(true).build();
+  private static final ColumnSchema ID_COLUMN =
+      new ColumnSchema.ColumnSchemaBuilder("id", Type.INT64).key(true).build();
+  private static final Schema SCHEMA = new Schema(Lists.newArrayList(REGION_COLUMN, ID_COLUMN,
+      new ColumnSchema.ColumnSchemaBuilder("value", Type.STRING).nullable(true).build()));
+
+  private static final StructType FILTER_SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+      DataTypes.createStructField("region", DataTypes.StringType, false),
+      DataTypes.createStructField("id", DataTypes.LongType, false)));
+
+  // Region 'a' is in the first tablet, 'b' in the second, and no tablet covers 'z'
+  private static final KuduTabletFilters.TabletLocator REGION_LOCATOR = new KuduTabletFilters.TabletLocator() {
+    @Override
+    public int tabletFor(List<Object> tuple) {
+      String region = (String)tuple.get(0);
+      return region.equals("a") ? 0 : region.equals("b") ? 1 : KuduTabletFilters.NO_TABLET;
+    }
+  };
+
+  @Test
+  public void testGroupByTablet() throws Exception {
+    KuduTabletFilters tabletFilters = KuduTabletFilters.group(filters(), REGION_LOCATOR);
+
+    assertEquals(Lists.newArrayList("region", "id"), tabletFilters.getFieldNames());
+    assertEquals(2, tabletFilters.getTuplesForTablets().size());
+
+    Iterator<Set<List<Object>>> tablets = tabletFilters.getTuplesForTablets().iterator();
+    assertEquals(Sets.<List<Object>>newHashSet(tuple("a", 1L), tuple("a", 2L), tuple("a", 3L)), tablets.next());
+    assertEquals(Sets.<List<Object>>newHashSet(tuple("b", 5L), tuple("b", 9L)), tablets.next());
+  }
+
+  @Test
+  public void testPrefixFiltersAreNotLocated() throws Exception {
+    KuduTabletFilters tabletFilters = KuduTabletFilters.group(filters(), null);
+
+    assertEquals(1, tabletFilters.getTuplesForTablets().size());
+    assertEquals(6, tabletFilters.getTuplesForTablets().iterator().next().size());
+  }
+
+  @Test
+  public void testContiguousValuesAreBounds() throws Exception {
+    KuduTabletFilters tabletFilters = KuduTabletFilters.group(filters(), REGION_LOCATOR);
+    Set<List<Object>> firstTablet = tabletFilters.getTuplesForTablets().iterator().next();
+
+    List<KuduPredicate> predicates = tabletFilters.predicatesFor(firstTablet, SCHEMA);
+
+    assertEquals(Lists.newArrayList(
+        KuduPredicate.newInListPredicate(REGION_COLUMN, Lists.newArrayList("a")),
+        KuduPredicate.newComparisonPredicate(ID_COLUMN, ComparisonOp.GREATER_EQUAL, 1L),
+        KuduPredicate.newComparisonPredicate(ID_COLUMN, ComparisonOp.LESS_EQUAL, 3L)), predicates);
+  }
+
+  @Test
+  public void testNonContiguousValuesAreInList() throws Exception {
+    KuduTabletFilters tabletFilters = KuduTabletFilters.group(filters(), REGION_LOCATOR);
+    Iterator<Set<List<Object>>> tablets = tabletFilters.getTuplesForTablets().iterator();
+    tablets.next();
+
+    List<KuduPredicate> predicates = tabletFilters.predicatesFor(tablets.next(), SCHEMA);
+
+    assertEquals(2, predicates.size());
+    assertEquals(KuduPredicate.newInListPredicate(REGION_COLUMN, Lists.newArrayList("b")), predicates.get(0));
+    assertEquals(KuduPredicate.newInListPredicate(ID_COLUMN, Lists.newArrayList(5L, 9L)), predicates.get(1));
+  }
+
+  @Test
+  public void testTuplesAreExact() throws Exception {
+    List<Row> filters = Lists.<Row>newArrayList(
+        new RowWithSchema(FILTER_SCHEMA, "a", 1L), new RowWithSchema(FILTER_SCHEMA, "b", 2L));
+    KuduTabletFilters tabletFilters = KuduTabletFilters.group(filters, null);
+    Set<List<Object>> tuples = tabletFilters.getTuplesForTablets().iterator().next();
+
+    // The predicates match the cross product of the values, but only the tuples are kept
+    assertEquals(3, tabletFilters.predicatesFor(tuples, SCHEMA).size());
+    assertTrue(tuples.contains(KuduTabletFilters.tupleOf(
+        new RowWithSchema(FILTER_SCHEMA, "b", 2L), tabletFilters.getFieldNames())));
+    assertFalse(tuples.contains(KuduTabletFilters.tupleOf(
+        new RowWithSchema(FILTER_SCHEMA, "a", 2L), tabletFilters.getFieldNames())));
+  }
+
+  private List<Row> filters() {
+    return Lists.<Row>newArrayList(
+        new RowWithSchema(FILTER_SCHEMA, "a", 1L),
+        new RowWithSchema(FILTER_SCHEMA, "a", 2L),
+        new RowWithSchema(FILTER_SCHEMA, "a", 3L),
+        new RowWithSchema(FILTER_SCHEMA, "b", 5L),
+        new RowWithSchema(FILTER_SCHEMA, "b", 9L),
+        new RowWithSchema(FILTER_SCHEMA, "z", 1L));
+  }
+
+  private List<Object> tuple(Object... values) {
+    return Lists.newArrayList(values);
+  }
+
+}
@@ -20,6 +20,9 @@ import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -32,6 +35,10 @@ public class ZooKeeperConnection implements Watcher {
   private int sessionTimeoutMs;
   private int connectionTimeoutMs;
 
+  // The znodes that are known to exist, so that they do not have to be checked before writing
+  private final Set<String> knownZnodes =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
   public static final String CONNECTION_CONFIG = "connection";
 
   private static final int DEFAULT_SESSION_TIMEOUT_MS = 1000;
@@ -62,6 +69,7 @@ public class ZooKeeperConnection implements Watcher {
     if (zk == null || zk.getState() != ZooKeeper.States.CONNECTED) {
       latch = new CountDownLatch(1);
       zk = new ZooKeeper(connection, sessionTimeoutMs, this);
+      knownZnodes.clear();
 
       boolean done = latch.await(connectionTimeoutMs, TimeUnit.MILLISECONDS);
       if (!done) {
@@ -73,4 +81,23 @@ public class ZooKeeperConnection implements Watcher {
     return zk;
   }
 
+  public boolean isKnownZnode(String znode) {
+    return knownZnodes.contains(znode);
+  }
+
+  public void addKnownZnode(String znode) {
+    knownZnodes.add(znode);
+  }
+
+  public void removeKnownZnode(String znode) {
+    knownZnodes.remove(znode);
+  }
+
+  /**
+   * Forgets the known znodes, for when they might have been changed by another client.
+   */
+  public void clearKnownZnodes() {
+    knownZnodes.clear();
+  }
+
 }
@@ -30,6 +30,7 @@ import com.cloudera.labs.envelope.validate.ProvidesValidations;
 import com.cloudera.labs.envelope.validate.Validations;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigValueType;
@@ -38,15 +39,21 @@ import org.apache.spark.sql.types.DataType;
 import org.apache.spark.sql.types.DataTypes;
 import org.apache.spark.sql.types.StructField;
 import org.apache.spark.sql.types.StructType;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
 import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.regex.Pattern;
 
 public class ZooKeeperOutput implements RandomOutput, ProvidesAlias, ProvidesValidations,
@@ -59,6 +66,8 @@ public class ZooKeeperOutput implements RandomOutput, ProvidesAlias, ProvidesVal
   public static final String SCHEMA_CONFIG = "schema"; 
  
   private static final String DEFAULT_ZNODE_PREFIX = "/envelope";
+  // Keeps the transactions well within the maximum request size of ZooKeeper
+  private static final int MUTATIONS_PER_TRANSACTION = 100;
 
   private static final List<DataType> supportedTypes = Arrays.asList(
       DataTypes.StringType, DataTypes.FloatType, DataTypes.DoubleType, DataTypes.IntegerType,
@@ -116,6 +125,24 @@ public class ZooKeeperOutput implements RandomOutput, ProvidesAlias, ProvidesVal
       throw new RuntimeException("Could not connect to ZooKeeper output", e);
     }
     
+    for (List<Row> transaction : Lists.partition(planned, MUTATIONS_PER_TRANSACTION)) {
+      try {
+        applyTransaction(zk, transaction);
+      }
+      catch (KeeperException.NoNodeException | KeeperException.NodeExistsException e) {
+        // The known znodes might have been changed by another client, so check them again
+        connection.clearKnownZnodes();
+        applyTransaction(zk, transaction);
+      }
+    }
+  }
+
+  // Applies the mutations in one round trip, which either applies all of them or none of them
+  private void applyTransaction(ZooKeeper zk, List<Row> planned) throws Exception {
+    List<Op> ops = Lists.newArrayList();
+    // Whether the znodes that the transaction creates or deletes will exist after it
+    Map<String, Boolean> pendingZnodes = Maps.newHashMap();
+    
     for (Row plan : planned) {
       if (plan.schema() == null) {
         throw new RuntimeException("Mutation row provided to ZooKeeper output must contain a schema");
@@ -130,16 +157,36 @@ public class ZooKeeperOutput implements RandomOutput, ProvidesAlias, ProvidesVal
       
       switch (mutationType) {
         case DELETE:
-          zk.delete(znode, -1);
+          ops.add(Op.delete(znode, -1));
+          pendingZnodes.put(znode, false);
           break;
         case UPSERT:
-          prepareZnode(zk, znode);
-          zk.setData(znode, value, -1);
+          prepareZnode(zk, znode, ops, pendingZnodes);
+          if (znodeExists(zk, znode, pendingZnodes)) {
+            ops.add(Op.setData(znode, value, -1));
+          }
+          else {
+            ops.add(Op.create(znode, value, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+            pendingZnodes.put(znode, true);
+          }
           break;
         default:
           throw new RuntimeException("ZooKeeper output does not support mutation type: " + PlannerUtils.getMutationType(plan));
       }
     }
+
+    if (!ops.isEmpty()) {
+      zk.multi(ops);
+    }
+
+    for (Map.Entry<String, Boolean> pendingZnode : pendingZnodes.entrySet()) {
+      if (pendingZnode.getValue()) {
+        connection.addKnownZnode(pendingZnode.getKey());
+      }
+      else {
+        connection.removeKnownZnode(pendingZnode.getKey());
+      }
+    }
   }
 
   @Override
@@ -151,22 +198,27 @@ public class ZooKeeperOutput implements RandomOutput, ProvidesAlias, ProvidesVal
       throw new RuntimeException("Could not connect to ZooKeeper output", e);
     }
     
+    List<String> znodes = Lists.newArrayList();
+    List<Row> znodeFilters = Lists.newArrayList();
+    for (Row filter : filters) {
+      for (String znode : znodesForFilter(zk, filter)) {
+        znodes.add(znode);
+        znodeFilters.add(filter);
+      }
+    }
+    
+    List<byte[]> znodeData = getData(zk, znodes);
+    
     Set<Row> existing = Sets.newHashSet();
     
-    for (Row filter : filters) {
-      List<String> znodes = znodesForFilter(zk, filter);
+    for (int i = 0; i < znodes.size(); i++) {
+      byte[] serialized = znodeData.get(i);
       
-      for (String znode : znodes) {
-        if (zk.exists(znode, false) != null) {
-          byte[] serialized = zk.getData(znode, false, null);
-          
-          if (serialized.length > 0) {
-            Row existingRow = toFullRow(znode, serialized);
-            
-            if (matchesValueFilter(existingRow, filter)) {
-              existing.add(existingRow);
-            }
-          }
+      if (serialized != null && serialized.length > 0) {
+        Row existingRow = toFullRow(znodes.get(i), serialized);
+        
+        if (matchesValueFilter(existingRow, znodeFilters.get(i))) {
+          existing.add(existingRow);
         }
       }
     }
@@ -174,19 +226,70 @@ public class ZooKeeperOutput implements RandomOutput, ProvidesAlias, ProvidesVal
     return existing;
   }
   
-  private void prepareZnode(ZooKeeper zk, String znode) throws KeeperException, InterruptedException {
-    String[] znodeParts = znode.split(Pattern.quote("/"));
+  // Requests the data of all of the znodes before waiting for any of it, so that the requests are
+  // pipelined on the connection instead of each waiting for the previous one. The data of znodes
+  // that do not exist is null.
+  private List<byte[]> getData(ZooKeeper zk, List<String> znodes)
+      throws KeeperException, InterruptedException {
+    final byte[][] data = new byte[znodes.size()][];
+    final int[] resultCodes = new int[znodes.size()];
+    final CountDownLatch latch = new CountDownLatch(znodes.size());
     
-    String znodePrefix = "";
-    for (String znodePart : znodeParts) {
-      if (znodePart.length() > 0) {
-        znodePrefix += "/" + znodePart;
-        
-        if (zk.exists(znodePrefix, false) == null) {
-          zk.create(znodePrefix, null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
-        }
+    DataCallback callback = new DataCallback() {
+      @Override
+      public void processResult(int rc, String path, Object ctx, byte[] bytes, Stat stat) {
+        int index = (Integer)ctx;
+        resultCodes[index] = rc;
+        data[index] = bytes;
+        latch.countDown();
       }
+    };
+    for (int i = 0; i < znodes.size(); i++) {
+      zk.getData(znodes.get(i), false, callback, i);
     }
+    latch.await();
+    
+    for (int i = 0; i < znodes.size(); i++) {
+      Code resultCode = Code.get(resultCodes[i]);
+      if (resultCode == Code.NONODE) {
+        data[i] = null;
+      }
+      else if (resultCode != Code.OK) {
+        throw KeeperException.create(resultCode, znodes.get(i));
+      }
+    }
+    
+    return Arrays.asList(data);
+  }
+  
+  // Adds the creation of the parent znodes of the znode that do not exist yet to the transaction
+  private void prepareZnode(ZooKeeper zk, String znode, List<Op> ops,
+                            Map<String, Boolean> pendingZnodes)
+      throws KeeperException, InterruptedException {
+    for (int end = znode.indexOf('/', 1); end != -1; end = znode.indexOf('/', end + 1)) {
+      String parent = znode.substring(0, end);
+      
+      if (!znodeExists(zk, parent, pendingZnodes)) {
+        ops.add(Op.create(parent, null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+        pendingZnodes.put(parent, true);
+      }
+    }
+  }
+  
+  private boolean znodeExists(ZooKeeper zk, String znode, Map<String, Boolean> pendingZnodes)
+      throws KeeperException, InterruptedException {
+    if (pendingZnodes.containsKey(znode)) {
+      return pendingZnodes.get(znode);
+    }
+    if (connection.isKnownZnode(znode)) {
+      return true;
+    }
+    if (zk.exists(znode, false) != null) {
+      connection.addKnownZnode(znode);
+      return true;
+    }
+    
+    return false;
   }
   
   private List<String> znodesForFilter(ZooKeeper zk, Row filter) throws KeeperException, InterruptedException {
@@ -197,8 +300,6 @@ public class ZooKeeperOutput implements RandomOutput, ProvidesAlias, ProvidesVal
     List<String> filterFieldNames = Lists.newArrayList(filter.schema().fieldNames());
     List<String> currentPaths = Lists.newArrayList(znodePrefix);
     
-    prepareZnode(zk, znodePrefix);
-    
     for (String keyFieldName : keyFieldNames) {
       List<String> nextPaths = Lists.newArrayList();
       
@@ -127,6 +127,52 @@ public class TestZooKeeperOutput implements Watcher {
     assertEquals(rows.get(0), row2);
   }
   
+  @Test
+  public void testUpsertsAfterDeletesByAnotherClient() throws Exception {
+    truncate();
+
+    ZooKeeperOutput zkOutput = new ZooKeeperOutput();
+    assertNoValidationFailures(zkOutput, config);
+    zkOutput.configure(config);
+    
+    Row row1 = new RowWithSchema(schema, "hello", 100, 1000L, true, 1.0f, -1.0);
+    Row row2 = new RowWithSchema(schema, "hello", 100, 1000L, false, -1.0f, 1.0);
+    zkOutput.applyRandomMutations(Lists.newArrayList(PlannerUtils.setMutationType(row1, MutationType.UPSERT)));
+    
+    // The output still knows the znode of the row after another client deleted it
+    truncate();
+    zkOutput.applyRandomMutations(Lists.newArrayList(PlannerUtils.setMutationType(row2, MutationType.UPSERT)));
+
+    Row filter = new RowWithSchema(keySchema, "hello", 100, 1000L);
+    List<Row> rows = Lists.newArrayList(zkOutput.getExistingForFilters(Lists.newArrayList(filter)));
+    
+    assertEquals(rows.size(), 1);
+    assertEquals(rows.get(0), row2);
+  }
+  
+  @Test
+  public void testDeleteAndUpsertInOneTransaction() throws Exception {
+    truncate();
+
+    ZooKeeperOutput zkOutput = new ZooKeeperOutput();
+    assertNoValidationFailures(zkOutput, config);
+    zkOutput.configure(config);
+    
+    Row row1 = new RowWithSchema(schema, "hello", 100, 1000L, true, 1.0f, -1.0);
+    Row row2 = new RowWithSchema(schema, "hello", 100, 1000L, false, -1.0f, 1.0);
+    zkOutput.applyRandomMutations(Lists.newArrayList(PlannerUtils.setMutationType(row1, MutationType.UPSERT)));
+    
+    Row delete = new RowWithSchema(keySchema, "hello", 100, 1000L);
+    List<Row> plan = Lists.newArrayList(
+        PlannerUtils.setMutationType(delete, MutationType.DELETE), PlannerUtils.setMutationType(row2, MutationType.UPSERT));
+    zkOutput.applyRandomMutations(plan);
+
+    List<Row> rows = Lists.newArrayList(zkOutput.getExistingForFilters(Lists.newArrayList(delete)));
+    
+    assertEquals(rows.size(), 1);
+    assertEquals(rows.get(0), row2);
+  }
+  
   @Test
   public void getByFullKey() throws Exception {
     truncate();
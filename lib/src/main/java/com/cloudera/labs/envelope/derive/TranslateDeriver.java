@@ -16,6 +16,7 @@
 package com.cloudera.labs.envelope.derive;
 
 import com.cloudera.labs.envelope.component.CanReturnErroredData;
+import com.cloudera.labs.envelope.component.CanUnpersistData;
 import com.cloudera.labs.envelope.component.ComponentFactory;
 import com.cloudera.labs.envelope.component.InstantiatedComponent;
 import com.cloudera.labs.envelope.component.InstantiatesComponents;
@@ -46,7 +47,7 @@ import java.util.Map;
 import java.util.Set;
 
 public class TranslateDeriver implements Deriver, ProvidesAlias, ProvidesValidations,
-    InstantiatesComponents, CanReturnErroredData {
+    InstantiatesComponents, CanReturnErroredData, CanUnpersistData {
 
   public static final String STEP_CONFIG = "step";
   public static final String FIELD_CONFIG = "field";
@@ -56,6 +57,7 @@ public class TranslateDeriver implements Deriver, ProvidesAlias, ProvidesValidat
   private String fieldName;
   private Config translatorConfig;
   private Dataset<Row> errored;
+  private TranslationResults translationResults;
 
   @Override
   public void configure(Config config) {
@@ -74,8 +76,10 @@ public class TranslateDeriver implements Deriver, ProvidesAlias, ProvidesValidat
     JavaRDD<Row> translation = step.javaRDD().flatMap(
         new DeriverTranslateFunction(fieldName, translatorConfig));
 
-    TranslationResults translationResults = new TranslationResults(
-        translation, translatedSchema, step.schema());
+    // The translation is persisted until the batch has finished, and the translation of a
+    // previous derivation, such as in a previous micro-batch, is unpersisted
+    unpersistData();
+    translationResults = new TranslationResults(translation, translatedSchema, step.schema());
 
     errored = translationResults.getErrored();
 
@@ -142,6 +146,14 @@ public class TranslateDeriver implements Deriver, ProvidesAlias, ProvidesValidat
     return errored;
   }
 
+  @Override
+  public void unpersistData() {
+    if (translationResults != null) {
+      translationResults.unpersist();
+      translationResults = null;
+    }
+  }
+
   private static class DeriverTranslateFunction implements FlatMapFunction<Row, Row> {
     private String fieldName;
     private Config translatorConfig;
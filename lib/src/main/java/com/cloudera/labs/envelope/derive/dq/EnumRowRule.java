@@ -17,6 +17,7 @@ package com.cloudera.labs.envelope.derive.dq;
 
 import com.cloudera.labs.envelope.component.ProvidesAlias;
 import com.cloudera.labs.envelope.schema.ConfigurationDataTypes;
+import com.cloudera.labs.envelope.spark.FieldIndexes;
 import com.cloudera.labs.envelope.utils.ConfigUtils;
 import com.cloudera.labs.envelope.utils.RowUtils;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
@@ -40,7 +41,7 @@ public class EnumRowRule implements RowRule, ProvidesAlias, ProvidesValidations
   private static final boolean DEFAULT_CASE_SENSITIVITY = true;
 
   private Set validValues;
-  private List<String> fields;
+  private FieldIndexes fields;
   private Class fieldType;
   private boolean caseSensitive;
 
@@ -56,7 +57,7 @@ public class EnumRowRule implements RowRule, ProvidesAlias, ProvidesValidations
       }
       validValues = replacementValues;
     }
-    this.fields = config.getStringList(FIELDS_CONFIG);
+    this.fields = new FieldIndexes(config.getStringList(FIELDS_CONFIG));
   }
 
   @Override
@@ -67,11 +68,11 @@ public class EnumRowRule implements RowRule, ProvidesAlias, ProvidesValidations
   @Override
   public boolean check(Row row) {
     boolean check = true;
-    for (String field : fields) {
+    for (int fieldIndex : fields.forSchema(row.schema())) {
       if (fieldType == String.class && !caseSensitive) {
-        check = check && validValues.contains(row.<String>getAs(field).toLowerCase());
+        check = check && validValues.contains(row.<String>getAs(fieldIndex).toLowerCase());
       } else {
-        check = check && validValues.contains(row.getAs(field));
+        check = check && validValues.contains(row.get(fieldIndex));
       }
     }
     return check;
@@ -17,6 +17,7 @@ package com.cloudera.labs.envelope.derive.dq;
 
 import com.cloudera.labs.envelope.component.ProvidesAlias;
 import com.cloudera.labs.envelope.schema.ConfigurationDataTypes;
+import com.cloudera.labs.envelope.spark.FieldIndexes;
 import com.cloudera.labs.envelope.utils.ConfigUtils;
 import com.cloudera.labs.envelope.utils.RowUtils;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
@@ -43,7 +44,7 @@ public class RangeRowRule implements RowRule, ProvidesAlias, ProvidesValidations
 
   private static final Class<Long> DEFAULT_FIELD_TYPE = Long.class;
 
-  private List<String> fields;
+  private FieldIndexes fields;
   private Comparable<?> lower;
   private Comparable<?> upper;
   private boolean ignoreNulls;
@@ -51,7 +52,7 @@ public class RangeRowRule implements RowRule, ProvidesAlias, ProvidesValidations
 
   @Override
   public void configure(Config config) {
-    fields = config.getStringList(FIELDS_CONFIG);
+    fields = new FieldIndexes(config.getStringList(FIELDS_CONFIG));
     if (config.hasPath(FIELD_TYPE_CONFIG)) {
       fieldType = getFieldType(config.getString(FIELD_TYPE_CONFIG));
     }
@@ -68,8 +69,8 @@ public class RangeRowRule implements RowRule, ProvidesAlias, ProvidesValidations
 
   @Override
   public boolean check(Row row) {
-    for (String field : fields) {
-      Object value = row.getAs(field);
+    for (int fieldIndex : fields.forSchema(row.schema())) {
+      Object value = row.get(fieldIndex);
       if (value != null) {
         if (!(value instanceof Comparable)) {
           throw new RuntimeException("Range checkInternal on non-comparable type");
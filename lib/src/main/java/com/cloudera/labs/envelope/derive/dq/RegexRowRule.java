@@ -16,6 +16,7 @@
 package com.cloudera.labs.envelope.derive.dq;
 
 import com.cloudera.labs.envelope.component.ProvidesAlias;
+import com.cloudera.labs.envelope.spark.FieldIndexes;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
 import com.cloudera.labs.envelope.validate.Validation;
 import com.cloudera.labs.envelope.validate.ValidationResult;
@@ -26,7 +27,6 @@ import com.typesafe.config.Config;
 import com.typesafe.config.ConfigValueType;
 import org.apache.spark.sql.Row;
 
-import java.util.List;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -38,13 +38,13 @@ public class RegexRowRule implements RowRule, ProvidesAlias, ProvidesValidations
   private static final String FIELDS_CONFIG = "fields";
 
   private Pattern pattern;
-  private List<String> fields;
+  private FieldIndexes fields;
 
   @Override
   public void configure(Config config) {
     String regex = config.getString(REGEX_CONFIG);
     pattern = Pattern.compile(regex);
-    fields = config.getStringList(FIELDS_CONFIG);
+    fields = new FieldIndexes(config.getStringList(FIELDS_CONFIG));
   }
 
   @Override
@@ -55,8 +55,8 @@ public class RegexRowRule implements RowRule, ProvidesAlias, ProvidesValidations
   @Override
   public boolean check(Row row) {
     boolean check = true;
-    for (String field : fields) {
-      String value = row.getAs(field);
+    for (int fieldIndex : fields.forSchema(row.schema())) {
+      String value = row.getAs(fieldIndex);
       Matcher matcher = pattern.matcher(value);
       check = check && matcher.matches();
       if (!check) {
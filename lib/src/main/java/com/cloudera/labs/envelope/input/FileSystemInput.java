@@ -16,6 +16,7 @@
 package com.cloudera.labs.envelope.input;
 
 import com.cloudera.labs.envelope.component.CanReturnErroredData;
+import com.cloudera.labs.envelope.component.CanUnpersistData;
 import com.cloudera.labs.envelope.component.ComponentFactory;
 import com.cloudera.labs.envelope.component.InstantiatedComponent;
 import com.cloudera.labs.envelope.component.InstantiatesComponents;
@@ -62,7 +63,7 @@ import java.util.List;
 import java.util.Set;
 
 public class FileSystemInput implements BatchInput, ProvidesAlias, ProvidesValidations,
-    InstantiatesComponents, UsesExpectedSchema, DeclaresProvidingSchema, CanReturnErroredData {
+    InstantiatesComponents, UsesExpectedSchema, DeclaresProvidingSchema, CanReturnErroredData, CanUnpersistData {
 
   private static final Logger LOG = LoggerFactory.getLogger(FileSystemInput.class);
 
@@ -115,6 +116,7 @@ public class FileSystemInput implements BatchInput, ProvidesAlias, ProvidesValid
   }
   
   private Dataset<Row> errors;
+  private TranslationResults translationResults;
   
   @Override
   public void configure(Config config) {
@@ -218,10 +220,9 @@ public class FileSystemInput implements BatchInput, ProvidesAlias, ProvidesValid
 
     if (hasTranslator) {
       TranslateFunction translateFunction = getTranslateFunction(translatorConfig);
-      TranslationResults results = new TranslationResults(
+      TranslationResults results = newTranslationResults(
           lines.javaRDD().flatMap(translateFunction),
-          translateFunction.getProvidingSchema(),
-          getProvidingSchema());
+          translateFunction.getProvidingSchema());
       errors = results.getErrored();
 
       return results.getTranslated();
@@ -240,15 +241,23 @@ public class FileSystemInput implements BatchInput, ProvidesAlias, ProvidesValid
 
     Dataset<Row> encoded = getEncodedRowsFromInputFormat(path, inputFormatClass);
 
-    TranslationResults results = new TranslationResults(
+    TranslationResults results = newTranslationResults(
         encoded.javaRDD().flatMap(translateFunction),
-        translateFunction.getProvidingSchema(),
-        getProvidingSchema());
+        translateFunction.getProvidingSchema());
     errors = results.getErrored();
 
     return results.getTranslated();
   }
 
+  // The translation is persisted until the batch has finished, and the translation of a previous
+  // read, such as of a repeating step, is unpersisted
+  private TranslationResults newTranslationResults(JavaRDD<Row> translation, StructType translatedSchema) {
+    unpersistData();
+    translationResults = new TranslationResults(translation, translatedSchema, getProvidingSchema());
+
+    return translationResults;
+  }
+
   @Override
   public void receiveExpectedSchema(StructType expectedSchema) {
     this.expectedSchema = expectedSchema;
@@ -451,4 +460,12 @@ public class FileSystemInput implements BatchInput, ProvidesAlias, ProvidesValid
     return errors;
   }
 
+  @Override
+  public void unpersistData() {
+    if (translationResults != null) {
+      translationResults.unpersist();
+      translationResults = null;
+    }
+  }
+
 }
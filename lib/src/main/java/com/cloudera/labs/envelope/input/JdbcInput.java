@@ -15,28 +15,69 @@
 
 package com.cloudera.labs.envelope.input;
 
+import com.cloudera.labs.envelope.component.InstantiatedComponent;
+import com.cloudera.labs.envelope.component.InstantiatesComponents;
 import com.cloudera.labs.envelope.component.ProvidesAlias;
+import com.cloudera.labs.envelope.output.RandomOutput;
 import com.cloudera.labs.envelope.spark.Contexts;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
 import com.cloudera.labs.envelope.validate.Validations;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigValueType;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.sql.DataFrameReader;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
-public class JdbcInput implements BatchInput, ProvidesAlias, ProvidesValidations {
+public class JdbcInput implements BatchInput, CanRecordProgress, ProvidesAlias, ProvidesValidations,
+    InstantiatesComponents {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JdbcInput.class);
 
   public static final String JDBC_CONFIG_URL = "url";
   public static final String JDBC_CONFIG_TABLENAME = "tablename";
   public static final String JDBC_CONFIG_USERNAME = "username";
   public static final String JDBC_CONFIG_PASSWORD = "password";
+  public static final String JDBC_CONFIG_PARTITION_COLUMN = "partition.column";
+  public static final String JDBC_CONFIG_LOWER_BOUND = "lower.bound";
+  public static final String JDBC_CONFIG_UPPER_BOUND = "upper.bound";
+  public static final String JDBC_CONFIG_NUM_PARTITIONS = "num.partitions";
+  public static final String JDBC_CONFIG_PREDICATES = "predicates";
+  public static final String JDBC_CONFIG_FETCH_SIZE = "fetchsize";
+  public static final String JDBC_CONFIG_INCREMENTAL_COLUMN = "incremental.column";
+  public static final String JDBC_CONFIG_INCREMENTAL_ID = "incremental.id";
+  public static final String JDBC_CONFIG_WATERMARK_OUTPUT = "incremental.watermark.output";
+  public static final String JDBC_CONFIG_WATERMARK_PATH = "incremental.watermark.path";
 
   private String url;
   private String tableName;
   private String username;
   private String password;
+  private String partitionColumn;
+  private Long lowerBound;
+  private Long upperBound;
+  private int numPartitions;
+  private List<String> predicates;
+  private Integer fetchSize;
+  private String incrementalColumn;
+  private String incrementalID;
+  private Config watermarkOutputConfig;
+  private String watermarkPath;
+  private RandomOutput watermarkOutput;
+  private JdbcWatermarkStore watermarkStore;
+  private String pendingWatermark;
 
   @Override
   public void configure(Config config) {
@@ -44,6 +85,33 @@ public class JdbcInput implements BatchInput, ProvidesAlias, ProvidesValidations
     this.tableName = config.getString(JDBC_CONFIG_TABLENAME);
     this.username = config.getString(JDBC_CONFIG_USERNAME);
     this.password = config.getString(JDBC_CONFIG_PASSWORD);
+
+    if (config.hasPath(JDBC_CONFIG_PARTITION_COLUMN)) {
+      this.partitionColumn = config.getString(JDBC_CONFIG_PARTITION_COLUMN);
+      this.numPartitions = config.getInt(JDBC_CONFIG_NUM_PARTITIONS);
+    }
+    if (config.hasPath(JDBC_CONFIG_LOWER_BOUND)) {
+      this.lowerBound = config.getLong(JDBC_CONFIG_LOWER_BOUND);
+      this.upperBound = config.getLong(JDBC_CONFIG_UPPER_BOUND);
+    }
+    if (config.hasPath(JDBC_CONFIG_PREDICATES)) {
+      this.predicates = config.getStringList(JDBC_CONFIG_PREDICATES);
+    }
+    if (config.hasPath(JDBC_CONFIG_FETCH_SIZE)) {
+      this.fetchSize = config.getInt(JDBC_CONFIG_FETCH_SIZE);
+    }
+    if (config.hasPath(JDBC_CONFIG_INCREMENTAL_COLUMN)) {
+      this.incrementalColumn = config.getString(JDBC_CONFIG_INCREMENTAL_COLUMN);
+      this.incrementalID = config.hasPath(JDBC_CONFIG_INCREMENTAL_ID) ?
+          config.getString(JDBC_CONFIG_INCREMENTAL_ID) : tableName + ":" + incrementalColumn;
+
+      if (config.hasPath(JDBC_CONFIG_WATERMARK_OUTPUT)) {
+        this.watermarkOutputConfig = config.getConfig(JDBC_CONFIG_WATERMARK_OUTPUT);
+      }
+      else {
+        this.watermarkPath = config.getString(JDBC_CONFIG_WATERMARK_PATH);
+      }
+    }
   }
 
   @Override
@@ -51,8 +119,196 @@ public class JdbcInput implements BatchInput, ProvidesAlias, ProvidesValidations
     Properties properties = new Properties();
     properties.put("user", username);
     properties.put("password", password);
+    if (fetchSize != null) {
+      properties.put("fetchsize", fetchSize.toString());
+    }
+
+    DataFrameReader reader = Contexts.getSparkSession().read();
+    String table = incrementalColumn != null ? getIncrement(reader, properties) : tableName;
+
+    if (predicates != null) {
+      // Each predicate is read by its own task
+      return reader.jdbc(url, table,
+          predicates.toArray(new String[predicates.size()]), properties);
+    }
+    else if (partitionColumn != null && lowerBound != null) {
+      return reader.jdbc(url, table, partitionColumn, lowerBound, upperBound, numPartitions,
+          properties);
+    }
+    else if (partitionColumn != null) {
+      return readWithQueriedBounds(reader, table, properties);
+    }
+    else {
+      return reader.jdbc(url, table, properties);
+    }
+  }
+
+  // The rows above the stored watermark, up to the current maximum of the incremental column.
+  // The upper limit keeps rows that are inserted during the read for the next run, so that the
+  // watermark that is stored after the batch is exactly the highest value that was read.
+  private String getIncrement(DataFrameReader reader, Properties properties) throws Exception {
+    String lastWatermark = getWatermarkStore().getWatermark();
+    String lastWatermarkFilter = lastWatermark != null ?
+        String.format("%s > %s", incrementalColumn, lastWatermark) : null;
+
+    String watermarkQuery = String.format("(SELECT MAX(%s) AS high_watermark FROM %s%s) watermark",
+        incrementalColumn, tableName, lastWatermarkFilter != null ? " WHERE " + lastWatermarkFilter : "");
+    Object highWatermark = reader.jdbc(url, watermarkQuery, properties).first().get(0);
+
+    String incrementFilter;
+    if (highWatermark == null) {
+      // There are no new rows
+      incrementFilter = "1 = 0";
+      pendingWatermark = null;
+    }
+    else {
+      pendingWatermark = toLiteral(highWatermark);
+      incrementFilter = String.format("%s <= %s", incrementalColumn, pendingWatermark);
+      if (lastWatermarkFilter != null) {
+        incrementFilter = lastWatermarkFilter + " AND " + incrementFilter;
+      }
+    }
+    LOG.debug("Reading JDBC table {} where {}", tableName, incrementFilter);
+
+    return String.format("(SELECT * FROM %s WHERE %s) incremental_rows", tableName, incrementFilter);
+  }
+
+  /**
+   * The value as a SQL literal. Dates and timestamps are given with the JDBC escape syntax so
+   * that the literal does not depend on the database. Approximate numeric values are rejected,
+   * because their string representation may not compare equal to the stored value, which would
+   * read the same rows again on every run.
+   */
+  static String toLiteral(Object value) {
+    if (value instanceof BigDecimal) {
+      return ((BigDecimal)value).toPlainString();
+    }
+    else if (value instanceof Float || value instanceof Double) {
+      throw new RuntimeException("JDBC input can not read incrementally by approximate numeric " +
+          "columns, such as REAL, FLOAT or DOUBLE, but the incremental column contains " +
+          value.getClass().getName());
+    }
+    else if (value instanceof Number) {
+      return value.toString();
+    }
+    else if (value instanceof Timestamp) {
+      return String.format("{ts '%s'}", value);
+    }
+    else if (value instanceof java.sql.Date) {
+      return String.format("{d '%s'}", value);
+    }
+    else if (value instanceof String) {
+      return "'" + ((String)value).replace("'", "''") + "'";
+    }
+    else {
+      throw new RuntimeException("JDBC input can only read incrementally by numeric, string, date " +
+          "or timestamp columns, but the incremental column contains " + value.getClass().getName());
+    }
+  }
+
+  private JdbcWatermarkStore getWatermarkStore() {
+    if (watermarkStore == null) {
+      if (watermarkOutputConfig != null) {
+        watermarkStore = new JdbcWatermarkStore.OutputWatermarkStore(getWatermarkOutput(), incrementalID);
+      }
+      else {
+        watermarkStore = new JdbcWatermarkStore.FileSystemWatermarkStore(watermarkPath);
+      }
+    }
+
+    return watermarkStore;
+  }
+
+  private RandomOutput getWatermarkOutput() {
+    if (watermarkOutput == null) {
+      watermarkOutput = JdbcWatermarkStore.OutputWatermarkStore.createOutput(watermarkOutputConfig, true);
+    }
+
+    return watermarkOutput;
+  }
+
+  @Override
+  public void recordProgress(JavaRDD<?> batch) throws Exception {
+    if (pendingWatermark != null) {
+      getWatermarkStore().storeWatermark(pendingWatermark);
+      LOG.info("Recorded JDBC watermark {} for {}", pendingWatermark, incrementalID);
+      pendingWatermark = null;
+    }
+  }
+
+  // Partitions the read by the range of the values of the partition column in the table
+  private Dataset<Row> readWithQueriedBounds(DataFrameReader reader, String table,
+                                             Properties properties) {
+    String boundsQuery = String.format(
+        "(SELECT MIN(%s) AS lower_bound, MAX(%s) AS upper_bound FROM %s) bounds",
+        partitionColumn, partitionColumn, table);
+    Row bounds = reader.jdbc(url, boundsQuery, properties).first();
+    Object lower = bounds.get(0);
+    Object upper = bounds.get(1);
+    LOG.debug("Queried bounds of JDBC partition column {}: {} to {}", partitionColumn, lower, upper);
+
+    if (lower == null) {
+      // There are no values to partition by
+      return reader.jdbc(url, table, properties);
+    }
+    else if (lower instanceof Number) {
+      long lowerValue = new BigDecimal(lower.toString()).setScale(0, RoundingMode.FLOOR).longValue();
+      long upperValue = new BigDecimal(upper.toString()).setScale(0, RoundingMode.CEILING).longValue();
+      if (lowerValue == upperValue) {
+        return reader.jdbc(url, table, properties);
+      }
+
+      return reader.jdbc(url, table, partitionColumn, lowerValue, upperValue, numPartitions,
+          properties);
+    }
+    else if (lower instanceof Date) {
+      // Spark only partitions JDBC reads by integral columns, so the ranges are read as predicates
+      List<String> rangePredicates = timestampRangePredicates(partitionColumn,
+          ((Date)lower).getTime(), ((Date)upper).getTime(), numPartitions);
+
+      return reader.jdbc(url, table,
+          rangePredicates.toArray(new String[rangePredicates.size()]), properties);
+    }
+    else {
+      throw new RuntimeException("JDBC input can only partition by numeric, date or timestamp columns, " +
+          "but column " + partitionColumn + " contains " + lower.getClass().getName());
+    }
+  }
 
-    return Contexts.getSparkSession().read().jdbc(url, tableName, properties);
+  /**
+   * Splits the range of timestamps into predicates on the column that together match every row
+   * once, including those where the column is null. The timestamps are given with the JDBC
+   * escape syntax so that the predicates do not depend on the database.
+   */
+  static List<String> timestampRangePredicates(String column, long lowerMillis, long upperMillis,
+                                               int numPartitions) {
+    int numRanges = (int)Math.max(1, Math.min(numPartitions, upperMillis - lowerMillis));
+    long stride = (upperMillis - lowerMillis) / numRanges;
+
+    List<String> rangePredicates = Lists.newArrayList();
+    String previousBound = null;
+    for (int range = 1; range <= numRanges; range++) {
+      String bound = range < numRanges ?
+          String.format("{ts '%s'}", new Timestamp(lowerMillis + range * stride)) : null;
+
+      if (previousBound == null && bound == null) {
+        rangePredicates.add("1 = 1");
+      }
+      else if (previousBound == null) {
+        rangePredicates.add(String.format("%s < %s OR %s IS NULL", column, bound, column));
+      }
+      else if (bound == null) {
+        rangePredicates.add(String.format("%s >= %s", column, previousBound));
+      }
+      else {
+        rangePredicates.add(String.format("%s >= %s AND %s < %s",
+            column, previousBound, column, bound));
+      }
+
+      previousBound = bound;
+    }
+
+    return rangePredicates;
   }
 
   @Override
@@ -68,7 +324,47 @@ public class JdbcInput implements BatchInput, ProvidesAlias, ProvidesValidations
         .mandatoryPath(JDBC_CONFIG_USERNAME, ConfigValueType.STRING)
         .mandatoryPath(JDBC_CONFIG_PASSWORD, ConfigValueType.STRING)
         .allowEmptyValue(JDBC_CONFIG_PASSWORD)
+        .optionalPath(JDBC_CONFIG_PARTITION_COLUMN, ConfigValueType.STRING)
+        .optionalPath(JDBC_CONFIG_LOWER_BOUND, ConfigValueType.NUMBER)
+        .optionalPath(JDBC_CONFIG_UPPER_BOUND, ConfigValueType.NUMBER)
+        .optionalPath(JDBC_CONFIG_NUM_PARTITIONS, ConfigValueType.NUMBER)
+        .optionalPath(JDBC_CONFIG_PREDICATES, ConfigValueType.LIST)
+        .optionalPath(JDBC_CONFIG_FETCH_SIZE, ConfigValueType.NUMBER)
+        .atMostOnePathExists(JDBC_CONFIG_PARTITION_COLUMN, JDBC_CONFIG_PREDICATES)
+        .ifPathExists(JDBC_CONFIG_PARTITION_COLUMN,
+            Validations.single().mandatoryPath(JDBC_CONFIG_NUM_PARTITIONS, ConfigValueType.NUMBER))
+        .ifPathExists(JDBC_CONFIG_LOWER_BOUND,
+            Validations.single().mandatoryPath(JDBC_CONFIG_UPPER_BOUND, ConfigValueType.NUMBER))
+        .ifPathExists(JDBC_CONFIG_UPPER_BOUND,
+            Validations.single().mandatoryPath(JDBC_CONFIG_LOWER_BOUND, ConfigValueType.NUMBER))
+        .ifPathExists(JDBC_CONFIG_LOWER_BOUND,
+            Validations.single().mandatoryPath(JDBC_CONFIG_PARTITION_COLUMN, ConfigValueType.STRING))
+        .optionalPath(JDBC_CONFIG_INCREMENTAL_COLUMN, ConfigValueType.STRING)
+        .optionalPath(JDBC_CONFIG_INCREMENTAL_ID, ConfigValueType.STRING)
+        .optionalPath(JDBC_CONFIG_WATERMARK_OUTPUT, ConfigValueType.OBJECT)
+        .optionalPath(JDBC_CONFIG_WATERMARK_PATH, ConfigValueType.STRING)
+        .ifPathExists(JDBC_CONFIG_INCREMENTAL_COLUMN, Validations.single().exactlyOnePathExists(
+            JDBC_CONFIG_WATERMARK_OUTPUT, JDBC_CONFIG_WATERMARK_PATH))
+        .ifPathExists(JDBC_CONFIG_WATERMARK_OUTPUT,
+            Validations.single().mandatoryPath(JDBC_CONFIG_INCREMENTAL_COLUMN, ConfigValueType.STRING))
+        .ifPathExists(JDBC_CONFIG_WATERMARK_PATH,
+            Validations.single().mandatoryPath(JDBC_CONFIG_INCREMENTAL_COLUMN, ConfigValueType.STRING))
+        .handlesOwnValidationPath(JDBC_CONFIG_WATERMARK_OUTPUT)
         .build();
   }
+
+  @Override
+  public Set<InstantiatedComponent> getComponents(Config config, boolean configure) {
+    Set<InstantiatedComponent> components = Sets.newHashSet();
+
+    if (config.hasPath(JDBC_CONFIG_WATERMARK_OUTPUT)) {
+      Config outputConfig = config.getConfig(JDBC_CONFIG_WATERMARK_OUTPUT);
+      RandomOutput watermarkOutput = configure ? getWatermarkOutput() :
+          JdbcWatermarkStore.OutputWatermarkStore.createOutput(outputConfig, false);
+      components.add(new InstantiatedComponent(watermarkOutput, outputConfig, "Watermark Output"));
+    }
+
+    return components;
+  }
   
 }
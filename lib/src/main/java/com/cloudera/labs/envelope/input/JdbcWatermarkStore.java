@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2015-2019, Cloudera, Inc. All Rights Reserved.
+ *
+ * Cloudera, Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"). You may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * This software is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the
+ * License.
+ */
+
+package com.cloudera.labs.envelope.input;
+
+import com.cloudera.labs.envelope.component.ComponentFactory;
+import com.cloudera.labs.envelope.output.Output;
+import com.cloudera.labs.envelope.output.RandomOutput;
+import com.cloudera.labs.envelope.plan.MutationType;
+import com.cloudera.labs.envelope.spark.Contexts;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
+import com.cloudera.labs.envelope.utils.PlannerUtils;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.typesafe.config.Config;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Stores the high-watermark of an incremental JDBC input between runs, as the SQL literal of the
+ * highest value of the incremental column that has been read.
+ */
+abstract class JdbcWatermarkStore {
+
+  /**
+   * @return the stored watermark, or null if none has been stored yet.
+   */
+  abstract String getWatermark() throws Exception;
+
+  abstract void storeWatermark(String watermark) throws Exception;
+
+  /**
+   * Stores the watermark in an output that supports random upserts, keyed by the ID of the input.
+   */
+  static class OutputWatermarkStore extends JdbcWatermarkStore {
+
+    private static final StructType WATERMARK_SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+        DataTypes.createStructField("input_id", DataTypes.StringType, false),
+        DataTypes.createStructField("watermark", DataTypes.StringType, false)));
+
+    private static final StructType FILTER_SCHEMA = DataTypes.createStructType(Lists.newArrayList(
+        DataTypes.createStructField("input_id", DataTypes.StringType, false)));
+
+    private RandomOutput output;
+    private String inputID;
+
+    OutputWatermarkStore(RandomOutput output, String inputID) {
+      this.output = output;
+      this.inputID = inputID;
+    }
+
+    static RandomOutput createOutput(Config outputConfig, boolean configure) {
+      Output output = ComponentFactory.create(Output.class, outputConfig, configure);
+
+      if (configure && (!(output instanceof RandomOutput) ||
+          !((RandomOutput) output).getSupportedRandomMutationTypes().contains(MutationType.UPSERT))) {
+        throw new RuntimeException("Output used for JDBC watermarks must support random upsert mutations");
+      }
+
+      return (RandomOutput)output;
+    }
+
+    @Override
+    String getWatermark() throws Exception {
+      List<Row> filters = Lists.<Row>newArrayList(new RowWithSchema(FILTER_SCHEMA, inputID));
+      Iterator<Row> existing = output.getExistingForFilters(filters).iterator();
+
+      if (!existing.hasNext()) {
+        return null;
+      }
+
+      Row watermarkRow = existing.next();
+      return watermarkRow.getString(watermarkRow.fieldIndex("watermark"));
+    }
+
+    @Override
+    void storeWatermark(String watermark) throws Exception {
+      Row watermarkRow = new RowWithSchema(WATERMARK_SCHEMA, inputID, watermark);
+      output.applyRandomMutations(
+          Lists.newArrayList(PlannerUtils.setMutationType(watermarkRow, MutationType.UPSERT)));
+    }
+
+  }
+
+  /**
+   * Stores the watermark as the content of a file on a Hadoop filesystem. The file is replaced by
+   * writing the new watermark to a temporary file, moving the file aside as the previous
+   * watermark, and renaming the temporary file. The previous watermark is read if the store was
+   * interrupted before the temporary file was renamed.
+   */
+  static class FileSystemWatermarkStore extends JdbcWatermarkStore {
+
+    private Path path;
+    private Path previousPath;
+
+    FileSystemWatermarkStore(String path) {
+      this.path = new Path(path);
+      this.previousPath = new Path(this.path.getParent(), "." + this.path.getName() + ".previous");
+    }
+
+    @Override
+    String getWatermark() throws Exception {
+      FileSystem fs = getFileSystem();
+
+      Path watermarkPath;
+      if (fs.exists(path)) {
+        watermarkPath = path;
+      }
+      else if (fs.exists(previousPath)) {
+        watermarkPath = previousPath;
+      }
+      else {
+        return null;
+      }
+
+      try (FSDataInputStream in = fs.open(watermarkPath)) {
+        return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+      }
+    }
+
+    @Override
+    void storeWatermark(String watermark) throws Exception {
+      FileSystem fs = getFileSystem();
+      Path temporaryPath = new Path(path.getParent(), "." + path.getName() + ".tmp");
+
+      try (FSDataOutputStream out = fs.create(temporaryPath, true)) {
+        out.write(watermark.getBytes(Charsets.UTF_8));
+      }
+
+      // Without the current file the previous file is the only stored watermark, so it is kept
+      if (fs.exists(path)) {
+        if (fs.exists(previousPath) && !fs.delete(previousPath, false)) {
+          throw new RuntimeException("Could not delete previous JDBC watermark file: " + previousPath);
+        }
+        if (!fs.rename(path, previousPath)) {
+          throw new RuntimeException("Could not replace JDBC watermark file: " + path);
+        }
+      }
+      if (!fs.rename(temporaryPath, path)) {
+        throw new RuntimeException("Could not write JDBC watermark file: " + path);
+      }
+
+      fs.delete(previousPath, false);
+    }
+
+    private FileSystem getFileSystem() throws Exception {
+      return path.getFileSystem(Contexts.getSparkSession().sparkContext().hadoopConfiguration());
+    }
+
+  }
+
+}
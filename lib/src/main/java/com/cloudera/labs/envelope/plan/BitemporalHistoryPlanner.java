@@ -21,6 +21,7 @@ import com.cloudera.labs.envelope.component.InstantiatesComponents;
 import com.cloudera.labs.envelope.component.ProvidesAlias;
 import com.cloudera.labs.envelope.plan.time.LongMillisTimeModel;
 import com.cloudera.labs.envelope.plan.time.TimeModel;
+import com.cloudera.labs.envelope.spark.RowBuilder;
 import com.cloudera.labs.envelope.spark.RowWithSchema;
 import com.cloudera.labs.envelope.utils.ConfigUtils;
 import com.cloudera.labs.envelope.utils.PlannerUtils;
@@ -35,7 +36,6 @@ import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValueType;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.types.DataTypes;
-import org.apache.spark.sql.types.StructField;
 import org.apache.spark.sql.types.StructType;
 
 import java.util.Collections;
@@ -69,6 +69,9 @@ public class BitemporalHistoryPlanner implements RandomPlanner, ProvidesAlias, P
   private TimeModel eventEffectiveToTimeModel;
   private TimeModel systemEffectiveFromTimeModel;
   private TimeModel systemEffectiveToTimeModel;
+  private List<String> valueFieldNames;
+  private StructType arrivingSchema;
+  private RowBuilder arrivingBuilder;
 
   @Override
   public void configure(Config config) {
@@ -79,6 +82,7 @@ public class BitemporalHistoryPlanner implements RandomPlanner, ProvidesAlias, P
     this.eventEffectiveToTimeModel = getEventEffectiveToTimeModel(true);
     this.systemEffectiveFromTimeModel = getSystemEffectiveFromTimeModel(true);
     this.systemEffectiveToTimeModel = getSystemEffectiveToTimeModel(true);
+    this.valueFieldNames = getValueFieldNames();
   }
 
   @Override
@@ -106,14 +110,7 @@ public class BitemporalHistoryPlanner implements RandomPlanner, ProvidesAlias, P
     Collections.sort(arrivingForKey, timestampTimeModel);
 
     for (Row arriving : arrivingForKey) {
-      arriving = eventEffectiveFromTimeModel.appendFields(arriving);
-      arriving = eventEffectiveToTimeModel.appendFields(arriving);
-      arriving = systemEffectiveFromTimeModel.appendFields(arriving);
-      arriving = systemEffectiveToTimeModel.appendFields(arriving);
-      if (hasCurrentFlagField()) {
-        arriving = RowUtils.append(arriving, getCurrentFlagFieldName(), DataTypes.StringType, true, null);
-      }
-      arriving = PlannerUtils.appendMutationTypeField(arriving);
+      arriving = appendPlanningFields(arriving);
 
       // There was no existing record for the key, so we just insert the input record.
       if (plannedForKey.isEmpty()) {
@@ -143,7 +140,7 @@ public class BitemporalHistoryPlanner implements RandomPlanner, ProvidesAlias, P
         // There is an existing record for the same key and timestamp. It is possible that
         // the existing record is in the storage layer or is about to be added during this
         // micro-batch. Either way, we only update that record if it has changed.
-        if (PlannerUtils.simultaneous(timestampTimeModel, arriving, plan) && RowUtils.different(arriving, plan, getValueFieldNames())) {
+        if (PlannerUtils.simultaneous(timestampTimeModel, arriving, plan) && RowUtils.different(arriving, plan, valueFieldNames)) {
           arriving = PlannerUtils.copyTime(plan, eventEffectiveFromTimeModel, arriving, eventEffectiveFromTimeModel);
           arriving = PlannerUtils.copyTime(plan, eventEffectiveToTimeModel, arriving, eventEffectiveToTimeModel);
           arriving = systemEffectiveFromTimeModel.setCurrentSystemTime(arriving);
@@ -244,7 +241,7 @@ public class BitemporalHistoryPlanner implements RandomPlanner, ProvidesAlias, P
         // we insert the input record effective until the far future, and we update the
         // previous existing record to be effective until just prior to the input record.
         else if (PlannerUtils.after(timestampTimeModel, arriving, plan) &&
-                 RowUtils.different(arriving, plan, getValueFieldNames()) &&
+                 RowUtils.different(arriving, plan, valueFieldNames) &&
                  nextPlanned == null)
         {
           arriving = PlannerUtils.copyTime(arriving, timestampTimeModel, arriving, eventEffectiveFromTimeModel);
@@ -307,7 +304,7 @@ public class BitemporalHistoryPlanner implements RandomPlanner, ProvidesAlias, P
         // We carry forward for all mutations in case the next non-NONE row needs the values from this row
         if (position > 0) {
           Row carried = carryForwardWhenNull(plan, plannedForKey.get(position - 1));
-          if (RowUtils.different(plan, carried, getValueFieldNames())) {
+          if (RowUtils.different(plan, carried, valueFieldNames)) {
             // Close existing record and add a new one if not an insert - otherwise just replace
             plan = systemEffectiveToTimeModel.setPrecedingSystemTime(plan);
             if (hasCurrentFlagField()) {
@@ -425,16 +422,47 @@ public class BitemporalHistoryPlanner implements RandomPlanner, ProvidesAlias, P
       return into;
     }
 
-    for (StructField field : into.schema().fields()) {
-      String fieldName = field.name();
-      if (into.getAs(fieldName) == null && from.getAs(fieldName) != null) {
-        into = RowUtils.set(into, fieldName, from.getAs(fieldName));
+    RowBuilder carried = null;
+    String[] fieldNames = into.schema().fieldNames();
+    for (int i = 0; i < fieldNames.length; i++) {
+      if (into.isNullAt(i)) {
+        Object fromValue = from.get(from.fieldIndex(fieldNames[i]));
+        if (fromValue != null) {
+          if (carried == null) {
+            carried = RowBuilder.from(into);
+          }
+          carried.set(i, fromValue);
+        }
       }
     }
 
-    return into;
+    return carried != null ? carried.build() : into;
   }
   
+  // The fields that the planner adds to the arriving records are derived once per arriving schema
+  // by appending them to an empty record, which is then the template for each arriving record
+  private Row appendPlanningFields(Row arriving) {
+    if (arrivingBuilder == null ||
+        (arriving.schema() != arrivingSchema && !arriving.schema().equals(arrivingSchema)))
+    {
+      arrivingSchema = arriving.schema();
+
+      Row template = new RowWithSchema(arrivingSchema, new Object[arrivingSchema.length()]);
+      template = eventEffectiveFromTimeModel.appendFields(template);
+      template = eventEffectiveToTimeModel.appendFields(template);
+      template = systemEffectiveFromTimeModel.appendFields(template);
+      template = systemEffectiveToTimeModel.appendFields(template);
+      if (hasCurrentFlagField()) {
+        template = RowUtils.append(template, getCurrentFlagFieldName(), DataTypes.StringType, true, null);
+      }
+      template = PlannerUtils.appendMutationTypeField(template);
+
+      arrivingBuilder = RowBuilder.from(template);
+    }
+
+    return arrivingBuilder.setAll(arriving).build();
+  }
+
   private void resetCurrentSystemTime() {
     long currentSystemTimeMillis = System.currentTimeMillis();
     
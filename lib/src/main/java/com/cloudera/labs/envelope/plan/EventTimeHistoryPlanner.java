@@ -21,6 +21,8 @@ import com.cloudera.labs.envelope.component.InstantiatesComponents;
 import com.cloudera.labs.envelope.component.ProvidesAlias;
 import com.cloudera.labs.envelope.plan.time.LongMillisTimeModel;
 import com.cloudera.labs.envelope.plan.time.TimeModel;
+import com.cloudera.labs.envelope.spark.RowBuilder;
+import com.cloudera.labs.envelope.spark.RowWithSchema;
 import com.cloudera.labs.envelope.utils.PlannerUtils;
 import com.cloudera.labs.envelope.utils.RowUtils;
 import com.cloudera.labs.envelope.validate.ProvidesValidations;
@@ -32,7 +34,7 @@ import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValueType;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.types.DataTypes;
-import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
 
 import java.util.Collections;
 import java.util.List;
@@ -67,6 +69,9 @@ public class EventTimeHistoryPlanner
   private TimeModel effectiveFromTimeModel;
   private TimeModel effectiveToTimeModel;
   private TimeModel lastUpdatedTimeModel;
+  private List<String> valueFieldNames;
+  private StructType arrivingSchema;
+  private RowBuilder arrivingBuilder;
 
   @Override
   public void configure(Config config) {
@@ -78,6 +83,7 @@ public class EventTimeHistoryPlanner
     if (hasLastUpdatedField()) {
       this.lastUpdatedTimeModel = getLastUpdatedTimeModel(true);
     }
+    this.valueFieldNames = getValueFieldNames();
   }
 
   @Override
@@ -101,15 +107,7 @@ public class EventTimeHistoryPlanner
     Collections.sort(plannedForKey, eventTimeModel);
 
     for (Row arriving : arrivingForKey) {
-      arriving = effectiveFromTimeModel.appendFields(arriving);
-      arriving = effectiveToTimeModel.appendFields(arriving);
-      if (hasCurrentFlagField()) {
-        arriving = RowUtils.append(arriving, getCurrentFlagFieldName(), DataTypes.StringType, true, null);
-      }
-      if (hasLastUpdatedField()) {
-        arriving = lastUpdatedTimeModel.appendFields(arriving);
-      }
-      arriving = PlannerUtils.appendMutationTypeField(arriving);
+      arriving = appendPlanningFields(arriving);
 
       // There was no existing record for the key, so we just insert the input record.
       if (plannedForKey.size() == 0) {
@@ -147,7 +145,7 @@ public class EventTimeHistoryPlanner
         // the existing record is in the storage layer or is about to be added during this
         // micro-batch. Either way, we only update that record if it has changed.
         if (PlannerUtils.simultaneous(eventTimeModel, arriving, plan) &&
-            RowUtils.different(arriving, plan, getValueFieldNames()))
+            RowUtils.different(arriving, plan, valueFieldNames))
         {
           arriving = PlannerUtils.copyTime(plan, effectiveFromTimeModel, arriving, effectiveFromTimeModel);
           arriving = PlannerUtils.copyTime(plan, effectiveToTimeModel, arriving, effectiveToTimeModel);
@@ -229,7 +227,7 @@ public class EventTimeHistoryPlanner
         // we insert the input record effective until the far future, and we update the
         // previous existing record to be effective until just prior to the input record.
         else if (PlannerUtils.after(eventTimeModel, arriving, plan) &&
-                 RowUtils.different(arriving, plan, getValueFieldNames()) &&
+                 RowUtils.different(arriving, plan, valueFieldNames) &&
                  nextPlanned == null)
         {
           arriving = PlannerUtils.copyTime(arriving, eventTimeModel, arriving, effectiveFromTimeModel);
@@ -340,6 +338,31 @@ public class EventTimeHistoryPlanner
     return config.getStringList(TIMESTAMP_FIELD_NAMES_CONFIG_NAME);
   }
 
+  // The fields that the planner adds to the arriving records are derived once per arriving schema
+  // by appending them to an empty record, which is then the template for each arriving record
+  private Row appendPlanningFields(Row arriving) {
+    if (arrivingBuilder == null ||
+        (arriving.schema() != arrivingSchema && !arriving.schema().equals(arrivingSchema)))
+    {
+      arrivingSchema = arriving.schema();
+
+      Row template = new RowWithSchema(arrivingSchema, new Object[arrivingSchema.length()]);
+      template = effectiveFromTimeModel.appendFields(template);
+      template = effectiveToTimeModel.appendFields(template);
+      if (hasCurrentFlagField()) {
+        template = RowUtils.append(template, getCurrentFlagFieldName(), DataTypes.StringType, true, null);
+      }
+      if (hasLastUpdatedField()) {
+        template = lastUpdatedTimeModel.appendFields(template);
+      }
+      template = PlannerUtils.appendMutationTypeField(template);
+
+      arrivingBuilder = RowBuilder.from(template);
+    }
+
+    return arrivingBuilder.setAll(arriving).build();
+  }
+
   // When the arrived record value is null then we have the option to carry forward
   // the value from the previous record. This is useful for handling sparse stream records.
   private Row carryForwardWhenNull(Row into, Row from) {
@@ -347,14 +370,21 @@ public class EventTimeHistoryPlanner
       return into;
     }
 
-    for (StructField field : into.schema().fields()) {
-      String fieldName = field.name();
-      if (into.getAs(fieldName) == null && from.getAs(fieldName) != null) {
-        into = RowUtils.set(into, fieldName, from.getAs(fieldName));
+    RowBuilder carried = null;
+    String[] fieldNames = into.schema().fieldNames();
+    for (int i = 0; i < fieldNames.length; i++) {
+      if (into.isNullAt(i)) {
+        Object fromValue = from.get(from.fieldIndex(fieldNames[i]));
+        if (fromValue != null) {
+          if (carried == null) {
+            carried = RowBuilder.from(into);
+          }
+          carried.set(i, fromValue);
+        }
       }
     }
 
-    return into;
+    return carried != null ? carried.build() : into;
   }
   
   private void resetCurrentSystemTime() {
@@ -30,6 +30,7 @@ import java.util.List;
 public class LongMillisTimeModel implements TimeModel, ProvidesAlias {
 
   private StructField field;
+  private StructType schema;
   private Long current;
 
   @Override
@@ -38,6 +39,7 @@ public class LongMillisTimeModel implements TimeModel, ProvidesAlias {
   @Override
   public void configureFieldNames(List<String> fieldNames) {
     this.field = DataTypes.createStructField(fieldNames.get(0), DataTypes.LongType, true);
+    this.schema = DataTypes.createStructType(Lists.newArrayList(field));
   }
 
   @Override
@@ -71,7 +73,7 @@ public class LongMillisTimeModel implements TimeModel, ProvidesAlias {
 
   @Override
   public StructType getSchema() {
-    return DataTypes.createStructType(Lists.newArrayList(field));
+    return schema;
   }
 
   @Override
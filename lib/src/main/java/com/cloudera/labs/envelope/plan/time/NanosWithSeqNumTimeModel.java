@@ -16,8 +16,9 @@
 package com.cloudera.labs.envelope.plan.time;
 
 import com.cloudera.labs.envelope.component.ProvidesAlias;
+import com.cloudera.labs.envelope.spark.RowBuilder;
 import com.cloudera.labs.envelope.spark.RowWithSchema;
-import com.cloudera.labs.envelope.utils.RowUtils;
+import com.cloudera.labs.envelope.utils.SchemaUtils;
 import com.google.common.collect.Lists;
 import com.typesafe.config.Config;
 import org.apache.spark.sql.Row;
@@ -32,6 +33,7 @@ public class NanosWithSeqNumTimeModel implements TimeModel, ProvidesAlias {
 
   private StructField nanoField;
   private StructField seqNumField;
+  private StructType schema;
   private BigDecimal current;
   
   // 31-DEC-9999 00:00:00.000000000
@@ -45,6 +47,7 @@ public class NanosWithSeqNumTimeModel implements TimeModel, ProvidesAlias {
   public void configureFieldNames(List<String> fieldNames) {
     this.nanoField = DataTypes.createStructField(fieldNames.get(0), DataTypes.createDecimalType(38, 0), true);
     this.seqNumField = DataTypes.createStructField(fieldNames.get(1), DataTypes.IntegerType, true);
+    this.schema = DataTypes.createStructType(Lists.newArrayList(nanoField, seqNumField));
   }
 
   @Override
@@ -69,39 +72,29 @@ public class NanosWithSeqNumTimeModel implements TimeModel, ProvidesAlias {
 
   @Override
   public StructType getSchema() {
-    return DataTypes.createStructType(Lists.newArrayList(nanoField, seqNumField));
+    return schema;
   }
 
   @Override
   public Row setFarFutureTime(Row row) {
-    row = RowUtils.set(row, nanoField.name(), farFuture);
-    row = RowUtils.set(row, seqNumField.name(), firstSeqNum);
-    
-    return row;
+    return setTime(row, farFuture, firstSeqNum);
   }
 
   @Override
   public Row setCurrentSystemTime(Row row) {
-    row = RowUtils.set(row, nanoField.name(), current);
-    row = RowUtils.set(row, seqNumField.name(), firstSeqNum);
-    
-    return row;
+    return setTime(row, current, firstSeqNum);
   }
 
   @Override
   public Row setPrecedingSystemTime(Row row) {
-    row = RowUtils.set(row, nanoField.name(), current.subtract(BigDecimal.ONE));
-    row = RowUtils.set(row, seqNumField.name(), Integer.MAX_VALUE);
-    
-    return row;
+    return setTime(row, current.subtract(BigDecimal.ONE), Integer.MAX_VALUE);
   }
 
   @Override
   public Row appendFields(Row row) {
-    row = RowUtils.append(row, nanoField.name(), nanoField.dataType(), true, null);
-    row = RowUtils.append(row, seqNumField.name(), seqNumField.dataType(), true, null);
-    
-    return row;
+    StructType appendedSchema = SchemaUtils.appendFields(row.schema(), Lists.newArrayList(schema.fields()));
+
+    return new RowBuilder(appendedSchema).setAll(row).build();
   }
 
   @Override
@@ -126,6 +119,13 @@ public class NanosWithSeqNumTimeModel implements TimeModel, ProvidesAlias {
     return new RowWithSchema(getSchema(), timeNanos, timeSeqNum);
   }
   
+  private Row setTime(Row row, BigDecimal nanos, int seqNum) {
+    return RowBuilder.from(row)
+        .set(nanoField.name(), nanos)
+        .set(seqNumField.name(), seqNum)
+        .build();
+  }
+
   @Override
   public String getAlias() {
     return "nanoswithseqnum";
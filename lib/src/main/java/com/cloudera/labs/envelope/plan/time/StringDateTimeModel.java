@@ -40,6 +40,7 @@ public class StringDateTimeModel implements TimeModel, ProvidesAlias, ProvidesVa
   public static final String DATETIME_FORMAT_CONFIG = "format";
 
   private StructField field;
+  private StructType schema;
   private DateFormat format;
   private Date current;
   private Date farFuture = new Date(253402214400000L);
@@ -57,6 +58,7 @@ public class StringDateTimeModel implements TimeModel, ProvidesAlias, ProvidesVa
   @Override
   public void configureFieldNames(List<String> fieldNames) {
     this.field = DataTypes.createStructField(fieldNames.get(0), DataTypes.StringType, true);
+    this.schema = DataTypes.createStructType(Lists.newArrayList(field));
   }
 
   @Override
@@ -80,7 +82,7 @@ public class StringDateTimeModel implements TimeModel, ProvidesAlias, ProvidesVa
 
   @Override
   public StructType getSchema() {
-    return DataTypes.createStructType(Lists.newArrayList(field));
+    return schema;
   }
 
   @Override
@@ -39,6 +39,7 @@ public class StringDatetimeTimeModel implements TimeModel, ProvidesAlias, Provid
   public static final String DATETIME_FORMAT_CONFIG = "format";
   
   private StructField field;
+  private StructType schema;
   private DateFormat format;
   private Date current;
   private Date farFuture;
@@ -58,6 +59,7 @@ public class StringDatetimeTimeModel implements TimeModel, ProvidesAlias, Provid
   @Override
   public void configureFieldNames(List<String> fieldNames) {
     this.field = DataTypes.createStructField(fieldNames.get(0), DataTypes.StringType, true);
+    this.schema = DataTypes.createStructType(Lists.newArrayList(field));
   }
 
   @Override
@@ -81,7 +83,7 @@ public class StringDatetimeTimeModel implements TimeModel, ProvidesAlias, Provid
 
   @Override
   public StructType getSchema() {
-    return DataTypes.createStructType(Lists.newArrayList(field));
+    return schema;
   }
 
   @Override
@@ -31,6 +31,7 @@ import java.util.List;
 public class TimestampTimeModel implements TimeModel, ProvidesAlias {
 
   private StructField field;
+  private StructType schema;
   private Timestamp current;
   private Timestamp farFuture = new Timestamp(253402214400000L);
 
@@ -40,6 +41,7 @@ public class TimestampTimeModel implements TimeModel, ProvidesAlias {
   @Override
   public void configureFieldNames(List<String> fieldNames) {
     this.field = DataTypes.createStructField(fieldNames.get(0), DataTypes.TimestampType, true);
+    this.schema = DataTypes.createStructType(Lists.newArrayList(field));
   }
 
   @Override
@@ -73,7 +75,7 @@ public class TimestampTimeModel implements TimeModel, ProvidesAlias {
 
   @Override
   public StructType getSchema() {
-    return DataTypes.createStructType(Lists.newArrayList(field));
+    return schema;
   }
 
   @Override
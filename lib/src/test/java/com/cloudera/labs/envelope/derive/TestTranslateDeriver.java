@@ -76,6 +76,8 @@ public class TestTranslateDeriver {
     ValidationAssert.assertNoValidationFailures(deriver, config);
     deriver.configure(config);
 
+    int persistedBefore = Contexts.getSparkSession().sparkContext().getPersistentRDDs().size();
+
     List<Row> derivedList = deriver.derive(dependencies).collectAsList();
     assertEquals(1, derivedList.size());
     Row derived = derivedList.get(0);
@@ -86,6 +88,12 @@ public class TestTranslateDeriver {
     assertEquals(1, erroredList.size());
     Row errored = erroredList.get(0);
     assertEquals(bad, errored);
+
+    // The translation is persisted until the batch has finished
+    assertEquals(persistedBefore + 1, Contexts.getSparkSession().sparkContext().getPersistentRDDs().size());
+
+    deriver.unpersistData();
+    assertEquals(persistedBefore, Contexts.getSparkSession().sparkContext().getPersistentRDDs().size());
   }
 
 }
@@ -16,8 +16,10 @@
 package com.cloudera.labs.envelope.input;
 
 import com.cloudera.labs.envelope.utils.ConfigUtils;
+import com.google.common.collect.Lists;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
 import java.util.Properties;
 import mockit.integration.junit4.JMockit;
 import org.apache.spark.SparkContext;
@@ -26,7 +28,9 @@ import org.apache.spark.sql.Row;
 import org.h2.tools.Server;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 
 import java.sql.Connection;
@@ -34,11 +38,17 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.io.File;
+import java.math.BigDecimal;
 import java.util.List;
 
 import static com.cloudera.labs.envelope.validate.ValidationAssert.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Test h2 table user with two columns firstname, lastname and three rows using JdbcInput
@@ -54,6 +64,9 @@ public class TestJdbcInput {
   private static Server server;
   private static Config config;
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @BeforeClass
   public static void beforeClass() throws SQLException, ClassNotFoundException {
     Class.forName("org.h2.Driver");
@@ -65,6 +78,10 @@ public class TestJdbcInput {
     stmt.executeUpdate("insert into user values ('f1','p1')");
     stmt.executeUpdate("insert into user values ('f2','p1')");
     stmt.executeUpdate("insert into user values ('f3','p1')");
+    stmt.executeUpdate("create table if not exists orders (id int, updated timestamp)");
+    for (int id = 1; id <= 10; id++) {
+      stmt.executeUpdate("insert into orders values (" + id + ", '2019-01-" + (10 + id) + " 00:00:00')");
+    }
 
     Properties properties = new Properties();
     properties.setProperty("url", String.format(JDBC_URL, server.getPort()));
@@ -102,6 +119,182 @@ public class TestJdbcInput {
     }
   }
 
+  @Test
+  public void checkJdbcInput_partitionedByBounds() throws Exception {
+    Config partitionedConfig = config
+        .withValue(JdbcInput.JDBC_CONFIG_TABLENAME, ConfigValueFactory.fromAnyRef("orders"))
+        .withValue(JdbcInput.JDBC_CONFIG_PARTITION_COLUMN, ConfigValueFactory.fromAnyRef("id"))
+        .withValue(JdbcInput.JDBC_CONFIG_LOWER_BOUND, ConfigValueFactory.fromAnyRef(1))
+        .withValue(JdbcInput.JDBC_CONFIG_UPPER_BOUND, ConfigValueFactory.fromAnyRef(10))
+        .withValue(JdbcInput.JDBC_CONFIG_NUM_PARTITIONS, ConfigValueFactory.fromAnyRef(3))
+        .withValue(JdbcInput.JDBC_CONFIG_FETCH_SIZE, ConfigValueFactory.fromAnyRef(5));
+    JdbcInput jdbcInput = new JdbcInput();
+    assertNoValidationFailures(jdbcInput, partitionedConfig);
+    jdbcInput.configure(partitionedConfig);
+    Dataset<Row> read = jdbcInput.read();
+    assertEquals(3, read.rdd().getNumPartitions());
+    assertEquals(10, read.count());
+  }
+
+  @Test
+  public void checkJdbcInput_partitionedByQueriedNumericBounds() throws Exception {
+    Config partitionedConfig = config
+        .withValue(JdbcInput.JDBC_CONFIG_TABLENAME, ConfigValueFactory.fromAnyRef("orders"))
+        .withValue(JdbcInput.JDBC_CONFIG_PARTITION_COLUMN, ConfigValueFactory.fromAnyRef("id"))
+        .withValue(JdbcInput.JDBC_CONFIG_NUM_PARTITIONS, ConfigValueFactory.fromAnyRef(3));
+    JdbcInput jdbcInput = new JdbcInput();
+    assertNoValidationFailures(jdbcInput, partitionedConfig);
+    jdbcInput.configure(partitionedConfig);
+    Dataset<Row> read = jdbcInput.read();
+    assertEquals(3, read.rdd().getNumPartitions());
+    assertEquals(10, read.count());
+  }
+
+  @Test
+  public void checkJdbcInput_partitionedByQueriedTimestampBounds() throws Exception {
+    Config partitionedConfig = config
+        .withValue(JdbcInput.JDBC_CONFIG_TABLENAME, ConfigValueFactory.fromAnyRef("orders"))
+        .withValue(JdbcInput.JDBC_CONFIG_PARTITION_COLUMN, ConfigValueFactory.fromAnyRef("updated"))
+        .withValue(JdbcInput.JDBC_CONFIG_NUM_PARTITIONS, ConfigValueFactory.fromAnyRef(3));
+    JdbcInput jdbcInput = new JdbcInput();
+    assertNoValidationFailures(jdbcInput, partitionedConfig);
+    jdbcInput.configure(partitionedConfig);
+    Dataset<Row> read = jdbcInput.read();
+    assertEquals(3, read.rdd().getNumPartitions());
+    assertEquals(10, read.count());
+  }
+
+  @Test
+  public void checkJdbcInput_partitionedByPredicates() throws Exception {
+    Config partitionedConfig = config
+        .withValue(JdbcInput.JDBC_CONFIG_TABLENAME, ConfigValueFactory.fromAnyRef("orders"))
+        .withValue(JdbcInput.JDBC_CONFIG_PREDICATES,
+            ConfigValueFactory.fromIterable(Lists.newArrayList("id <= 5", "id > 5")));
+    JdbcInput jdbcInput = new JdbcInput();
+    assertNoValidationFailures(jdbcInput, partitionedConfig);
+    jdbcInput.configure(partitionedConfig);
+    Dataset<Row> read = jdbcInput.read();
+    assertEquals(2, read.rdd().getNumPartitions());
+    assertEquals(10, read.count());
+  }
+
+  @Test
+  public void checkJdbcInput_partitionColumnRequiresNumPartitions() {
+    Config partitionedConfig = config
+        .withValue(JdbcInput.JDBC_CONFIG_PARTITION_COLUMN, ConfigValueFactory.fromAnyRef("id"));
+    assertValidationFailures(new JdbcInput(), partitionedConfig);
+  }
+
+  @Test
+  public void checkTimestampRangePredicates() {
+    List<String> single = JdbcInput.timestampRangePredicates("updated", 0, 1000, 1);
+    assertEquals(Lists.newArrayList("1 = 1"), single);
+
+    List<String> ranges = JdbcInput.timestampRangePredicates("updated", 0, 3000, 3);
+    assertEquals(3, ranges.size());
+    assertTrue(ranges.get(0).startsWith("updated < {ts '"));
+    assertTrue(ranges.get(0).endsWith("OR updated IS NULL"));
+    assertTrue(ranges.get(1).startsWith("updated >= {ts '"));
+    assertTrue(ranges.get(1).contains("AND updated < {ts '"));
+    assertTrue(ranges.get(2).startsWith("updated >= {ts '"));
+  }
+
+  @Test
+  public void checkJdbcInput_incrementalByWatermark() throws Exception {
+    Connection connection = DriverManager.getConnection("jdbc:h2:tcp://127.0.0.1:" + server.getPort() +
+        "/mem:test;DB_CLOSE_DELAY=-1", "sa", "");
+    Statement stmt = connection.createStatement();
+    stmt.executeUpdate("create table if not exists events (id int, name varchar(30))");
+    for (int id = 1; id <= 5; id++) {
+      stmt.executeUpdate("insert into events values (" + id + ", 'e" + id + "')");
+    }
+
+    String watermarkPath = new File(folder.getRoot(), "watermark").getAbsolutePath();
+    Config incrementalConfig = config
+        .withValue(JdbcInput.JDBC_CONFIG_TABLENAME, ConfigValueFactory.fromAnyRef("events"))
+        .withValue(JdbcInput.JDBC_CONFIG_INCREMENTAL_COLUMN, ConfigValueFactory.fromAnyRef("id"))
+        .withValue(JdbcInput.JDBC_CONFIG_WATERMARK_PATH, ConfigValueFactory.fromAnyRef(watermarkPath))
+        .withValue(JdbcInput.JDBC_CONFIG_PARTITION_COLUMN, ConfigValueFactory.fromAnyRef("id"))
+        .withValue(JdbcInput.JDBC_CONFIG_NUM_PARTITIONS, ConfigValueFactory.fromAnyRef(2));
+
+    JdbcInput firstInput = new JdbcInput();
+    assertNoValidationFailures(firstInput, incrementalConfig);
+    firstInput.configure(incrementalConfig);
+    Dataset<Row> firstRead = firstInput.read();
+    assertEquals(5, firstRead.count());
+    firstInput.recordProgress(firstRead.javaRDD());
+
+    for (int id = 6; id <= 8; id++) {
+      stmt.executeUpdate("insert into events values (" + id + ", 'e" + id + "')");
+    }
+
+    JdbcInput secondInput = new JdbcInput();
+    secondInput.configure(incrementalConfig);
+    Dataset<Row> secondRead = secondInput.read();
+    assertEquals(3, secondRead.count());
+    assertEquals(6, secondRead.orderBy("id").first().getInt(0));
+    secondInput.recordProgress(secondRead.javaRDD());
+
+    JdbcInput thirdInput = new JdbcInput();
+    thirdInput.configure(incrementalConfig);
+    Dataset<Row> thirdRead = thirdInput.read();
+    assertEquals(0, thirdRead.count());
+    thirdInput.recordProgress(thirdRead.javaRDD());
+
+    // A read that is not recorded is read again by the next run
+    stmt.executeUpdate("insert into events values (9, 'e9')");
+    JdbcInput fourthInput = new JdbcInput();
+    fourthInput.configure(incrementalConfig);
+    assertEquals(1, fourthInput.read().count());
+    JdbcInput fifthInput = new JdbcInput();
+    fifthInput.configure(incrementalConfig);
+    assertEquals(1, fifthInput.read().count());
+  }
+
+  @Test
+  public void checkFileSystemWatermarkStore() throws Exception {
+    File watermarkFile = new File(folder.getRoot(), "watermark");
+    File previousFile = new File(folder.getRoot(), ".watermark.previous");
+    JdbcWatermarkStore store = new JdbcWatermarkStore.FileSystemWatermarkStore(watermarkFile.getAbsolutePath());
+
+    assertNull(store.getWatermark());
+
+    store.storeWatermark("5");
+    store.storeWatermark("8");
+    assertEquals("8", store.getWatermark());
+    assertFalse(previousFile.exists());
+
+    // A store that was interrupted after moving the watermark aside falls back to that watermark
+    assertTrue(watermarkFile.renameTo(previousFile));
+    assertEquals("8", store.getWatermark());
+
+    store.storeWatermark("9");
+    assertEquals("9", store.getWatermark());
+    assertFalse(previousFile.exists());
+  }
+
+  @Test
+  public void checkJdbcInput_incrementalRequiresWatermarkStore() {
+    Config incrementalConfig = config
+        .withValue(JdbcInput.JDBC_CONFIG_INCREMENTAL_COLUMN, ConfigValueFactory.fromAnyRef("id"));
+    assertValidationFailures(new JdbcInput(), incrementalConfig);
+  }
+
+  @Test
+  public void checkToLiteral() {
+    assertEquals("10", JdbcInput.toLiteral(10L));
+    assertEquals("100.50", JdbcInput.toLiteral(new BigDecimal("100.50")));
+    assertEquals("'it''s'", JdbcInput.toLiteral("it's"));
+    assertEquals("{ts '2019-01-11 00:00:00.0'}",
+        JdbcInput.toLiteral(Timestamp.valueOf("2019-01-11 00:00:00")));
+    assertEquals("{d '2019-01-11'}", JdbcInput.toLiteral(java.sql.Date.valueOf("2019-01-11")));
+  }
+
+  @Test (expected = RuntimeException.class)
+  public void checkToLiteralApproximateNumeric() {
+    JdbcInput.toLiteral(0.1d);
+  }
+
   @AfterClass
   public static void afterClass() {
     server.stop();